@@ -0,0 +1,96 @@
+package us.ihmc.sparseMatrices.benchmarks;
+
+import java.util.Random;
+
+import org.ejml.data.DenseMatrix64F;
+
+import us.ihmc.sparseMatrices.SparseMatrix;
+
+/**
+ * The sparsity structures the benchmarks are run for. All generated matrices have a dominant diagonal so they can be
+ * inverted.
+ */
+public enum MatrixStructure
+{
+   /**
+    * Only the diagonal, the density is ignored.
+    */
+   DIAGONAL,
+   /**
+    * A band around the diagonal whose width is chosen to match the density.
+    */
+   BANDED,
+   /**
+    * Dense blocks along the diagonal whose size is chosen to match the density.
+    */
+   BLOCK,
+   /**
+    * Uniformly distributed entries.
+    */
+   RANDOM;
+
+   /**
+    * Fills the sparse matrix and the dense reference with the same square matrix of this structure.
+    */
+   public void fill(int size, double density, Random random, SparseMatrix sparse, DenseMatrix64F dense)
+   {
+      sparse.resize(size, size);
+      sparse.clear();
+      dense.reshape(size, size);
+      dense.zero();
+
+      switch (this)
+      {
+      case DIAGONAL:
+         break;
+      case BANDED:
+         int halfBandwidth = (int) Math.max(1, density * size / 2.0);
+         for (int row = 0; row < size; row++)
+         {
+            for (int column = Math.max(0, row - halfBandwidth); column <= Math.min(size - 1, row + halfBandwidth); column++)
+            {
+               dense.set(row, column, random.nextDouble() - 0.5);
+            }
+         }
+         break;
+      case BLOCK:
+         int blockSize = (int) Math.max(1, density * size);
+         for (int row = 0; row < size; row++)
+         {
+            int blockStart = row - row % blockSize;
+            for (int column = blockStart; column < Math.min(size, blockStart + blockSize); column++)
+            {
+               dense.set(row, column, random.nextDouble() - 0.5);
+            }
+         }
+         break;
+      case RANDOM:
+         long entries = (long) (density * size * size);
+         for (long i = 0; i < entries; i++)
+         {
+            dense.set(random.nextInt(size), random.nextInt(size), random.nextDouble() - 0.5);
+         }
+         break;
+      default:
+         throw new RuntimeException("Unknown structure " + this + ".");
+      }
+
+      for (int row = 0; row < size; row++)
+      {
+         double rowSum = 0.0;
+         for (int column = 0; column < size; column++)
+         {
+            rowSum += Math.abs(dense.get(row, column));
+         }
+         dense.set(row, row, rowSum + 1.0);
+      }
+
+      for (int row = 0; row < size; row++)
+      {
+         for (int column = 0; column < size; column++)
+         {
+            sparse.set(row, column, dense.get(row, column));
+         }
+      }
+   }
+}
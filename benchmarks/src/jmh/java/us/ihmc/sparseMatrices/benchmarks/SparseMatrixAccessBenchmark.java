@@ -0,0 +1,121 @@
+package us.ihmc.sparseMatrices.benchmarks;
+
+import java.util.Random;
+
+import org.ejml.data.DenseMatrix64F;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import us.ihmc.sparseMatrices.SparseMatrix;
+
+/**
+ * Measures element access: writing, accumulating and reading all entries of a matrix once. The dense benchmarks write
+ * the same entries into an EJML matrix as baseline.
+ */
+@State(Scope.Thread)
+public class SparseMatrixAccessBenchmark
+{
+   @Param({"10", "100", "1000"})
+   public int size;
+
+   @Param({"0.01", "0.1"})
+   public double density;
+
+   @Param({"DIAGONAL", "BANDED", "BLOCK", "RANDOM"})
+   public MatrixStructure structure;
+
+   private int[] rows;
+   private int[] columns;
+   private double[] values;
+
+   private final SparseMatrix sparse = new SparseMatrix();
+   private final DenseMatrix64F dense = new DenseMatrix64F(0, 0);
+
+   @Setup
+   public void setup()
+   {
+      Random random = new Random(492911L);
+      structure.fill(size, density, random, sparse, dense);
+
+      int entries = 0;
+      for (int i = 0; i < dense.getNumElements(); i++)
+      {
+         if (dense.data[i] != 0.0)
+         {
+            entries++;
+         }
+      }
+
+      rows = new int[entries];
+      columns = new int[entries];
+      values = new double[entries];
+      int entry = 0;
+      for (int row = 0; row < size; row++)
+      {
+         for (int column = 0; column < size; column++)
+         {
+            if (dense.get(row, column) != 0.0)
+            {
+               rows[entry] = row;
+               columns[entry] = column;
+               values[entry] = dense.get(row, column);
+               entry++;
+            }
+         }
+      }
+   }
+
+   @Benchmark
+   public SparseMatrix set()
+   {
+      sparse.clear();
+      for (int i = 0; i < values.length; i++)
+      {
+         sparse.set(rows[i], columns[i], values[i]);
+      }
+      return sparse;
+   }
+
+   @Benchmark
+   public SparseMatrix add()
+   {
+      for (int i = 0; i < values.length; i++)
+      {
+         sparse.add(rows[i], columns[i], values[i]);
+      }
+      return sparse;
+   }
+
+   @Benchmark
+   public void get(Blackhole blackhole)
+   {
+      for (int i = 0; i < values.length; i++)
+      {
+         blackhole.consume(sparse.get(rows[i], columns[i]));
+      }
+   }
+
+   @Benchmark
+   public DenseMatrix64F denseSet()
+   {
+      dense.zero();
+      for (int i = 0; i < values.length; i++)
+      {
+         dense.set(rows[i], columns[i], values[i]);
+      }
+      return dense;
+   }
+
+   @Benchmark
+   public void denseGet(Blackhole blackhole)
+   {
+      for (int i = 0; i < values.length; i++)
+      {
+         blackhole.consume(dense.get(rows[i], columns[i]));
+      }
+   }
+}
@@ -0,0 +1,82 @@
+package us.ihmc.sparseMatrices.benchmarks;
+
+import java.util.Random;
+
+import org.ejml.data.DenseMatrix64F;
+import org.ejml.factory.LinearSolverFactory;
+import org.ejml.interfaces.linsol.LinearSolver;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import us.ihmc.sparseMatrices.SparseLUSolver;
+import us.ihmc.sparseMatrices.SparseMatrix;
+import us.ihmc.sparseMatrices.SparseMatrixInverter;
+
+/**
+ * Measures inverting a matrix and factoring it with the sparse LU solver against inverting it with the dense EJML
+ * LU solver.
+ */
+@State(Scope.Thread)
+public class SparseMatrixInversionBenchmark
+{
+   @Param({"10", "50", "200"})
+   public int size;
+
+   @Param({"0.01", "0.1"})
+   public double density;
+
+   @Param({"DIAGONAL", "BANDED", "BLOCK", "RANDOM"})
+   public MatrixStructure structure;
+
+   private final SparseMatrix sparse = new SparseMatrix();
+   private final SparseMatrix sparseInverse = new SparseMatrix();
+   private final SparseMatrixInverter inverter = new SparseMatrixInverter();
+   private final SparseLUSolver luSolver = new SparseLUSolver();
+
+   private final DenseMatrix64F dense = new DenseMatrix64F(0, 0);
+   private final DenseMatrix64F denseInverse = new DenseMatrix64F(0, 0);
+   private LinearSolver<DenseMatrix64F> denseSolver;
+
+   @Setup
+   public void setup()
+   {
+      Random random = new Random(492911L);
+      structure.fill(size, density, random, sparse, dense);
+      denseInverse.reshape(size, size);
+      denseSolver = LinearSolverFactory.linear(size);
+   }
+
+   @Benchmark
+   public SparseMatrix invert()
+   {
+      if (!inverter.invert(sparse, sparseInverse))
+      {
+         throw new RuntimeException("Inversion failed.");
+      }
+      return sparseInverse;
+   }
+
+   @Benchmark
+   public SparseLUSolver factor()
+   {
+      if (!luSolver.factor(sparse))
+      {
+         throw new RuntimeException("Factorization failed.");
+      }
+      return luSolver;
+   }
+
+   @Benchmark
+   public DenseMatrix64F denseInvert()
+   {
+      if (!denseSolver.setA(dense))
+      {
+         throw new RuntimeException("Inversion failed.");
+      }
+      denseSolver.invert(denseInverse);
+      return denseInverse;
+   }
+}
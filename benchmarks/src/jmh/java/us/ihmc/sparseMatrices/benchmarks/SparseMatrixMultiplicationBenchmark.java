@@ -0,0 +1,116 @@
+package us.ihmc.sparseMatrices.benchmarks;
+
+import java.util.Random;
+
+import org.ejml.data.DenseMatrix64F;
+import org.ejml.ops.CommonOps;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import us.ihmc.sparseMatrices.SparseMatrix;
+import us.ihmc.sparseMatrices.SparseMatrixCSR;
+
+/**
+ * Measures matrix products and copies of two matrices with the same structure against the dense EJML baseline.
+ */
+@State(Scope.Thread)
+public class SparseMatrixMultiplicationBenchmark
+{
+   @Param({"10", "100", "1000"})
+   public int size;
+
+   @Param({"0.01", "0.1"})
+   public double density;
+
+   @Param({"DIAGONAL", "BANDED", "BLOCK", "RANDOM"})
+   public MatrixStructure structure;
+
+   private final SparseMatrix sparseA = new SparseMatrix();
+   private final SparseMatrix sparseB = new SparseMatrix();
+   private final SparseMatrix sparseResult = new SparseMatrix();
+   private SparseMatrixCSR compressedA;
+   private SparseMatrixCSR compressedB;
+
+   private final DenseMatrix64F denseA = new DenseMatrix64F(0, 0);
+   private final DenseMatrix64F denseB = new DenseMatrix64F(0, 0);
+   private final DenseMatrix64F denseResult = new DenseMatrix64F(0, 0);
+
+   private double[] x;
+   private double[] y;
+
+   @Setup
+   public void setup()
+   {
+      Random random = new Random(492911L);
+      structure.fill(size, density, random, sparseA, denseA);
+      structure.fill(size, density, random, sparseB, denseB);
+      compressedA = new SparseMatrixCSR(sparseA);
+      compressedB = new SparseMatrixCSR(sparseB);
+      denseResult.reshape(size, size);
+
+      x = new double[size];
+      y = new double[size];
+      for (int i = 0; i < size; i++)
+      {
+         x[i] = random.nextDouble() - 0.5;
+      }
+   }
+
+   @Benchmark
+   public SparseMatrix mult()
+   {
+      sparseResult.mult(sparseA, sparseB);
+      return sparseResult;
+   }
+
+   @Benchmark
+   public SparseMatrix multParallel()
+   {
+      sparseResult.multParallel(sparseA, sparseB);
+      return sparseResult;
+   }
+
+   @Benchmark
+   public SparseMatrixCSR multCompressed()
+   {
+      return compressedA.mult(compressedB);
+   }
+
+   @Benchmark
+   public double[] multVector()
+   {
+      sparseA.mult(x, y);
+      return y;
+   }
+
+   @Benchmark
+   public double[] multVectorCompressed()
+   {
+      compressedA.mult(x, y);
+      return y;
+   }
+
+   @Benchmark
+   public SparseMatrix copy()
+   {
+      sparseResult.set(sparseA);
+      return sparseResult;
+   }
+
+   @Benchmark
+   public DenseMatrix64F denseMult()
+   {
+      CommonOps.mult(denseA, denseB, denseResult);
+      return denseResult;
+   }
+
+   @Benchmark
+   public DenseMatrix64F denseCopy()
+   {
+      denseResult.set(denseA);
+      return denseResult;
+   }
+}
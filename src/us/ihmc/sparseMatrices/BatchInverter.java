@@ -0,0 +1,154 @@
+package us.ihmc.sparseMatrices;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Inverts or solves many small independent systems in one call. The systems are split into a few contiguous chunks
+ * per worker thread and every thread reuses its own inverter and solver for all systems it processes, so neither the
+ * dispatch nor the workspace setup is paid per system. Batches that are too small to be worth distributing are
+ * processed on the calling thread.
+ * <p>
+ * If the systems share a sparsity pattern, see {@link #setSharedPattern(boolean)}, each thread computes the symbolic
+ * factorization once and only recomputes the numeric values for every further system, also across calls.
+ */
+public class BatchInverter
+{
+   private static final int defaultMinimumParallelBatchSize = 16;
+
+   private final ExecutorService executor;
+   private final ThreadLocal<BatchWorkspace> workspaces = ThreadLocal.withInitial(BatchWorkspace::new);
+
+   private boolean sharedPattern = false;
+   private int minimumParallelBatchSize = defaultMinimumParallelBatchSize;
+
+   public BatchInverter()
+   {
+      this(ForkJoinPool.commonPool());
+   }
+
+   public BatchInverter(ExecutorService executor)
+   {
+      this.executor = executor;
+   }
+
+   /**
+    * Enables reusing the pattern of the factorization between systems. Systems with a different pattern are still
+    * handled correctly but cost a full factorization, so only enable this if most systems share their pattern.
+    */
+   public void setSharedPattern(boolean sharedPattern)
+   {
+      this.sharedPattern = sharedPattern;
+   }
+
+   /**
+    * Batches with fewer systems are processed on the calling thread.
+    */
+   public void setMinimumParallelBatchSize(int minimumParallelBatchSize)
+   {
+      this.minimumParallelBatchSize = minimumParallelBatchSize;
+   }
+
+   /**
+    * Inverts every matrix of the batch. Neither the matrices nor the inverses may be modified or shared between items
+    * while the batch is processed.
+    *
+    * @param successesToPack set to whether the matrix with the same index could be inverted.
+    * @return the number of matrices that could be inverted.
+    */
+   public int invert(List<SparseMatrix> matrices, List<SparseMatrix> inversesToPack, boolean[] successesToPack)
+   {
+      int items = matrices.size();
+      if (inversesToPack.size() != items || successesToPack.length < items)
+      {
+         throw new RuntimeException("Unexpected batch size.");
+      }
+
+      return process(items, successesToPack, (workspace, item) ->
+      {
+         SparseMatrix matrix = matrices.get(item);
+         SparseMatrix inverse = inversesToPack.get(item);
+         return sharedPattern ? workspace.inverter.reinvert(matrix, inverse) : workspace.inverter.invert(matrix, inverse);
+      });
+   }
+
+   /**
+    * Solves A * x = b for every matrix A of the batch. Neither the matrices nor the vectors may be modified or shared
+    * between items while the batch is processed.
+    *
+    * @param successesToPack set to whether the system with the same index could be solved. If not the content of the
+    *           corresponding solution is undefined.
+    * @return the number of systems that could be solved.
+    */
+   public int solve(List<SparseMatrix> matrices, List<double[]> b, List<double[]> x, boolean[] successesToPack)
+   {
+      int items = matrices.size();
+      if (b.size() != items || x.size() != items || successesToPack.length < items)
+      {
+         throw new RuntimeException("Unexpected batch size.");
+      }
+
+      return process(items, successesToPack, (workspace, item) ->
+      {
+         SparseMatrix matrix = matrices.get(item);
+         SparseLUSolver solver = workspace.solver;
+         boolean factored = sharedPattern && workspace.solverFactored && solver.refactor(matrix);
+         if (!factored)
+         {
+            factored = solver.factor(matrix);
+         }
+         workspace.solverFactored = factored;
+         if (factored)
+         {
+            solver.solve(b.get(item), x.get(item));
+         }
+         return factored;
+      });
+   }
+
+   private int process(int items, boolean[] successesToPack, BatchOperation operation)
+   {
+      ParallelChunks.RangeTask chunk = (start, end) ->
+      {
+         BatchWorkspace workspace = workspaces.get();
+         for (int item = start; item < end; item++)
+         {
+            successesToPack[item] = operation.process(workspace, item);
+         }
+      };
+      if (items < minimumParallelBatchSize)
+      {
+         chunk.run(0, items);
+      }
+      else
+      {
+         ParallelChunks.run(items, executor, chunk);
+      }
+
+      int successes = 0;
+      for (int item = 0; item < items; item++)
+      {
+         if (successesToPack[item])
+         {
+            successes++;
+         }
+      }
+      return successes;
+   }
+
+   private interface BatchOperation
+   {
+      public boolean process(BatchWorkspace workspace, int item);
+   }
+
+   /**
+    * Per thread storage such that all systems processed on the same thread reuse the same inverter and solver.
+    */
+   private static class BatchWorkspace
+   {
+      private final SparseMatrixInverter inverter = new SparseMatrixInverter();
+      private final SparseLUSolver solver = new SparseLUSolver();
+      private boolean solverFactored = false;
+   }
+}
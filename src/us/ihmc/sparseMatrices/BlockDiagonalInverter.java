@@ -0,0 +1,404 @@
+package us.ihmc.sparseMatrices;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import org.ejml.alg.dense.decomposition.lu.LUDecompositionAlt_D64;
+import org.ejml.alg.dense.linsol.lu.LinearSolverLu_D64;
+import org.ejml.data.DenseMatrix64F;
+
+/**
+ * Inverts matrices that decompose into independent blocks. The connected components of the bipartite row/column
+ * graph of the matrix are found first. Each component is a block of the matrix after permuting rows and columns
+ * into block diagonal form, so every block can be inverted on its own. The blocks are inverted in parallel, small
+ * and dense blocks using the dense EJML solver and all other blocks using a {@link SparseMatrixInverter}.
+ */
+public class BlockDiagonalInverter
+{
+   private static final int defaultMaximumDenseBlockSize = 100;
+   private static final double defaultMinimumDenseBlockDensity = 0.1;
+
+   private final ExecutorService executor;
+   private final ThreadLocal<BlockWorkspace> workspaces = ThreadLocal.withInitial(BlockWorkspace::new);
+   private final SparseMatrixInverter inverter = new SparseMatrixInverter();
+
+   private int maximumDenseBlockSize = defaultMaximumDenseBlockSize;
+   private double minimumDenseBlockDensity = defaultMinimumDenseBlockDensity;
+
+   private int numberOfBlocks = 0;
+   /**
+    * Counts the calls to {@link #invert(SparseMatrix, SparseMatrix)} such that the workspaces know when the inverses
+    * of the blocks of the previous call were packed and their storage can be reused.
+    */
+   private int call = 0;
+
+   public BlockDiagonalInverter()
+   {
+      this(ForkJoinPool.commonPool());
+   }
+
+   public BlockDiagonalInverter(ExecutorService executor)
+   {
+      this.executor = executor;
+   }
+
+   /**
+    * Blocks up to this size with at least the minimum density are inverted using a dense solver.
+    */
+   public void setMaximumDenseBlockSize(int maximumDenseBlockSize)
+   {
+      this.maximumDenseBlockSize = maximumDenseBlockSize;
+   }
+
+   /**
+    * Blocks with at least this fraction of non-zero entries and at most the maximum size are inverted using a dense
+    * solver.
+    */
+   public void setMinimumDenseBlockDensity(double minimumDenseBlockDensity)
+   {
+      this.minimumDenseBlockDensity = minimumDenseBlockDensity;
+   }
+
+   /**
+    * @return the number of independent blocks found in the last inverted matrix.
+    */
+   public int getNumberOfBlocks()
+   {
+      return numberOfBlocks;
+   }
+
+   public boolean invert(SparseMatrix matrix, SparseMatrix inverseToPack)
+   {
+      int n = matrix.getRows();
+      if (n != matrix.getColumns())
+      {
+         throw new RuntimeException("Can only invert square matrices.");
+      }
+
+      call++;
+      SparseMatrixCSR compressed = new SparseMatrixCSR(matrix);
+      List<Block> blocks = findBlocks(compressed);
+      if (blocks == null)
+      {
+         numberOfBlocks = 0;
+         return false;
+      }
+
+      numberOfBlocks = blocks.size();
+
+      if (blocks.size() == 1)
+      {
+         return inverter.invert(matrix, inverseToPack);
+      }
+
+      List<Future<?>> futures = new ArrayList<>(blocks.size());
+      for (int i = 0; i < blocks.size(); i++)
+      {
+         futures.add(executor.submit(blocks.get(i)));
+      }
+
+      ParallelChunks.waitForAll(futures);
+
+      inverseToPack.resize(n, n);
+      inverseToPack.clear();
+      for (int i = 0; i < blocks.size(); i++)
+      {
+         if (!blocks.get(i).success)
+         {
+            return false;
+         }
+         blocks.get(i).packInverse(inverseToPack);
+      }
+      return true;
+   }
+
+   /**
+    * Finds the connected components of the graph that has a node for every row and every column and an edge for every
+    * entry of the matrix.
+    *
+    * @return the blocks of the matrix or null if a block is not square which means the matrix is singular.
+    */
+   private List<Block> findBlocks(SparseMatrixCSR matrix)
+   {
+      int n = matrix.getRows();
+
+      // Nodes 0 to n - 1 are rows, nodes n to 2n - 1 are columns.
+      int[] parent = new int[2 * n];
+      for (int node = 0; node < 2 * n; node++)
+      {
+         parent[node] = node;
+      }
+      for (int rowIdx = 0; rowIdx < n; rowIdx++)
+      {
+         for (int i = matrix.getRowStart(rowIdx); i < matrix.getRowEnd(rowIdx); i++)
+         {
+            union(parent, rowIdx, n + matrix.getColumnIndex(i));
+         }
+      }
+
+      int[] blockIndex = new int[2 * n];
+      int[] blockRows = new int[2 * n];
+      int[] blockColumns = new int[2 * n];
+      int blockCount = 0;
+      for (int node = 0; node < 2 * n; node++)
+      {
+         int root = find(parent, node);
+         if (root == node)
+         {
+            blockIndex[root] = blockCount++;
+         }
+      }
+      for (int node = 0; node < 2 * n; node++)
+      {
+         int block = blockIndex[find(parent, node)];
+         if (node < n)
+         {
+            blockRows[block]++;
+         }
+         else
+         {
+            blockColumns[block]++;
+         }
+      }
+
+      List<Block> blocks = new ArrayList<>(blockCount);
+      for (int block = 0; block < blockCount; block++)
+      {
+         if (blockRows[block] != blockColumns[block])
+         {
+            return null;
+         }
+         blocks.add(new Block(matrix, blockRows[block]));
+      }
+      for (int node = 0; node < 2 * n; node++)
+      {
+         Block block = blocks.get(blockIndex[find(parent, node)]);
+         if (node < n)
+         {
+            block.addRow(node);
+         }
+         else
+         {
+            block.addColumn(node - n);
+         }
+      }
+      return blocks;
+   }
+
+   private static int find(int[] parent, int node)
+   {
+      while (parent[node] != node)
+      {
+         parent[node] = parent[parent[node]];
+         node = parent[node];
+      }
+      return node;
+   }
+
+   private static void union(int[] parent, int nodeA, int nodeB)
+   {
+      int rootA = find(parent, nodeA);
+      int rootB = find(parent, nodeB);
+      if (rootA != rootB)
+      {
+         parent[Math.max(rootA, rootB)] = Math.min(rootA, rootB);
+      }
+   }
+
+   /**
+    * Per thread storage such that blocks inverted on the same thread reuse the solvers. The inverses of the blocks are
+    * kept until they were packed into the inverse of the matrix, their storage is reused by the next call.
+    */
+   private static class BlockWorkspace
+   {
+      private final SparseMatrixInverter inverter = new SparseMatrixInverter();
+      private final LUDecompositionAlt_D64 denseDecomposition = new LUDecompositionAlt_D64();
+      private final LinearSolverLu_D64 denseSolver = new LinearSolverLu_D64(denseDecomposition);
+      private final SparseMatrix blockMatrix = new SparseMatrix();
+      private final DenseMatrix64F denseBlockMatrix = new DenseMatrix64F(0, 0);
+      private int[] localColumnIndex = new int[0];
+
+      private final List<DenseMatrix64F> denseInverses = new ArrayList<>();
+      private final List<SparseMatrix> sparseInverses = new ArrayList<>();
+      private int usedDenseInverses = 0;
+      private int usedSparseInverses = 0;
+      private int call = -1;
+
+      public void startBlock(int call)
+      {
+         if (this.call != call)
+         {
+            this.call = call;
+            usedDenseInverses = 0;
+            usedSparseInverses = 0;
+         }
+      }
+
+      public DenseMatrix64F nextDenseInverse(int size)
+      {
+         if (usedDenseInverses == denseInverses.size())
+         {
+            denseInverses.add(new DenseMatrix64F(size, size));
+         }
+         DenseMatrix64F inverse = denseInverses.get(usedDenseInverses++);
+         inverse.reshape(size, size);
+         return inverse;
+      }
+
+      public SparseMatrix nextSparseInverse()
+      {
+         if (usedSparseInverses == sparseInverses.size())
+         {
+            sparseInverses.add(new SparseMatrix());
+         }
+         return sparseInverses.get(usedSparseInverses++);
+      }
+
+      /**
+       * The dense LU does not report singular matrices. Reject the same pivots as the sparse elimination instead, so
+       * whether a block can be inverted does not depend on its density.
+       */
+      public boolean hasUsablePivots(int size)
+      {
+         DenseMatrix64F lu = denseDecomposition.getLU();
+         for (int i = 0; i < size; i++)
+         {
+            if (SparseMatrixInverter.closeToZero(lu.get(i, i)) || Double.isNaN(lu.get(i, i)))
+            {
+               return false;
+            }
+         }
+         return true;
+      }
+   }
+
+   private class Block implements Runnable
+   {
+      private final SparseMatrixCSR matrix;
+      private final int[] rows;
+      private final int[] columns;
+      private final int call;
+      private int addedRows = 0;
+      private int addedColumns = 0;
+
+      private boolean success = false;
+      private DenseMatrix64F denseInverse;
+      private SparseMatrix sparseInverse;
+
+      public Block(SparseMatrixCSR matrix, int size)
+      {
+         this.matrix = matrix;
+         call = BlockDiagonalInverter.this.call;
+         rows = new int[size];
+         columns = new int[size];
+      }
+
+      public void addRow(int rowIdx)
+      {
+         rows[addedRows++] = rowIdx;
+      }
+
+      public void addColumn(int colIdx)
+      {
+         columns[addedColumns++] = colIdx;
+      }
+
+      @Override
+      public void run()
+      {
+         BlockWorkspace workspace = workspaces.get();
+         workspace.startBlock(call);
+         int size = rows.length;
+
+         if (workspace.localColumnIndex.length < matrix.getColumns())
+         {
+            workspace.localColumnIndex = new int[matrix.getColumns()];
+         }
+         int[] localColumnIndex = workspace.localColumnIndex;
+         for (int i = 0; i < size; i++)
+         {
+            localColumnIndex[columns[i]] = i;
+         }
+
+         int nonZeros = 0;
+         for (int i = 0; i < size; i++)
+         {
+            nonZeros += matrix.getRowEnd(rows[i]) - matrix.getRowStart(rows[i]);
+         }
+
+         if (size <= maximumDenseBlockSize && nonZeros >= minimumDenseBlockDensity * size * size)
+         {
+            DenseMatrix64F block = workspace.denseBlockMatrix;
+            block.reshape(size, size);
+            block.zero();
+            for (int i = 0; i < size; i++)
+            {
+               for (int j = matrix.getRowStart(rows[i]); j < matrix.getRowEnd(rows[i]); j++)
+               {
+                  block.set(i, localColumnIndex[matrix.getColumnIndex(j)], matrix.getValue(j));
+               }
+            }
+
+            if (!workspace.denseSolver.setA(block) || !workspace.hasUsablePivots(size))
+            {
+               return;
+            }
+            denseInverse = workspace.nextDenseInverse(size);
+            workspace.denseSolver.invert(denseInverse);
+         }
+         else
+         {
+            SparseMatrix block = workspace.blockMatrix;
+            block.resize(size, size);
+            block.clear();
+            for (int i = 0; i < size; i++)
+            {
+               for (int j = matrix.getRowStart(rows[i]); j < matrix.getRowEnd(rows[i]); j++)
+               {
+                  block.set(i, localColumnIndex[matrix.getColumnIndex(j)], matrix.getValue(j));
+               }
+            }
+
+            sparseInverse = workspace.nextSparseInverse();
+            if (!workspace.inverter.invert(block, sparseInverse))
+            {
+               return;
+            }
+         }
+
+         success = true;
+      }
+
+      /**
+       * The block maps the block columns to the block rows so its inverse maps the rows to the columns.
+       */
+      public void packInverse(SparseMatrix inverseToPack)
+      {
+         int size = rows.length;
+         if (denseInverse != null)
+         {
+            for (int i = 0; i < size; i++)
+            {
+               for (int j = 0; j < size; j++)
+               {
+                  inverseToPack.set(columns[i], rows[j], denseInverse.get(i, j));
+               }
+            }
+         }
+         else
+         {
+            SparseMatrixCSR compressedInverse = new SparseMatrixCSR(sparseInverse);
+            for (int i = 0; i < size; i++)
+            {
+               for (int j = compressedInverse.getRowStart(i); j < compressedInverse.getRowEnd(i); j++)
+               {
+                  inverseToPack.set(columns[i], rows[compressedInverse.getColumnIndex(j)], compressedInverse.getValue(j));
+               }
+            }
+         }
+      }
+   }
+}
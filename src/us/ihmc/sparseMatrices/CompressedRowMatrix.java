@@ -0,0 +1,156 @@
+package us.ihmc.sparseMatrices;
+
+/**
+ * Read access to a sparse matrix in compressed row storage. The entries of row i have the indices getRowStart(i) to
+ * getRowEnd(i) - 1 and are sorted by column index within each row.
+ * <p>
+ * Implemented by the heap based {@link SparseMatrixCSR} and the off-heap {@link OffHeapSparseMatrixCSR} such that
+ * products, triangular solves and the iterative solvers work on either storage.
+ */
+public interface CompressedRowMatrix
+{
+   public int getRows();
+
+   public int getColumns();
+
+   public int getNumberOfNonZeros();
+
+   /**
+    * @return the index of the first entry of the given row.
+    */
+   public int getRowStart(int rowIdx);
+
+   /**
+    * @return one past the index of the last entry of the given row.
+    */
+   public int getRowEnd(int rowIdx);
+
+   public int getColumnIndex(int entryIdx);
+
+   public double getValue(int entryIdx);
+
+   /**
+    * @return the index of the given entry or -1 if the entry is not stored.
+    */
+   public default int getEntryIndex(int rowIdx, int colIdx)
+   {
+      if (rowIdx < 0 || rowIdx >= getRows() || colIdx < 0 || colIdx >= getColumns())
+      {
+         throw new RuntimeException("Unexpected index.");
+      }
+
+      int low = getRowStart(rowIdx);
+      int high = getRowEnd(rowIdx) - 1;
+      while (low <= high)
+      {
+         int middle = (low + high) >>> 1;
+         int middleColumn = getColumnIndex(middle);
+         if (middleColumn < colIdx)
+         {
+            low = middle + 1;
+         }
+         else if (middleColumn > colIdx)
+         {
+            high = middle - 1;
+         }
+         else
+         {
+            return middle;
+         }
+      }
+      return -1;
+   }
+
+   public default double get(int rowIdx, int colIdx)
+   {
+      int entryIdx = getEntryIndex(rowIdx, colIdx);
+      return entryIdx < 0 ? 0.0 : getValue(entryIdx);
+   }
+
+   /**
+    * Sets y = this * x. Does not allocate memory.
+    */
+   public default void mult(double[] x, double[] y)
+   {
+      SparseMatrixCSR.checkVectorDimensions(x, getColumns(), y, getRows());
+      for (int rowIdx = 0; rowIdx < getRows(); rowIdx++)
+      {
+         double sum = 0.0;
+         for (int i = getRowStart(rowIdx); i < getRowEnd(rowIdx); i++)
+         {
+            sum += getValue(i) * x[getColumnIndex(i)];
+         }
+         y[rowIdx] = sum;
+      }
+   }
+
+   /**
+    * Sets y = y + this * x. Does not allocate memory.
+    */
+   public default void multAdd(double[] x, double[] y)
+   {
+      SparseMatrixCSR.checkVectorDimensions(x, getColumns(), y, getRows());
+      for (int rowIdx = 0; rowIdx < getRows(); rowIdx++)
+      {
+         double sum = 0.0;
+         for (int i = getRowStart(rowIdx); i < getRowEnd(rowIdx); i++)
+         {
+            sum += getValue(i) * x[getColumnIndex(i)];
+         }
+         y[rowIdx] += sum;
+      }
+   }
+
+   /**
+    * Sets y = this^T * x without forming the transpose. Does not allocate memory.
+    */
+   public default void multTransposed(double[] x, double[] y)
+   {
+      SparseMatrixCSR.checkVectorDimensions(x, getRows(), y, getColumns());
+      for (int colIdx = 0; colIdx < getColumns(); colIdx++)
+      {
+         y[colIdx] = 0.0;
+      }
+      multAddTransposed(x, y);
+   }
+
+   /**
+    * Sets y = y + this^T * x without forming the transpose. Does not allocate memory.
+    */
+   public default void multAddTransposed(double[] x, double[] y)
+   {
+      SparseMatrixCSR.checkVectorDimensions(x, getRows(), y, getColumns());
+      for (int rowIdx = 0; rowIdx < getRows(); rowIdx++)
+      {
+         double valueX = x[rowIdx];
+         for (int i = getRowStart(rowIdx); i < getRowEnd(rowIdx); i++)
+         {
+            y[getColumnIndex(i)] += getValue(i) * valueX;
+         }
+      }
+   }
+
+   /**
+    * @return a new heap based matrix holding this * matrix.
+    */
+   public default SparseMatrixCSR mult(CompressedRowMatrix matrix)
+   {
+      return SparseMatrixCSR.multiply(this, matrix);
+   }
+
+   /**
+    * @return a new heap based matrix holding the transpose of this matrix.
+    */
+   public default SparseMatrixCSR transpose()
+   {
+      return SparseMatrixCSR.transpose(this);
+   }
+
+   /**
+    * Copies this matrix into the provided hash based matrix.
+    */
+   public default void toSparseMatrix(SparseMatrix matrixToPack)
+   {
+      matrixToPack.set(this);
+   }
+}
@@ -0,0 +1,15 @@
+package us.ihmc.sparseMatrices;
+
+/**
+ * Receives the statistics of every inversion done by a {@link SparseMatrixInverter} it is registered with.
+ */
+public interface InversionListener
+{
+   /**
+    * Called at the end of every inversion on the thread that did the inversion.
+    *
+    * @param statistics the counters of the inversion. Only valid during this call.
+    * @param success whether the inversion succeeded.
+    */
+   public void inversionFinished(InversionStatistics statistics, boolean success);
+}
@@ -0,0 +1,168 @@
+package us.ihmc.sparseMatrices;
+
+/**
+ * Counters describing the work done by a single call to {@link SparseMatrixInverter#invert(SparseMatrix, SparseMatrix)}.
+ * The same object is reused for every call, copy the values if they need to be kept.
+ */
+public class InversionStatistics
+{
+   int size;
+   int pivots;
+   int rowSwaps;
+   double minimumPivotMagnitude;
+   long fillIn;
+   long initialNonZeros;
+   long peakNonZerosMatrix;
+   long peakNonZerosInverse;
+   long skippedEliminations;
+   long droppedEntries;
+   long flops;
+   long orderingTime;
+   long eliminationTime;
+   long backSubstitutionTime;
+   long totalTime;
+
+   void reset(int size)
+   {
+      this.size = size;
+      pivots = 0;
+      rowSwaps = 0;
+      minimumPivotMagnitude = Double.POSITIVE_INFINITY;
+      fillIn = 0;
+      initialNonZeros = 0;
+      peakNonZerosMatrix = 0;
+      peakNonZerosInverse = 0;
+      skippedEliminations = 0;
+      droppedEntries = 0;
+      flops = 0;
+      orderingTime = 0;
+      eliminationTime = 0;
+      backSubstitutionTime = 0;
+      totalTime = 0;
+   }
+
+   /**
+    * @return the number of rows of the inverted matrix.
+    */
+   public int getSize()
+   {
+      return size;
+   }
+
+   /**
+    * @return the number of pivots that were chosen. Less than the size if the inversion failed.
+    */
+   public int getPivots()
+   {
+      return pivots;
+   }
+
+   /**
+    * @return the number of times the pivot strategy chose a pivot from a later row.
+    */
+   public int getRowSwaps()
+   {
+      return rowSwaps;
+   }
+
+   /**
+    * @return the smallest magnitude of all chosen pivots. Small values indicate a badly conditioned matrix.
+    */
+   public double getMinimumPivotMagnitude()
+   {
+      return minimumPivotMagnitude;
+   }
+
+   /**
+    * @return the number of entries created during elimination in the matrix and the inverse.
+    */
+   public long getFillIn()
+   {
+      return fillIn;
+   }
+
+   /**
+    * @return the number of entries of the matrix that was inverted.
+    */
+   public long getInitialNonZeros()
+   {
+      return initialNonZeros;
+   }
+
+   /**
+    * @return the largest number of entries the working copy of the matrix held during elimination.
+    */
+   public long getPeakNonZerosMatrix()
+   {
+      return peakNonZerosMatrix;
+   }
+
+   /**
+    * @return the largest number of entries the inverse held during the inversion.
+    */
+   public long getPeakNonZerosInverse()
+   {
+      return peakNonZerosInverse;
+   }
+
+   /**
+    * @return the number of eliminations that were skipped since the value was close to zero.
+    */
+   public long getSkippedEliminations()
+   {
+      return skippedEliminations;
+   }
+
+   /**
+    * @return the number of entries that were removed by the drop tolerance of the inverter.
+    */
+   public long getDroppedEntries()
+   {
+      return droppedEntries;
+   }
+
+   /**
+    * @return an estimate of the floating point operations, counting every multiplication and every addition.
+    */
+   public long getFlops()
+   {
+      return flops;
+   }
+
+   /**
+    * @return the time in nanoseconds spent computing and applying the fill reducing ordering.
+    */
+   public long getOrderingTime()
+   {
+      return orderingTime;
+   }
+
+   /**
+    * @return the time in nanoseconds spent reducing the matrix to upper triangular form.
+    */
+   public long getEliminationTime()
+   {
+      return eliminationTime;
+   }
+
+   /**
+    * @return the time in nanoseconds spent in back substitution and unpermuting the inverse.
+    */
+   public long getBackSubstitutionTime()
+   {
+      return backSubstitutionTime;
+   }
+
+   public long getTotalTime()
+   {
+      return totalTime;
+   }
+
+   @Override
+   public String toString()
+   {
+      return "Inversion of size " + size + ": " + pivots + " pivots (min magnitude " + minimumPivotMagnitude + ", " + rowSwaps + " row swaps), "
+            + initialNonZeros + " initial entries, " + fillIn + " fill-in, peak " + peakNonZerosMatrix + "/" + peakNonZerosInverse + " entries, "
+            + skippedEliminations + " skipped eliminations, " + droppedEntries + " dropped entries, " + flops + " flops, " + totalTime + "ns total";
+   }
+}
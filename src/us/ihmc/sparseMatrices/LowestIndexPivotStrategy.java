@@ -0,0 +1,64 @@
+package us.ihmc.sparseMatrices;
+
+import gnu.trove.map.hash.TIntDoubleHashMap;
+import gnu.trove.procedure.TIntDoubleProcedure;
+
+/**
+ * Keeps the order of the rows and pivots on the entry with the lowest column index that is not close to zero. Cheap,
+ * but ignores both the fill-in and the magnitude of the pivot. This is the default of the {@link SparseMatrixInverter}.
+ */
+public class LowestIndexPivotStrategy implements PivotStrategy
+{
+   private final LowestIndexFinder lowestIndexFinder = new LowestIndexFinder();
+
+   @Override
+   public boolean choosePivot(SparseMatrix matrix, int step, int[] pivotToPack)
+   {
+      TIntDoubleHashMap pivotRow = matrix.getRow(step);
+      if (pivotRow == null || pivotRow.isEmpty())
+      {
+         return false;
+      }
+
+      lowestIndexFinder.reset();
+      pivotRow.forEachEntry(lowestIndexFinder);
+      if (!lowestIndexFinder.valid())
+      {
+         return false;
+      }
+
+      pivotToPack[0] = step;
+      pivotToPack[1] = lowestIndexFinder.getLowestIndex();
+      return true;
+   }
+
+   private static class LowestIndexFinder implements TIntDoubleProcedure
+   {
+      private int lowestIndex;
+
+      public void reset()
+      {
+         lowestIndex = Integer.MAX_VALUE;
+      }
+
+      public int getLowestIndex()
+      {
+         return lowestIndex;
+      }
+
+      public boolean valid()
+      {
+         return lowestIndex != Integer.MAX_VALUE;
+      }
+
+      @Override
+      public boolean execute(int index, double value)
+      {
+         if (lowestIndex > index && !SparseMatrixInverter.closeToZero(value))
+         {
+            lowestIndex = index;
+         }
+         return true;
+      }
+   }
+}
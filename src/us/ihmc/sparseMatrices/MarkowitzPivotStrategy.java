@@ -0,0 +1,397 @@
+package us.ihmc.sparseMatrices;
+
+import java.util.Arrays;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TIntDoubleHashMap;
+import gnu.trove.procedure.TIntDoubleProcedure;
+import gnu.trove.procedure.TIntProcedure;
+import gnu.trove.set.hash.TIntHashSet;
+
+/**
+ * Threshold pivoting with the Markowitz criterion. Among the remaining rows and columns the pivot minimizes
+ * (r - 1) * (c - 1), where r and c are the number of entries in its row and column. This is an upper bound of the
+ * fill-in the elimination step can create. To stay numerically stable only entries whose magnitude is at least the
+ * threshold times the largest magnitude in their column are considered, which bounds the multipliers of the
+ * elimination by 1 / threshold.
+ * <p>
+ * Evaluating every entry would be too expensive, so only the rows with the fewest entries are searched. If none of
+ * their entries pass the threshold all remaining rows are searched.
+ * <p>
+ * To find the rows with the fewest entries without scanning all of them, the remaining rows are kept in lists by
+ * their number of entries. An elimination step only changes the rows with an entry in the pivot column, so only
+ * these are moved between the lists before the next step. The lists are rebuilt when a new elimination starts. This
+ * assumes that between two steps the rows only change by eliminating the pivot column, as done by the
+ * {@link SparseMatrixInverter}.
+ */
+public class MarkowitzPivotStrategy implements PivotStrategy
+{
+   public static final double defaultThreshold = 0.1;
+   public static final int defaultSearchRows = 4;
+
+   private final double threshold;
+   private final int searchRows;
+
+   private final int[] candidateRows;
+   private final CandidateProcedure candidateProcedure = new CandidateProcedure();
+
+   /**
+    * For each column the number of remaining rows holding an entry and the largest magnitude among them. Only valid
+    * for columns whose stamp matches the current search.
+    */
+   private int[] columnCounts = new int[0];
+   private double[] columnMaxima = new double[0];
+   private int[] columnStamps = new int[0];
+   private int stamp = 0;
+   private final ColumnProcedure columnProcedure = new ColumnProcedure();
+
+   /**
+    * Doubly linked lists of the remaining rows by their number of entries, indexed by row. The rows whose number of
+    * entries may have changed since they were filed are pending.
+    */
+   private int[] degreeHeads = new int[0];
+   private int[] nextInDegree = new int[0];
+   private int[] previousInDegree = new int[0];
+   private int[] rowDegrees = new int[0];
+   private int minimumDegree = 0;
+   private final TIntArrayList pendingRows = new TIntArrayList();
+   private final PendingRowCollector pendingRowCollector = new PendingRowCollector();
+   private SparseMatrix trackedMatrix = null;
+   private int nextStep = -1;
+
+   public MarkowitzPivotStrategy()
+   {
+      this(defaultThreshold, defaultSearchRows);
+   }
+
+   /**
+    * @param threshold the relative magnitude a pivot needs compared to the largest entry in its column. Between zero
+    *           and one, smaller values allow more freedom to reduce the fill-in, larger values are more stable.
+    * @param searchRows the number of rows with the fewest entries that are searched for a pivot.
+    */
+   public MarkowitzPivotStrategy(double threshold, int searchRows)
+   {
+      if (!(threshold > 0.0 && threshold <= 1.0))
+      {
+         throw new RuntimeException("Threshold must be in (0, 1].");
+      }
+      if (searchRows < 1)
+      {
+         throw new RuntimeException("Need to search at least one row.");
+      }
+
+      this.threshold = threshold;
+      this.searchRows = searchRows;
+      candidateRows = new int[searchRows];
+   }
+
+   @Override
+   public boolean choosePivot(SparseMatrix matrix, int step, int[] pivotToPack)
+   {
+      int rows = matrix.getRows();
+      int columns = matrix.getColumns();
+      if (columnStamps.length < columns)
+      {
+         columnCounts = new int[columns];
+         columnMaxima = new double[columns];
+         columnStamps = new int[columns];
+         stamp = 0;
+      }
+      if (++stamp == Integer.MAX_VALUE)
+      {
+         Arrays.fill(columnStamps, 0);
+         stamp = 1;
+      }
+
+      if (matrix != trackedMatrix || step != nextStep || step == 0)
+      {
+         rebuildDegreeLists(matrix, step);
+      }
+      else
+      {
+         for (int i = 0; i < pendingRows.size(); i++)
+         {
+            int rowIdx = pendingRows.get(i);
+            removeFromDegreeList(rowIdx);
+            addToDegreeList(rowIdx, getRowSize(matrix, rowIdx));
+         }
+      }
+      pendingRows.resetQuick();
+      trackedMatrix = null;
+
+      // An empty row makes the matrix singular.
+      if (degreeHeads[0] >= 0)
+      {
+         return false;
+      }
+
+      // Take the rows with the fewest entries from the lists in order of their size.
+      int candidates = 0;
+      int wantedCandidates = Math.min(searchRows, rows - step);
+      while (minimumDegree < degreeHeads.length && degreeHeads[minimumDegree] < 0)
+      {
+         minimumDegree++;
+      }
+      for (int degree = minimumDegree; degree < degreeHeads.length && candidates < wantedCandidates; degree++)
+      {
+         for (int rowIdx = degreeHeads[degree]; rowIdx >= 0 && candidates < wantedCandidates; rowIdx = nextInDegree[rowIdx])
+         {
+            candidateRows[candidates] = rowIdx;
+            candidates++;
+         }
+      }
+
+      candidateProcedure.reset(matrix, step);
+      for (int i = 0; i < candidates && !candidateProcedure.isOptimal(); i++)
+      {
+         candidateProcedure.search(candidateRows[i]);
+      }
+      if (!candidateProcedure.found())
+      {
+         for (int rowIdx = step; rowIdx < rows && !candidateProcedure.isOptimal(); rowIdx++)
+         {
+            candidateProcedure.search(rowIdx);
+         }
+      }
+      if (!candidateProcedure.found())
+      {
+         return false;
+      }
+
+      pivotToPack[0] = candidateProcedure.bestRow;
+      pivotToPack[1] = candidateProcedure.bestColumn;
+      preparePivot(matrix, step, candidateProcedure.bestRow, candidateProcedure.bestColumn);
+      return true;
+   }
+
+   /**
+    * Updates the lists for the swap of the pivot row into the row of the step and remembers the rows the elimination
+    * will change, using their indices after the swap.
+    */
+   private void preparePivot(SparseMatrix matrix, int step, int pivotRow, int pivotColumn)
+   {
+      removeFromDegreeList(pivotRow);
+      if (pivotRow != step)
+      {
+         removeFromDegreeList(step);
+         addToDegreeList(pivotRow, getRowSize(matrix, step));
+      }
+
+      pendingRowCollector.set(step, pivotRow);
+      TIntHashSet rowsInPivotColumn = matrix.getRowsInColumn(pivotColumn);
+      if (rowsInPivotColumn != null)
+      {
+         rowsInPivotColumn.forEach(pendingRowCollector);
+      }
+
+      trackedMatrix = matrix;
+      nextStep = step + 1;
+   }
+
+   private void rebuildDegreeLists(SparseMatrix matrix, int step)
+   {
+      int rows = matrix.getRows();
+      if (nextInDegree.length < rows)
+      {
+         nextInDegree = new int[rows];
+         previousInDegree = new int[rows];
+         rowDegrees = new int[rows];
+      }
+      if (degreeHeads.length != matrix.getColumns() + 1)
+      {
+         degreeHeads = new int[matrix.getColumns() + 1];
+      }
+      Arrays.fill(degreeHeads, -1);
+      minimumDegree = degreeHeads.length;
+
+      // Insert in reverse such that rows of equal size are listed by increasing index.
+      for (int rowIdx = rows - 1; rowIdx >= step; rowIdx--)
+      {
+         addToDegreeList(rowIdx, getRowSize(matrix, rowIdx));
+      }
+   }
+
+   private void addToDegreeList(int rowIdx, int degree)
+   {
+      rowDegrees[rowIdx] = degree;
+      previousInDegree[rowIdx] = -1;
+      nextInDegree[rowIdx] = degreeHeads[degree];
+      if (degreeHeads[degree] >= 0)
+      {
+         previousInDegree[degreeHeads[degree]] = rowIdx;
+      }
+      degreeHeads[degree] = rowIdx;
+      minimumDegree = Math.min(minimumDegree, degree);
+   }
+
+   private void removeFromDegreeList(int rowIdx)
+   {
+      int previous = previousInDegree[rowIdx];
+      int next = nextInDegree[rowIdx];
+      if (previous >= 0)
+      {
+         nextInDegree[previous] = next;
+      }
+      else
+      {
+         degreeHeads[rowDegrees[rowIdx]] = next;
+      }
+      if (next >= 0)
+      {
+         previousInDegree[next] = previous;
+      }
+   }
+
+   private static int getRowSize(SparseMatrix matrix, int rowIdx)
+   {
+      TIntDoubleHashMap row = matrix.getRow(rowIdx);
+      return row == null ? 0 : row.size();
+   }
+
+   /**
+    * Counts the remaining rows of the column and finds their largest magnitude, once per column and search.
+    */
+   private void updateColumn(SparseMatrix matrix, int step, int colIdx)
+   {
+      if (columnStamps[colIdx] == stamp)
+      {
+         return;
+      }
+
+      columnProcedure.set(matrix, step, colIdx);
+      TIntHashSet rowsInColumn = matrix.getRowsInColumn(colIdx);
+      if (rowsInColumn != null)
+      {
+         rowsInColumn.forEach(columnProcedure);
+      }
+      columnCounts[colIdx] = columnProcedure.count;
+      columnMaxima[colIdx] = columnProcedure.maximum;
+      columnStamps[colIdx] = stamp;
+   }
+
+   private class CandidateProcedure implements TIntDoubleProcedure
+   {
+      private SparseMatrix matrix;
+      private int step;
+      private int rowIdx;
+      private int rowSize;
+
+      private int bestRow;
+      private int bestColumn;
+      private long bestCost;
+      private double bestMagnitude;
+
+      public void reset(SparseMatrix matrix, int step)
+      {
+         this.matrix = matrix;
+         this.step = step;
+         bestRow = -1;
+         bestColumn = -1;
+         bestCost = Long.MAX_VALUE;
+         bestMagnitude = 0.0;
+      }
+
+      public void search(int rowIdx)
+      {
+         TIntDoubleHashMap row = matrix.getRow(rowIdx);
+         this.rowIdx = rowIdx;
+         rowSize = row.size();
+         row.forEachEntry(this);
+      }
+
+      public boolean found()
+      {
+         return bestRow >= 0;
+      }
+
+      /**
+       * No pivot can create less fill-in than one whose row or column holds no other entry.
+       */
+      public boolean isOptimal()
+      {
+         return bestCost == 0;
+      }
+
+      @Override
+      public boolean execute(int colIdx, double value)
+      {
+         if (SparseMatrixInverter.closeToZero(value))
+         {
+            return true;
+         }
+         double magnitude = Math.abs(value);
+
+         updateColumn(matrix, step, colIdx);
+         if (magnitude < threshold * columnMaxima[colIdx])
+         {
+            return true;
+         }
+
+         long cost = (long) (rowSize - 1) * (columnCounts[colIdx] - 1);
+         if (cost < bestCost || (cost == bestCost && magnitude > bestMagnitude))
+         {
+            bestRow = rowIdx;
+            bestColumn = colIdx;
+            bestCost = cost;
+            bestMagnitude = magnitude;
+         }
+         return true;
+      }
+   }
+
+   /**
+    * Collects the remaining rows of the pivot column with their index after the pivot row was swapped into the row
+    * of the step.
+    */
+   private class PendingRowCollector implements TIntProcedure
+   {
+      private int step;
+      private int pivotRow;
+
+      public void set(int step, int pivotRow)
+      {
+         this.step = step;
+         this.pivotRow = pivotRow;
+      }
+
+      @Override
+      public boolean execute(int rowIdx)
+      {
+         int swappedRowIdx = rowIdx == step ? pivotRow : rowIdx == pivotRow ? step : rowIdx;
+         if (swappedRowIdx > step)
+         {
+            pendingRows.add(swappedRowIdx);
+         }
+         return true;
+      }
+   }
+
+   private static class ColumnProcedure implements TIntProcedure
+   {
+      private SparseMatrix matrix;
+      private int step;
+      private int colIdx;
+      private int count;
+      private double maximum;
+
+      public void set(SparseMatrix matrix, int step, int colIdx)
+      {
+         this.matrix = matrix;
+         this.step = step;
+         this.colIdx = colIdx;
+         count = 0;
+         maximum = 0.0;
+      }
+
+      @Override
+      public boolean execute(int rowIdx)
+      {
+         if (rowIdx >= step)
+         {
+            count++;
+            maximum = Math.max(maximum, Math.abs(matrix.getRow(rowIdx).get(colIdx)));
+         }
+         return true;
+      }
+   }
+}
@@ -0,0 +1,73 @@
+package us.ihmc.sparseMatrices;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cumulative counters over all calls to {@link SparseMatrix#mult(SparseMatrix, SparseMatrix)} and
+ * {@link SparseMatrix#multParallel(SparseMatrix, SparseMatrix)} in this JVM. Disabled by default, in which case the
+ * multiplications do not touch the counters.
+ */
+public final class MultiplicationStatistics
+{
+   private static volatile boolean enabled = false;
+
+   private static final LongAdder multiplications = new LongAdder();
+   private static final LongAdder multiplyAdds = new LongAdder();
+   private static final LongAdder time = new LongAdder();
+
+   private MultiplicationStatistics()
+   {
+   }
+
+   public static void setEnabled(boolean enabled)
+   {
+      MultiplicationStatistics.enabled = enabled;
+   }
+
+   public static boolean isEnabled()
+   {
+      return enabled;
+   }
+
+   /**
+    * @return the number of matrix products computed.
+    */
+   public static long getMultiplications()
+   {
+      return multiplications.sum();
+   }
+
+   /**
+    * @return the number of scalar multiply-add operations of all products.
+    */
+   public static long getMultiplyAdds()
+   {
+      return multiplyAdds.sum();
+   }
+
+   /**
+    * @return the wall clock time in nanoseconds spent in all products.
+    */
+   public static long getTime()
+   {
+      return time.sum();
+   }
+
+   public static void reset()
+   {
+      multiplications.reset();
+      multiplyAdds.reset();
+      time.reset();
+   }
+
+   static void recordMultiplication(long nanoTime)
+   {
+      multiplications.increment();
+      time.add(nanoTime);
+   }
+
+   static void recordMultiplyAdds(long count)
+   {
+      multiplyAdds.add(count);
+   }
+}
@@ -0,0 +1,352 @@
+package us.ihmc.sparseMatrices;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * An immutable sparse matrix in compressed row storage that keeps its arrays outside of the Java heap in direct or
+ * memory mapped byte buffers. Large matrices stored this way do not count towards the heap size and are never scanned
+ * or copied by the garbage collector.
+ * <p>
+ * The memory is released by {@link #close()}, unless the buffers were passed in by a caller that still owns them. The
+ * matrix must not be used after it was closed and must not be closed while another thread is still using it. Memory
+ * of matrices that are never closed is released once they are garbage collected. Note that the total size of direct
+ * buffers is limited by the JVM option -XX:MaxDirectMemorySize.
+ * <p>
+ * Each array is stored in a single buffer, so the number of non-zeros is limited to {@link #maximumNonZeros}.
+ */
+public class OffHeapSparseMatrixCSR implements CompressedRowMatrix, AutoCloseable
+{
+   /**
+    * The largest number of entries such that the value buffer can be addressed by an int.
+    */
+   public static final int maximumNonZeros = Integer.MAX_VALUE / Double.BYTES;
+
+   private final int rows;
+   private final int columns;
+   private final int nonZeros;
+
+   private ByteBuffer rowPointerBuffer;
+   private ByteBuffer columnIndexBuffer;
+   private ByteBuffer valueBuffer;
+
+   /**
+    * Whether the buffers were allocated or mapped for this matrix and may be released when it is closed.
+    */
+   private final boolean ownsBuffers;
+
+   private IntBuffer rowPointer;
+   private IntBuffer columnIndex;
+   private DoubleBuffer value;
+
+   /**
+    * Creates an off-heap copy of the provided matrix.
+    */
+   public OffHeapSparseMatrixCSR(CompressedRowMatrix matrix)
+   {
+      this(matrix.getRows(), matrix.getColumns(), matrix.getNumberOfNonZeros());
+
+      int entries = 0;
+      for (int rowIdx = 0; rowIdx < rows; rowIdx++)
+      {
+         rowPointer.put(rowIdx, entries);
+         for (int i = matrix.getRowStart(rowIdx); i < matrix.getRowEnd(rowIdx); i++)
+         {
+            columnIndex.put(entries, matrix.getColumnIndex(i));
+            value.put(entries, matrix.getValue(i));
+            entries++;
+         }
+      }
+      rowPointer.put(rows, entries);
+   }
+
+   /**
+    * Creates an off-heap copy of the provided hash based matrix.
+    */
+   public OffHeapSparseMatrixCSR(SparseMatrix matrix)
+   {
+      this(new SparseMatrixCSR(matrix));
+   }
+
+   /**
+    * Wraps existing buffers, for example memory mapped files. The buffers are not copied, their byte order must be
+    * set to the order of the data and their content must not be modified afterwards. The row pointer buffer holds
+    * rows + 1 ints, the column index buffer and the value buffer hold one int and one double per entry.
+    * <p>
+    * The buffers remain owned by the caller: closing the matrix only drops its references to them.
+    */
+   public OffHeapSparseMatrixCSR(int rows, int columns, ByteBuffer rowPointerBuffer, ByteBuffer columnIndexBuffer, ByteBuffer valueBuffer)
+   {
+      this(rows, columns, rowPointerBuffer, columnIndexBuffer, valueBuffer, false);
+   }
+
+   /**
+    * Wraps existing buffers like {@link #OffHeapSparseMatrixCSR(int, int, ByteBuffer, ByteBuffer, ByteBuffer)}.
+    *
+    * @param ownsBuffers whether the buffers are handed over to this matrix. If true they are released when the matrix
+    *           is closed and must not be used by anyone else afterwards.
+    */
+   public OffHeapSparseMatrixCSR(int rows, int columns, ByteBuffer rowPointerBuffer, ByteBuffer columnIndexBuffer, ByteBuffer valueBuffer,
+                                 boolean ownsBuffers)
+   {
+      this.rows = rows;
+      this.columns = columns;
+      this.ownsBuffers = ownsBuffers;
+      setBuffers(rowPointerBuffer, columnIndexBuffer, valueBuffer);
+      if (rows < 0 || rowPointer.capacity() < rows + 1)
+      {
+         throw new RuntimeException("Unexpected buffer sizes.");
+      }
+
+      nonZeros = rowPointer.get(rows);
+      if (rowPointer.get(0) != 0 || nonZeros < 0 || columnIndex.capacity() < nonZeros || value.capacity() < nonZeros)
+      {
+         throw new RuntimeException("Unexpected buffer sizes.");
+      }
+   }
+
+   private OffHeapSparseMatrixCSR(int rows, int columns, int nonZeros)
+   {
+      if (rows < 0 || columns < 0 || nonZeros < 0 || nonZeros > maximumNonZeros || rows >= Integer.MAX_VALUE / Integer.BYTES)
+      {
+         throw new RuntimeException("Matrix is too large for off-heap storage.");
+      }
+
+      this.rows = rows;
+      this.columns = columns;
+      this.nonZeros = nonZeros;
+      ownsBuffers = true;
+      setBuffers(allocate((rows + 1) * Integer.BYTES), allocate(nonZeros * Integer.BYTES), allocate(nonZeros * Double.BYTES));
+   }
+
+   private void setBuffers(ByteBuffer rowPointerBuffer, ByteBuffer columnIndexBuffer, ByteBuffer valueBuffer)
+   {
+      this.rowPointerBuffer = rowPointerBuffer;
+      this.columnIndexBuffer = columnIndexBuffer;
+      this.valueBuffer = valueBuffer;
+
+      rowPointer = rowPointerBuffer.duplicate().order(rowPointerBuffer.order()).asIntBuffer();
+      columnIndex = columnIndexBuffer.duplicate().order(columnIndexBuffer.order()).asIntBuffer();
+      value = valueBuffer.duplicate().order(valueBuffer.order()).asDoubleBuffer();
+   }
+
+   private static ByteBuffer allocate(int bytes)
+   {
+      return ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+   }
+
+   @Override
+   public int getRows()
+   {
+      return rows;
+   }
+
+   @Override
+   public int getColumns()
+   {
+      return columns;
+   }
+
+   @Override
+   public int getNumberOfNonZeros()
+   {
+      return nonZeros;
+   }
+
+   @Override
+   public int getRowStart(int rowIdx)
+   {
+      return rowPointer.get(rowIdx);
+   }
+
+   @Override
+   public int getRowEnd(int rowIdx)
+   {
+      return rowPointer.get(rowIdx + 1);
+   }
+
+   @Override
+   public int getColumnIndex(int entryIdx)
+   {
+      return columnIndex.get(entryIdx);
+   }
+
+   @Override
+   public double getValue(int entryIdx)
+   {
+      return value.get(entryIdx);
+   }
+
+   /**
+    * @return the number of bytes held outside of the Java heap.
+    */
+   public long getOffHeapSize()
+   {
+      return isClosed() ? 0 : (long) rowPointerBuffer.capacity() + columnIndexBuffer.capacity() + valueBuffer.capacity();
+   }
+
+   public boolean isClosed()
+   {
+      return rowPointer == null;
+   }
+
+   /**
+    * Releases the memory of this matrix. Buffers owned by the caller are not released, the matrix only drops its
+    * references to them. Any later access to the matrix throws an exception. Calling this method more than once has no
+    * effect.
+    */
+   @Override
+   public void close()
+   {
+      if (isClosed())
+      {
+         return;
+      }
+
+      ByteBuffer[] buffers = {rowPointerBuffer, columnIndexBuffer, valueBuffer};
+      rowPointer = null;
+      columnIndex = null;
+      value = null;
+      rowPointerBuffer = null;
+      columnIndexBuffer = null;
+      valueBuffer = null;
+
+      if (ownsBuffers)
+      {
+         for (ByteBuffer buffer : buffers)
+         {
+            free(buffer);
+         }
+      }
+   }
+
+   /**
+    * Releases a direct or mapped buffer without waiting for the garbage collector. Uses Unsafe.invokeCleaner on Java 9
+    * and later and the buffer cleaner on Java 8. If neither is accessible the memory is released when the buffer is
+    * garbage collected.
+    */
+   private static void free(ByteBuffer buffer)
+   {
+      if (!buffer.isDirect())
+      {
+         return;
+      }
+
+      try
+      {
+         Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+         Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+         Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+         theUnsafe.setAccessible(true);
+         invokeCleaner.invoke(theUnsafe.get(null), buffer);
+         return;
+      }
+      catch (ReflectiveOperationException | RuntimeException e)
+      {
+         // Not available before Java 9, fall through.
+      }
+
+      try
+      {
+         Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+         cleanerMethod.setAccessible(true);
+         Object cleaner = cleanerMethod.invoke(buffer);
+         if (cleaner != null)
+         {
+            cleaner.getClass().getMethod("clean").invoke(cleaner);
+         }
+      }
+      catch (ReflectiveOperationException | RuntimeException e)
+      {
+         // Leave it to the garbage collector.
+      }
+   }
+
+   @Override
+   public String toString()
+   {
+      return "Off-heap compressed row matrix of size " + rows + "x" + columns + " with " + nonZeros + " entries";
+   }
+
+   /**
+    * Fills an off-heap matrix row by row without holding the matrix on the heap. The entries must be added in order of
+    * increasing row and, within each row, increasing column index.
+    */
+   public static class Builder
+   {
+      private OffHeapSparseMatrixCSR matrix;
+      private int currentRow = 0;
+      private int entries = 0;
+      private int lastColumn = -1;
+
+      /**
+       * @param nonZeros the exact number of entries that will be added.
+       */
+      public Builder(int rows, int columns, int nonZeros)
+      {
+         matrix = new OffHeapSparseMatrixCSR(rows, columns, nonZeros);
+         matrix.rowPointer.put(0, 0);
+      }
+
+      public void add(int rowIdx, int colIdx, double value)
+      {
+         if (matrix == null)
+         {
+            throw new RuntimeException("Matrix was already built.");
+         }
+         if (rowIdx < currentRow || rowIdx >= matrix.rows || colIdx < 0 || colIdx >= matrix.columns)
+         {
+            throw new RuntimeException("Unexpected index.");
+         }
+         if (entries == matrix.nonZeros)
+         {
+            throw new RuntimeException("More entries than expected.");
+         }
+
+         advanceTo(rowIdx);
+         if (colIdx <= lastColumn)
+         {
+            throw new RuntimeException("Columns must be added in increasing order.");
+         }
+
+         matrix.columnIndex.put(entries, colIdx);
+         matrix.value.put(entries, value);
+         entries++;
+         lastColumn = colIdx;
+      }
+
+      /**
+       * @return the matrix. The builder can not be used afterwards.
+       */
+      public OffHeapSparseMatrixCSR build()
+      {
+         if (matrix == null)
+         {
+            throw new RuntimeException("Matrix was already built.");
+         }
+         if (entries != matrix.nonZeros)
+         {
+            throw new RuntimeException("Expected " + matrix.nonZeros + " entries but got " + entries + ".");
+         }
+
+         advanceTo(matrix.rows);
+         OffHeapSparseMatrixCSR result = matrix;
+         matrix = null;
+         return result;
+      }
+
+      private void advanceTo(int rowIdx)
+      {
+         while (currentRow < rowIdx)
+         {
+            currentRow++;
+            matrix.rowPointer.put(currentRow, entries);
+            lastColumn = -1;
+         }
+      }
+   }
+}
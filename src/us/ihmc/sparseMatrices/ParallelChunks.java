@@ -0,0 +1,90 @@
+package us.ihmc.sparseMatrices;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Splits a range of independent items into contiguous chunks that are processed on an executor. A few chunks per
+ * worker thread balance the load if the items differ in cost, without paying the dispatch for every item.
+ */
+final class ParallelChunks
+{
+   private static final int chunksPerWorker = 4;
+
+   private ParallelChunks()
+   {
+   }
+
+   interface RangeTask
+   {
+      /**
+       * Processes the items start to end - 1.
+       */
+      public void run(int start, int end);
+   }
+
+   /**
+    * @return the number of threads of a fork join pool or the number of processors for any other executor.
+    */
+   static int getParallelism(ExecutorService executor)
+   {
+      if (executor instanceof ForkJoinPool)
+      {
+         return ((ForkJoinPool) executor).getParallelism();
+      }
+      return Runtime.getRuntime().availableProcessors();
+   }
+
+   /**
+    * Processes the items 0 to items - 1 in a few chunks per worker of the executor and waits for all of them.
+    */
+   static void run(int items, ExecutorService executor, RangeTask task)
+   {
+      run(0, items, Math.min(items, chunksPerWorker * getParallelism(executor)), executor, task);
+   }
+
+   /**
+    * Processes the items start to end - 1 in the given number of chunks and waits for all of them. A single chunk is
+    * processed on the calling thread.
+    */
+   static void run(int start, int end, int chunks, ExecutorService executor, RangeTask task)
+   {
+      int items = end - start;
+      if (chunks <= 1)
+      {
+         task.run(start, end);
+         return;
+      }
+
+      List<Future<?>> futures = new ArrayList<>(chunks);
+      for (int chunk = 0; chunk < chunks; chunk++)
+      {
+         int chunkStart = start + (int) ((long) items * chunk / chunks);
+         int chunkEnd = start + (int) ((long) items * (chunk + 1) / chunks);
+         futures.add(executor.submit(() -> task.run(chunkStart, chunkEnd)));
+      }
+      waitForAll(futures);
+   }
+
+   /**
+    * Waits for all tasks. Failures and interruptions are rethrown as runtime exceptions.
+    */
+   static void waitForAll(List<? extends Future<?>> futures)
+   {
+      try
+      {
+         for (int i = 0; i < futures.size(); i++)
+         {
+            futures.get(i).get();
+         }
+      }
+      catch (InterruptedException | ExecutionException e)
+      {
+         throw new RuntimeException("Parallel operation failed.", e);
+      }
+   }
+}
@@ -0,0 +1,19 @@
+package us.ihmc.sparseMatrices;
+
+/**
+ * Chooses the pivots of the elimination done by a {@link SparseMatrixInverter}.
+ */
+public interface PivotStrategy
+{
+   /**
+    * Chooses the pivot for the given step of the elimination. The rows before the step were used as pivot rows of the
+    * previous steps and their pivot columns were eliminated from all later rows, so the remaining rows only hold
+    * entries in columns that have not been used as pivot column yet. The matrix has its column index enabled and must
+    * not be modified.
+    *
+    * @param pivotToPack used to return the row (first element) and the column (second element) of the pivot. The row
+    *           must not be before the step. If it is a later row it is swapped with the row of the step.
+    * @return false if there is no usable pivot, in which case the matrix is considered singular.
+    */
+   public boolean choosePivot(SparseMatrix matrix, int step, int[] pivotToPack);
+}
@@ -0,0 +1,453 @@
+package us.ihmc.sparseMatrices;
+
+import java.util.Arrays;
+
+import gnu.trove.map.hash.TIntDoubleHashMap;
+import gnu.trove.procedure.TIntDoubleProcedure;
+import us.ihmc.sparseMatrices.ordering.FillReducingOrdering;
+
+/**
+ * Solves linear systems A * x = b for symmetric positive definite A by computing a sparse Cholesky factorization
+ * P * A * P^T = U^T * U with an optional fill reducing permutation P. Only the upper triangle of A (including the
+ * diagonal) is read, the lower triangle is ignored.
+ * <p>
+ * If only the values of A change {@link #refactor(SparseMatrix)} recomputes U in place keeping the ordering and the
+ * pattern of U.
+ */
+public class SparseCholeskySolver implements SparseLinearSolver
+{
+   private static final double epsilon = 1.0e-10;
+
+   private final SparseMatrix localMatrix = new SparseMatrix();
+   private final UpperTriangleCopyProcedure upperTriangleCopyProcedure = new UpperTriangleCopyProcedure();
+   private final OuterUpdateProcedure outerUpdateProcedure = new OuterUpdateProcedure();
+   private final UpperTriangleScatterProcedure upperTriangleScatterProcedure = new UpperTriangleScatterProcedure();
+   private FillReducingOrdering ordering = null;
+
+   /**
+    * Row and column k of U correspond to row and column order[k] of the original matrix.
+    */
+   private int[] order = new int[0];
+   private int[] inverseOrder = new int[0];
+
+   /**
+    * Upper triangular factor U including the diagonal which is always the first entry of each row.
+    */
+   private SparseMatrixCSR upper;
+
+   /**
+    * The strictly upper part of the pattern of U by column: the entries of column k are stored at positions
+    * columnPointer[k] to columnPointer[k + 1] - 1 holding the row of the entry and its index in U.
+    */
+   private int[] columnPointer = new int[0];
+   private int[] columnRows = new int[0];
+   private int[] columnEntries = new int[0];
+
+   private double[] workVector = new double[0];
+
+   private int size = -1;
+
+   /**
+    * Sets an ordering that is used to symmetrically permute the matrix before factoring it to reduce fill-in. If the
+    * ordering is null (default) the matrix is factored as is.
+    */
+   public void setOrdering(FillReducingOrdering ordering)
+   {
+      this.ordering = ordering;
+   }
+
+   /**
+    * Computes the factorization of the provided matrix.
+    *
+    * @return false as soon as the matrix is found not to be positive definite. In that case no solve is possible until
+    *         the next successful call.
+    */
+   @Override
+   public boolean factor(SparseMatrix matrix)
+   {
+      int n = matrix.getRows();
+      if (n != matrix.getColumns())
+      {
+         throw new RuntimeException("Can only factor square matrices.");
+      }
+
+      size = -1;
+      if (ordering == null)
+      {
+         order = new int[n];
+         for (int i = 0; i < n; i++)
+         {
+            order[i] = i;
+         }
+      }
+      else
+      {
+         order = ordering.computeOrdering(matrix);
+      }
+      if (inverseOrder.length != n)
+      {
+         inverseOrder = new int[n];
+      }
+      for (int i = 0; i < n; i++)
+      {
+         inverseOrder[order[i]] = i;
+      }
+
+      localMatrix.resize(n, n);
+      localMatrix.clear();
+      for (int rowIdx = 0; rowIdx < n; rowIdx++)
+      {
+         TIntDoubleHashMap row = matrix.getRow(rowIdx);
+         if (row != null)
+         {
+            upperTriangleCopyProcedure.set(rowIdx);
+            row.forEachEntry(upperTriangleCopyProcedure);
+         }
+      }
+
+      if (workVector.length != n)
+      {
+         workVector = new double[n];
+      }
+
+      for (int k = 0; k < n; k++)
+      {
+         TIntDoubleHashMap pivotRow = localMatrix.getRow(k);
+         double diagonal = pivotRow == null ? 0.0 : pivotRow.get(k);
+         if (diagonal < epsilon)
+         {
+            return false;
+         }
+
+         SparseMatrix.scaleRow(pivotRow, 1.0 / Math.sqrt(diagonal));
+
+         // Subtract the outer product of the pivot row from the remaining upper triangle.
+         outerUpdateProcedure.set(k, pivotRow);
+         pivotRow.forEachEntry(outerUpdateProcedure);
+         if (!outerUpdateProcedure.valid())
+         {
+            return false;
+         }
+      }
+
+      upper = new SparseMatrixCSR(localMatrix);
+      computeColumnPattern();
+      size = n;
+      return true;
+   }
+
+   private void computeColumnPattern()
+   {
+      int n = upper.getRows();
+      int offDiagonalEntries = upper.getNumberOfNonZeros() - n;
+      if (columnPointer.length != n + 1)
+      {
+         columnPointer = new int[n + 1];
+      }
+      else
+      {
+         Arrays.fill(columnPointer, 0);
+      }
+      if (columnRows.length < offDiagonalEntries)
+      {
+         columnRows = new int[offDiagonalEntries];
+         columnEntries = new int[offDiagonalEntries];
+      }
+
+      for (int k = 0; k < n; k++)
+      {
+         for (int i = upper.getRowStart(k) + 1; i < upper.getRowEnd(k); i++)
+         {
+            columnPointer[upper.getColumnIndex(i) + 1]++;
+         }
+      }
+      for (int k = 0; k < n; k++)
+      {
+         columnPointer[k + 1] += columnPointer[k];
+      }
+
+      int[] next = Arrays.copyOf(columnPointer, n);
+      for (int k = 0; k < n; k++)
+      {
+         for (int i = upper.getRowStart(k) + 1; i < upper.getRowEnd(k); i++)
+         {
+            int position = next[upper.getColumnIndex(i)]++;
+            columnRows[position] = k;
+            columnEntries[position] = i;
+         }
+      }
+   }
+
+   /**
+    * Recomputes U for a matrix whose upper triangle pattern is contained in the pattern of the last factored matrix.
+    * The ordering and the pattern of U are kept, so no hash maps are built and U is updated in place. If there is no
+    * valid factorization a full factorization is computed.
+    *
+    * @return false if the matrix has entries outside of the pattern or is found not to be positive definite. In that
+    *         case no solve is possible until the next successful call to {@link #factor(SparseMatrix)}.
+    */
+   @Override
+   public boolean refactor(SparseMatrix matrix)
+   {
+      if (size < 0 || matrix.getRows() != size || matrix.getColumns() != size)
+      {
+         return factor(matrix);
+      }
+
+      int n = size;
+      size = -1;
+      double[] upperValues = upper.getValueArray();
+      Arrays.fill(upperValues, 0.0);
+      Arrays.fill(workVector, 0.0);
+
+      for (int rowIdx = 0; rowIdx < n; rowIdx++)
+      {
+         TIntDoubleHashMap row = matrix.getRow(rowIdx);
+         if (row != null)
+         {
+            upperTriangleScatterProcedure.set(rowIdx, upperValues);
+            row.forEachEntry(upperTriangleScatterProcedure);
+            if (!upperTriangleScatterProcedure.valid())
+            {
+               return false;
+            }
+         }
+      }
+
+      // Compute U row by row: row k of U^T * U only depends on the rows of U above it that have an entry in column k.
+      for (int k = 0; k < n; k++)
+      {
+         int diagonalIndex = upper.getRowStart(k);
+         int rowEnd = upper.getRowEnd(k);
+         for (int i = diagonalIndex; i < rowEnd; i++)
+         {
+            workVector[upper.getColumnIndex(i)] = upperValues[i];
+         }
+
+         for (int i = columnPointer[k]; i < columnPointer[k + 1]; i++)
+         {
+            int entryIdx = columnEntries[i];
+            double scale = upperValues[entryIdx];
+            for (int j = entryIdx; j < upper.getRowEnd(columnRows[i]); j++)
+            {
+               workVector[upper.getColumnIndex(j)] -= scale * upperValues[j];
+            }
+         }
+
+         double diagonal = workVector[k];
+         if (diagonal < epsilon)
+         {
+            return false;
+         }
+
+         double inverseRoot = 1.0 / Math.sqrt(diagonal);
+         for (int i = diagonalIndex; i < rowEnd; i++)
+         {
+            int column = upper.getColumnIndex(i);
+            upperValues[i] = workVector[column] * inverseRoot;
+            workVector[column] = 0.0;
+         }
+      }
+
+      size = n;
+      return true;
+   }
+
+   @Override
+   public int getSize()
+   {
+      checkFactored();
+      return size;
+   }
+
+   @Override
+   public void solve(double[] b, double[] x)
+   {
+      checkFactored();
+      if (b.length < size || x.length < size)
+      {
+         throw new RuntimeException("Unexpected vector size.");
+      }
+
+      for (int k = 0; k < size; k++)
+      {
+         workVector[k] = b[order[k]];
+      }
+
+      // Forward substitution U^T * y = P * b followed by backward substitution U * z = y.
+      SparseTriangularSolver.solveUpperTransposed(upper, false, workVector, workVector);
+      SparseTriangularSolver.solveUpper(upper, false, workVector, workVector);
+
+      for (int k = 0; k < size; k++)
+      {
+         x[order[k]] = workVector[k];
+      }
+   }
+
+   /**
+    * The returned matrix is updated in place by {@link #refactor(SparseMatrix)}.
+    *
+    * @return the upper triangular factor U with P * A * P^T = U^T * U.
+    */
+   public SparseMatrixCSR getUpper()
+   {
+      checkFactored();
+      return upper;
+   }
+
+   /**
+    * @return the symmetric permutation P of the factorization: row and column k of U correspond to row and column
+    *         order[k] of the matrix.
+    */
+   public int[] getOrder()
+   {
+      checkFactored();
+      return order;
+   }
+
+   private void checkFactored()
+   {
+      if (size < 0)
+      {
+         throw new RuntimeException("No valid factorization available.");
+      }
+   }
+
+   private class UpperTriangleCopyProcedure implements TIntDoubleProcedure
+   {
+      private int rowIdx;
+
+      public void set(int rowIdx)
+      {
+         this.rowIdx = rowIdx;
+      }
+
+      @Override
+      public boolean execute(int colIdx, double value)
+      {
+         if (colIdx >= rowIdx)
+         {
+            // The permutation might move the entry below the diagonal, mirror it back into the upper triangle. Stored
+            // zeros are kept so they are part of the pattern of U and can take a value in a later refactorization.
+            int permutedRowIdx = inverseOrder[rowIdx];
+            int permutedColIdx = inverseOrder[colIdx];
+            localMatrix.getOrCreateRow(Math.min(permutedRowIdx, permutedColIdx)).put(Math.max(permutedRowIdx, permutedColIdx), value);
+         }
+         return true;
+      }
+   }
+
+   /**
+    * Writes the upper triangle entries of a row of the matrix into the values of U using the ordering of the
+    * factorization. Fails if an entry is not part of the pattern of U.
+    */
+   private class UpperTriangleScatterProcedure implements TIntDoubleProcedure
+   {
+      private int rowIdx;
+      private double[] upperValues;
+      private boolean valid;
+
+      public void set(int rowIdx, double[] upperValues)
+      {
+         this.rowIdx = rowIdx;
+         this.upperValues = upperValues;
+         valid = true;
+      }
+
+      public boolean valid()
+      {
+         return valid;
+      }
+
+      @Override
+      public boolean execute(int colIdx, double value)
+      {
+         if (colIdx < rowIdx)
+         {
+            return true;
+         }
+
+         int permutedRowIdx = inverseOrder[rowIdx];
+         int permutedColIdx = inverseOrder[colIdx];
+         int entryIdx = upper.getEntryIndex(Math.min(permutedRowIdx, permutedColIdx), Math.max(permutedRowIdx, permutedColIdx));
+         if (entryIdx < 0)
+         {
+            valid = false;
+            return false;
+         }
+         upperValues[entryIdx] = value;
+         return true;
+      }
+   }
+
+   /**
+    * For every entry (k, j) of the pivot row with j > k updates row j with the pivot row scaled by that entry.
+    */
+   private class OuterUpdateProcedure implements TIntDoubleProcedure
+   {
+      private final InnerUpdateProcedure innerUpdateProcedure = new InnerUpdateProcedure();
+      private int pivotIndex;
+      private TIntDoubleHashMap pivotRow;
+      private boolean valid;
+
+      public void set(int pivotIndex, TIntDoubleHashMap pivotRow)
+      {
+         this.pivotIndex = pivotIndex;
+         this.pivotRow = pivotRow;
+         valid = true;
+      }
+
+      public boolean valid()
+      {
+         return valid;
+      }
+
+      @Override
+      public boolean execute(int index, double value)
+      {
+         if (index == pivotIndex)
+         {
+            return true;
+         }
+
+         // A row without diagonal entry can not be positive definite.
+         TIntDoubleHashMap rowToModify = localMatrix.getRow(index);
+         if (rowToModify == null || !rowToModify.containsKey(index))
+         {
+            valid = false;
+            return false;
+         }
+
+         innerUpdateProcedure.set(value, index, rowToModify);
+         pivotRow.forEachEntry(innerUpdateProcedure);
+         return true;
+      }
+   }
+
+   private class InnerUpdateProcedure implements TIntDoubleProcedure
+   {
+      private double scale;
+      private int startIndex;
+      private TIntDoubleHashMap rowToModify;
+
+      public void set(double scale, int startIndex, TIntDoubleHashMap rowToModify)
+      {
+         this.scale = scale;
+         this.startIndex = startIndex;
+         this.rowToModify = rowToModify;
+      }
+
+      @Override
+      public boolean execute(int index, double value)
+      {
+         if (index < startIndex)
+         {
+            return true;
+         }
+
+         double adjust = -scale * value;
+         rowToModify.adjustOrPutValue(index, adjust, adjust);
+         return true;
+      }
+   }
+}
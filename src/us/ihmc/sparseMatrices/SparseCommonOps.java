@@ -0,0 +1,754 @@
+package us.ihmc.sparseMatrices;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+
+import org.ejml.data.DenseMatrix64F;
+
+import gnu.trove.map.hash.TIntDoubleHashMap;
+import gnu.trove.procedure.TIntDoubleProcedure;
+import gnu.trove.procedure.TIntProcedure;
+import us.ihmc.sparseMatrices.kernels.DoubleKernels;
+import us.ihmc.sparseMatrices.kernels.Kernels;
+
+/**
+ * Common operations on sparse matrices and on combinations of sparse and dense matrices. All output matrices must be
+ * allocated with the correct size by the caller and must not be one of the inputs.
+ */
+public class SparseCommonOps
+{
+   private static final DoubleKernels kernels = Kernels.get();
+   private static final ThreadLocal<DenseRowUpdateProcedure> denseRowUpdateProcedures = ThreadLocal.withInitial(DenseRowUpdateProcedure::new);
+   private static final ThreadLocal<DenseColumnUpdateProcedure> denseColumnUpdateProcedures = ThreadLocal.withInitial(DenseColumnUpdateProcedure::new);
+   private static final ThreadLocal<ScaledCopyProcedure> scaledCopyProcedures = ThreadLocal.withInitial(ScaledCopyProcedure::new);
+   private static final ThreadLocal<AxpyProcedure> axpyProcedures = ThreadLocal.withInitial(AxpyProcedure::new);
+   private static final ThreadLocal<ElementMultProcedure> elementMultProcedures = ThreadLocal.withInitial(ElementMultProcedure::new);
+   private static final ThreadLocal<TransposeProcedure> transposeProcedures = ThreadLocal.withInitial(TransposeProcedure::new);
+
+   /**
+    * Sets c = a * b for sparse a and dense b.
+    */
+   public static void mult(SparseMatrix a, DenseMatrix64F b, DenseMatrix64F c)
+   {
+      checkDimensions(a.getColumns() == b.getNumRows() && c.getNumRows() == a.getRows() && c.getNumCols() == b.getNumCols());
+      c.zero();
+
+      // Row i of c is the sum of the rows of b weighted with the entries in row i of a.
+      DenseRowUpdateProcedure procedure = denseRowUpdateProcedures.get();
+      for (int rowIdx = 0; rowIdx < a.getRows(); rowIdx++)
+      {
+         TIntDoubleHashMap row = a.getRow(rowIdx);
+         if (row != null && !row.isEmpty())
+         {
+            procedure.set(b, c, rowIdx, false);
+            row.forEachEntry(procedure);
+         }
+      }
+   }
+
+   /**
+    * Sets c = a^T * b for sparse a and dense b without forming the transpose of a.
+    */
+   public static void multTransA(SparseMatrix a, DenseMatrix64F b, DenseMatrix64F c)
+   {
+      checkDimensions(a.getRows() == b.getNumRows() && c.getNumRows() == a.getColumns() && c.getNumCols() == b.getNumCols());
+      c.zero();
+
+      // Each entry (i, k) of a adds row i of b to row k of c.
+      DenseRowUpdateProcedure procedure = denseRowUpdateProcedures.get();
+      for (int rowIdx = 0; rowIdx < a.getRows(); rowIdx++)
+      {
+         TIntDoubleHashMap row = a.getRow(rowIdx);
+         if (row != null && !row.isEmpty())
+         {
+            procedure.set(b, c, rowIdx, true);
+            row.forEachEntry(procedure);
+         }
+      }
+   }
+
+   /**
+    * Sets c = a * b for dense a and sparse b.
+    */
+   public static void mult(DenseMatrix64F a, SparseMatrix b, DenseMatrix64F c)
+   {
+      checkDimensions(a.getNumCols() == b.getRows() && c.getNumRows() == a.getNumRows() && c.getNumCols() == b.getColumns());
+      c.zero();
+
+      // Each entry (k, j) of b adds column k of a to column j of c.
+      DenseColumnUpdateProcedure procedure = denseColumnUpdateProcedures.get();
+      for (int rowIdx = 0; rowIdx < b.getRows(); rowIdx++)
+      {
+         TIntDoubleHashMap row = b.getRow(rowIdx);
+         if (row != null && !row.isEmpty())
+         {
+            procedure.set(a, c, rowIdx);
+            row.forEachEntry(procedure);
+         }
+      }
+   }
+
+   /**
+    * Sets c = a + b.
+    */
+   public static void add(SparseMatrix a, SparseMatrix b, SparseMatrix c)
+   {
+      add(1.0, a, 1.0, b, c);
+   }
+
+   /**
+    * Sets c = a - b.
+    */
+   public static void subtract(SparseMatrix a, SparseMatrix b, SparseMatrix c)
+   {
+      add(1.0, a, -1.0, b, c);
+   }
+
+   /**
+    * Sets c = alpha * a + beta * b. Every row of c is sized once for the entries of both rows and filled by walking
+    * the two rows. Entries that cancel out remain stored as zeros unless c has a drop tolerance, see
+    * {@link SparseMatrix#setDropTolerance(double, double)}.
+    */
+   public static void add(double alpha, SparseMatrix a, double beta, SparseMatrix b, SparseMatrix c)
+   {
+      checkSameDimensions(a, b);
+      checkNotAliased(c, a, b);
+
+      c.resize(a.getRows(), a.getColumns());
+      c.clear();
+      ScaledCopyProcedure procedure = scaledCopyProcedures.get();
+      for (int rowIdx = 0; rowIdx < a.getRows(); rowIdx++)
+      {
+         TIntDoubleHashMap rowA = a.getRow(rowIdx);
+         TIntDoubleHashMap rowB = b.getRow(rowIdx);
+         int sizeA = rowA == null ? 0 : rowA.size();
+         int sizeB = rowB == null ? 0 : rowB.size();
+         if (sizeA + sizeB == 0)
+         {
+            continue;
+         }
+
+         TIntDoubleHashMap rowC = c.getOrCreateRow(rowIdx);
+         rowC.ensureCapacity(sizeA + sizeB);
+         if (sizeA > 0)
+         {
+            procedure.set(alpha, rowC, false);
+            rowA.forEachEntry(procedure);
+         }
+         if (sizeB > 0)
+         {
+            procedure.set(beta, rowC, true);
+            rowB.forEachEntry(procedure);
+         }
+         c.applyDropTolerance(rowIdx, rowC);
+      }
+      c.rebuildColumnIndex();
+   }
+
+   /**
+    * Sets a = a + b.
+    */
+   public static void addEquals(SparseMatrix a, SparseMatrix b)
+   {
+      axpy(1.0, b, a);
+   }
+
+   /**
+    * Sets y = y + alpha * x. Only entries of x that are missing in y are inserted, so this works on a matrix with a
+    * locked pattern as long as the pattern of x is contained in it. If y has a drop tolerance it is applied to every
+    * updated row.
+    */
+   public static void axpy(double alpha, SparseMatrix x, SparseMatrix y)
+   {
+      checkSameDimensions(x, y);
+      if (x == y)
+      {
+         scale(1.0 + alpha, y);
+         return;
+      }
+
+      AxpyProcedure procedure = axpyProcedures.get();
+      for (int rowIdx = 0; rowIdx < x.getRows(); rowIdx++)
+      {
+         TIntDoubleHashMap rowX = x.getRow(rowIdx);
+         if (rowX != null && !rowX.isEmpty())
+         {
+            TIntDoubleHashMap rowY = y.getOrCreateRow(rowIdx);
+            procedure.set(alpha, y, rowIdx, rowY);
+            rowX.forEachEntry(procedure);
+            y.applyDropTolerance(rowIdx, rowY);
+         }
+      }
+   }
+
+   /**
+    * Sets a = alpha * a in place. Keeps the pattern of a, including entries scaled to zero.
+    */
+   public static void scale(double alpha, SparseMatrix a)
+   {
+      for (int rowIdx = 0; rowIdx < a.getRows(); rowIdx++)
+      {
+         TIntDoubleHashMap row = a.getRow(rowIdx);
+         if (row != null)
+         {
+            SparseMatrix.scaleRow(row, alpha);
+         }
+      }
+   }
+
+   /**
+    * Sets c = alpha * a.
+    */
+   public static void scale(double alpha, SparseMatrix a, SparseMatrix c)
+   {
+      checkNotAliased(c, a, a);
+
+      c.resize(a.getRows(), a.getColumns());
+      c.clear();
+      ScaledCopyProcedure procedure = scaledCopyProcedures.get();
+      for (int rowIdx = 0; rowIdx < a.getRows(); rowIdx++)
+      {
+         TIntDoubleHashMap rowA = a.getRow(rowIdx);
+         if (rowA != null && !rowA.isEmpty())
+         {
+            TIntDoubleHashMap rowC = c.getOrCreateRow(rowIdx);
+            rowC.ensureCapacity(rowA.size());
+            procedure.set(alpha, rowC, false);
+            rowA.forEachEntry(procedure);
+         }
+      }
+      c.rebuildColumnIndex();
+   }
+
+   /**
+    * Sets c to the element-wise product of a and b. Each row is computed by walking the smaller of the two rows and
+    * looking up its columns in the other.
+    */
+   public static void elementMult(SparseMatrix a, SparseMatrix b, SparseMatrix c)
+   {
+      checkSameDimensions(a, b);
+      checkNotAliased(c, a, b);
+
+      c.resize(a.getRows(), a.getColumns());
+      c.clear();
+      ElementMultProcedure procedure = elementMultProcedures.get();
+      for (int rowIdx = 0; rowIdx < a.getRows(); rowIdx++)
+      {
+         TIntDoubleHashMap rowA = a.getRow(rowIdx);
+         TIntDoubleHashMap rowB = b.getRow(rowIdx);
+         if (rowA == null || rowB == null || rowA.isEmpty() || rowB.isEmpty())
+         {
+            continue;
+         }
+
+         TIntDoubleHashMap smaller = rowA.size() <= rowB.size() ? rowA : rowB;
+         TIntDoubleHashMap larger = smaller == rowA ? rowB : rowA;
+         procedure.set(larger, c, rowIdx);
+         smaller.forEachEntry(procedure);
+      }
+      c.rebuildColumnIndex();
+   }
+
+   /**
+    * Sets c = a^T. The entries of every column of a are counted first such that each row of c is sized once.
+    */
+   public static void transpose(SparseMatrix a, SparseMatrix c)
+   {
+      checkNotAliased(c, a, a);
+
+      int[] columnCounts = new int[a.getColumns()];
+      TIntProcedure counter = colIdx ->
+      {
+         columnCounts[colIdx]++;
+         return true;
+      };
+      for (int rowIdx = 0; rowIdx < a.getRows(); rowIdx++)
+      {
+         TIntDoubleHashMap row = a.getRow(rowIdx);
+         if (row != null && !row.isEmpty())
+         {
+            row.forEachKey(counter);
+         }
+      }
+
+      c.resize(a.getColumns(), a.getRows());
+      c.clear();
+      for (int colIdx = 0; colIdx < a.getColumns(); colIdx++)
+      {
+         if (columnCounts[colIdx] > 0)
+         {
+            c.getOrCreateRow(colIdx).ensureCapacity(columnCounts[colIdx]);
+         }
+      }
+
+      TransposeProcedure procedure = transposeProcedures.get();
+      for (int rowIdx = 0; rowIdx < a.getRows(); rowIdx++)
+      {
+         TIntDoubleHashMap row = a.getRow(rowIdx);
+         if (row != null && !row.isEmpty())
+         {
+            procedure.set(c, rowIdx);
+            row.forEachEntry(procedure);
+         }
+      }
+      c.rebuildColumnIndex();
+   }
+
+   /**
+    * @return a new matrix holding alpha * a + beta * b, computed by merging the sorted rows of both matrices.
+    */
+   public static SparseMatrixCSR add(double alpha, CompressedRowMatrix a, double beta, CompressedRowMatrix b)
+   {
+      checkSameDimensions(a.getRows() == b.getRows() && a.getColumns() == b.getColumns());
+
+      int rows = a.getRows();
+      int[] rowPointer = new int[rows + 1];
+      int[] columnIndex = new int[a.getNumberOfNonZeros() + b.getNumberOfNonZeros()];
+      double[] value = new double[columnIndex.length];
+      int entries = 0;
+      for (int rowIdx = 0; rowIdx < rows; rowIdx++)
+      {
+         int i = a.getRowStart(rowIdx);
+         int j = b.getRowStart(rowIdx);
+         int endA = a.getRowEnd(rowIdx);
+         int endB = b.getRowEnd(rowIdx);
+         while (i < endA || j < endB)
+         {
+            int colA = i < endA ? a.getColumnIndex(i) : Integer.MAX_VALUE;
+            int colB = j < endB ? b.getColumnIndex(j) : Integer.MAX_VALUE;
+            if (colA < colB)
+            {
+               columnIndex[entries] = colA;
+               value[entries++] = alpha * a.getValue(i++);
+            }
+            else if (colB < colA)
+            {
+               columnIndex[entries] = colB;
+               value[entries++] = beta * b.getValue(j++);
+            }
+            else
+            {
+               columnIndex[entries] = colA;
+               value[entries++] = alpha * a.getValue(i++) + beta * b.getValue(j++);
+            }
+         }
+         rowPointer[rowIdx + 1] = entries;
+      }
+
+      return new SparseMatrixCSR(rows, a.getColumns(), rowPointer, trim(columnIndex, entries), trim(value, entries));
+   }
+
+   /**
+    * @return a new matrix holding alpha * a. Shares the pattern of a if it is a heap based matrix.
+    */
+   public static SparseMatrixCSR scale(double alpha, CompressedRowMatrix a)
+   {
+      int rows = a.getRows();
+      double[] value = new double[a.getNumberOfNonZeros()];
+      int[] rowPointer = a instanceof SparseMatrixCSR ? null : new int[rows + 1];
+      int[] columnIndex = a instanceof SparseMatrixCSR ? null : new int[value.length];
+
+      int entries = 0;
+      for (int rowIdx = 0; rowIdx < rows; rowIdx++)
+      {
+         for (int i = a.getRowStart(rowIdx); i < a.getRowEnd(rowIdx); i++)
+         {
+            value[entries] = alpha * a.getValue(i);
+            if (columnIndex != null)
+            {
+               columnIndex[entries] = a.getColumnIndex(i);
+            }
+            entries++;
+         }
+         if (rowPointer != null)
+         {
+            rowPointer[rowIdx + 1] = entries;
+         }
+      }
+
+      if (a instanceof SparseMatrixCSR)
+      {
+         return new SparseMatrixCSR((SparseMatrixCSR) a, value);
+      }
+      return new SparseMatrixCSR(rows, a.getColumns(), rowPointer, columnIndex, value);
+   }
+
+   /**
+    * @return a new matrix holding the element-wise product of a and b, computed by intersecting the sorted rows of
+    *         both matrices.
+    */
+   public static SparseMatrixCSR elementMult(CompressedRowMatrix a, CompressedRowMatrix b)
+   {
+      checkSameDimensions(a.getRows() == b.getRows() && a.getColumns() == b.getColumns());
+
+      int rows = a.getRows();
+      int[] rowPointer = new int[rows + 1];
+      int[] columnIndex = new int[Math.min(a.getNumberOfNonZeros(), b.getNumberOfNonZeros())];
+      double[] value = new double[columnIndex.length];
+      int entries = 0;
+      for (int rowIdx = 0; rowIdx < rows; rowIdx++)
+      {
+         int i = a.getRowStart(rowIdx);
+         int j = b.getRowStart(rowIdx);
+         int endA = a.getRowEnd(rowIdx);
+         int endB = b.getRowEnd(rowIdx);
+         while (i < endA && j < endB)
+         {
+            int colA = a.getColumnIndex(i);
+            int colB = b.getColumnIndex(j);
+            if (colA < colB)
+            {
+               i++;
+            }
+            else if (colB < colA)
+            {
+               j++;
+            }
+            else
+            {
+               columnIndex[entries] = colA;
+               value[entries++] = a.getValue(i++) * b.getValue(j++);
+            }
+         }
+         rowPointer[rowIdx + 1] = entries;
+      }
+
+      return new SparseMatrixCSR(rows, a.getColumns(), rowPointer, trim(columnIndex, entries), trim(value, entries));
+   }
+
+   /**
+    * Sets c = a^T * a without forming the transpose of a. Only the upper triangle of the symmetric result is computed,
+    * it is mirrored into the lower triangle unless upperTriangleOnly is set.
+    */
+   public static void multInner(SparseMatrix a, SparseMatrix c, boolean upperTriangleOnly)
+   {
+      SparseMatrixCSR compressed = prepareSymmetricResult(a, c, a.getColumns());
+      multInner(compressed, compressed.transpose(), c, 0, a.getColumns());
+      finishSymmetricResult(c, upperTriangleOnly);
+   }
+
+   /**
+    * Same as {@link #multInner(SparseMatrix, SparseMatrix, boolean)} but distributes the rows of the result over the
+    * provided executor.
+    */
+   public static void multInner(SparseMatrix a, SparseMatrix c, boolean upperTriangleOnly, ExecutorService executor)
+   {
+      SparseMatrixCSR compressed = prepareSymmetricResult(a, c, a.getColumns());
+      SparseMatrixCSR columns = compressed.transpose();
+      ParallelChunks.run(a.getColumns(), executor, (startRow, endRow) -> multInner(compressed, columns, c, startRow, endRow));
+      finishSymmetricResult(c, upperTriangleOnly);
+   }
+
+   /**
+    * Sets c = a * a^T without forming the transpose of a as a sparse matrix. A compressed column index of a is built
+    * to find the rows sharing a column. Only the upper triangle of the symmetric result is computed, it is mirrored
+    * into the lower triangle unless upperTriangleOnly is set.
+    */
+   public static void multOuter(SparseMatrix a, SparseMatrix c, boolean upperTriangleOnly)
+   {
+      SparseMatrixCSR compressed = prepareSymmetricResult(a, c, a.getRows());
+      multOuter(compressed, compressed.transpose(), c, 0, a.getRows());
+      finishSymmetricResult(c, upperTriangleOnly);
+   }
+
+   /**
+    * Same as {@link #multOuter(SparseMatrix, SparseMatrix, boolean)} but distributes the rows of the result over the
+    * provided executor.
+    */
+   public static void multOuter(SparseMatrix a, SparseMatrix c, boolean upperTriangleOnly, ExecutorService executor)
+   {
+      SparseMatrixCSR compressed = prepareSymmetricResult(a, c, a.getRows());
+      SparseMatrixCSR columns = compressed.transpose();
+      ParallelChunks.run(a.getRows(), executor, (startRow, endRow) -> multOuter(compressed, columns, c, startRow, endRow));
+      finishSymmetricResult(c, upperTriangleOnly);
+   }
+
+   /**
+    * Clears c and creates all its rows such that they can be filled by independent workers.
+    */
+   private static SparseMatrixCSR prepareSymmetricResult(SparseMatrix a, SparseMatrix c, int size)
+   {
+      c.resize(size, size);
+      c.clear();
+      for (int rowIdx = 0; rowIdx < size; rowIdx++)
+      {
+         c.getOrCreateRow(rowIdx);
+      }
+      return new SparseMatrixCSR(a);
+   }
+
+   /**
+    * Computes the rows startRow to endRow - 1 of the upper triangle of c = a^T * a. Row r of c only gets contributions
+    * from the rows of a holding an entry in column r, which are found in the provided transpose. Each of these rows
+    * adds its entries from column r on, scaled by its entry in column r.
+    */
+   private static void multInner(SparseMatrixCSR a, SparseMatrixCSR columns, SparseMatrix c, int startRow, int endRow)
+   {
+      for (int resultRowIdx = startRow; resultRowIdx < endRow; resultRowIdx++)
+      {
+         TIntDoubleHashMap resultRow = c.getRow(resultRowIdx);
+         for (int i = columns.getRowStart(resultRowIdx); i < columns.getRowEnd(resultRowIdx); i++)
+         {
+            int rowIdx = columns.getColumnIndex(i);
+            double valueI = columns.getValue(i);
+
+            // The columns of the row are sorted, start at the entry in the column of the result row.
+            int rowEnd = a.getRowEnd(rowIdx);
+            for (int j = a.getEntryIndex(rowIdx, resultRowIdx); j < rowEnd; j++)
+            {
+               double product = valueI * a.getValue(j);
+               resultRow.adjustOrPutValue(a.getColumnIndex(j), product, product);
+            }
+         }
+      }
+   }
+
+   /**
+    * Computes the rows startRow to endRow - 1 of the upper triangle of c = a * a^T. The columns of a are the rows of
+    * the provided transpose.
+    */
+   private static void multOuter(SparseMatrixCSR a, SparseMatrixCSR columns, SparseMatrix c, int startRow, int endRow)
+   {
+      for (int rowIdx = startRow; rowIdx < endRow; rowIdx++)
+      {
+         TIntDoubleHashMap resultRow = c.getRow(rowIdx);
+         for (int i = a.getRowStart(rowIdx); i < a.getRowEnd(rowIdx); i++)
+         {
+            int colIdx = a.getColumnIndex(i);
+            double valueI = a.getValue(i);
+
+            // The rows in the column are sorted, walk backwards until reaching the lower triangle.
+            for (int j = columns.getRowEnd(colIdx) - 1; j >= columns.getRowStart(colIdx); j--)
+            {
+               int otherRowIdx = columns.getColumnIndex(j);
+               if (otherRowIdx < rowIdx)
+               {
+                  break;
+               }
+               double product = valueI * columns.getValue(j);
+               resultRow.adjustOrPutValue(otherRowIdx, product, product);
+            }
+         }
+      }
+   }
+
+   private static void finishSymmetricResult(SparseMatrix c, boolean upperTriangleOnly)
+   {
+      if (!upperTriangleOnly)
+      {
+         mirrorUpperTriangle(c);
+      }
+      c.rebuildColumnIndex();
+   }
+
+   private static void mirrorUpperTriangle(SparseMatrix c)
+   {
+      SparseMatrixCSR upper = new SparseMatrixCSR(c);
+      for (int rowIdx = 0; rowIdx < upper.getRows(); rowIdx++)
+      {
+         for (int i = upper.getRowStart(rowIdx); i < upper.getRowEnd(rowIdx); i++)
+         {
+            int colIdx = upper.getColumnIndex(i);
+            if (colIdx != rowIdx)
+            {
+               c.getRow(colIdx).put(rowIdx, upper.getValue(i));
+            }
+         }
+      }
+   }
+
+   private static void checkDimensions(boolean valid)
+   {
+      if (!valid)
+      {
+         throw new RuntimeException("Unexpected Dimensions for Multiplication.");
+      }
+   }
+
+   private static void checkSameDimensions(SparseMatrix a, SparseMatrix b)
+   {
+      checkSameDimensions(a.getRows() == b.getRows() && a.getColumns() == b.getColumns());
+   }
+
+   private static void checkSameDimensions(boolean valid)
+   {
+      if (!valid)
+      {
+         throw new RuntimeException("Matrices must have the same dimensions.");
+      }
+   }
+
+   private static void checkNotAliased(SparseMatrix output, SparseMatrix inputA, SparseMatrix inputB)
+   {
+      if (output == inputA || output == inputB)
+      {
+         throw new RuntimeException("Output matrix must not be one of the inputs.");
+      }
+   }
+
+   private static int[] trim(int[] array, int length)
+   {
+      return array.length == length ? array : Arrays.copyOf(array, length);
+   }
+
+   private static double[] trim(double[] array, int length)
+   {
+      return array.length == length ? array : Arrays.copyOf(array, length);
+   }
+
+   private static class ScaledCopyProcedure implements TIntDoubleProcedure
+   {
+      private double scale;
+      private TIntDoubleHashMap destination;
+      private boolean add;
+
+      public void set(double scale, TIntDoubleHashMap destination, boolean add)
+      {
+         this.scale = scale;
+         this.destination = destination;
+         this.add = add;
+      }
+
+      @Override
+      public boolean execute(int colIdx, double value)
+      {
+         double scaledValue = scale * value;
+         if (add)
+         {
+            destination.adjustOrPutValue(colIdx, scaledValue, scaledValue);
+         }
+         else
+         {
+            destination.put(colIdx, scaledValue);
+         }
+         return true;
+      }
+   }
+
+   private static class AxpyProcedure implements TIntDoubleProcedure
+   {
+      private double alpha;
+      private SparseMatrix y;
+      private int rowIdx;
+      private TIntDoubleHashMap rowY;
+
+      public void set(double alpha, SparseMatrix y, int rowIdx, TIntDoubleHashMap rowY)
+      {
+         this.alpha = alpha;
+         this.y = y;
+         this.rowIdx = rowIdx;
+         this.rowY = rowY;
+      }
+
+      @Override
+      public boolean execute(int colIdx, double value)
+      {
+         y.addToRow(rowIdx, rowY, colIdx, alpha * value);
+         return true;
+      }
+   }
+
+   private static class ElementMultProcedure implements TIntDoubleProcedure
+   {
+      private TIntDoubleHashMap other;
+      private SparseMatrix destination;
+      private int rowIdx;
+      private TIntDoubleHashMap destinationRow;
+
+      public void set(TIntDoubleHashMap other, SparseMatrix destination, int rowIdx)
+      {
+         this.other = other;
+         this.destination = destination;
+         this.rowIdx = rowIdx;
+         destinationRow = null;
+      }
+
+      @Override
+      public boolean execute(int colIdx, double value)
+      {
+         if (other.containsKey(colIdx))
+         {
+            if (destinationRow == null)
+            {
+               destinationRow = destination.getOrCreateRow(rowIdx);
+            }
+            destinationRow.put(colIdx, value * other.get(colIdx));
+         }
+         return true;
+      }
+   }
+
+   private static class TransposeProcedure implements TIntDoubleProcedure
+   {
+      private SparseMatrix destination;
+      private int rowIdx;
+
+      public void set(SparseMatrix destination, int rowIdx)
+      {
+         this.destination = destination;
+         this.rowIdx = rowIdx;
+      }
+
+      @Override
+      public boolean execute(int colIdx, double value)
+      {
+         destination.getRow(colIdx).put(rowIdx, value);
+         return true;
+      }
+   }
+
+   private static class DenseRowUpdateProcedure implements TIntDoubleProcedure
+   {
+      private DenseMatrix64F source;
+      private DenseMatrix64F destination;
+      private int sparseRowIdx;
+      private boolean transposed;
+
+      public void set(DenseMatrix64F source, DenseMatrix64F destination, int sparseRowIdx, boolean transposed)
+      {
+         this.source = source;
+         this.destination = destination;
+         this.sparseRowIdx = sparseRowIdx;
+         this.transposed = transposed;
+      }
+
+      @Override
+      public boolean execute(int sparseColIdx, double value)
+      {
+         int columns = destination.numCols;
+         int sourceIndex = (transposed ? sparseRowIdx : sparseColIdx) * columns;
+         int destinationIndex = (transposed ? sparseColIdx : sparseRowIdx) * columns;
+         kernels.axpy(value, source.data, sourceIndex, destination.data, destinationIndex, columns);
+         return true;
+      }
+   }
+
+   private static class DenseColumnUpdateProcedure implements TIntDoubleProcedure
+   {
+      private DenseMatrix64F source;
+      private DenseMatrix64F destination;
+      private int sparseRowIdx;
+
+      public void set(DenseMatrix64F source, DenseMatrix64F destination, int sparseRowIdx)
+      {
+         this.source = source;
+         this.destination = destination;
+         this.sparseRowIdx = sparseRowIdx;
+      }
+
+      @Override
+      public boolean execute(int sparseColIdx, double value)
+      {
+         int rows = destination.numRows;
+         int sourceColumns = source.numCols;
+         int destinationColumns = destination.numCols;
+         double[] sourceData = source.data;
+         double[] destinationData = destination.data;
+         for (int i = 0; i < rows; i++)
+         {
+            destinationData[i * destinationColumns + sparseColIdx] += value * sourceData[i * sourceColumns + sparseRowIdx];
+         }
+         return true;
+      }
+   }
+}
@@ -0,0 +1,454 @@
+package us.ihmc.sparseMatrices;
+
+import java.util.Arrays;
+
+import gnu.trove.map.hash.TIntDoubleHashMap;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.procedure.TIntDoubleProcedure;
+import gnu.trove.procedure.TIntProcedure;
+import gnu.trove.set.hash.TIntHashSet;
+import us.ihmc.sparseMatrices.ordering.FillReducingOrdering;
+
+/**
+ * Solves linear systems A * x = b by computing a sparse LU factorization P * A * Q = L * U with partial row pivoting
+ * P and an optional fill reducing column order Q.
+ * The factorization is computed once in {@link #factor(SparseMatrix)} and can then be reused for any number of
+ * right hand sides. This avoids forming the inverse of A which is usually dense even if A is sparse.
+ * <p>
+ * If only the values of A change {@link #refactor(SparseMatrix)} recomputes the factors in place keeping the pivots
+ * and the pattern of L and U.
+ */
+public class SparseLUSolver implements SparseLinearSolver
+{
+   private static final double epsilon = 1.0e-10;
+
+   private final SparseMatrix localMatrix = new SparseMatrix();
+   private final SparseMatrix localMultipliers = new SparseMatrix();
+   private final EliminationProcedure eliminationProcedure = new EliminationProcedure();
+   private final CandidateRowCollector candidateRowCollector = new CandidateRowCollector();
+   private final ScatterProcedure scatterProcedure = new ScatterProcedure();
+   private FillReducingOrdering ordering = null;
+
+   /**
+    * Row k of L and U was computed from this row of the factored matrix.
+    */
+   private int[] pivotOrder = new int[0];
+
+   /**
+    * The inverse of the pivot order: the position of each row of the factored matrix in the pivot order.
+    */
+   private int[] pivotPositions = new int[0];
+
+   /**
+    * Row k of L and U was computed from this row of the original matrix.
+    */
+   private int[] rowOrder = new int[0];
+
+   /**
+    * Column k of L and U corresponds to this column of the original matrix.
+    */
+   private int[] columnOrder = new int[0];
+   private int[] inverseColumnOrder = new int[0];
+
+   /**
+    * Strictly lower part of L. The diagonal of L is one and not stored.
+    */
+   private SparseMatrixCSR lower;
+
+   /**
+    * Upper triangle U including the diagonal which is always the first entry of each row.
+    */
+   private SparseMatrixCSR upper;
+
+   private double[] workVector = new double[0];
+
+   /**
+    * Marks the columns of the pattern of the row that is currently refactored.
+    */
+   private int[] marker = new int[0];
+
+   private int size = -1;
+
+   public SparseLUSolver()
+   {
+      localMatrix.setColumnIndexing(true);
+   }
+
+   /**
+    * Sets an ordering that is used to symmetrically permute the matrix before factoring it to reduce fill-in. If the
+    * ordering is null (default) the columns are eliminated in their original order.
+    */
+   public void setOrdering(FillReducingOrdering ordering)
+   {
+      this.ordering = ordering;
+   }
+
+   /**
+    * Computes the factorization of the provided matrix.
+    *
+    * @return false if the matrix is singular. In that case no solve is possible until the next successful call.
+    */
+   @Override
+   public boolean factor(SparseMatrix matrix)
+   {
+      int n = matrix.getRows();
+      if (n != matrix.getColumns())
+      {
+         throw new RuntimeException("Can only factor square matrices.");
+      }
+
+      size = -1;
+      if (pivotOrder.length != n)
+      {
+         pivotOrder = new int[n];
+         pivotPositions = new int[n];
+         rowOrder = new int[n];
+         inverseColumnOrder = new int[n];
+         marker = new int[n];
+         workVector = new double[n];
+      }
+      for (int i = 0; i < n; i++)
+      {
+         pivotOrder[i] = i;
+      }
+
+      if (ordering == null)
+      {
+         localMatrix.set(matrix);
+         columnOrder = pivotOrder.clone();
+      }
+      else
+      {
+         columnOrder = ordering.computeOrdering(matrix);
+         localMatrix.setSymmetricPermutation(matrix, columnOrder);
+      }
+      localMultipliers.resize(n, n);
+      localMultipliers.clear();
+
+      for (int i = 0; i < n; i++)
+      {
+         pivotPositions[i] = i;
+      }
+
+      for (int k = 0; k < n; k++)
+      {
+         // Only the remaining rows that hold an entry in column k need to be looked at.
+         candidateRowCollector.reset(k);
+         TIntHashSet rowsInColumn = localMatrix.getRowsInColumn(k);
+         if (rowsInColumn != null)
+         {
+            rowsInColumn.forEach(candidateRowCollector);
+         }
+         TIntArrayList candidateRows = candidateRowCollector.getRows();
+
+         // Partial pivoting: pick the remaining row with the largest magnitude entry in column k.
+         int pivotRowIndex = -1;
+         double pivotMagnitude = 0.0;
+         for (int i = 0; i < candidateRows.size(); i++)
+         {
+            int rowIdx = candidateRows.get(i);
+            double magnitude = Math.abs(localMatrix.getRow(rowIdx).get(k));
+            if (magnitude > pivotMagnitude || (magnitude == pivotMagnitude && rowIdx < pivotRowIndex))
+            {
+               pivotMagnitude = magnitude;
+               pivotRowIndex = rowIdx;
+            }
+         }
+
+         if (pivotRowIndex < 0 || closeToZero(pivotMagnitude))
+         {
+            return false;
+         }
+
+         int pivotPosition = pivotPositions[pivotRowIndex];
+         int swappedRowIndex = pivotOrder[k];
+         pivotOrder[pivotPosition] = swappedRowIndex;
+         pivotPositions[swappedRowIndex] = pivotPosition;
+         pivotOrder[k] = pivotRowIndex;
+         pivotPositions[pivotRowIndex] = k;
+
+         TIntDoubleHashMap pivotRow = localMatrix.getRow(pivotRowIndex);
+         double pivot = pivotRow.get(k);
+
+         for (int i = 0; i < candidateRows.size(); i++)
+         {
+            int lowerRowIndex = candidateRows.get(i);
+            if (lowerRowIndex == pivotRowIndex)
+            {
+               continue;
+            }
+
+            // Zero multipliers are stored as well such that the pattern of L is complete for a refactorization.
+            double multiplier = localMatrix.removeUnsafe(lowerRowIndex, k) / pivot;
+            localMultipliers.getOrCreateRow(lowerRowIndex).put(k, multiplier);
+            eliminationProcedure.set(multiplier, k, lowerRowIndex, localMatrix.getRow(lowerRowIndex));
+            pivotRow.forEachEntry(eliminationProcedure);
+         }
+      }
+
+      lower = new SparseMatrixCSR(localMultipliers, pivotOrder);
+      upper = new SparseMatrixCSR(localMatrix, pivotOrder);
+      for (int k = 0; k < n; k++)
+      {
+         rowOrder[k] = columnOrder[pivotOrder[k]];
+         inverseColumnOrder[columnOrder[k]] = k;
+      }
+      size = n;
+      return true;
+   }
+
+   /**
+    * Recomputes the values of L and U for a matrix whose pattern is contained in the pattern of the last factored
+    * matrix. The row and column orders and the pattern of the factors are kept, so no hash maps are built and the
+    * factors are updated in place. Since the pivots are not chosen again this is only accurate if the values did not
+    * change too much. If there is no valid factorization a full factorization is computed.
+    *
+    * @return false if the matrix has entries outside of the pattern or a pivot became close to zero. In that case no
+    *         solve is possible until the next successful call to {@link #factor(SparseMatrix)}.
+    */
+   @Override
+   public boolean refactor(SparseMatrix matrix)
+   {
+      if (size < 0 || matrix.getRows() != size || matrix.getColumns() != size)
+      {
+         return factor(matrix);
+      }
+
+      int n = size;
+      size = -1;
+      double[] lowerValues = lower.getValueArray();
+      double[] upperValues = upper.getValueArray();
+      Arrays.fill(workVector, 0.0);
+      Arrays.fill(marker, -1);
+
+      for (int k = 0; k < n; k++)
+      {
+         for (int i = lower.getRowStart(k); i < lower.getRowEnd(k); i++)
+         {
+            marker[lower.getColumnIndex(i)] = k;
+         }
+         for (int i = upper.getRowStart(k); i < upper.getRowEnd(k); i++)
+         {
+            marker[upper.getColumnIndex(i)] = k;
+         }
+
+         TIntDoubleHashMap row = matrix.getRow(rowOrder[k]);
+         if (row != null)
+         {
+            scatterProcedure.set(k);
+            row.forEachEntry(scatterProcedure);
+            if (!scatterProcedure.valid())
+            {
+               return false;
+            }
+         }
+
+         // Eliminate the columns of L in increasing order using the rows of U that are already computed.
+         for (int i = lower.getRowStart(k); i < lower.getRowEnd(k); i++)
+         {
+            int column = lower.getColumnIndex(i);
+            int diagonalIndex = upper.getRowStart(column);
+            double multiplier = workVector[column] / upperValues[diagonalIndex];
+            workVector[column] = 0.0;
+            lowerValues[i] = multiplier;
+            for (int j = diagonalIndex + 1; j < upper.getRowEnd(column); j++)
+            {
+               workVector[upper.getColumnIndex(j)] -= multiplier * upperValues[j];
+            }
+         }
+
+         for (int i = upper.getRowStart(k); i < upper.getRowEnd(k); i++)
+         {
+            int column = upper.getColumnIndex(i);
+            upperValues[i] = workVector[column];
+            workVector[column] = 0.0;
+         }
+
+         if (closeToZero(upperValues[upper.getRowStart(k)]))
+         {
+            return false;
+         }
+      }
+
+      size = n;
+      return true;
+   }
+
+   @Override
+   public int getSize()
+   {
+      checkFactored();
+      return size;
+   }
+
+   @Override
+   public void solve(double[] b, double[] x)
+   {
+      checkFactored();
+      if (b.length < size || x.length < size)
+      {
+         throw new RuntimeException("Unexpected vector size.");
+      }
+
+      for (int k = 0; k < size; k++)
+      {
+         workVector[k] = b[rowOrder[k]];
+      }
+
+      // Forward substitution L * y = P * b followed by backward substitution U * z = y.
+      SparseTriangularSolver.solveLower(lower, true, workVector, workVector);
+      SparseTriangularSolver.solveUpper(upper, false, workVector, workVector);
+
+      for (int k = 0; k < size; k++)
+      {
+         x[columnOrder[k]] = workVector[k];
+      }
+   }
+
+   /**
+    * The returned matrix is updated in place by {@link #refactor(SparseMatrix)}.
+    *
+    * @return the strictly lower part of L, the diagonal of L is one.
+    */
+   public SparseMatrixCSR getLower()
+   {
+      checkFactored();
+      return lower;
+   }
+
+   /**
+    * The returned matrix is updated in place by {@link #refactor(SparseMatrix)}.
+    *
+    * @return the upper triangular factor U.
+    */
+   public SparseMatrixCSR getUpper()
+   {
+      checkFactored();
+      return upper;
+   }
+
+   /**
+    * @return the row order of the factorization: row k of L * U corresponds to row rowOrder[k] of the matrix.
+    */
+   public int[] getRowOrder()
+   {
+      checkFactored();
+      return rowOrder;
+   }
+
+   /**
+    * @return the column order of the factorization: column k of L * U corresponds to column columnOrder[k] of the
+    *         matrix.
+    */
+   public int[] getColumnOrder()
+   {
+      checkFactored();
+      return columnOrder;
+   }
+
+   private void checkFactored()
+   {
+      if (size < 0)
+      {
+         throw new RuntimeException("No valid factorization available.");
+      }
+   }
+
+   private static boolean closeToZero(double value)
+   {
+      return value < epsilon && value > -epsilon;
+   }
+
+   private class EliminationProcedure implements TIntDoubleProcedure
+   {
+      private double multiplier;
+      private int skipIndex;
+      private int rowToModifyIndex;
+      private TIntDoubleHashMap rowToModify;
+
+      public void set(double multiplier, int skipIndex, int rowToModifyIndex, TIntDoubleHashMap rowToModify)
+      {
+         this.multiplier = multiplier;
+         this.skipIndex = skipIndex;
+         this.rowToModifyIndex = rowToModifyIndex;
+         this.rowToModify = rowToModify;
+      }
+
+      @Override
+      public boolean execute(int index, double value)
+      {
+         // Skip since this one is already removed.
+         if (index == skipIndex)
+         {
+            return true;
+         }
+
+         localMatrix.addToRow(rowToModifyIndex, rowToModify, index, -multiplier * value);
+         return true;
+      }
+   }
+
+   /**
+    * Collects the rows that have not been used as pivot row before the given step.
+    */
+   private class CandidateRowCollector implements TIntProcedure
+   {
+      private final TIntArrayList rows = new TIntArrayList();
+      private int step;
+
+      public void reset(int step)
+      {
+         this.step = step;
+         rows.resetQuick();
+      }
+
+      public TIntArrayList getRows()
+      {
+         return rows;
+      }
+
+      @Override
+      public boolean execute(int rowIdx)
+      {
+         if (pivotPositions[rowIdx] >= step)
+         {
+            rows.add(rowIdx);
+         }
+         return true;
+      }
+   }
+
+   /**
+    * Writes a row of the matrix into the work vector using the column order of the factorization. Fails if an entry
+    * is not part of the pattern of the row of L and U it belongs to.
+    */
+   private class ScatterProcedure implements TIntDoubleProcedure
+   {
+      private int step;
+      private boolean valid;
+
+      public void set(int step)
+      {
+         this.step = step;
+         valid = true;
+      }
+
+      public boolean valid()
+      {
+         return valid;
+      }
+
+      @Override
+      public boolean execute(int colIdx, double value)
+      {
+         int column = inverseColumnOrder[colIdx];
+         if (marker[column] != step)
+         {
+            valid = false;
+            return false;
+         }
+         workVector[column] = value;
+         return true;
+      }
+   }
+}
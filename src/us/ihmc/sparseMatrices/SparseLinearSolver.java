@@ -0,0 +1,85 @@
+package us.ihmc.sparseMatrices;
+
+import java.util.Arrays;
+
+/**
+ * A direct solver for linear systems A * x = b that factors A once and reuses the factorization for any number of
+ * right hand sides.
+ */
+public interface SparseLinearSolver
+{
+   /**
+    * Computes the factorization of the provided matrix.
+    *
+    * @return false if the matrix could not be factored. In that case no solve is possible until the next successful
+    *         call.
+    */
+   public boolean factor(SparseMatrix matrix);
+
+   /**
+    * Recomputes the factorization for a matrix whose pattern is contained in the pattern of the last factored
+    * matrix. Implementations reuse the symbolic work of the last {@link #factor(SparseMatrix)} call such as the
+    * orderings and the pattern of the factors and only recompute the numeric values. The default implementation
+    * computes a new factorization.
+    *
+    * @return false if the matrix could not be factored with the existing pattern and pivots. Call
+    *         {@link #factor(SparseMatrix)} in that case.
+    */
+   public default boolean refactor(SparseMatrix matrix)
+   {
+      return factor(matrix);
+   }
+
+   /**
+    * @return the number of rows of the factored matrix.
+    */
+   public int getSize();
+
+   /**
+    * Solves A * x = b for x. The vectors b and x may be the same array.
+    */
+   public void solve(double[] b, double[] x);
+
+   /**
+    * Solves A * X = B for X one column of B at a time.
+    */
+   public default void solve(SparseMatrix B, SparseMatrix X)
+   {
+      int size = getSize();
+      if (B.getRows() != size)
+      {
+         throw new RuntimeException("Unexpected Dimensions for Solve.");
+      }
+
+      int columns = B.getColumns();
+      X.resize(size, columns);
+      X.clear();
+
+      double[] columnVector = new double[size];
+      double[] solutionVector = new double[size];
+
+      SparseMatrixCSR columnsOfB = new SparseMatrixCSR(B).transpose();
+      for (int column = 0; column < columns; column++)
+      {
+         int start = columnsOfB.getRowStart(column);
+         int end = columnsOfB.getRowEnd(column);
+         if (start == end)
+         {
+            continue;
+         }
+
+         Arrays.fill(columnVector, 0.0);
+         for (int i = start; i < end; i++)
+         {
+            columnVector[columnsOfB.getColumnIndex(i)] = columnsOfB.getValue(i);
+         }
+
+         solve(columnVector, solutionVector);
+
+         for (int row = 0; row < size; row++)
+         {
+            X.set(row, column, solutionVector[row]);
+         }
+      }
+   }
+}
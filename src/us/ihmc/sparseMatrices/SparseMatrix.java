@@ -1,21 +1,49 @@
 package us.ihmc.sparseMatrices;
 
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+
 import org.ejml.data.DenseMatrix64F;
 
+import gnu.trove.function.TDoubleFunction;
+import gnu.trove.iterator.TIntObjectIterator;
 import gnu.trove.map.hash.TIntDoubleHashMap;
 import gnu.trove.map.hash.TIntObjectHashMap;
+import gnu.trove.procedure.TDoubleProcedure;
 import gnu.trove.procedure.TIntDoubleProcedure;
 import gnu.trove.procedure.TIntObjectProcedure;
+import gnu.trove.procedure.TIntProcedure;
+import gnu.trove.set.hash.TIntHashSet;
+import us.ihmc.sparseMatrices.kernels.DoubleKernels;
+import us.ihmc.sparseMatrices.kernels.Kernels;
 
 public class SparseMatrix
 {
-   private static final int defaultInitialSize = 100;
+   private static final int defaultExpectedEntriesPerRow = 10;
+   private static final DoubleKernels kernels = Kernels.get();
+
+   /**
+    * Rough sizes in bytes used to estimate the memory footprint: an int key, a double value, a reference, the state
+    * byte every hash slot carries and the header plus array headers of a hash map.
+    */
+   private static final int bytesPerInt = 4;
+   private static final int bytesPerDouble = 8;
+   private static final int bytesPerReference = 4;
+   private static final int bytesPerSlotState = 1;
+   private static final int bytesPerHashOverhead = 80;
 
    /**
     * A map from matrix row index to row. Each row is represented by a map from column index to the entry.
     */
    private final TIntObjectHashMap<TIntDoubleHashMap> values;
 
+   /**
+    * An optional map from column index to the indices of all rows that hold an entry in that column. Null if column
+    * indexing is disabled.
+    */
+   private TIntObjectHashMap<TIntHashSet> columnIndex = null;
+
    /**
     * The number of rows in this matrix.
     */
@@ -26,6 +54,27 @@ public class SparseMatrix
     */
    private int columns;
 
+   /**
+    * The capacity that rows are created with. Rows are only created once they receive their first entry.
+    */
+   private int expectedEntriesPerRow;
+
+   /**
+    * If the pattern is locked no entries can be created or removed. The entries can then be addressed by slot: slot
+    * i is the i-th entry in row major order with increasing column index within each row.
+    */
+   private boolean patternLocked = false;
+   private SparseMatrixCSR lockedPattern = null;
+   private SparseRow[] slotRows = new SparseRow[0];
+   private int[] slotIndices = new int[0];
+
+   /**
+    * If enabled, small entries are removed from the rows of this matrix whenever it is computed as a product or sum.
+    */
+   private boolean dropEntries = false;
+   private double absoluteDropTolerance = 0.0;
+   private double relativeDropTolerance = 0.0;
+
    public SparseMatrix()
    {
       this(0, 0);
@@ -33,28 +82,348 @@ public class SparseMatrix
 
    public SparseMatrix(int rows, int colums)
    {
-      values = createDataStructure(defaultInitialSize);
+      this(rows, colums, defaultExpectedEntriesPerRow);
+   }
+
+   /**
+    * Creates a matrix whose rows are sized to hold the expected number of entries without growing. No memory is
+    * allocated for a row until it receives its first entry.
+    */
+   public SparseMatrix(int rows, int colums, int expectedEntriesPerRow)
+   {
+      values = createDataStructure();
+      this.expectedEntriesPerRow = Math.max(1, expectedEntriesPerRow);
       resize(rows, colums);
    }
 
-   private static TIntObjectHashMap<TIntDoubleHashMap> createDataStructure(int initialCapacity)
+   private static TIntObjectHashMap<TIntDoubleHashMap> createDataStructure()
    {
-      TIntObjectHashMap<TIntDoubleHashMap> values = new TIntObjectHashMap<>(initialCapacity);
+      TIntObjectHashMap<TIntDoubleHashMap> values = new TIntObjectHashMap<>();
       values.setAutoCompactionFactor(0f);
-      for (int i = 0; i < defaultInitialSize; i++)
-      {
-         values.put(i, createRow(defaultInitialSize));
-      }
       return values;
    }
 
    private static TIntDoubleHashMap createRow(int initialCapacity)
    {
-      TIntDoubleHashMap row = new TIntDoubleHashMap(initialCapacity);
+      TIntDoubleHashMap row = new SparseRow(initialCapacity);
       row.setAutoCompactionFactor(0f);
       return row;
    }
 
+   /**
+    * Locks the sparsity pattern of this matrix. Until the pattern is unlocked entries can not be created or removed,
+    * only the values of existing entries can change. This allows addressing entries by a slot obtained from
+    * {@link #getSlot(int, int)} which avoids the hash lookup when updating values repeatedly.
+    */
+   public void lockPattern()
+   {
+      lockedPattern = new SparseMatrixCSR(this);
+      int nonZeros = lockedPattern.getNumberOfNonZeros();
+      if (slotRows.length < nonZeros)
+      {
+         slotRows = new SparseRow[nonZeros];
+         slotIndices = new int[nonZeros];
+      }
+
+      for (int rowIdx = 0; rowIdx < lockedPattern.getRows(); rowIdx++)
+      {
+         SparseRow row = (SparseRow) values.get(rowIdx);
+         for (int i = lockedPattern.getRowStart(rowIdx); i < lockedPattern.getRowEnd(rowIdx); i++)
+         {
+            slotRows[i] = row;
+            slotIndices[i] = row.indexOf(lockedPattern.getColumnIndex(i));
+         }
+      }
+      patternLocked = true;
+   }
+
+   public void unlockPattern()
+   {
+      patternLocked = false;
+      lockedPattern = null;
+      Arrays.fill(slotRows, null);
+   }
+
+   public boolean isPatternLocked()
+   {
+      return patternLocked;
+   }
+
+   /**
+    * Requires the pattern to be locked.
+    *
+    * @return the slot of the given entry which can be used with {@link #setSlot(int, double)},
+    *         {@link #addSlot(int, double)} and {@link #getSlotValue(int)} while the pattern stays locked.
+    */
+   public int getSlot(int rowIdx, int colIdx)
+   {
+      checkDimentions(rowIdx, colIdx);
+      if (!patternLocked)
+      {
+         throw new RuntimeException("Pattern is not locked.");
+      }
+      int slot = lockedPattern.getEntryIndex(rowIdx, colIdx);
+      if (slot < 0)
+      {
+         throw new RuntimeException("Entry is not part of the locked pattern.");
+      }
+      return slot;
+   }
+
+   /**
+    * @return the number of slots of the locked pattern.
+    */
+   public int getNumberOfSlots()
+   {
+      if (!patternLocked)
+      {
+         throw new RuntimeException("Pattern is not locked.");
+      }
+      return lockedPattern.getNumberOfNonZeros();
+   }
+
+   /**
+    * Sets the value of an entry of the locked pattern. Unlike {@link #set(int, int, double)} a value of zero is
+    * stored since the entry stays part of the pattern.
+    */
+   public void setSlot(int slot, double value)
+   {
+      checkSlot(slot);
+      slotRows[slot].setValueAt(slotIndices[slot], value);
+   }
+
+   public void addSlot(int slot, double value)
+   {
+      checkSlot(slot);
+      slotRows[slot].addValueAt(slotIndices[slot], value);
+   }
+
+   public double getSlotValue(int slot)
+   {
+      checkSlot(slot);
+      return slotRows[slot].getValueAt(slotIndices[slot]);
+   }
+
+   private void checkSlot(int slot)
+   {
+      if (!patternLocked || slot < 0 || slot >= lockedPattern.getNumberOfNonZeros())
+      {
+         throw new RuntimeException("Invalid slot.");
+      }
+   }
+
+   private void checkPatternUnlocked()
+   {
+      if (patternLocked)
+      {
+         throw new RuntimeException("Pattern is locked.");
+      }
+   }
+
+   /**
+    * Makes sure every existing row can hold the expected number of entries without growing and uses the value as
+    * capacity for rows created later on.
+    */
+   public void ensureCapacity(int expectedEntriesPerRow)
+   {
+      checkPatternUnlocked();
+      this.expectedEntriesPerRow = Math.max(1, expectedEntriesPerRow);
+      for (TIntDoubleHashMap row : values.valueCollection())
+      {
+         if (row.size() < this.expectedEntriesPerRow)
+         {
+            row.ensureCapacity(this.expectedEntriesPerRow - row.size());
+         }
+      }
+   }
+
+   /**
+    * Releases memory that is not needed to hold the current entries. Rows without entries are dropped and all other
+    * rows are shrunk to their size. Since {@link #clear()} keeps the capacity of all rows for reuse, call this after a
+    * dense phase if the matrix is kept around.
+    */
+   public void trimToSize()
+   {
+      checkPatternUnlocked();
+      values.retainEntries((rowIdx, row) -> !row.isEmpty());
+      for (TIntDoubleHashMap row : values.valueCollection())
+      {
+         row.compact();
+      }
+      values.compact();
+
+      if (columnIndex != null)
+      {
+         columnIndex.retainEntries((colIdx, rowsInColumn) -> !rowsInColumn.isEmpty());
+         for (TIntHashSet rowsInColumn : columnIndex.valueCollection())
+         {
+            rowsInColumn.compact();
+         }
+         columnIndex.compact();
+      }
+   }
+
+   /**
+    * Enables removing small entries from the results that are written into this matrix by
+    * {@link #mult(SparseMatrix, SparseMatrix)}, {@link #multParallel(SparseMatrix, SparseMatrix, ExecutorService)} and
+    * the sums in {@link SparseCommonOps}. Once a row of the result is computed every entry with a magnitude of at most
+    * max(absoluteTolerance, relativeTolerance * norm) is removed, where norm is the euclidean norm of the row. With
+    * both tolerances zero only entries that cancelled out exactly are removed. Nothing is removed while the pattern is
+    * locked.
+    */
+   public void setDropTolerance(double absoluteTolerance, double relativeTolerance)
+   {
+      checkDropTolerance(absoluteTolerance, relativeTolerance);
+      dropEntries = true;
+      absoluteDropTolerance = absoluteTolerance;
+      relativeDropTolerance = relativeTolerance;
+   }
+
+   /**
+    * Disables removing small entries from results, this is the default.
+    */
+   public void clearDropTolerance()
+   {
+      dropEntries = false;
+      absoluteDropTolerance = 0.0;
+      relativeDropTolerance = 0.0;
+   }
+
+   public boolean hasDropTolerance()
+   {
+      return dropEntries;
+   }
+
+   public double getAbsoluteDropTolerance()
+   {
+      return absoluteDropTolerance;
+   }
+
+   public double getRelativeDropTolerance()
+   {
+      return relativeDropTolerance;
+   }
+
+   /**
+    * Removes all entries with a magnitude of at most epsilon. Use zero to only remove stored zeros.
+    *
+    * @return the number of removed entries.
+    */
+   public int prune(double epsilon)
+   {
+      return prune(epsilon, 0.0);
+   }
+
+   /**
+    * Removes all entries with a magnitude of at most max(absoluteTolerance, relativeTolerance * norm), where norm is
+    * the euclidean norm of the row holding the entry. The capacity of the rows is kept, see {@link #trimToSize()}.
+    *
+    * @return the number of removed entries.
+    */
+   public int prune(double absoluteTolerance, double relativeTolerance)
+   {
+      checkPatternUnlocked();
+      checkDropTolerance(absoluteTolerance, relativeTolerance);
+      int removed = 0;
+      TIntObjectIterator<TIntDoubleHashMap> iterator = values.iterator();
+      while (iterator.hasNext())
+      {
+         iterator.advance();
+         removed += pruneRow(iterator.key(), iterator.value(), absoluteTolerance, relativeTolerance);
+      }
+      return removed;
+   }
+
+   private static void checkDropTolerance(double absoluteTolerance, double relativeTolerance)
+   {
+      if (!(absoluteTolerance >= 0.0) || !(relativeTolerance >= 0.0))
+      {
+         throw new RuntimeException("Drop tolerances must not be negative.");
+      }
+   }
+
+   /**
+    * Applies the drop tolerance of this matrix to the given row which must be the row stored for rowIdx. Does nothing
+    * if no drop tolerance is set or the pattern is locked.
+    *
+    * @return the number of removed entries.
+    */
+   int applyDropTolerance(int rowIdx, TIntDoubleHashMap row)
+   {
+      if (!dropEntries || patternLocked)
+      {
+         return 0;
+      }
+      return pruneRow(rowIdx, row, absoluteDropTolerance, relativeDropTolerance);
+   }
+
+   /**
+    * Removes the small entries of the given row which must be the row stored for rowIdx. Keeps the column index up to
+    * date. Entries that are not a number are kept.
+    *
+    * @return the number of removed entries.
+    */
+   int pruneRow(int rowIdx, TIntDoubleHashMap row, double absoluteTolerance, double relativeTolerance)
+   {
+      if (row.isEmpty())
+      {
+         return 0;
+      }
+
+      PruningProcedure pruningProcedure = pruningProcedures.get();
+      double threshold = absoluteTolerance;
+      if (relativeTolerance > 0.0)
+      {
+         threshold = Math.max(threshold, relativeTolerance * pruningProcedure.computeNorm(row));
+      }
+
+      int size = row.size();
+      pruningProcedure.set(threshold, rowIdx, columnIndex);
+      row.retainEntries(pruningProcedure);
+      return size - row.size();
+   }
+
+   /**
+    * Multiplies every entry of the row by alpha. Rows created by this class are scaled directly in their value array
+    * using the {@link Kernels}, including the unused slots, as long as at least half of the slots hold an entry.
+    */
+   static void scaleRow(TIntDoubleHashMap row, double alpha)
+   {
+      if (row instanceof SparseRow && 2 * row.size() >= row.capacity())
+      {
+         ((SparseRow) row).scale(alpha);
+      }
+      else
+      {
+         ScalingProcedure scalingProcedure = scalingProcedures.get();
+         scalingProcedure.set(alpha);
+         row.transformValues(scalingProcedure);
+      }
+   }
+
+   /**
+    * @return an estimate of the memory in bytes held by this matrix including the capacity of all rows that is not
+    *         currently used.
+    */
+   public long memoryFootprint()
+   {
+      long bytes = bytesPerHashOverhead + (long) values.capacity() * (bytesPerInt + bytesPerReference + bytesPerSlotState);
+      for (TIntDoubleHashMap row : values.valueCollection())
+      {
+         bytes += bytesPerHashOverhead + (long) row.capacity() * (bytesPerInt + bytesPerDouble + bytesPerSlotState);
+      }
+
+      if (columnIndex != null)
+      {
+         bytes += bytesPerHashOverhead + (long) columnIndex.capacity() * (bytesPerInt + bytesPerReference + bytesPerSlotState);
+         for (TIntHashSet rowsInColumn : columnIndex.valueCollection())
+         {
+            bytes += bytesPerHashOverhead + (long) rowsInColumn.capacity() * (bytesPerInt + bytesPerSlotState);
+         }
+      }
+      return bytes;
+   }
+
    public void set(int rowIdx, int colIdx, double value)
    {
       checkDimentions(rowIdx, colIdx);
@@ -67,24 +436,31 @@ public class SparseMatrix
 
    private void setUnsafe(int rowIdx, int colIdx, double value)
    {
-      TIntDoubleHashMap row = values.get(rowIdx);
-      if (row == null)
+      TIntDoubleHashMap row = getOrCreateRow(rowIdx);
+      if ((columnIndex != null || patternLocked) && !row.containsKey(colIdx))
       {
-         row = createRow(defaultInitialSize);
-         values.put(rowIdx, row);
+         checkPatternUnlocked();
+         if (columnIndex != null)
+         {
+            addToColumnIndex(rowIdx, colIdx);
+         }
       }
       row.put(colIdx, value);
    }
 
    public void setRow(int rowIdx, TIntDoubleHashMap row)
    {
-      TIntDoubleHashMap localRow = values.get(rowIdx);
-      if (localRow == null)
+      checkPatternUnlocked();
+      TIntDoubleHashMap localRow = getOrCreateRow(rowIdx);
+      if (columnIndex != null)
       {
-         localRow = createRow(defaultInitialSize);
-         values.put(rowIdx, localRow);
+         updateColumnIndex(rowIdx, localRow, false);
       }
       copy(localRow, row);
+      if (columnIndex != null)
+      {
+         updateColumnIndex(rowIdx, localRow, true);
+      }
    }
 
    public void set(SparseMatrix matrix)
@@ -92,14 +468,55 @@ public class SparseMatrix
       copy(this, matrix);
    }
 
+   /**
+    * Sets this to a copy of the provided compressed matrix. Every row is allocated once with the exact number of
+    * entries such that no rehashing takes place while copying. Stored zeros are skipped.
+    */
+   public void set(CompressedRowMatrix matrix)
+   {
+      resize(matrix.getRows(), matrix.getColumns());
+      clear();
+      for (int rowIdx = 0; rowIdx < rows; rowIdx++)
+      {
+         int rowStart = matrix.getRowStart(rowIdx);
+         int rowEnd = matrix.getRowEnd(rowIdx);
+         if (rowStart == rowEnd)
+         {
+            continue;
+         }
+
+         TIntDoubleHashMap row = values.get(rowIdx);
+         if (row == null)
+         {
+            row = createRow(rowEnd - rowStart);
+            values.put(rowIdx, row);
+         }
+         else
+         {
+            row.ensureCapacity(rowEnd - rowStart);
+         }
+
+         for (int i = rowStart; i < rowEnd; i++)
+         {
+            double value = matrix.getValue(i);
+            if (value != 0.0)
+            {
+               row.put(matrix.getColumnIndex(i), value);
+            }
+         }
+      }
+      rebuildColumnIndex();
+   }
+
    public void set(DenseMatrix64F denseMatrix, double epsilon)
    {
       resize(denseMatrix.numRows, denseMatrix.numCols);
+      clear();
       for (int row = 0; row < denseMatrix.numRows; row++)
       {
          for (int column = 0; column < denseMatrix.numCols; column++)
          {
-            int value = denseMatrix.getIndex(row, column);
+            double value = denseMatrix.get(row, column);
             if (value > epsilon || value < -epsilon)
             {
                setUnsafe(row, column, value);
@@ -108,23 +525,50 @@ public class SparseMatrix
       }
    }
 
+   /**
+    * Sets this to the symmetric permutation of the provided square matrix: entry (i, j) of this matrix will be entry
+    * (order[i], order[j]) of the provided matrix.
+    */
+   public void setSymmetricPermutation(SparseMatrix matrix, int[] order)
+   {
+      int n = matrix.getRows();
+      if (n != matrix.getColumns() || order.length != n)
+      {
+         throw new RuntimeException("Unexpected Dimensions for Permutation.");
+      }
+
+      int[] inverseOrder = new int[n];
+      for (int i = 0; i < n; i++)
+      {
+         inverseOrder[order[i]] = i;
+      }
+
+      resize(n, n);
+      clear();
+      PermutationProcedure permutationProcedure = new PermutationProcedure(inverseOrder);
+      for (int rowIdx = 0; rowIdx < n; rowIdx++)
+      {
+         TIntDoubleHashMap row = matrix.values.get(order[rowIdx]);
+         if (row != null && !row.isEmpty())
+         {
+            permutationProcedure.set(getOrCreateRow(rowIdx));
+            row.forEachEntry(permutationProcedure);
+         }
+      }
+      rebuildColumnIndex();
+   }
+
    public void setIdentity(int size)
    {
+      checkPatternUnlocked();
       resize(size, size);
       for (int i = 0; i < size; i++)
       {
-         TIntDoubleHashMap row = values.get(i);
-         if (row == null)
-         {
-            row = createRow(defaultInitialSize);
-            values.put(i, row);
-         }
-         else
-         {
-            row.clear();
-         }
+         TIntDoubleHashMap row = getOrCreateRow(i);
+         row.clear();
          row.put(i, 1.0);
       }
+      rebuildColumnIndex();
    }
 
    public void add(int rowIdx, int colIdx, double value)
@@ -139,16 +583,98 @@ public class SparseMatrix
 
    private void addUnsafe(int rowIdx, int colIdx, double value)
    {
-      TIntDoubleHashMap row = values.get(rowIdx);
-      if (row == null)
+      TIntDoubleHashMap row = getOrCreateRow(rowIdx);
+      addToRow(rowIdx, row, colIdx, value);
+   }
+
+   /**
+    * Adds the value to the entry of the given row which must be the row stored for rowIdx in this matrix. Keeps the
+    * column index up to date if the entry is new.
+    */
+   void addToRow(int rowIdx, TIntDoubleHashMap row, int colIdx, double value)
+   {
+      if (!row.adjustValue(colIdx, value))
       {
-         row = createRow(defaultInitialSize);
-         values.put(rowIdx, row);
+         checkPatternUnlocked();
          row.put(colIdx, value);
+         if (columnIndex != null)
+         {
+            addToColumnIndex(rowIdx, colIdx);
+         }
+      }
+   }
+
+   /**
+    * Removes an entry from the matrix.
+    *
+    * @return the value of the removed entry or zero if there was no entry.
+    */
+   public double remove(int rowIdx, int colIdx)
+   {
+      checkDimentions(rowIdx, colIdx);
+      return removeUnsafe(rowIdx, colIdx);
+   }
+
+   double removeUnsafe(int rowIdx, int colIdx)
+   {
+      checkPatternUnlocked();
+      TIntDoubleHashMap row = values.get(rowIdx);
+      if (row == null || !row.containsKey(colIdx))
+      {
+         return 0.0;
       }
-      else if (!row.adjustValue(colIdx, value))
+      if (columnIndex != null)
       {
-         row.put(colIdx, value);
+         columnIndex.get(colIdx).remove(rowIdx);
+      }
+      return row.remove(colIdx);
+   }
+
+   /**
+    * Exchanges two rows. Only the references to the rows are swapped, no entries are copied. Keeps the column index up
+    * to date.
+    */
+   public void swapRows(int rowIdxA, int rowIdxB)
+   {
+      if (rowIdxA < 0 || rowIdxA >= rows || rowIdxB < 0 || rowIdxB >= rows)
+      {
+         throw new RuntimeException("Unexpected index.");
+      }
+      if (rowIdxA == rowIdxB)
+      {
+         return;
+      }
+      checkPatternUnlocked();
+
+      TIntDoubleHashMap rowA = values.remove(rowIdxA);
+      TIntDoubleHashMap rowB = values.remove(rowIdxB);
+      if (rowA != null)
+      {
+         values.put(rowIdxB, rowA);
+      }
+      if (rowB != null)
+      {
+         values.put(rowIdxA, rowB);
+      }
+
+      if (columnIndex != null)
+      {
+         if (rowA != null)
+         {
+            updateColumnIndex(rowIdxA, rowA, false);
+         }
+         if (rowB != null)
+         {
+            updateColumnIndex(rowIdxB, rowB, false);
+         }
+         if (rowA != null)
+         {
+            updateColumnIndex(rowIdxB, rowA, true);
+         }
+         if (rowB != null)
+         {
+            updateColumnIndex(rowIdxA, rowB, true);
+         }
       }
    }
 
@@ -165,33 +691,211 @@ public class SparseMatrix
 
    public boolean contains(int rowIdx, int colIdx)
    {
-      TIntDoubleHashMap row = values.get(rowIdx);
-      if (row == null)
-      {
-         return false;
-      }
-      return row.contains(colIdx);
+      TIntDoubleHashMap row = values.get(rowIdx);
+      if (row == null)
+      {
+         return false;
+      }
+      return row.contains(colIdx);
+   }
+
+   public void resize(int rows, int colums)
+   {
+      if (rows != this.rows || colums != this.columns)
+      {
+         checkPatternUnlocked();
+      }
+      this.rows = rows;
+      this.columns = colums;
+   }
+
+   public void clear()
+   {
+      checkPatternUnlocked();
+      values.forEachEntry(clearingProcedure);
+      if (columnIndex != null)
+      {
+         columnIndex.clear();
+      }
+   }
+
+   /**
+    * Enables or disables the column index. If enabled the matrix keeps track of which rows hold an entry in each
+    * column so that {@link #getRowsInColumn(int)} can be answered without visiting every row. This costs additional
+    * memory and time in every operation that creates or removes entries.
+    */
+   public void setColumnIndexing(boolean enable)
+   {
+      if (enable && columnIndex == null)
+      {
+         columnIndex = new TIntObjectHashMap<>();
+         rebuildColumnIndex();
+      }
+      else if (!enable)
+      {
+         columnIndex = null;
+      }
+   }
+
+   public boolean isColumnIndexing()
+   {
+      return columnIndex != null;
+   }
+
+   /**
+    * Requires the column index to be enabled. The returned set must not be modified.
+    *
+    * @return the indices of all rows holding an entry in the given column. Null or empty if there are none.
+    */
+   public TIntHashSet getRowsInColumn(int colIdx)
+   {
+      if (columnIndex == null)
+      {
+         throw new RuntimeException("Column indexing is not enabled.");
+      }
+      return columnIndex.get(colIdx);
+   }
+
+   public void mult(SparseMatrix matrixA, SparseMatrix matrixB)
+   {
+      if (matrixA.getColumns() != matrixB.getRows())
+      {
+         throw new RuntimeException("Unexpected Dimensions for Multiplication.");
+      }
+
+      boolean recordStatistics = MultiplicationStatistics.isEnabled();
+      long startTime = recordStatistics ? System.nanoTime() : 0;
+      SparseMatrix.multiply(matrixA, matrixB, this, recordStatistics);
+      rebuildColumnIndex();
+      if (recordStatistics)
+      {
+         MultiplicationStatistics.recordMultiplication(System.nanoTime() - startTime);
+      }
+   }
+
+   /**
+    * Same as {@link #mult(SparseMatrix, SparseMatrix)} but distributes the rows of matrixA over the common
+    * {@link ForkJoinPool}.
+    */
+   public void multParallel(SparseMatrix matrixA, SparseMatrix matrixB)
+   {
+      multParallel(matrixA, matrixB, ForkJoinPool.commonPool());
+   }
+
+   /**
+    * Same as {@link #mult(SparseMatrix, SparseMatrix)} but distributes the rows of matrixA over the provided executor.
+    * Neither matrixA nor matrixB may be modified while the multiplication is running.
+    */
+   public void multParallel(SparseMatrix matrixA, SparseMatrix matrixB, ExecutorService executor)
+   {
+      if (matrixA.getColumns() != matrixB.getRows())
+      {
+         throw new RuntimeException("Unexpected Dimensions for Multiplication.");
+      }
+
+      boolean recordStatistics = MultiplicationStatistics.isEnabled();
+      long startTime = recordStatistics ? System.nanoTime() : 0;
+      SparseMatrix.multiply(matrixA, matrixB, this, executor, recordStatistics);
+      rebuildColumnIndex();
+      if (recordStatistics)
+      {
+         MultiplicationStatistics.recordMultiplication(System.nanoTime() - startTime);
+      }
+   }
+
+   /**
+    * Sets y = this * x. Does not allocate memory.
+    */
+   public void mult(double[] x, double[] y)
+   {
+      checkVectorDimensions(x, columns, y, rows);
+      Arrays.fill(y, 0, rows, 0.0);
+      multAddUnsafe(x, y);
+   }
+
+   /**
+    * Sets y = y + this * x. Does not allocate memory.
+    */
+   public void multAdd(double[] x, double[] y)
+   {
+      checkVectorDimensions(x, columns, y, rows);
+      multAddUnsafe(x, y);
+   }
+
+   /**
+    * Sets y = this^T * x without forming the transpose. Does not allocate memory.
+    */
+   public void multTransposed(double[] x, double[] y)
+   {
+      checkVectorDimensions(x, rows, y, columns);
+      Arrays.fill(y, 0, columns, 0.0);
+      multAddTransposedUnsafe(x, y);
+   }
+
+   /**
+    * Sets y = y + this^T * x without forming the transpose. Does not allocate memory.
+    */
+   public void multAddTransposed(double[] x, double[] y)
+   {
+      checkVectorDimensions(x, rows, y, columns);
+      multAddTransposedUnsafe(x, y);
+   }
+
+   /**
+    * Sets y = this * x where x and y are row or column vectors. Does not allocate memory.
+    */
+   public void mult(DenseMatrix64F x, DenseMatrix64F y)
+   {
+      checkVectorDimensions(x, columns, y, rows);
+      mult(x.data, y.data);
+   }
+
+   /**
+    * Sets y = this^T * x where x and y are row or column vectors. Does not allocate memory.
+    */
+   public void multTransposed(DenseMatrix64F x, DenseMatrix64F y)
+   {
+      checkVectorDimensions(x, rows, y, columns);
+      multTransposed(x.data, y.data);
+   }
+
+   private void multAddUnsafe(double[] x, double[] y)
+   {
+      VectorMultProcedureA vectorMultProcedure = vectorMultProcedures.get();
+      vectorMultProcedure.set(rows, x, y, false);
+      values.forEachEntry(vectorMultProcedure);
    }
 
-   public void resize(int rows, int colums)
+   private void multAddTransposedUnsafe(double[] x, double[] y)
    {
-      this.rows = rows;
-      this.columns = colums;
+      VectorMultProcedureA vectorMultProcedure = vectorMultProcedures.get();
+      vectorMultProcedure.set(rows, x, y, true);
+      values.forEachEntry(vectorMultProcedure);
    }
 
-   public void clear()
+   private static void checkVectorDimensions(double[] x, int xSize, double[] y, int ySize)
    {
-      values.forEachEntry(clearingProcedure);
+      if (x.length < xSize || y.length < ySize)
+      {
+         throw new RuntimeException("Unexpected Dimensions for Multiplication.");
+      }
+      if (x == y)
+      {
+         throw new RuntimeException("Input and output vector must not be the same.");
+      }
    }
 
-   public void mult(SparseMatrix matrixA, SparseMatrix matrixB)
+   private static void checkVectorDimensions(DenseMatrix64F x, int xSize, DenseMatrix64F y, int ySize)
    {
-      if (matrixA.getColumns() != matrixB.getRows())
+      if (!isVector(x, xSize) || !isVector(y, ySize))
       {
          throw new RuntimeException("Unexpected Dimensions for Multiplication.");
       }
+   }
 
-      SparseMatrix.multiply(matrixA, matrixB, this);
+   private static boolean isVector(DenseMatrix64F vector, int size)
+   {
+      return (vector.getNumCols() == 1 || vector.getNumRows() == 1) && vector.getNumElements() == size;
    }
 
    public int getRows()
@@ -199,11 +903,28 @@ public class SparseMatrix
       return rows;
    }
 
+   /**
+    * @return the number of stored entries. Visits every row.
+    */
+   public int getNumberOfNonZeros()
+   {
+      int nonZeros = 0;
+      for (TIntDoubleHashMap row : values.valueCollection())
+      {
+         nonZeros += row.size();
+      }
+      return nonZeros;
+   }
+
    public int getColumns()
    {
       return columns;
    }
 
+   /**
+    * Modifying the returned row directly bypasses the column index. Use the methods of this matrix to modify
+    * entries if column indexing is enabled.
+    */
    public TIntDoubleHashMap getRow(int rowIdx)
    {
       if (rowIdx < 0 || rowIdx >= rows)
@@ -286,6 +1007,220 @@ public class SparseMatrix
       return builder.toString();
    }
 
+   private void addToColumnIndex(int rowIdx, int colIdx)
+   {
+      TIntHashSet rowsInColumn = columnIndex.get(colIdx);
+      if (rowsInColumn == null)
+      {
+         rowsInColumn = new TIntHashSet();
+         columnIndex.put(colIdx, rowsInColumn);
+      }
+      rowsInColumn.add(rowIdx);
+   }
+
+   private void updateColumnIndex(int rowIdx, TIntDoubleHashMap row, boolean add)
+   {
+      columnIndexProcedure.set(rowIdx, add);
+      row.forEachKey(columnIndexProcedure);
+   }
+
+   /**
+    * Recomputes the column index from scratch if it is enabled. Used after operations that write rows directly.
+    */
+   void rebuildColumnIndex()
+   {
+      if (columnIndex == null)
+      {
+         return;
+      }
+
+      columnIndex.clear();
+      values.forEachEntry(new ColumnIndexRebuildProcedure());
+   }
+
+   private class ColumnIndexRebuildProcedure implements TIntObjectProcedure<TIntDoubleHashMap>
+   {
+      private final ColumnIndexProcedure columnIndexProcedure = new ColumnIndexProcedure();
+
+      @Override
+      public boolean execute(int rowIdx, TIntDoubleHashMap row)
+      {
+         columnIndexProcedure.set(rowIdx, true);
+         row.forEachKey(columnIndexProcedure);
+         return true;
+      }
+   }
+
+   private final ColumnIndexProcedure columnIndexProcedure = new ColumnIndexProcedure();
+
+   private class ColumnIndexProcedure implements TIntProcedure
+   {
+      private int rowIdx;
+      private boolean add;
+
+      public void set(int rowIdx, boolean add)
+      {
+         this.rowIdx = rowIdx;
+         this.add = add;
+      }
+
+      @Override
+      public boolean execute(int colIdx)
+      {
+         if (add)
+         {
+            addToColumnIndex(rowIdx, colIdx);
+         }
+         else
+         {
+            columnIndex.get(colIdx).remove(rowIdx);
+         }
+         return true;
+      }
+   }
+
+   TIntDoubleHashMap getOrCreateRow(int rowIdx)
+   {
+      TIntDoubleHashMap row = values.get(rowIdx);
+      if (row == null)
+      {
+         checkPatternUnlocked();
+         row = createRow(expectedEntriesPerRow);
+         values.put(rowIdx, row);
+      }
+      return row;
+   }
+
+   private static class PermutationProcedure implements TIntDoubleProcedure
+   {
+      private final int[] inverseOrder;
+      private TIntDoubleHashMap rowToSet;
+
+      public PermutationProcedure(int[] inverseOrder)
+      {
+         this.inverseOrder = inverseOrder;
+      }
+
+      public void set(TIntDoubleHashMap rowToSet)
+      {
+         this.rowToSet = rowToSet;
+      }
+
+      @Override
+      public boolean execute(int colIdx, double value)
+      {
+         rowToSet.put(inverseOrder[colIdx], value);
+         return true;
+      }
+   }
+
+   /**
+    * A row that gives access to the internal storage position of its entries. Positions stay valid as long as no
+    * entries are added or removed.
+    */
+   private static class SparseRow extends TIntDoubleHashMap
+   {
+      private static final long serialVersionUID = 1L;
+
+      public SparseRow(int initialCapacity)
+      {
+         super(initialCapacity);
+      }
+
+      public int indexOf(int colIdx)
+      {
+         return index(colIdx);
+      }
+
+      public double getValueAt(int index)
+      {
+         return _values[index];
+      }
+
+      public void setValueAt(int index, double value)
+      {
+         _values[index] = value;
+      }
+
+      public void addValueAt(int index, double value)
+      {
+         _values[index] += value;
+      }
+
+      public void scale(double alpha)
+      {
+         kernels.scale(alpha, _values, _values.length);
+      }
+   }
+
+   private static final ThreadLocal<ScalingProcedure> scalingProcedures = ThreadLocal.withInitial(ScalingProcedure::new);
+
+   private static class ScalingProcedure implements TDoubleFunction
+   {
+      private double alpha;
+
+      public void set(double alpha)
+      {
+         this.alpha = alpha;
+      }
+
+      @Override
+      public double execute(double value)
+      {
+         return alpha * value;
+      }
+   }
+
+   private static final ThreadLocal<PruningProcedure> pruningProcedures = ThreadLocal.withInitial(PruningProcedure::new);
+
+   private static class PruningProcedure implements TIntDoubleProcedure, TDoubleProcedure
+   {
+      private double threshold;
+      private int rowIdx;
+      private TIntObjectHashMap<TIntHashSet> columnIndex;
+      private double squaredNorm;
+
+      public double computeNorm(TIntDoubleHashMap row)
+      {
+         squaredNorm = 0.0;
+         row.forEachValue(this);
+         return Math.sqrt(squaredNorm);
+      }
+
+      public void set(double threshold, int rowIdx, TIntObjectHashMap<TIntHashSet> columnIndex)
+      {
+         this.threshold = threshold;
+         this.rowIdx = rowIdx;
+         this.columnIndex = columnIndex;
+      }
+
+      @Override
+      public boolean execute(double value)
+      {
+         squaredNorm += value * value;
+         return true;
+      }
+
+      @Override
+      public boolean execute(int colIdx, double value)
+      {
+         if (!(Math.abs(value) <= threshold))
+         {
+            return true;
+         }
+
+         if (columnIndex != null)
+         {
+            TIntHashSet rowsInColumn = columnIndex.get(colIdx);
+            if (rowsInColumn != null)
+            {
+               rowsInColumn.remove(rowIdx);
+            }
+         }
+         return false;
+      }
+   }
+
    private static final ClearingProcedure clearingProcedure = new ClearingProcedure();
    private static class ClearingProcedure implements TIntObjectProcedure<TIntDoubleHashMap>
    {
@@ -300,49 +1235,148 @@ public class SparseMatrix
    /**
     * Set c = a * b.
     */
-   private static void multiply(SparseMatrix a, SparseMatrix b, SparseMatrix c)
+   private static void multiply(SparseMatrix a, SparseMatrix b, SparseMatrix c, boolean recordStatistics)
    {
       c.resize(a.getRows(), b.getColumns());
       c.clear();
-      multProcedureA.set(c, b);
+      MultProcedureA multProcedureA = multProcedures.get();
+      multProcedureA.set(c, b, recordStatistics);
       a.values.forEachEntry(multProcedureA);
+      if (recordStatistics)
+      {
+         MultiplicationStatistics.recordMultiplyAdds(multProcedureA.multProcedureB.getMultiplyAdds());
+      }
+   }
+
+   /**
+    * Set c = a * b splitting the rows of a into chunks that are multiplied on the provided executor. Each worker
+    * only writes to the rows of c that belong to its chunk.
+    */
+   private static void multiply(SparseMatrix a, SparseMatrix b, SparseMatrix c, ExecutorService executor, boolean recordStatistics)
+   {
+      c.resize(a.getRows(), b.getColumns());
+      c.clear();
+
+      // Create all rows of the result up front so the workers never modify the row map of c.
+      int rows = a.getRows();
+      for (int rowIdx = 0; rowIdx < rows; rowIdx++)
+      {
+         TIntDoubleHashMap rowA = a.values.get(rowIdx);
+         if (rowA != null && !rowA.isEmpty())
+         {
+            c.getOrCreateRow(rowIdx);
+         }
+      }
+
+      ParallelChunks.run(rows, executor, (startRow, endRow) -> new RowRangeMultiplication(a, b, c, startRow, endRow, recordStatistics).run());
+   }
+
+   private static class RowRangeMultiplication implements Runnable
+   {
+      private final SparseMatrix a;
+      private final SparseMatrix b;
+      private final SparseMatrix c;
+      private final int startRow;
+      private final int endRow;
+      private final boolean recordStatistics;
+
+      public RowRangeMultiplication(SparseMatrix a, SparseMatrix b, SparseMatrix c, int startRow, int endRow, boolean recordStatistics)
+      {
+         this.a = a;
+         this.b = b;
+         this.c = c;
+         this.startRow = startRow;
+         this.endRow = endRow;
+         this.recordStatistics = recordStatistics;
+      }
+
+      @Override
+      public void run()
+      {
+         MultProcedureB multProcedureB = multProcedures.get().multProcedureB;
+         multProcedureB.resetMultiplyAdds(recordStatistics);
+         for (int rowIdx = startRow; rowIdx < endRow; rowIdx++)
+         {
+            TIntDoubleHashMap rowA = a.values.get(rowIdx);
+            if (rowA == null || rowA.isEmpty())
+            {
+               continue;
+            }
+            TIntDoubleHashMap rowC = c.values.get(rowIdx);
+            multProcedureB.set(rowC, b);
+            rowA.forEachEntry(multProcedureB);
+            c.applyDropTolerance(rowIdx, rowC);
+         }
+         if (recordStatistics)
+         {
+            MultiplicationStatistics.recordMultiplyAdds(multProcedureB.getMultiplyAdds());
+         }
+      }
    }
 
-   private static final MultProcedureA multProcedureA = new MultProcedureA();
+   /**
+    * Each thread uses its own procedures such that multiplications on different threads do not interfere.
+    */
+   private static final ThreadLocal<MultProcedureA> multProcedures = ThreadLocal.withInitial(MultProcedureA::new);
+
    private static class MultProcedureA implements TIntObjectProcedure<TIntDoubleHashMap>
    {
+      private final MultProcedureB multProcedureB = new MultProcedureB();
       private SparseMatrix matrix;
       private SparseMatrix B;
 
-      public void set(SparseMatrix matrix, SparseMatrix B)
+      public void set(SparseMatrix matrix, SparseMatrix B, boolean countMultiplyAdds)
       {
          this.matrix = matrix;
          this.B = B;
+         multProcedureB.resetMultiplyAdds(countMultiplyAdds);
       }
 
       @Override
       public boolean execute(int rowIndexA, TIntDoubleHashMap rowA)
       {
-         multProcedureB.set(rowIndexA, matrix, B);
+         if (rowA.isEmpty())
+         {
+            return true;
+         }
+
+         TIntDoubleHashMap row = matrix.getOrCreateRow(rowIndexA);
+         multProcedureB.set(row, B);
          rowA.forEachEntry(multProcedureB);
+         matrix.applyDropTolerance(rowIndexA, row);
          return true;
       }
    }
 
-   private static final MultProcedureB multProcedureB = new MultProcedureB();
    private static class MultProcedureB implements TIntDoubleProcedure
    {
-      private int rowIndexA;
-      private SparseMatrix matrix;
+      private final MultProcedureC multProcedureC = new MultProcedureC();
+      private TIntDoubleHashMap row;
       private SparseMatrix B;
+      private boolean countMultiplyAdds;
+      private long multiplyAdds;
 
-      public void set(int rowIndexA, SparseMatrix matrix, SparseMatrix B)
+      public void set(TIntDoubleHashMap row, SparseMatrix B)
       {
-         this.rowIndexA = rowIndexA;
-         this.matrix = matrix;
+         this.row = row;
          this.B = B;
       }
 
+      /**
+       * @param countMultiplyAdds whether the following products count their multiply-adds. Only needed if the
+       *           statistics are recorded.
+       */
+      public void resetMultiplyAdds(boolean countMultiplyAdds)
+      {
+         this.countMultiplyAdds = countMultiplyAdds;
+         multiplyAdds = 0;
+      }
+
+      public long getMultiplyAdds()
+      {
+         return multiplyAdds;
+      }
+
       @Override
       public boolean execute(int colIndexA, double valueA)
       {
@@ -351,32 +1385,119 @@ public class SparseMatrix
 
          if (rowB != null && !rowB.isEmpty())
          {
-            multProcedureC.set(rowIndexA, valueA, matrix);
+            multProcedureC.set(valueA, row);
             rowB.forEachEntry(multProcedureC);
+            if (countMultiplyAdds)
+            {
+               multiplyAdds += rowB.size();
+            }
          }
 
          return true;
       }
    }
 
-   private static final MultProcedureC multProcedureC = new MultProcedureC();
    private static class MultProcedureC implements TIntDoubleProcedure
    {
-      private int rowIndexA;
       private double valueA;
-      private SparseMatrix matrix;
+      private TIntDoubleHashMap row;
 
-      public void set(int rowIndexA, double valueA, SparseMatrix matrix)
+      public void set(double valueA, TIntDoubleHashMap row)
       {
-         this.rowIndexA = rowIndexA;
          this.valueA = valueA;
-         this.matrix = matrix;
+         this.row = row;
       }
 
       @Override
       public boolean execute(int colIndexB, double valueB)
       {
-         matrix.add(rowIndexA, colIndexB, valueA * valueB);
+         double product = valueA * valueB;
+         row.adjustOrPutValue(colIndexB, product, product);
+         return true;
+      }
+   }
+
+   private static final ThreadLocal<VectorMultProcedureA> vectorMultProcedures = ThreadLocal.withInitial(VectorMultProcedureA::new);
+
+   private static class VectorMultProcedureA implements TIntObjectProcedure<TIntDoubleHashMap>
+   {
+      private final VectorMultProcedureB vectorMultProcedureB = new VectorMultProcedureB();
+      private final VectorMultTransposedProcedureB vectorMultTransposedProcedureB = new VectorMultTransposedProcedureB();
+      private int rows;
+      private double[] x;
+      private double[] y;
+      private boolean transposed;
+
+      public void set(int rows, double[] x, double[] y, boolean transposed)
+      {
+         this.rows = rows;
+         this.x = x;
+         this.y = y;
+         this.transposed = transposed;
+      }
+
+      @Override
+      public boolean execute(int rowIdx, TIntDoubleHashMap row)
+      {
+         if (rowIdx >= rows || row.isEmpty())
+         {
+            return true;
+         }
+
+         if (transposed)
+         {
+            vectorMultTransposedProcedureB.set(x[rowIdx], y);
+            row.forEachEntry(vectorMultTransposedProcedureB);
+         }
+         else
+         {
+            vectorMultProcedureB.set(x);
+            row.forEachEntry(vectorMultProcedureB);
+            y[rowIdx] += vectorMultProcedureB.getSum();
+         }
+         return true;
+      }
+   }
+
+   private static class VectorMultProcedureB implements TIntDoubleProcedure
+   {
+      private double[] x;
+      private double sum;
+
+      public void set(double[] x)
+      {
+         this.x = x;
+         sum = 0.0;
+      }
+
+      public double getSum()
+      {
+         return sum;
+      }
+
+      @Override
+      public boolean execute(int colIdx, double value)
+      {
+         sum += value * x[colIdx];
+         return true;
+      }
+   }
+
+   private static class VectorMultTransposedProcedureB implements TIntDoubleProcedure
+   {
+      private double valueX;
+      private double[] y;
+
+      public void set(double valueX, double[] y)
+      {
+         this.valueX = valueX;
+         this.y = y;
+      }
+
+      @Override
+      public boolean execute(int colIdx, double value)
+      {
+         y[colIdx] += value * valueX;
          return true;
       }
    }
@@ -388,13 +1509,16 @@ public class SparseMatrix
    {
       a.resize(b.getRows(), b.getColumns());
       a.clear();
+      CopyProcedureA copyProcedureA = copyProcedures.get();
       copyProcedureA.set(a);
       b.values.forEachEntry(copyProcedureA);
    }
 
-   private static final CopyProcedureA copyProcedureA = new CopyProcedureA();
+   private static final ThreadLocal<CopyProcedureA> copyProcedures = ThreadLocal.withInitial(CopyProcedureA::new);
+
    private static class CopyProcedureA implements TIntObjectProcedure<TIntDoubleHashMap>
    {
+      private final CopyProcedureB copyProcedureB = new CopyProcedureB();
       private SparseMatrix matrixToSet;
 
       public void set(SparseMatrix matrixToSet)
@@ -411,7 +1535,6 @@ public class SparseMatrix
       }
    }
 
-   private static final CopyProcedureB copyProcedureB = new CopyProcedureB();
    private static class CopyProcedureB implements TIntDoubleProcedure
    {
       private int rowIdx;
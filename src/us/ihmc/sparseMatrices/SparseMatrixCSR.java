@@ -0,0 +1,426 @@
+package us.ihmc.sparseMatrices;
+
+import java.util.Arrays;
+
+import gnu.trove.map.hash.TIntDoubleHashMap;
+import gnu.trove.procedure.TIntDoubleProcedure;
+import gnu.trove.procedure.TIntProcedure;
+import us.ihmc.sparseMatrices.kernels.DoubleKernels;
+import us.ihmc.sparseMatrices.kernels.Kernels;
+
+/**
+ * An immutable sparse matrix in compressed row storage. The entries of row i are stored at the positions
+ * rowPointer[i] to rowPointer[i + 1] - 1 of the columnIndex and value arrays, sorted by column index.
+ * <p>
+ * This is meant as a read optimized counterpart to {@link SparseMatrix}: build the matrix using the hash based
+ * representation and freeze it into this format once it is complete.
+ */
+public class SparseMatrixCSR implements CompressedRowMatrix
+{
+   private static final DoubleKernels kernels = Kernels.get();
+
+   private final int rows;
+   private final int columns;
+
+   /**
+    * For each row the index of its first entry. Has length rows + 1 with the last element being the number of entries.
+    */
+   private final int[] rowPointer;
+
+   /**
+    * The column index of each entry. Sorted within each row.
+    */
+   private final int[] columnIndex;
+
+   /**
+    * The value of each entry.
+    */
+   private final double[] value;
+
+   /**
+    * Creates a compressed copy of the provided matrix.
+    */
+   public SparseMatrixCSR(SparseMatrix matrix)
+   {
+      this(matrix, null);
+   }
+
+   /**
+    * Creates a compressed copy of the provided matrix with reordered rows: row i of this matrix will be row
+    * rowOrder[i] of the provided matrix. If the row order is null the rows are not reordered.
+    */
+   public SparseMatrixCSR(SparseMatrix matrix, int[] rowOrder)
+   {
+      rows = rowOrder == null ? matrix.getRows() : rowOrder.length;
+      columns = matrix.getColumns();
+      rowPointer = new int[rows + 1];
+
+      for (int rowIdx = 0; rowIdx < rows; rowIdx++)
+      {
+         TIntDoubleHashMap row = matrix.getRow(rowOrder == null ? rowIdx : rowOrder[rowIdx]);
+         int entries = row == null ? 0 : row.size();
+         rowPointer[rowIdx + 1] = rowPointer[rowIdx] + entries;
+      }
+
+      int nonZeros = rowPointer[rows];
+      columnIndex = new int[nonZeros];
+      value = new double[nonZeros];
+
+      ColumnCollector columnCollector = new ColumnCollector();
+      for (int rowIdx = 0; rowIdx < rows; rowIdx++)
+      {
+         int start = rowPointer[rowIdx];
+         int end = rowPointer[rowIdx + 1];
+         if (start == end)
+         {
+            continue;
+         }
+
+         TIntDoubleHashMap row = matrix.getRow(rowOrder == null ? rowIdx : rowOrder[rowIdx]);
+         columnCollector.set(start);
+         row.forEachKey(columnCollector);
+         Arrays.sort(columnIndex, start, end);
+         for (int i = start; i < end; i++)
+         {
+            value[i] = row.get(columnIndex[i]);
+         }
+      }
+   }
+
+   /**
+    * Creates a matrix directly from its compressed row arrays. The arrays are not copied and must not be modified
+    * after they were passed to this constructor. The column indices within each row must be sorted.
+    */
+   public SparseMatrixCSR(int rows, int columns, int[] rowPointer, int[] columnIndex, double[] value)
+   {
+      if (rowPointer.length != rows + 1 || columnIndex.length < rowPointer[rows] || value.length < rowPointer[rows])
+      {
+         throw new RuntimeException("Unexpected array sizes.");
+      }
+
+      this.rows = rows;
+      this.columns = columns;
+      this.rowPointer = rowPointer;
+      this.columnIndex = columnIndex;
+      this.value = value;
+   }
+
+   /**
+    * Creates a matrix with the pattern of the provided matrix and different values. The pattern is shared, the value
+    * array is not copied and must not be modified after it was passed to this constructor.
+    */
+   public SparseMatrixCSR(SparseMatrixCSR pattern, double[] value)
+   {
+      this(pattern.rows, pattern.columns, pattern.rowPointer, pattern.columnIndex, value);
+   }
+
+   @Override
+   public int getRows()
+   {
+      return rows;
+   }
+
+   @Override
+   public int getColumns()
+   {
+      return columns;
+   }
+
+   @Override
+   public int getNumberOfNonZeros()
+   {
+      return rowPointer[rows];
+   }
+
+   /**
+    * @return the index of the first entry of the given row.
+    */
+   @Override
+   public int getRowStart(int rowIdx)
+   {
+      return rowPointer[rowIdx];
+   }
+
+   /**
+    * @return one past the index of the last entry of the given row.
+    */
+   @Override
+   public int getRowEnd(int rowIdx)
+   {
+      return rowPointer[rowIdx + 1];
+   }
+
+   @Override
+   public int getColumnIndex(int entryIdx)
+   {
+      return columnIndex[entryIdx];
+   }
+
+   @Override
+   public double getValue(int entryIdx)
+   {
+      return value[entryIdx];
+   }
+
+   @Override
+   public double get(int rowIdx, int colIdx)
+   {
+      checkDimentions(rowIdx, colIdx);
+      int entryIdx = find(rowIdx, colIdx);
+      return entryIdx < 0 ? 0.0 : value[entryIdx];
+   }
+
+   /**
+    * @return the index of the given entry or -1 if the entry is not stored.
+    */
+   @Override
+   public int getEntryIndex(int rowIdx, int colIdx)
+   {
+      checkDimentions(rowIdx, colIdx);
+      return find(rowIdx, colIdx);
+   }
+
+   public boolean contains(int rowIdx, int colIdx)
+   {
+      if (rowIdx < 0 || rowIdx >= rows)
+      {
+         return false;
+      }
+      return find(rowIdx, colIdx) >= 0;
+   }
+
+   /**
+    * Calls the procedure for every entry in the given row in order of increasing column index. Stops early if the
+    * procedure returns false.
+    */
+   public void forEachEntryInRow(int rowIdx, TIntDoubleProcedure procedure)
+   {
+      if (rowIdx < 0 || rowIdx >= rows)
+      {
+         throw new RuntimeException("Unexpected index.");
+      }
+
+      for (int i = rowPointer[rowIdx]; i < rowPointer[rowIdx + 1]; i++)
+      {
+         if (!procedure.execute(columnIndex[i], value[i]))
+         {
+            return;
+         }
+      }
+   }
+
+   /**
+    * Computes a * b into a new heap based matrix. Either matrix may be stored off-heap.
+    */
+   static SparseMatrixCSR multiply(CompressedRowMatrix a, CompressedRowMatrix b)
+   {
+      if (a.getColumns() != b.getRows())
+      {
+         throw new RuntimeException("Unexpected Dimensions for Multiplication.");
+      }
+
+      int rows = a.getRows();
+      int resultColumns = b.getColumns();
+      int[] resultRowPointer = new int[rows + 1];
+      int[] resultColumnIndex = new int[Math.max(a.getNumberOfNonZeros(), b.getNumberOfNonZeros())];
+      double[] resultValue = new double[resultColumnIndex.length];
+
+      // Dense accumulator for one row of the result. The marker records which row last touched a column.
+      double[] accumulator = new double[resultColumns];
+      int[] marker = new int[resultColumns];
+      Arrays.fill(marker, -1);
+
+      int entries = 0;
+      for (int rowIdx = 0; rowIdx < rows; rowIdx++)
+      {
+         int rowStart = entries;
+         for (int i = a.getRowStart(rowIdx); i < a.getRowEnd(rowIdx); i++)
+         {
+            int rowIdxB = a.getColumnIndex(i);
+            double valueA = a.getValue(i);
+            for (int j = b.getRowStart(rowIdxB); j < b.getRowEnd(rowIdxB); j++)
+            {
+               int colIdx = b.getColumnIndex(j);
+               if (marker[colIdx] != rowIdx)
+               {
+                  marker[colIdx] = rowIdx;
+                  accumulator[colIdx] = 0.0;
+                  if (entries == resultColumnIndex.length)
+                  {
+                     int newLength = Math.max(2 * entries, 16);
+                     resultColumnIndex = Arrays.copyOf(resultColumnIndex, newLength);
+                     resultValue = Arrays.copyOf(resultValue, newLength);
+                  }
+                  resultColumnIndex[entries++] = colIdx;
+               }
+               accumulator[colIdx] += valueA * b.getValue(j);
+            }
+         }
+
+         Arrays.sort(resultColumnIndex, rowStart, entries);
+         for (int i = rowStart; i < entries; i++)
+         {
+            resultValue[i] = accumulator[resultColumnIndex[i]];
+         }
+         resultRowPointer[rowIdx + 1] = entries;
+      }
+
+      return new SparseMatrixCSR(rows, resultColumns, resultRowPointer, resultColumnIndex, resultValue);
+   }
+
+   /**
+    * Sets y = this * x. Does not allocate memory.
+    */
+   @Override
+   public void mult(double[] x, double[] y)
+   {
+      checkVectorDimensions(x, columns, y, rows);
+      for (int rowIdx = 0; rowIdx < rows; rowIdx++)
+      {
+         y[rowIdx] = rowDot(rowIdx, x);
+      }
+   }
+
+   /**
+    * Sets y = y + this * x. Does not allocate memory.
+    */
+   @Override
+   public void multAdd(double[] x, double[] y)
+   {
+      checkVectorDimensions(x, columns, y, rows);
+      for (int rowIdx = 0; rowIdx < rows; rowIdx++)
+      {
+         y[rowIdx] += rowDot(rowIdx, x);
+      }
+   }
+
+   /**
+    * Sets y = this^T * x without forming the transpose. Does not allocate memory.
+    */
+   @Override
+   public void multTransposed(double[] x, double[] y)
+   {
+      checkVectorDimensions(x, rows, y, columns);
+      Arrays.fill(y, 0, columns, 0.0);
+      multAddTransposedUnsafe(x, y);
+   }
+
+   /**
+    * Sets y = y + this^T * x without forming the transpose. Does not allocate memory.
+    */
+   @Override
+   public void multAddTransposed(double[] x, double[] y)
+   {
+      checkVectorDimensions(x, rows, y, columns);
+      multAddTransposedUnsafe(x, y);
+   }
+
+   private double rowDot(int rowIdx, double[] x)
+   {
+      return kernels.sparseDot(value, columnIndex, rowPointer[rowIdx], rowPointer[rowIdx + 1], x);
+   }
+
+   private void multAddTransposedUnsafe(double[] x, double[] y)
+   {
+      for (int rowIdx = 0; rowIdx < rows; rowIdx++)
+      {
+         kernels.sparseAxpy(x[rowIdx], value, columnIndex, rowPointer[rowIdx], rowPointer[rowIdx + 1], y);
+      }
+   }
+
+   static void checkVectorDimensions(double[] x, int xSize, double[] y, int ySize)
+   {
+      if (x.length < xSize || y.length < ySize)
+      {
+         throw new RuntimeException("Unexpected Dimensions for Multiplication.");
+      }
+      if (x == y)
+      {
+         throw new RuntimeException("Input and output vector must not be the same.");
+      }
+   }
+
+   /**
+    * Computes the transpose of a into a new heap based matrix. The matrix may be stored off-heap.
+    */
+   static SparseMatrixCSR transpose(CompressedRowMatrix a)
+   {
+      int rows = a.getRows();
+      int columns = a.getColumns();
+      int nonZeros = a.getNumberOfNonZeros();
+      int[] transposeRowPointer = new int[columns + 1];
+      int[] transposeColumnIndex = new int[nonZeros];
+      double[] transposeValue = new double[nonZeros];
+
+      for (int rowIdx = 0; rowIdx < rows; rowIdx++)
+      {
+         for (int i = a.getRowStart(rowIdx); i < a.getRowEnd(rowIdx); i++)
+         {
+            transposeRowPointer[a.getColumnIndex(i) + 1]++;
+         }
+      }
+      for (int colIdx = 0; colIdx < columns; colIdx++)
+      {
+         transposeRowPointer[colIdx + 1] += transposeRowPointer[colIdx];
+      }
+
+      // Rows are visited in increasing order so the columns of the transpose end up sorted.
+      int[] next = Arrays.copyOf(transposeRowPointer, columns);
+      for (int rowIdx = 0; rowIdx < rows; rowIdx++)
+      {
+         for (int i = a.getRowStart(rowIdx); i < a.getRowEnd(rowIdx); i++)
+         {
+            int position = next[a.getColumnIndex(i)]++;
+            transposeColumnIndex[position] = rowIdx;
+            transposeValue[position] = a.getValue(i);
+         }
+      }
+
+      return new SparseMatrixCSR(columns, rows, transposeRowPointer, transposeColumnIndex, transposeValue);
+   }
+
+   /**
+    * Package private such that factorizations with a fixed pattern can update their factors in place.
+    */
+   double[] getValueArray()
+   {
+      return value;
+   }
+
+   private int find(int rowIdx, int colIdx)
+   {
+      int entryIdx = Arrays.binarySearch(columnIndex, rowPointer[rowIdx], rowPointer[rowIdx + 1], colIdx);
+      return entryIdx < 0 ? -1 : entryIdx;
+   }
+
+   private void checkDimentions(int rowIdx, int colIdx)
+   {
+      if (rowIdx < 0 || rowIdx >= rows || colIdx < 0 || colIdx >= columns)
+      {
+         throw new RuntimeException("Unexpected index.");
+      }
+   }
+
+   @Override
+   public String toString()
+   {
+      return "Compressed row matrix of size " + rows + "x" + columns + " with " + getNumberOfNonZeros() + " entries";
+   }
+
+   private class ColumnCollector implements TIntProcedure
+   {
+      private int position;
+
+      public void set(int position)
+      {
+         this.position = position;
+      }
+
+      @Override
+      public boolean execute(int colIdx)
+      {
+         columnIndex[position++] = colIdx;
+         return true;
+      }
+   }
+}
@@ -1,22 +1,233 @@
 package us.ihmc.sparseMatrices;
 
-import gnu.trove.function.TDoubleFunction;
+import org.ejml.data.DenseMatrix64F;
+import org.ejml.ops.CommonOps;
+
 import gnu.trove.map.hash.TIntDoubleHashMap;
+import gnu.trove.list.array.TIntArrayList;
 import gnu.trove.procedure.TIntDoubleProcedure;
+import gnu.trove.procedure.TIntProcedure;
+import gnu.trove.set.hash.TIntHashSet;
+import us.ihmc.sparseMatrices.ordering.FillReducingOrdering;
 
 public class SparseMatrixInverter
 {
    private static final double epsilon = 1.0e-10;
 
    private final SparseMatrix localMatrixStep1 = new SparseMatrix();
-   private final SparseMatrix localMatrixStep2 = new SparseMatrix();
-   private final LowestIndexFinder lowestIndexFinder = new LowestIndexFinder();
+   private final PivotStrategy defaultPivotStrategy = new LowestIndexPivotStrategy();
+   private PivotStrategy pivotStrategy = defaultPivotStrategy;
+   private final int[] pivotIndices = new int[2];
+   private final LowerRowCollector lowerRowCollector = new LowerRowCollector();
+   private final BackSubstitutionProcedure backSubstitutionProcedure = new BackSubstitutionProcedure();
+
+   /**
+    * For each column the step of the elimination in which it was used as pivot column.
+    */
+   private int[] pivotSteps = new int[0];
 
    private final SparseMatrix permutationMatrix = new SparseMatrix();
    private final SparseMatrix localInverse = new SparseMatrix();
 
    private final EliminationProcedure eliminationProcedure = new EliminationProcedure();
-   private final RowScalingProcedure rowScalingProcedure = new RowScalingProcedure();
+
+   private final SparseMatrix localPermutedMatrix = new SparseMatrix();
+   private final SparseMatrix localPermutedInverse = new SparseMatrix();
+   private FillReducingOrdering ordering = null;
+
+   private final InversionStatistics statistics = new InversionStatistics();
+   private InversionListener listener = null;
+   private boolean recordStatistics = false;
+
+   private boolean dropEntries = false;
+   private double absoluteDropTolerance = 0.0;
+   private double relativeDropTolerance = 0.0;
+
+   private final SparseLUSolver patternSolver = new SparseLUSolver();
+   private boolean patternFactored = false;
+   private double[] unitVector = new double[0];
+   private double[] inverseColumn = new double[0];
+
+   private final SparseMatrix localTransposeV = new SparseMatrix();
+   private final SparseMatrix localInverseTimesU = new SparseMatrix();
+   private final SparseMatrix localTransposeVTimesInverse = new SparseMatrix();
+   private final SparseMatrix localCorrection = new SparseMatrix();
+   private final SparseMatrix localUpdatedMatrix = new SparseMatrix();
+   private final DenseMatrix64F capacitance = new DenseMatrix64F(0, 0);
+   private final DenseMatrix64F capacitanceInverse = new DenseMatrix64F(0, 0);
+   private final SparseMatrix localCapacitanceInverse = new SparseMatrix();
+
+   public SparseMatrixInverter()
+   {
+      localMatrixStep1.setColumnIndexing(true);
+   }
+
+   /**
+    * Sets an ordering that is used to symmetrically permute the matrix before inverting it to reduce fill-in. If the
+    * ordering is null (default) the matrix is inverted as is.
+    */
+   public void setOrdering(FillReducingOrdering ordering)
+   {
+      this.ordering = ordering;
+      patternSolver.setOrdering(ordering);
+      patternFactored = false;
+   }
+
+   /**
+    * Sets the strategy that chooses the pivot of every elimination step. If the strategy is null the
+    * {@link LowestIndexPivotStrategy} is used (default), which keeps the order of the rows and ignores the magnitude
+    * of the pivots. Use a {@link MarkowitzPivotStrategy} to reduce fill-in and avoid small pivots.
+    */
+   public void setPivotStrategy(PivotStrategy pivotStrategy)
+   {
+      this.pivotStrategy = pivotStrategy == null ? defaultPivotStrategy : pivotStrategy;
+   }
+
+   /**
+    * Enables removing small entries during {@link #invert(SparseMatrix, SparseMatrix)}. After a row of the working
+    * matrix or of the inverse is updated every entry with a magnitude of at most max(absoluteTolerance,
+    * relativeTolerance * norm) is removed, where norm is the euclidean norm of that row. With both tolerances zero only
+    * entries that cancelled out exactly are removed and the result is unchanged. Larger tolerances keep long
+    * elimination chains sparse at the cost of an approximate inverse, and may cause the inversion to fail if a row is
+    * dropped entirely.
+    */
+   public void setDropTolerance(double absoluteTolerance, double relativeTolerance)
+   {
+      if (!(absoluteTolerance >= 0.0) || !(relativeTolerance >= 0.0))
+      {
+         throw new RuntimeException("Drop tolerances must not be negative.");
+      }
+      dropEntries = true;
+      absoluteDropTolerance = absoluteTolerance;
+      relativeDropTolerance = relativeTolerance;
+   }
+
+   /**
+    * Disables removing small entries during inversion, this is the default.
+    */
+   public void clearDropTolerance()
+   {
+      dropEntries = false;
+      absoluteDropTolerance = 0.0;
+      relativeDropTolerance = 0.0;
+   }
+
+   /**
+    * Sets a listener that receives the statistics of every call to {@link #invert(SparseMatrix, SparseMatrix)}. If
+    * the listener is null (default) no statistics are recorded.
+    */
+   public void setListener(InversionListener listener)
+   {
+      this.listener = listener;
+   }
+
+   /**
+    * Inverts a matrix whose pattern does not change between calls. The first call computes a sparse LU factorization
+    * including pivots and fill-in, later calls only recompute the numeric values of that factorization. If the
+    * matrix has entries outside of the previous pattern or the previous pivots became too small the factorization is
+    * computed from scratch.
+    */
+   public boolean reinvert(SparseMatrix matrix, SparseMatrix inverseToPack)
+   {
+      int n = matrix.getRows();
+      if (n != matrix.getColumns())
+      {
+         throw new RuntimeException("Can only invert square matrices.");
+      }
+
+      if (!patternFactored || !patternSolver.refactor(matrix))
+      {
+         patternFactored = patternSolver.factor(matrix);
+         if (!patternFactored)
+         {
+            return false;
+         }
+      }
+
+      if (unitVector.length != n)
+      {
+         unitVector = new double[n];
+         inverseColumn = new double[n];
+      }
+
+      inverseToPack.resize(n, n);
+      inverseToPack.clear();
+      for (int column = 0; column < n; column++)
+      {
+         unitVector[column] = 1.0;
+         patternSolver.solve(unitVector, inverseColumn);
+         unitVector[column] = 0.0;
+
+         for (int row = 0; row < n; row++)
+         {
+            inverseToPack.set(row, column, inverseColumn[row]);
+         }
+      }
+      return true;
+   }
+
+   /**
+    * Computes the inverse of matrix + U * V^T from a known inverse of matrix with the Sherman-Morrison-Woodbury formula
+    * inv(A + U * V^T) = inv(A) - inv(A) * U * inv(I + V^T * inv(A) * U) * V^T * inv(A). For an update of rank k this
+    * takes a few sparse products with the inverse and the inversion of a dense k x k matrix instead of a full
+    * elimination. If that k x k matrix is badly conditioned the updated matrix is inverted from scratch instead. For
+    * repeated solves consider a {@link WoodburySolver}, which avoids forming the inverse.
+    *
+    * @param matrix the matrix that was inverted. Only used if the updated matrix is inverted from scratch.
+    * @param inverse the inverse of matrix.
+    * @param U the left factor of the update with one row per row of matrix and one column per rank.
+    * @param V the right factor of the update with the same size as U.
+    * @param updatedInverseToPack the inverse of the updated matrix. Must not be the same as inverse.
+    * @return false if the updated matrix is singular.
+    */
+   public boolean updateInverse(SparseMatrix matrix, SparseMatrix inverse, SparseMatrix U, SparseMatrix V, SparseMatrix updatedInverseToPack)
+   {
+      int n = matrix.getRows();
+      int k = U.getColumns();
+      if (n != matrix.getColumns() || inverse.getRows() != n || inverse.getColumns() != n || U.getRows() != n || V.getRows() != n
+            || V.getColumns() != k)
+      {
+         throw new RuntimeException("Unexpected Dimensions for Update.");
+      }
+      if (updatedInverseToPack == inverse)
+      {
+         throw new RuntimeException("The updated inverse must not be the same matrix as the inverse.");
+      }
+
+      SparseCommonOps.transpose(V, localTransposeV);
+      localInverseTimesU.mult(inverse, U);
+      localTransposeVTimesInverse.mult(localTransposeV, inverse);
+
+      // C = I + V^T * inv(A) * U
+      localCorrection.mult(localTransposeV, localInverseTimesU);
+      capacitance.reshape(k, k);
+      CommonOps.setIdentity(capacitance);
+      for (int row = 0; row < k; row++)
+      {
+         TIntDoubleHashMap correctionRow = localCorrection.getRow(row);
+         if (correctionRow != null)
+         {
+            int capacitanceRow = row;
+            correctionRow.forEachEntry((column, value) ->
+            {
+               capacitance.add(capacitanceRow, column, value);
+               return true;
+            });
+         }
+      }
+
+      if (!WoodburySolver.invertCapacitance(capacitance, capacitanceInverse, WoodburySolver.defaultConditionThreshold))
+      {
+         WoodburySolver.addLowRankUpdate(matrix, U, V, localTransposeV, localCorrection, localUpdatedMatrix);
+         return invert(localUpdatedMatrix, updatedInverseToPack);
+      }
+
+      localCapacitanceInverse.set(capacitanceInverse, 0.0);
+      localCorrection.mult(localInverseTimesU, localCapacitanceInverse);
+      localInverseTimesU.mult(localCorrection, localTransposeVTimesInverse);
+      SparseCommonOps.subtract(inverse, localInverseTimesU, updatedInverseToPack);
+      return true;
+   }
 
    public boolean invert(SparseMatrix matrix, SparseMatrix inverseToPack)
    {
@@ -26,33 +237,117 @@ public class SparseMatrixInverter
          throw new RuntimeException("Can only invert square matrices.");
       }
 
+      InversionListener listener = this.listener;
+      recordStatistics = listener != null;
+      if (!recordStatistics)
+      {
+         return invertOrdered(matrix, inverseToPack);
+      }
+
+      statistics.reset(n);
+      long startTime = System.nanoTime();
+      boolean success = invertOrdered(matrix, inverseToPack);
+      statistics.totalTime = System.nanoTime() - startTime;
+      listener.inversionFinished(statistics, success);
+      return success;
+   }
+
+   private boolean invertOrdered(SparseMatrix matrix, SparseMatrix inverseToPack)
+   {
+      if (ordering == null)
+      {
+         return invertInternal(matrix, inverseToPack);
+      }
+
+      // If B = P * A * P^T then inv(A) = P^T * inv(B) * P.
+      long startTime = recordStatistics ? System.nanoTime() : 0;
+      int n = matrix.getRows();
+      int[] order = ordering.computeOrdering(matrix);
+      localPermutedMatrix.setSymmetricPermutation(matrix, order);
+      if (recordStatistics)
+      {
+         statistics.orderingTime += System.nanoTime() - startTime;
+      }
+
+      if (!invertInternal(localPermutedMatrix, localPermutedInverse))
+      {
+         return false;
+      }
+
+      startTime = recordStatistics ? System.nanoTime() : 0;
+      int[] inverseOrder = new int[n];
+      for (int i = 0; i < n; i++)
+      {
+         inverseOrder[order[i]] = i;
+      }
+      inverseToPack.setSymmetricPermutation(localPermutedInverse, inverseOrder);
+      if (recordStatistics)
+      {
+         statistics.orderingTime += System.nanoTime() - startTime;
+      }
+      return true;
+   }
+
+   private boolean invertInternal(SparseMatrix matrix, SparseMatrix inverseToPack)
+   {
+      int n = matrix.getRows();
+      long startTime = recordStatistics ? System.nanoTime() : 0;
+
       localInverse.setIdentity(n);
       localMatrixStep1.set(matrix);
 
+      long matrixNonZeros = 0;
+      long inverseNonZeros = 0;
+      if (recordStatistics)
+      {
+         matrixNonZeros = localMatrixStep1.getNumberOfNonZeros();
+         inverseNonZeros = n;
+         statistics.initialNonZeros = matrixNonZeros;
+         statistics.peakNonZerosMatrix = matrixNonZeros;
+         statistics.peakNonZerosInverse = inverseNonZeros;
+      }
+
       permutationMatrix.resize(n, n);
       permutationMatrix.clear();
 
+      if (pivotSteps.length < n)
+      {
+         pivotSteps = new int[n];
+      }
+
       // Step one: make matrix upper triangle.
       for (int i = 0; i < n; i++)
       {
          int pivotRowIndex = i;
-         TIntDoubleHashMap pivotRow = localMatrixStep1.getRow(pivotRowIndex);
-
-         if (pivotRow == null || pivotRow.isEmpty())
+         if (!pivotStrategy.choosePivot(localMatrixStep1, pivotRowIndex, pivotIndices))
          {
             return false;
          }
+         if (pivotIndices[0] < pivotRowIndex || pivotIndices[0] >= n || pivotIndices[1] < 0 || pivotIndices[1] >= n)
+         {
+            throw new RuntimeException("Pivot strategy returned an invalid pivot.");
+         }
 
-         lowestIndexFinder.reset();
-         pivotRow.forEachEntry(lowestIndexFinder);
+         // Swapping the rows of the matrix and the inverse is just another row operation on both.
+         if (pivotIndices[0] != pivotRowIndex)
+         {
+            localMatrixStep1.swapRows(pivotRowIndex, pivotIndices[0]);
+            localInverse.swapRows(pivotRowIndex, pivotIndices[0]);
+            if (recordStatistics)
+            {
+               statistics.rowSwaps++;
+            }
+         }
 
-         if (!lowestIndexFinder.valid())
+         TIntDoubleHashMap pivotRow = localMatrixStep1.getRow(pivotRowIndex);
+         if (pivotRow == null)
          {
             return false;
          }
 
-         int pivotColumnIndex = lowestIndexFinder.getLowestIndex();
+         int pivotColumnIndex = pivotIndices[1];
          permutationMatrix.set(pivotColumnIndex, pivotRowIndex, 1.0);
+         pivotSteps[pivotColumnIndex] = pivotRowIndex;
 
          double pivot = pivotRow.get(pivotColumnIndex);
          if (closeToZero(pivot))
@@ -60,143 +355,254 @@ public class SparseMatrixInverter
             return false;
          }
 
-         rowScalingProcedure.set(1.0 / pivot);
-         pivotRow.transformValues(rowScalingProcedure);
+         double pivotScale = 1.0 / pivot;
+         SparseMatrix.scaleRow(pivotRow, pivotScale);
 
          TIntDoubleHashMap pivotRowInverse = localInverse.getRow(pivotRowIndex);
-         pivotRowInverse.transformValues(rowScalingProcedure);
+         SparseMatrix.scaleRow(pivotRowInverse, pivotScale);
 
-         for (int lowerRowIdx = pivotRowIndex + 1; lowerRowIdx < n; lowerRowIdx++)
+         if (recordStatistics)
          {
-            TIntDoubleHashMap lowerRow = localMatrixStep1.getRow(lowerRowIdx);
-            if (lowerRow == null)
-            {
-               return false;
-            }
-            double eliminateValue = lowerRow.remove(pivotColumnIndex);
+            statistics.pivots++;
+            statistics.minimumPivotMagnitude = Math.min(statistics.minimumPivotMagnitude, Math.abs(pivot));
+            statistics.flops += pivotRow.size() + pivotRowInverse.size();
+         }
+
+         // Only visit the lower rows that actually hold an entry in the pivot column.
+         lowerRowCollector.reset(pivotRowIndex);
+         TIntHashSet rowsInPivotColumn = localMatrixStep1.getRowsInColumn(pivotColumnIndex);
+         if (rowsInPivotColumn != null)
+         {
+            rowsInPivotColumn.forEach(lowerRowCollector);
+         }
+
+         TIntArrayList lowerRows = lowerRowCollector.getRows();
+         for (int j = 0; j < lowerRows.size(); j++)
+         {
+            int lowerRowIdx = lowerRows.get(j);
+            double eliminateValue = localMatrixStep1.removeUnsafe(lowerRowIdx, pivotColumnIndex);
             if (closeToZero(eliminateValue))
             {
+               if (recordStatistics)
+               {
+                  statistics.skippedEliminations++;
+                  matrixNonZeros--;
+               }
                continue;
             }
 
-            eliminationProcedure.set(eliminateValue, pivotColumnIndex, lowerRow);
+            TIntDoubleHashMap lowerRow = localMatrixStep1.getRow(lowerRowIdx);
+            TIntDoubleHashMap lowerRowInverse = localInverse.getRow(lowerRowIdx);
+            int lowerRowSize = lowerRow.size();
+            int lowerRowInverseSize = lowerRowInverse.size();
+
+            eliminationProcedure.set(eliminateValue, pivotColumnIndex, lowerRow, lowerRowIdx, localMatrixStep1);
             pivotRow.forEachEntry(eliminationProcedure);
 
-            TIntDoubleHashMap lowerRowInverse = localInverse.getRow(lowerRowIdx);
             eliminationProcedure.set(eliminateValue, -1, lowerRowInverse);
             pivotRowInverse.forEachEntry(eliminationProcedure);
+
+            int droppedMatrix = 0;
+            int droppedInverse = 0;
+            if (dropEntries)
+            {
+               droppedMatrix = localMatrixStep1.pruneRow(lowerRowIdx, lowerRow, absoluteDropTolerance, relativeDropTolerance);
+               droppedInverse = localInverse.pruneRow(lowerRowIdx, lowerRowInverse, absoluteDropTolerance, relativeDropTolerance);
+            }
+
+            if (recordStatistics)
+            {
+               int matrixFillIn = lowerRow.size() + droppedMatrix - lowerRowSize;
+               int inverseFillIn = lowerRowInverse.size() + droppedInverse - lowerRowInverseSize;
+               statistics.fillIn += matrixFillIn + inverseFillIn;
+               statistics.droppedEntries += droppedMatrix + droppedInverse;
+               statistics.flops += 2 * (pivotRow.size() - 1) + 2 * pivotRowInverse.size();
+               matrixNonZeros += matrixFillIn - droppedMatrix - 1;
+               inverseNonZeros += inverseFillIn - droppedInverse;
+               statistics.peakNonZerosMatrix = Math.max(statistics.peakNonZerosMatrix, matrixNonZeros);
+               statistics.peakNonZerosInverse = Math.max(statistics.peakNonZerosInverse, inverseNonZeros);
+            }
          }
       }
 
-      localMatrixStep2.mult(permutationMatrix, localMatrixStep1);
-      inverseToPack.mult(permutationMatrix, localInverse);
-
-      // Step two make original matrix match the identity.
-      for (int i = 0; i < n; i++)
+      if (recordStatistics)
       {
-         int modifiedRowIndex = i;
-         TIntDoubleHashMap modifiedRow = localMatrixStep2.getRow(modifiedRowIndex);
-         TIntDoubleHashMap modifiedRowInverse = inverseToPack.getRow(modifiedRowIndex);
+         long time = System.nanoTime();
+         statistics.eliminationTime = time - startTime;
+         startTime = time;
+         backSubstitutionProcedure.resetCounters();
+      }
 
-         for (int lowerColumnIdx = modifiedRowIndex + 1; lowerColumnIdx < n; lowerColumnIdx++)
+      // Step two: back substitution in reverse pivot order. When row i is processed all rows of later pivots already
+      // match the identity, so eliminating an entry only changes the inverse.
+      for (int i = n - 1; i >= 0; i--)
+      {
+         TIntDoubleHashMap modifiedRow = localMatrixStep1.getRow(i);
+         TIntDoubleHashMap rowInverse = localInverse.getRow(i);
+         int rowInverseSize = rowInverse.size();
+         backSubstitutionProcedure.set(i, rowInverse);
+         modifiedRow.forEachEntry(backSubstitutionProcedure);
+
+         int droppedInverse = 0;
+         if (dropEntries)
          {
-            int modifiedColumnIndex = lowerColumnIdx;
-            double eliminateValue = modifiedRow.remove(modifiedColumnIndex);
-            if (closeToZero(eliminateValue))
-            {
-               continue;
-            }
-
-            TIntDoubleHashMap pivotRow = localMatrixStep2.getRow(modifiedColumnIndex);
-            eliminationProcedure.set(eliminateValue, modifiedColumnIndex, modifiedRow);
-            pivotRow.forEachEntry(eliminationProcedure);
+            droppedInverse = localInverse.pruneRow(i, rowInverse, absoluteDropTolerance, relativeDropTolerance);
+         }
 
-            TIntDoubleHashMap pivotRowInverse = inverseToPack.getRow(modifiedColumnIndex);
-            eliminationProcedure.set(eliminateValue, -1, modifiedRowInverse);
-            pivotRowInverse.forEachEntry(eliminationProcedure);
+         if (recordStatistics)
+         {
+            statistics.fillIn += rowInverse.size() + droppedInverse - rowInverseSize;
+            statistics.droppedEntries += droppedInverse;
+            inverseNonZeros += rowInverse.size() - rowInverseSize;
+            statistics.peakNonZerosInverse = Math.max(statistics.peakNonZerosInverse, inverseNonZeros);
          }
       }
 
+      inverseToPack.mult(permutationMatrix, localInverse);
+
+      if (recordStatistics)
+      {
+         statistics.skippedEliminations += backSubstitutionProcedure.getSkipped();
+         statistics.flops += backSubstitutionProcedure.getFlops();
+         statistics.backSubstitutionTime = System.nanoTime() - startTime;
+      }
       return true;
    }
 
-   private static boolean closeToZero(double value)
+   static boolean closeToZero(double value)
    {
       return value < epsilon && value > -epsilon;
    }
 
-   private class LowestIndexFinder implements TIntDoubleProcedure
+   private class EliminationProcedure implements TIntDoubleProcedure
    {
-      private int lowestIndex;
-
-      public void reset()
-      {
-         lowestIndex = Integer.MAX_VALUE;
-      }
+      private double valueToElimiate;
+      private int skipIndex;
+      private TIntDoubleHashMap rowToModify;
+      private int rowToModifyIndex;
+      private SparseMatrix matrixToModify;
 
-      public int getLowestIndex()
+      public void set(double valueToElimiate, int skipIndex, TIntDoubleHashMap rowToModify)
       {
-         return lowestIndex;
+         set(valueToElimiate, skipIndex, rowToModify, -1, null);
       }
 
-      public boolean valid()
+      /**
+       * If the matrix holding the row is provided new entries are added through it to keep its column index valid.
+       */
+      public void set(double valueToElimiate, int skipIndex, TIntDoubleHashMap rowToModify, int rowToModifyIndex, SparseMatrix matrixToModify)
       {
-         return lowestIndex != Integer.MAX_VALUE;
+         this.valueToElimiate = valueToElimiate;
+         this.skipIndex = skipIndex;
+         this.rowToModify = rowToModify;
+         this.rowToModifyIndex = rowToModifyIndex;
+         this.matrixToModify = matrixToModify;
       }
 
       @Override
       public boolean execute(int index, double value)
       {
-         if (lowestIndex > index && !closeToZero(value))
+         // Skip since this one is already removed.
+         if (index == skipIndex)
          {
-            lowestIndex = index;
+            return true;
+         }
+
+         double adjust = -valueToElimiate * value;
+         if (matrixToModify != null)
+         {
+            matrixToModify.addToRow(rowToModifyIndex, rowToModify, index, adjust);
+         }
+         else
+         {
+            rowToModify.adjustOrPutValue(index, adjust, adjust);
          }
          return true;
       }
    }
 
-   private class EliminationProcedure implements TIntDoubleProcedure
+   /**
+    * Collects the indices of all rows below the pivot row.
+    */
+   private class LowerRowCollector implements TIntProcedure
    {
-      private double valueToElimiate;
-      private int skipIndex;
-      private TIntDoubleHashMap rowToModify;
+      private final TIntArrayList rows = new TIntArrayList();
+      private int pivotRowIndex;
 
-      public void set(double valueToElimiate, int skipIndex, TIntDoubleHashMap rowToModify)
+      public void reset(int pivotRowIndex)
       {
-         this.valueToElimiate = valueToElimiate;
-         this.skipIndex = skipIndex;
-         this.rowToModify = rowToModify;
+         this.pivotRowIndex = pivotRowIndex;
+         rows.resetQuick();
+      }
+
+      public TIntArrayList getRows()
+      {
+         return rows;
       }
 
       @Override
-      public boolean execute(int index, double value)
+      public boolean execute(int rowIdx)
       {
-         // Skip since this one is already removed.
-         if (index == skipIndex)
+         if (rowIdx > pivotRowIndex)
          {
-            return true;
+            rows.add(rowIdx);
          }
-
-         double adjust = -valueToElimiate * value;
-         rowToModify.adjustOrPutValue(index, adjust, adjust);
          return true;
       }
    }
 
-   private class RowScalingProcedure implements TDoubleFunction
+   /**
+    * Eliminates the entries of an upper row using the rows of later pivots. Those rows are already reduced to a
+    * single one in their pivot column, so only the inverse needs to be updated.
+    */
+   private class BackSubstitutionProcedure implements TIntDoubleProcedure
    {
-      private double scale;
+      private int step;
+      private TIntDoubleHashMap rowToModifyInverse;
+      private long skipped;
+      private long flops;
 
-      public void set(double scale)
+      public void set(int step, TIntDoubleHashMap rowToModifyInverse)
       {
-         this.scale = scale;
+         this.step = step;
+         this.rowToModifyInverse = rowToModifyInverse;
       }
 
-      @Override
-      public double execute(double value)
+      public void resetCounters()
+      {
+         skipped = 0;
+         flops = 0;
+      }
+
+      public long getSkipped()
+      {
+         return skipped;
+      }
+
+      public long getFlops()
       {
-         return value * scale;
+         return flops;
       }
 
+      @Override
+      public boolean execute(int index, double value)
+      {
+         int pivotStep = pivotSteps[index];
+         if (pivotStep == step)
+         {
+            return true;
+         }
+         if (closeToZero(value))
+         {
+            skipped++;
+            return true;
+         }
+
+         TIntDoubleHashMap pivotRowInverse = localInverse.getRow(pivotStep);
+         eliminationProcedure.set(value, -1, rowToModifyInverse);
+         pivotRowInverse.forEachEntry(eliminationProcedure);
+         flops += 2 * pivotRowInverse.size();
+         return true;
+      }
    }
 }
@@ -0,0 +1,271 @@
+package us.ihmc.sparseMatrices;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Forward and backward substitution with sparse triangular matrices in compressed row storage.
+ * <p>
+ * The lower solves only read the entries on and left of the diagonal and the upper solves only read the entries on
+ * and right of the diagonal. This allows storing both factors of an LU factorization in a single matrix. With a unit
+ * diagonal the diagonal entries are not read and may be missing. For a non-unit diagonal every row must hold its
+ * diagonal entry.
+ * <p>
+ * All solves allow b and x to be the same array. The non-transposed solves can run in parallel using a
+ * {@link TriangularLevelSchedule}.
+ */
+public class SparseTriangularSolver
+{
+   private static final int minimumRowsPerTask = 64;
+
+   /**
+    * Solves L * x = b.
+    */
+   public static void solveLower(CompressedRowMatrix lower, boolean unitDiagonal, double[] b, double[] x)
+   {
+      checkDimensions(lower, b, x);
+      for (int rowIdx = 0; rowIdx < lower.getRows(); rowIdx++)
+      {
+         solveLowerRow(lower, unitDiagonal, rowIdx, b, x);
+      }
+   }
+
+   /**
+    * Solves U * x = b.
+    */
+   public static void solveUpper(CompressedRowMatrix upper, boolean unitDiagonal, double[] b, double[] x)
+   {
+      checkDimensions(upper, b, x);
+      for (int rowIdx = upper.getRows() - 1; rowIdx >= 0; rowIdx--)
+      {
+         solveUpperRow(upper, unitDiagonal, rowIdx, b, x);
+      }
+   }
+
+   /**
+    * Solves L^T * x = b without forming the transpose.
+    */
+   public static void solveLowerTransposed(CompressedRowMatrix lower, boolean unitDiagonal, double[] b, double[] x)
+   {
+      checkDimensions(lower, b, x);
+      int n = lower.getRows();
+      if (b != x)
+      {
+         System.arraycopy(b, 0, x, 0, n);
+      }
+
+      // Row i of L is column i of L^T which is upper triangular, so eliminate it from the rows above.
+      for (int rowIdx = n - 1; rowIdx >= 0; rowIdx--)
+      {
+         int diagonalIndex = findDiagonalOrNext(lower, rowIdx);
+         if (!unitDiagonal)
+         {
+            x[rowIdx] /= diagonalValue(lower, rowIdx, diagonalIndex);
+         }
+         double value = x[rowIdx];
+         for (int i = lower.getRowStart(rowIdx); i < diagonalIndex; i++)
+         {
+            x[lower.getColumnIndex(i)] -= lower.getValue(i) * value;
+         }
+      }
+   }
+
+   /**
+    * Solves U^T * x = b without forming the transpose.
+    */
+   public static void solveUpperTransposed(CompressedRowMatrix upper, boolean unitDiagonal, double[] b, double[] x)
+   {
+      checkDimensions(upper, b, x);
+      int n = upper.getRows();
+      if (b != x)
+      {
+         System.arraycopy(b, 0, x, 0, n);
+      }
+
+      // Row i of U is column i of U^T which is lower triangular, so eliminate it from the rows below.
+      for (int rowIdx = 0; rowIdx < n; rowIdx++)
+      {
+         int diagonalIndex = findDiagonalOrNext(upper, rowIdx);
+         if (!unitDiagonal)
+         {
+            x[rowIdx] /= diagonalValue(upper, rowIdx, diagonalIndex);
+         }
+         double value = x[rowIdx];
+         int start = diagonalIndex < upper.getRowEnd(rowIdx) && upper.getColumnIndex(diagonalIndex) == rowIdx ? diagonalIndex + 1 : diagonalIndex;
+         for (int i = start; i < upper.getRowEnd(rowIdx); i++)
+         {
+            x[upper.getColumnIndex(i)] -= upper.getValue(i) * value;
+         }
+      }
+   }
+
+   /**
+    * Same as {@link #solveLower(CompressedRowMatrix, boolean, double[], double[])} but solves the rows of each level of
+    * the schedule in parallel on the common {@link ForkJoinPool}.
+    */
+   public static void solveLower(CompressedRowMatrix lower, boolean unitDiagonal, TriangularLevelSchedule schedule, double[] b, double[] x)
+   {
+      solveLower(lower, unitDiagonal, schedule, b, x, ForkJoinPool.commonPool());
+   }
+
+   /**
+    * Same as {@link #solveLower(CompressedRowMatrix, boolean, double[], double[])} but solves the rows of each level of
+    * the schedule in parallel on the provided executor. The schedule must have been computed for the lower triangle
+    * of this matrix.
+    */
+   public static void solveLower(CompressedRowMatrix lower, boolean unitDiagonal, TriangularLevelSchedule schedule, double[] b, double[] x,
+                                 ExecutorService executor)
+   {
+      checkDimensions(lower, b, x);
+      checkSchedule(lower, schedule, true);
+      solveScheduled(lower, unitDiagonal, schedule, b, x, executor);
+   }
+
+   /**
+    * Same as {@link #solveUpper(CompressedRowMatrix, boolean, double[], double[])} but solves the rows of each level of
+    * the schedule in parallel on the common {@link ForkJoinPool}.
+    */
+   public static void solveUpper(CompressedRowMatrix upper, boolean unitDiagonal, TriangularLevelSchedule schedule, double[] b, double[] x)
+   {
+      solveUpper(upper, unitDiagonal, schedule, b, x, ForkJoinPool.commonPool());
+   }
+
+   /**
+    * Same as {@link #solveUpper(CompressedRowMatrix, boolean, double[], double[])} but solves the rows of each level of
+    * the schedule in parallel on the provided executor. The schedule must have been computed for the upper triangle
+    * of this matrix.
+    */
+   public static void solveUpper(CompressedRowMatrix upper, boolean unitDiagonal, TriangularLevelSchedule schedule, double[] b, double[] x,
+                                 ExecutorService executor)
+   {
+      checkDimensions(upper, b, x);
+      checkSchedule(upper, schedule, false);
+      solveScheduled(upper, unitDiagonal, schedule, b, x, executor);
+   }
+
+   /**
+    * Rows within a level do not depend on each other, so each level is split into chunks that run in parallel. A level
+    * only starts once all chunks of the previous level are done.
+    */
+   private static void solveScheduled(CompressedRowMatrix matrix, boolean unitDiagonal, TriangularLevelSchedule schedule, double[] b, double[] x,
+                                      ExecutorService executor)
+   {
+      boolean lower = schedule.isLower();
+      int parallelism = ParallelChunks.getParallelism(executor);
+
+      for (int level = 0; level < schedule.getNumberOfLevels(); level++)
+      {
+         int levelStart = schedule.getLevelStart(level);
+         int levelEnd = schedule.getLevelEnd(level);
+         int rows = levelEnd - levelStart;
+         int chunks = Math.min(parallelism, rows / minimumRowsPerTask);
+         ParallelChunks.run(levelStart, levelEnd, chunks, executor, (start, end) -> solveRows(matrix, unitDiagonal, lower, schedule, start, end, b, x));
+      }
+   }
+
+   private static void solveRows(CompressedRowMatrix matrix, boolean unitDiagonal, boolean lower, TriangularLevelSchedule schedule, int start, int end,
+                                 double[] b, double[] x)
+   {
+      for (int i = start; i < end; i++)
+      {
+         int rowIdx = schedule.getRow(i);
+         if (lower)
+         {
+            solveLowerRow(matrix, unitDiagonal, rowIdx, b, x);
+         }
+         else
+         {
+            solveUpperRow(matrix, unitDiagonal, rowIdx, b, x);
+         }
+      }
+   }
+
+   private static void solveLowerRow(CompressedRowMatrix lower, boolean unitDiagonal, int rowIdx, double[] b, double[] x)
+   {
+      double sum = b[rowIdx];
+      int i = lower.getRowStart(rowIdx);
+      int rowEnd = lower.getRowEnd(rowIdx);
+      for (; i < rowEnd; i++)
+      {
+         int colIdx = lower.getColumnIndex(i);
+         if (colIdx >= rowIdx)
+         {
+            break;
+         }
+         sum -= lower.getValue(i) * x[colIdx];
+      }
+
+      if (unitDiagonal)
+      {
+         x[rowIdx] = sum;
+      }
+      else
+      {
+         x[rowIdx] = sum / diagonalValue(lower, rowIdx, i);
+      }
+   }
+
+   private static void solveUpperRow(CompressedRowMatrix upper, boolean unitDiagonal, int rowIdx, double[] b, double[] x)
+   {
+      int diagonalIndex = findDiagonalOrNext(upper, rowIdx);
+      int rowEnd = upper.getRowEnd(rowIdx);
+      double sum = b[rowIdx];
+      int start = diagonalIndex < rowEnd && upper.getColumnIndex(diagonalIndex) == rowIdx ? diagonalIndex + 1 : diagonalIndex;
+      for (int i = start; i < rowEnd; i++)
+      {
+         sum -= upper.getValue(i) * x[upper.getColumnIndex(i)];
+      }
+
+      if (unitDiagonal)
+      {
+         x[rowIdx] = sum;
+      }
+      else
+      {
+         x[rowIdx] = sum / diagonalValue(upper, rowIdx, diagonalIndex);
+      }
+   }
+
+   /**
+    * @return the index of the diagonal entry of the row or of the first entry right of the diagonal if there is none.
+    */
+   static int findDiagonalOrNext(CompressedRowMatrix matrix, int rowIdx)
+   {
+      int i = matrix.getRowStart(rowIdx);
+      int rowEnd = matrix.getRowEnd(rowIdx);
+      while (i < rowEnd && matrix.getColumnIndex(i) < rowIdx)
+      {
+         i++;
+      }
+      return i;
+   }
+
+   private static double diagonalValue(CompressedRowMatrix matrix, int rowIdx, int diagonalIndex)
+   {
+      if (diagonalIndex >= matrix.getRowEnd(rowIdx) || matrix.getColumnIndex(diagonalIndex) != rowIdx)
+      {
+         throw new RuntimeException("Missing diagonal entry in row " + rowIdx + ".");
+      }
+      return matrix.getValue(diagonalIndex);
+   }
+
+   private static void checkDimensions(CompressedRowMatrix matrix, double[] b, double[] x)
+   {
+      if (matrix.getRows() != matrix.getColumns())
+      {
+         throw new RuntimeException("Triangular matrix must be square.");
+      }
+      if (b.length < matrix.getRows() || x.length < matrix.getRows())
+      {
+         throw new RuntimeException("Unexpected vector size.");
+      }
+   }
+
+   private static void checkSchedule(CompressedRowMatrix matrix, TriangularLevelSchedule schedule, boolean lower)
+   {
+      if (schedule.isLower() != lower || schedule.getSize() != matrix.getRows())
+      {
+         throw new RuntimeException("Level schedule does not match the matrix.");
+      }
+   }
+}
@@ -0,0 +1,109 @@
+package us.ihmc.sparseMatrices;
+
+/**
+ * Groups the rows of a sparse triangular matrix into levels such that the rows of a level only depend on rows of
+ * earlier levels during substitution. All rows of a level can then be solved in parallel, see
+ * {@link SparseTriangularSolver}. The analysis only depends on the pattern, so it can be reused as long as the
+ * pattern does not change.
+ */
+public class TriangularLevelSchedule
+{
+   private final boolean lower;
+   private final int size;
+
+   /**
+    * The rows of level l are stored at positions levelPointer[l] to levelPointer[l + 1] - 1 of levelRows.
+    */
+   private final int[] levelPointer;
+   private final int[] levelRows;
+
+   /**
+    * Analyzes the dependencies of forward substitution with the lower triangle (lower = true) or backward
+    * substitution with the upper triangle (lower = false) of the matrix.
+    */
+   public TriangularLevelSchedule(CompressedRowMatrix matrix, boolean lower)
+   {
+      this.lower = lower;
+      size = matrix.getRows();
+
+      // The level of a row is one more than the highest level of the rows it depends on.
+      int[] level = new int[size];
+      int numberOfLevels = 0;
+      for (int k = 0; k < size; k++)
+      {
+         int rowIdx = lower ? k : size - 1 - k;
+         int rowLevel = 0;
+         int diagonalIndex = SparseTriangularSolver.findDiagonalOrNext(matrix, rowIdx);
+         int start = lower ? matrix.getRowStart(rowIdx) : diagonalIndex;
+         int end = lower ? diagonalIndex : matrix.getRowEnd(rowIdx);
+         for (int i = start; i < end; i++)
+         {
+            int colIdx = matrix.getColumnIndex(i);
+            if (colIdx != rowIdx)
+            {
+               rowLevel = Math.max(rowLevel, level[colIdx] + 1);
+            }
+         }
+         level[rowIdx] = rowLevel;
+         numberOfLevels = Math.max(numberOfLevels, rowLevel + 1);
+      }
+
+      levelPointer = new int[numberOfLevels + 1];
+      for (int rowIdx = 0; rowIdx < size; rowIdx++)
+      {
+         levelPointer[level[rowIdx] + 1]++;
+      }
+      for (int l = 0; l < numberOfLevels; l++)
+      {
+         levelPointer[l + 1] += levelPointer[l];
+      }
+
+      levelRows = new int[size];
+      int[] next = new int[numberOfLevels];
+      System.arraycopy(levelPointer, 0, next, 0, numberOfLevels);
+      for (int rowIdx = 0; rowIdx < size; rowIdx++)
+      {
+         levelRows[next[level[rowIdx]]++] = rowIdx;
+      }
+   }
+
+   public boolean isLower()
+   {
+      return lower;
+   }
+
+   /**
+    * @return the number of rows of the analyzed matrix.
+    */
+   public int getSize()
+   {
+      return size;
+   }
+
+   /**
+    * @return the number of levels which is the number of sequential steps of the parallel substitution.
+    */
+   public int getNumberOfLevels()
+   {
+      return levelPointer.length - 1;
+   }
+
+   public int getLevelStart(int level)
+   {
+      return levelPointer[level];
+   }
+
+   public int getLevelEnd(int level)
+   {
+      return levelPointer[level + 1];
+   }
+
+   /**
+    * @return the row at the given position of the schedule. Positions getLevelStart(l) to getLevelEnd(l) - 1 hold
+    *         the rows of level l.
+    */
+   public int getRow(int position)
+   {
+      return levelRows[position];
+   }
+}
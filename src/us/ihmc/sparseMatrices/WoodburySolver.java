@@ -0,0 +1,311 @@
+package us.ihmc.sparseMatrices;
+
+import java.util.Arrays;
+
+import org.ejml.data.DenseMatrix64F;
+import org.ejml.ops.CommonOps;
+import org.ejml.ops.MatrixFeatures;
+import org.ejml.ops.NormOps;
+
+import gnu.trove.map.hash.TIntDoubleHashMap;
+import us.ihmc.sparseMatrices.kernels.DoubleKernels;
+import us.ihmc.sparseMatrices.kernels.Kernels;
+
+/**
+ * Wraps a {@link SparseLinearSolver} to solve systems whose matrix differs from the factored one by a low rank update
+ * (A + U * V^T) * x = b without factoring the updated matrix. Uses the Sherman-Morrison-Woodbury formula
+ * inv(A + U * V^T) = inv(A) - inv(A) * U * inv(I + V^T * inv(A) * U) * V^T * inv(A).
+ * <p>
+ * An update of rank k costs k solves with the existing factorization and the inversion of the dense k x k capacitance
+ * matrix I + V^T * inv(A) * U. Every solve then costs one solve with the existing factorization plus O(k * n).
+ * Updates accumulate until their total rank exceeds the maximum rank or the capacitance matrix becomes badly
+ * conditioned. The updated matrix is then factored from scratch and becomes the new base of later updates.
+ */
+public class WoodburySolver implements SparseLinearSolver
+{
+   public static final int defaultMaximumRank = 32;
+   public static final double defaultConditionThreshold = 1.0e-8;
+   private static final DoubleKernels kernels = Kernels.get();
+
+   private final SparseLinearSolver solver;
+   private int maximumRank = defaultMaximumRank;
+   private double conditionThreshold = defaultConditionThreshold;
+
+   /**
+    * The matrix held by the wrapped solver and the accumulated update U * V^T with one column per rank.
+    */
+   private final SparseMatrix factoredMatrix = new SparseMatrix();
+   private final SparseMatrix updateU = new SparseMatrix();
+   private final SparseMatrix updateV = new SparseMatrix();
+   private SparseMatrixCSR columnsOfV;
+   private int rank = 0;
+   private boolean factored = false;
+
+   /**
+    * Column j holds inv(A) * U(:, j).
+    */
+   private double[][] solvedColumns = new double[0][];
+   private final DenseMatrix64F capacitance = new DenseMatrix64F(0, 0);
+   private final DenseMatrix64F capacitanceInverse = new DenseMatrix64F(0, 0);
+   private double[] projection = new double[0];
+   private double[] weights = new double[0];
+   private double[] columnVector = new double[0];
+
+   private final SparseMatrix localTranspose = new SparseMatrix();
+   private final SparseMatrix localProduct = new SparseMatrix();
+   private final SparseMatrix localUpdatedMatrix = new SparseMatrix();
+
+   /**
+    * @param solver the solver used to factor the matrix without updates.
+    */
+   public WoodburySolver(SparseLinearSolver solver)
+   {
+      this.solver = solver;
+   }
+
+   /**
+    * Sets the total rank of the updates after which the updated matrix is factored from scratch.
+    */
+   public void setMaximumRank(int maximumRank)
+   {
+      this.maximumRank = maximumRank;
+   }
+
+   /**
+    * Sets the smallest reciprocal condition number of the capacitance matrix that is accepted. Badly conditioned
+    * updates are applied by factoring the updated matrix from scratch instead.
+    */
+   public void setConditionThreshold(double conditionThreshold)
+   {
+      this.conditionThreshold = conditionThreshold;
+   }
+
+   @Override
+   public boolean factor(SparseMatrix matrix)
+   {
+      factoredMatrix.set(matrix);
+      clearUpdates();
+      factored = solver.factor(matrix);
+      return factored;
+   }
+
+   @Override
+   public boolean refactor(SparseMatrix matrix)
+   {
+      factoredMatrix.set(matrix);
+      clearUpdates();
+      factored = solver.refactor(matrix);
+      return factored;
+   }
+
+   /**
+    * Updates the factored matrix to A + U * V^T. Both U and V have one row per row of A and one column per rank of
+    * the update.
+    *
+    * @return false if the update had to be applied by factoring the updated matrix and that failed. In that case no
+    *         solve is possible until the next successful call to {@link #factor(SparseMatrix)}.
+    */
+   public boolean update(SparseMatrix U, SparseMatrix V)
+   {
+      checkFactored();
+      int n = factoredMatrix.getRows();
+      int k = U.getColumns();
+      if (U.getRows() != n || V.getRows() != n || V.getColumns() != k)
+      {
+         throw new RuntimeException("Unexpected Dimensions for Update.");
+      }
+      if (k == 0)
+      {
+         return true;
+      }
+
+      appendColumns(updateU, U, rank);
+      appendColumns(updateV, V, rank);
+      int previousRank = rank;
+      rank += k;
+      if (rank > maximumRank)
+      {
+         return factorUpdatedMatrix();
+      }
+
+      if (solvedColumns.length < rank)
+      {
+         solvedColumns = Arrays.copyOf(solvedColumns, Math.max(rank, maximumRank));
+      }
+      if (columnVector.length != n)
+      {
+         columnVector = new double[n];
+      }
+
+      SparseMatrixCSR columnsOfU = new SparseMatrixCSR(U).transpose();
+      for (int j = 0; j < k; j++)
+      {
+         if (solvedColumns[previousRank + j] == null || solvedColumns[previousRank + j].length != n)
+         {
+            solvedColumns[previousRank + j] = new double[n];
+         }
+
+         Arrays.fill(columnVector, 0.0);
+         for (int i = columnsOfU.getRowStart(j); i < columnsOfU.getRowEnd(j); i++)
+         {
+            columnVector[columnsOfU.getColumnIndex(i)] = columnsOfU.getValue(i);
+         }
+         solver.solve(columnVector, solvedColumns[previousRank + j]);
+      }
+
+      // C = I + V^T * inv(A) * U, one row of C per column of V.
+      columnsOfV = new SparseMatrixCSR(updateV).transpose();
+      capacitance.reshape(rank, rank);
+      CommonOps.setIdentity(capacitance);
+      for (int row = 0; row < rank; row++)
+      {
+         for (int i = columnsOfV.getRowStart(row); i < columnsOfV.getRowEnd(row); i++)
+         {
+            int index = columnsOfV.getColumnIndex(i);
+            double value = columnsOfV.getValue(i);
+            for (int column = 0; column < rank; column++)
+            {
+               capacitance.add(row, column, value * solvedColumns[column][index]);
+            }
+         }
+      }
+
+      if (!invertCapacitance(capacitance, capacitanceInverse, conditionThreshold))
+      {
+         return factorUpdatedMatrix();
+      }
+
+      if (projection.length < rank)
+      {
+         projection = new double[maximumRank];
+         weights = new double[maximumRank];
+      }
+      return true;
+   }
+
+   /**
+    * @return the total rank of the updates applied since the matrix was last factored.
+    */
+   public int getUpdateRank()
+   {
+      return rank;
+   }
+
+   @Override
+   public int getSize()
+   {
+      checkFactored();
+      return solver.getSize();
+   }
+
+   @Override
+   public void solve(double[] b, double[] x)
+   {
+      checkFactored();
+      solver.solve(b, x);
+      if (rank == 0)
+      {
+         return;
+      }
+
+      // x = y - inv(A) * U * inv(C) * V^T * y with y = inv(A) * b.
+      for (int j = 0; j < rank; j++)
+      {
+         double sum = 0.0;
+         for (int i = columnsOfV.getRowStart(j); i < columnsOfV.getRowEnd(j); i++)
+         {
+            sum += columnsOfV.getValue(i) * x[columnsOfV.getColumnIndex(i)];
+         }
+         projection[j] = sum;
+      }
+
+      for (int j = 0; j < rank; j++)
+      {
+         double sum = 0.0;
+         for (int l = 0; l < rank; l++)
+         {
+            sum += capacitanceInverse.get(j, l) * projection[l];
+         }
+         weights[j] = sum;
+      }
+
+      int n = factoredMatrix.getRows();
+      for (int j = 0; j < rank; j++)
+      {
+         kernels.axpy(-weights[j], solvedColumns[j], x, n);
+      }
+   }
+
+   /**
+    * Inverts the dense capacitance matrix of a low rank update.
+    *
+    * @return false if the matrix is singular or its reciprocal condition number in the 1-norm is below the threshold.
+    */
+   static boolean invertCapacitance(DenseMatrix64F capacitance, DenseMatrix64F inverseToPack, double conditionThreshold)
+   {
+      inverseToPack.reshape(capacitance.getNumRows(), capacitance.getNumCols());
+      // The dense inversion does not always report singular matrices, check the result as well.
+      if (!CommonOps.invert(capacitance, inverseToPack) || MatrixFeatures.hasUncountable(inverseToPack))
+      {
+         return false;
+      }
+
+      double reciprocalCondition = 1.0 / (NormOps.inducedP1(capacitance) * NormOps.inducedP1(inverseToPack));
+      return reciprocalCondition >= conditionThreshold;
+   }
+
+   /**
+    * Sets c = a + U * V^T.
+    */
+   static void addLowRankUpdate(SparseMatrix a, SparseMatrix U, SparseMatrix V, SparseMatrix transposeStorage, SparseMatrix productStorage,
+                                SparseMatrix c)
+   {
+      SparseCommonOps.transpose(V, transposeStorage);
+      productStorage.mult(U, transposeStorage);
+      SparseCommonOps.add(a, productStorage, c);
+   }
+
+   private boolean factorUpdatedMatrix()
+   {
+      addLowRankUpdate(factoredMatrix, updateU, updateV, localTranspose, localProduct, localUpdatedMatrix);
+      return factor(localUpdatedMatrix);
+   }
+
+   private void clearUpdates()
+   {
+      rank = 0;
+      columnsOfV = null;
+      updateU.resize(factoredMatrix.getRows(), 0);
+      updateU.clear();
+      updateV.resize(factoredMatrix.getRows(), 0);
+      updateV.clear();
+   }
+
+   private static void appendColumns(SparseMatrix target, SparseMatrix source, int offset)
+   {
+      target.resize(source.getRows(), offset + source.getColumns());
+      for (int rowIdx = 0; rowIdx < source.getRows(); rowIdx++)
+      {
+         TIntDoubleHashMap row = source.getRow(rowIdx);
+         if (row == null)
+         {
+            continue;
+         }
+
+         int targetRowIdx = rowIdx;
+         row.forEachEntry((colIdx, value) ->
+         {
+            target.set(targetRowIdx, offset + colIdx, value);
+            return true;
+         });
+      }
+   }
+
+   private void checkFactored()
+   {
+      if (!factored)
+      {
+         throw new RuntimeException("Matrix is not factored.");
+      }
+   }
+}
@@ -0,0 +1,158 @@
+package us.ihmc.sparseMatrices.io;
+
+import java.util.Arrays;
+import java.util.List;
+
+import us.ihmc.sparseMatrices.SparseMatrixCSR;
+
+/**
+ * A growable list of matrix entries in coordinate format. Used to collect the entries of a file before building the
+ * compressed matrix in one pass.
+ */
+class CoordinateList
+{
+   private int[] rows;
+   private int[] columns;
+   private double[] values;
+   private int size = 0;
+
+   public CoordinateList(int initialCapacity)
+   {
+      int capacity = Math.max(16, initialCapacity);
+      rows = new int[capacity];
+      columns = new int[capacity];
+      values = new double[capacity];
+   }
+
+   public void add(int rowIdx, int colIdx, double value)
+   {
+      if (size == rows.length)
+      {
+         int newCapacity = size + (size >> 1);
+         rows = Arrays.copyOf(rows, newCapacity);
+         columns = Arrays.copyOf(columns, newCapacity);
+         values = Arrays.copyOf(values, newCapacity);
+      }
+      rows[size] = rowIdx;
+      columns[size] = colIdx;
+      values[size] = value;
+      size++;
+   }
+
+   public int size()
+   {
+      return size;
+   }
+
+   /**
+    * Builds a compressed matrix from the entries of all lists using two counting sorts: the entries are first bucketed
+    * by column and then, visiting the columns in order, by row. This leaves the columns of each row sorted without
+    * any comparisons. Duplicate entries are summed.
+    *
+    * @param mirrorScale if not zero every off-diagonal entry (i, j) is also added as (j, i) scaled by this factor,
+    *           1.0 for symmetric and -1.0 for skew-symmetric matrices.
+    */
+   public static SparseMatrixCSR toCSR(int numberOfRows, int numberOfColumns, List<CoordinateList> lists, double mirrorScale)
+   {
+      boolean mirror = mirrorScale != 0.0;
+      long totalEntries = 0;
+      int[] columnPointer = new int[numberOfColumns + 1];
+      for (CoordinateList list : lists)
+      {
+         for (int i = 0; i < list.size; i++)
+         {
+            columnPointer[list.columns[i] + 1]++;
+            totalEntries++;
+            if (mirror && list.rows[i] != list.columns[i])
+            {
+               columnPointer[list.rows[i] + 1]++;
+               totalEntries++;
+            }
+         }
+      }
+      if (totalEntries > Integer.MAX_VALUE)
+      {
+         throw new RuntimeException("Too many entries for a compressed matrix: " + totalEntries);
+      }
+      int entries = (int) totalEntries;
+
+      for (int colIdx = 0; colIdx < numberOfColumns; colIdx++)
+      {
+         columnPointer[colIdx + 1] += columnPointer[colIdx];
+      }
+
+      int[] rowByColumn = new int[entries];
+      double[] valueByColumn = new double[entries];
+      int[] next = Arrays.copyOf(columnPointer, numberOfColumns);
+      int[] rowPointer = new int[numberOfRows + 1];
+      for (CoordinateList list : lists)
+      {
+         for (int i = 0; i < list.size; i++)
+         {
+            int rowIdx = list.rows[i];
+            int colIdx = list.columns[i];
+            int position = next[colIdx]++;
+            rowByColumn[position] = rowIdx;
+            valueByColumn[position] = list.values[i];
+            rowPointer[rowIdx + 1]++;
+
+            if (mirror && rowIdx != colIdx)
+            {
+               position = next[rowIdx]++;
+               rowByColumn[position] = colIdx;
+               valueByColumn[position] = mirrorScale * list.values[i];
+               rowPointer[colIdx + 1]++;
+            }
+         }
+      }
+
+      for (int rowIdx = 0; rowIdx < numberOfRows; rowIdx++)
+      {
+         rowPointer[rowIdx + 1] += rowPointer[rowIdx];
+      }
+
+      int[] columnIndex = new int[entries];
+      double[] value = new double[entries];
+      next = Arrays.copyOf(rowPointer, numberOfRows);
+      for (int colIdx = 0; colIdx < numberOfColumns; colIdx++)
+      {
+         for (int i = columnPointer[colIdx]; i < columnPointer[colIdx + 1]; i++)
+         {
+            int position = next[rowByColumn[i]]++;
+            columnIndex[position] = colIdx;
+            value[position] = valueByColumn[i];
+         }
+      }
+
+      // Duplicates are now adjacent within their row, sum them up in place.
+      int written = 0;
+      int rowStart = 0;
+      for (int rowIdx = 0; rowIdx < numberOfRows; rowIdx++)
+      {
+         int rowEnd = rowPointer[rowIdx + 1];
+         rowPointer[rowIdx] = written;
+         for (int i = rowStart; i < rowEnd; i++)
+         {
+            if (written > rowPointer[rowIdx] && columnIndex[written - 1] == columnIndex[i])
+            {
+               value[written - 1] += value[i];
+            }
+            else
+            {
+               columnIndex[written] = columnIndex[i];
+               value[written] = value[i];
+               written++;
+            }
+         }
+         rowStart = rowEnd;
+      }
+      rowPointer[numberOfRows] = written;
+      if (written < entries)
+      {
+         columnIndex = Arrays.copyOf(columnIndex, written);
+         value = Arrays.copyOf(value, written);
+      }
+
+      return new SparseMatrixCSR(numberOfRows, numberOfColumns, rowPointer, columnIndex, value);
+   }
+}
@@ -0,0 +1,682 @@
+package us.ihmc.sparseMatrices.io;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import us.ihmc.sparseMatrices.CompressedRowMatrix;
+import us.ihmc.sparseMatrices.SparseMatrix;
+import us.ihmc.sparseMatrices.SparseMatrixCSR;
+
+/**
+ * Reads and writes matrices in the Matrix Market exchange format. The reader supports the coordinate and array
+ * formats with real, integer or pattern entries and general, symmetric or skew-symmetric storage. Complex and
+ * hermitian matrices are not supported.
+ * <p>
+ * The entries of coordinate files are parsed in parallel: the file is split into chunks at line boundaries and every
+ * chunk is parsed into its own coordinate list. The compressed matrix is then built from all lists with counting
+ * sorts, so no entry is ever inserted into a hash map. Duplicate entries are summed.
+ */
+public class MatrixMarketFormat
+{
+   private static final String banner = "%%MatrixMarket";
+   private static final int chunkSize = 1 << 24;
+   private static final int minimumChunkSize = 1 << 20;
+   private static final int readBufferSize = 1 << 16;
+   private static final int writeBufferSize = 1 << 16;
+   /**
+    * The length of the shortest line holding a real entry, "1 1 1\n". Bounds the number of entries a chunk can hold.
+    */
+   private static final int minimumEntryBytes = 6;
+
+   public static SparseMatrix read(Path path) throws IOException
+   {
+      return read(path, ForkJoinPool.commonPool(), ForkJoinPool.getCommonPoolParallelism());
+   }
+
+   /**
+    * Reads the file into a hash based matrix. Every row is allocated once with its final size.
+    *
+    * @see #readCSR(Path, ExecutorService, int)
+    */
+   public static SparseMatrix read(Path path, ExecutorService executor, int parallelism) throws IOException
+   {
+      SparseMatrixCSR compressed = readCSR(path, executor, parallelism);
+      SparseMatrix matrix = new SparseMatrix(compressed.getRows(), compressed.getColumns());
+      matrix.set(compressed);
+      return matrix;
+   }
+
+   public static SparseMatrixCSR readCSR(Path path) throws IOException
+   {
+      return readCSR(path, ForkJoinPool.commonPool(), ForkJoinPool.getCommonPoolParallelism());
+   }
+
+   /**
+    * Reads the file into a compressed matrix, parsing the chunks of coordinate files on the provided executor. The
+    * parallelism is the number of threads of the executor, large files are split into a few chunks per thread.
+    */
+   public static SparseMatrixCSR readCSR(Path path, ExecutorService executor, int parallelism) throws IOException
+   {
+      if (parallelism < 1)
+      {
+         throw new RuntimeException("The parallelism must be positive.");
+      }
+
+      try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+      {
+         Header header = readHeader(channel, path);
+         long[] chunkStarts = findChunks(channel, header.dataStart, header.coordinate ? parallelism : 1);
+
+         List<CoordinateList> lists;
+         if (header.coordinate)
+         {
+            lists = parseCoordinateChunks(channel, header, chunkStarts, executor);
+         }
+         else
+         {
+            lists = new ArrayList<>();
+            lists.add(parseArray(channel, header, chunkStarts));
+         }
+         return CoordinateList.toCSR(header.rows, header.columns, lists, header.mirrorScale);
+      }
+   }
+
+   public static void write(SparseMatrix matrix, Path path) throws IOException
+   {
+      write(new SparseMatrixCSR(matrix), path);
+   }
+
+   /**
+    * Writes the matrix as a general real coordinate file. Values are written with enough digits to be read back
+    * exactly.
+    */
+   public static void write(CompressedRowMatrix matrix, Path path) throws IOException
+   {
+      try (Writer writer = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(path), StandardCharsets.US_ASCII), writeBufferSize))
+      {
+         writer.write(banner + " matrix coordinate real general\n");
+         writer.write(matrix.getRows() + " " + matrix.getColumns() + " " + matrix.getNumberOfNonZeros() + "\n");
+         for (int rowIdx = 0; rowIdx < matrix.getRows(); rowIdx++)
+         {
+            String row = Integer.toString(rowIdx + 1);
+            for (int i = matrix.getRowStart(rowIdx); i < matrix.getRowEnd(rowIdx); i++)
+            {
+               writer.write(row);
+               writer.write(' ');
+               writer.write(Integer.toString(matrix.getColumnIndex(i) + 1));
+               writer.write(' ');
+               writer.write(Double.toString(matrix.getValue(i)));
+               writer.write('\n');
+            }
+         }
+      }
+   }
+
+   private static List<CoordinateList> parseCoordinateChunks(FileChannel channel, Header header, long[] chunkStarts, ExecutorService executor)
+         throws IOException
+   {
+      int chunks = chunkStarts.length - 1;
+      int expectedEntriesPerChunk = (int) Math.min(Integer.MAX_VALUE - 8, header.entries / chunks + 1);
+
+      List<Future<CoordinateList>> futures = new ArrayList<>(chunks);
+      for (int chunk = 0; chunk < chunks; chunk++)
+      {
+         long start = chunkStarts[chunk];
+         long end = chunkStarts[chunk + 1];
+         // The header may claim more entries than the file holds, so never reserve more than the chunk can contain.
+         int initialCapacity = (int) Math.min(expectedEntriesPerChunk, (end - start) / minimumEntryBytes + 1);
+         futures.add(executor.submit(() -> parseCoordinateChunk(channel, header, start, end, initialCapacity)));
+      }
+
+      List<CoordinateList> lists = new ArrayList<>(chunks);
+      long entries = 0;
+      try
+      {
+         for (int chunk = 0; chunk < chunks; chunk++)
+         {
+            CoordinateList list = futures.get(chunk).get();
+            entries += list.size();
+            lists.add(list);
+         }
+      }
+      catch (InterruptedException e)
+      {
+         throw new RuntimeException("Parallel parsing was interrupted.", e);
+      }
+      catch (ExecutionException e)
+      {
+         // Fork join pools may wrap the exception of the task several times.
+         for (Throwable cause = e.getCause(); cause != null; cause = cause.getCause())
+         {
+            if (cause instanceof IOException)
+            {
+               throw new IOException(cause.getMessage(), e);
+            }
+         }
+         throw new RuntimeException("Parallel parsing failed.", e);
+      }
+
+      if (entries != header.entries)
+      {
+         throw new IOException("Expected " + header.entries + " entries but found " + entries + ".");
+      }
+      return lists;
+   }
+
+   private static CoordinateList parseCoordinateChunk(FileChannel channel, Header header, long start, long end, int expectedEntries) throws IOException
+   {
+      Tokenizer tokenizer = new Tokenizer(readChunk(channel, start, end), start);
+      CoordinateList list = new CoordinateList(expectedEntries);
+      while (tokenizer.nextLine())
+      {
+         int rowIdx = tokenizer.nextIndex(header.rows);
+         int colIdx = tokenizer.nextIndex(header.columns);
+         double value = header.pattern ? 1.0 : tokenizer.nextDouble();
+         tokenizer.endLine();
+         header.checkTriangle(rowIdx, colIdx, tokenizer);
+         list.add(rowIdx, colIdx, value);
+      }
+      return list;
+   }
+
+   /**
+    * Dense files list the values column by column, only the lower triangle for symmetric storage. The order matters so
+    * the chunks are parsed one after the other.
+    */
+   private static CoordinateList parseArray(FileChannel channel, Header header, long[] chunkStarts) throws IOException
+   {
+      CoordinateList list = new CoordinateList(0);
+      int rowIdx = 0;
+      int colIdx = 0;
+      boolean done = header.rows == 0 || header.columns == 0;
+      int skew = header.mirrorScale < 0.0 ? 1 : 0;
+      if (header.mirrorScale != 0.0)
+      {
+         rowIdx = skew;
+         done = rowIdx >= header.rows;
+      }
+
+      for (int chunk = 0; chunk < chunkStarts.length - 1; chunk++)
+      {
+         Tokenizer tokenizer = new Tokenizer(readChunk(channel, chunkStarts[chunk], chunkStarts[chunk + 1]), chunkStarts[chunk]);
+         while (tokenizer.nextLine())
+         {
+            if (done)
+            {
+               throw tokenizer.error("More values than expected");
+            }
+
+            double value = tokenizer.nextDouble();
+            tokenizer.endLine();
+            if (value != 0.0)
+            {
+               list.add(rowIdx, colIdx, value);
+            }
+
+            if (++rowIdx == header.rows)
+            {
+               colIdx++;
+               rowIdx = header.mirrorScale == 0.0 ? 0 : colIdx + skew;
+               done = colIdx == header.columns || rowIdx >= header.rows;
+            }
+         }
+      }
+
+      if (!done)
+      {
+         throw new IOException("Fewer values than expected in dense matrix file.");
+      }
+      return list;
+   }
+
+   private static byte[] readChunk(FileChannel channel, long start, long end) throws IOException
+   {
+      byte[] data = new byte[(int) (end - start)];
+      ByteBuffer buffer = ByteBuffer.wrap(data);
+      while (buffer.hasRemaining())
+      {
+         if (channel.read(buffer, start + buffer.position()) < 0)
+         {
+            throw new IOException("Unexpected end of file.");
+         }
+      }
+      return data;
+   }
+
+   /**
+    * Splits the data section into chunks that start at line beginnings. Small files are parsed as one chunk.
+    *
+    * @return the start of every chunk followed by the end of the file.
+    */
+   private static long[] findChunks(FileChannel channel, long dataStart, int parallelism) throws IOException
+   {
+      long size = channel.size();
+      long dataSize = size - dataStart;
+      long targetChunkSize = Math.max(minimumChunkSize, Math.min(chunkSize, dataSize / (4L * parallelism) + 1));
+      int chunks = (int) Math.max(1, (dataSize + targetChunkSize - 1) / targetChunkSize);
+
+      long[] chunkStarts = new long[chunks + 1];
+      chunkStarts[0] = dataStart;
+      ByteBuffer buffer = ByteBuffer.allocate(readBufferSize);
+      for (int chunk = 1; chunk < chunks; chunk++)
+      {
+         long position = Math.max(chunkStarts[chunk - 1], dataStart + chunk * targetChunkSize);
+         chunkStarts[chunk] = findNextLine(channel, position, buffer);
+      }
+      chunkStarts[chunks] = size;
+      return chunkStarts;
+   }
+
+   private static long findNextLine(FileChannel channel, long position, ByteBuffer buffer) throws IOException
+   {
+      while (true)
+      {
+         buffer.clear();
+         int read = channel.read(buffer, position);
+         if (read < 0)
+         {
+            return channel.size();
+         }
+         for (int i = 0; i < read; i++)
+         {
+            if (buffer.get(i) == '\n')
+            {
+               return position + i + 1;
+            }
+         }
+         position += read;
+      }
+   }
+
+   private static Header readHeader(FileChannel channel, Path path) throws IOException
+   {
+      LineReader reader = new LineReader(channel);
+      String bannerLine = reader.readLine();
+      String[] tokens = bannerLine == null ? new String[0] : bannerLine.trim().toLowerCase(Locale.ROOT).split("\\s+");
+      if (tokens.length != 5 || !tokens[0].equals(banner.toLowerCase(Locale.ROOT)) || !tokens[1].equals("matrix"))
+      {
+         throw new IOException("Not a Matrix Market file: " + path);
+      }
+
+      Header header = new Header();
+      switch (tokens[2])
+      {
+      case "coordinate":
+         header.coordinate = true;
+         break;
+      case "array":
+         header.coordinate = false;
+         break;
+      default:
+         throw new IOException("Unsupported Matrix Market format: " + tokens[2]);
+      }
+
+      switch (tokens[3])
+      {
+      case "real":
+      case "integer":
+         header.pattern = false;
+         break;
+      case "pattern":
+         header.pattern = true;
+         break;
+      default:
+         throw new IOException("Unsupported Matrix Market field: " + tokens[3]);
+      }
+
+      switch (tokens[4])
+      {
+      case "general":
+         header.mirrorScale = 0.0;
+         break;
+      case "symmetric":
+         header.mirrorScale = 1.0;
+         break;
+      case "skew-symmetric":
+         header.mirrorScale = -1.0;
+         break;
+      default:
+         throw new IOException("Unsupported Matrix Market symmetry: " + tokens[4]);
+      }
+
+      if (header.pattern && !header.coordinate)
+      {
+         throw new IOException("Pattern matrices must use the coordinate format.");
+      }
+
+      String sizeLine;
+      do
+      {
+         sizeLine = reader.readLine();
+         if (sizeLine == null)
+         {
+            throw new IOException("Missing size line in Matrix Market file: " + path);
+         }
+         sizeLine = sizeLine.trim();
+      }
+      while (sizeLine.isEmpty() || sizeLine.startsWith("%"));
+
+      String[] sizes = sizeLine.split("\\s+");
+      try
+      {
+         if (sizes.length != (header.coordinate ? 3 : 2))
+         {
+            throw new NumberFormatException();
+         }
+         header.rows = Integer.parseInt(sizes[0]);
+         header.columns = Integer.parseInt(sizes[1]);
+         header.entries = header.coordinate ? Long.parseLong(sizes[2]) : (long) header.rows * header.columns;
+      }
+      catch (NumberFormatException e)
+      {
+         throw new IOException("Invalid size line in Matrix Market file: " + sizeLine);
+      }
+
+      if (header.rows < 0 || header.columns < 0 || header.entries < 0)
+      {
+         throw new IOException("Invalid size line in Matrix Market file: " + sizeLine);
+      }
+      if (header.mirrorScale != 0.0 && header.rows != header.columns)
+      {
+         throw new IOException("Symmetric matrices must be square.");
+      }
+
+      header.dataStart = reader.getPosition();
+      return header;
+   }
+
+   private static class Header
+   {
+      private boolean coordinate;
+      private boolean pattern;
+      private double mirrorScale;
+      private int rows;
+      private int columns;
+      private long entries;
+      private long dataStart;
+
+      /**
+       * Symmetric files only store the lower triangle, skew-symmetric ones without the diagonal.
+       */
+      public void checkTriangle(int rowIdx, int colIdx, Tokenizer tokenizer) throws IOException
+      {
+         if ((mirrorScale > 0.0 && rowIdx < colIdx) || (mirrorScale < 0.0 && rowIdx <= colIdx))
+         {
+            throw tokenizer.error("Entry outside of the lower triangle");
+         }
+      }
+   }
+
+   /**
+    * Reads the header lines one byte at a time through a buffer and keeps track of the file position.
+    */
+   private static class LineReader
+   {
+      private final FileChannel channel;
+      private final ByteBuffer buffer = ByteBuffer.allocate(readBufferSize);
+      private long position = 0;
+      private long bufferStart = 0;
+
+      public LineReader(FileChannel channel)
+      {
+         this.channel = channel;
+         buffer.limit(0);
+      }
+
+      public String readLine() throws IOException
+      {
+         StringBuilder line = new StringBuilder();
+         while (true)
+         {
+            if (position - bufferStart >= buffer.limit())
+            {
+               buffer.clear();
+               bufferStart = position;
+               if (channel.read(buffer, position) <= 0)
+               {
+                  buffer.limit(0);
+                  return line.length() == 0 ? null : line.toString();
+               }
+               buffer.flip();
+            }
+
+            char next = (char) (buffer.get((int) (position - bufferStart)) & 0xFF);
+            position++;
+            if (next == '\n')
+            {
+               return line.toString();
+            }
+            line.append(next);
+         }
+      }
+
+      public long getPosition()
+      {
+         return position;
+      }
+   }
+
+   /**
+    * Parses the entries of one chunk directly from the bytes of the file. Numbers with at most 15 significant digits
+    * and a small exponent are converted exactly without creating strings, all others fall back to
+    * {@link Double#parseDouble(String)}.
+    */
+   private static class Tokenizer
+   {
+      private static final double[] powersOfTen = {1.0e0, 1.0e1, 1.0e2, 1.0e3, 1.0e4, 1.0e5, 1.0e6, 1.0e7, 1.0e8, 1.0e9, 1.0e10, 1.0e11, 1.0e12,
+            1.0e13, 1.0e14, 1.0e15, 1.0e16, 1.0e17, 1.0e18, 1.0e19, 1.0e20, 1.0e21, 1.0e22};
+
+      private final byte[] data;
+      private final long offset;
+      private int position = 0;
+
+      public Tokenizer(byte[] data, long offset)
+      {
+         this.data = data;
+         this.offset = offset;
+      }
+
+      /**
+       * Skips empty lines and comments.
+       *
+       * @return false if the end of the chunk was reached.
+       */
+      public boolean nextLine()
+      {
+         while (position < data.length)
+         {
+            byte next = data[position];
+            if (next == '%')
+            {
+               while (position < data.length && data[position] != '\n')
+               {
+                  position++;
+               }
+            }
+            else if (isWhitespace(next))
+            {
+               position++;
+            }
+            else
+            {
+               return true;
+            }
+         }
+         return false;
+      }
+
+      /**
+       * Makes sure nothing but whitespace follows on the current line.
+       */
+      public void endLine() throws IOException
+      {
+         skipSpaces();
+         if (position < data.length && data[position] != '\n' && data[position] != '\r')
+         {
+            throw error("Unexpected content");
+         }
+      }
+
+      /**
+       * Reads a one based index and returns it zero based.
+       */
+      public int nextIndex(int size) throws IOException
+      {
+         skipSpaces();
+         long index = 0;
+         int start = position;
+         while (position < data.length && isDigit(data[position]) && index <= Integer.MAX_VALUE)
+         {
+            index = 10 * index + (data[position++] - '0');
+         }
+         if (position == start || index < 1 || index > size || !atTokenEnd())
+         {
+            throw error("Invalid index");
+         }
+         return (int) index - 1;
+      }
+
+      public double nextDouble() throws IOException
+      {
+         skipSpaces();
+         int start = position;
+         boolean negative = false;
+         if (position < data.length && (data[position] == '-' || data[position] == '+'))
+         {
+            negative = data[position++] == '-';
+         }
+
+         long mantissa = 0;
+         int digits = 0;
+         int exponent = 0;
+         boolean anyDigit = false;
+         while (position < data.length && isDigit(data[position]))
+         {
+            if (digits < 18)
+            {
+               mantissa = 10 * mantissa + (data[position] - '0');
+               digits += mantissa == 0 ? 0 : 1;
+            }
+            else
+            {
+               exponent++;
+               digits++;
+            }
+            anyDigit = true;
+            position++;
+         }
+         if (position < data.length && data[position] == '.')
+         {
+            position++;
+            while (position < data.length && isDigit(data[position]))
+            {
+               if (digits < 18)
+               {
+                  mantissa = 10 * mantissa + (data[position] - '0');
+                  digits += mantissa == 0 ? 0 : 1;
+                  exponent--;
+               }
+               else
+               {
+                  digits++;
+               }
+               anyDigit = true;
+               position++;
+            }
+         }
+         if (anyDigit && position < data.length && (data[position] == 'e' || data[position] == 'E'))
+         {
+            position++;
+            boolean negativeExponent = false;
+            if (position < data.length && (data[position] == '-' || data[position] == '+'))
+            {
+               negativeExponent = data[position++] == '-';
+            }
+            int exponentStart = position;
+            int explicitExponent = 0;
+            while (position < data.length && isDigit(data[position]))
+            {
+               explicitExponent = Math.min(10 * explicitExponent + (data[position++] - '0'), 100000);
+            }
+            if (position == exponentStart)
+            {
+               anyDigit = false;
+            }
+            exponent += negativeExponent ? -explicitExponent : explicitExponent;
+         }
+
+         if (anyDigit && atTokenEnd() && digits <= 15 && exponent >= -22 && exponent <= 22)
+         {
+            double value = exponent >= 0 ? mantissa * powersOfTen[exponent] : mantissa / powersOfTen[-exponent];
+            return negative ? -value : value;
+         }
+
+         while (position < data.length && !isWhitespace(data[position]))
+         {
+            position++;
+         }
+         try
+         {
+            return Double.parseDouble(new String(data, start, position - start, StandardCharsets.US_ASCII));
+         }
+         catch (NumberFormatException e)
+         {
+            throw error("Invalid value");
+         }
+      }
+
+      public IOException error(String message)
+      {
+         int lineEnd = position;
+         while (lineEnd < data.length && data[lineEnd] != '\n')
+         {
+            lineEnd++;
+         }
+         int lineStart = Math.min(position, data.length);
+         while (lineStart > 0 && data[lineStart - 1] != '\n')
+         {
+            lineStart--;
+         }
+         String line = new String(data, lineStart, lineEnd - lineStart, StandardCharsets.US_ASCII).trim();
+         return new IOException(message + " at byte " + (offset + lineStart) + ": " + line);
+      }
+
+      private void skipSpaces()
+      {
+         while (position < data.length && (data[position] == ' ' || data[position] == '\t'))
+         {
+            position++;
+         }
+      }
+
+      private boolean atTokenEnd()
+      {
+         return position == data.length || isWhitespace(data[position]);
+      }
+
+      private static boolean isDigit(byte value)
+      {
+         return value >= '0' && value <= '9';
+      }
+
+      private static boolean isWhitespace(byte value)
+      {
+         return value == ' ' || value == '\t' || value == '\r' || value == '\n';
+      }
+   }
+}
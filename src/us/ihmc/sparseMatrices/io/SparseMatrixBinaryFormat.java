@@ -0,0 +1,335 @@
+package us.ihmc.sparseMatrices.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import us.ihmc.sparseMatrices.CompressedRowMatrix;
+import us.ihmc.sparseMatrices.OffHeapSparseMatrixCSR;
+import us.ihmc.sparseMatrices.SparseMatrix;
+import us.ihmc.sparseMatrices.SparseMatrixCSR;
+
+/**
+ * Reads and writes matrices in a binary compressed row format that can be memory mapped. All numbers are little
+ * endian. The file starts with a header of {@link #headerSize} bytes:
+ * <ul>
+ * <li>int magic number, int version, int flags,</li>
+ * <li>int rows, int columns, int number of non-zeros,</li>
+ * <li>long size of the column index section in bytes, long reserved.</li>
+ * </ul>
+ * It is followed by the row pointer (rows + 1 ints), the column indices and the values (one double per entry). Each
+ * section starts at a multiple of eight bytes.
+ * <p>
+ * If the {@link #compressedIndicesFlag} is set the column indices are stored as differences to the previous column
+ * of the same row, encoded as variable length integers of 7 bits per byte. The first column of each row is stored as
+ * is. This typically takes one or two bytes per entry instead of four.
+ */
+public class SparseMatrixBinaryFormat
+{
+   public static final int magicNumber = 0x58504D53;
+   public static final int version = 1;
+   public static final int compressedIndicesFlag = 1;
+   public static final int headerSize = 40;
+
+   private static final int writeBufferSize = 1 << 16;
+
+   public static void write(SparseMatrix matrix, Path path, boolean compressIndices) throws IOException
+   {
+      write(new SparseMatrixCSR(matrix), path, compressIndices);
+   }
+
+   /**
+    * Writes the matrix to the given file, replacing its content.
+    *
+    * @param compressIndices whether to store the column indices as variable length differences. Compressed files are
+    *           smaller but the indices need to be decoded when reading.
+    */
+   public static void write(CompressedRowMatrix matrix, Path path, boolean compressIndices) throws IOException
+   {
+      int rows = matrix.getRows();
+      int nonZeros = matrix.getNumberOfNonZeros();
+      long columnIndexBytes = compressIndices ? computeCompressedSize(matrix) : 4L * nonZeros;
+
+      try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+      {
+         ChannelWriter writer = new ChannelWriter(channel);
+         writer.putInt(magicNumber);
+         writer.putInt(version);
+         writer.putInt(compressIndices ? compressedIndicesFlag : 0);
+         writer.putInt(rows);
+         writer.putInt(matrix.getColumns());
+         writer.putInt(nonZeros);
+         writer.putLong(columnIndexBytes);
+         writer.putLong(0);
+
+         int entries = 0;
+         for (int rowIdx = 0; rowIdx < rows; rowIdx++)
+         {
+            writer.putInt(entries);
+            entries += matrix.getRowEnd(rowIdx) - matrix.getRowStart(rowIdx);
+         }
+         writer.putInt(entries);
+         writer.pad();
+
+         for (int rowIdx = 0; rowIdx < rows; rowIdx++)
+         {
+            int previousColumn = 0;
+            for (int i = matrix.getRowStart(rowIdx); i < matrix.getRowEnd(rowIdx); i++)
+            {
+               int colIdx = matrix.getColumnIndex(i);
+               if (compressIndices)
+               {
+                  writer.putVariableLength(colIdx - previousColumn);
+                  previousColumn = colIdx;
+               }
+               else
+               {
+                  writer.putInt(colIdx);
+               }
+            }
+         }
+         writer.pad();
+
+         for (int rowIdx = 0; rowIdx < rows; rowIdx++)
+         {
+            for (int i = matrix.getRowStart(rowIdx); i < matrix.getRowEnd(rowIdx); i++)
+            {
+               writer.putDouble(matrix.getValue(i));
+            }
+         }
+         writer.flush();
+      }
+   }
+
+   /**
+    * Maps the given file into memory. The row pointer and the values are used directly from the mapped file without
+    * being parsed or copied, so the matrix is available immediately and its pages are loaded by the operating system
+    * on first access. Uncompressed column indices are mapped as well, compressed ones are decoded into a direct
+    * buffer.
+    * <p>
+    * Only the header is validated, the arrays are trusted. The returned matrix should be closed to release the
+    * mapping. The file must not be modified while it is mapped.
+    */
+   public static OffHeapSparseMatrixCSR map(Path path) throws IOException
+   {
+      try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+      {
+         if (channel.size() < headerSize)
+         {
+            throw new IOException("File is too short for a sparse matrix header: " + path);
+         }
+
+         ByteBuffer header = ByteBuffer.allocate(headerSize).order(ByteOrder.LITTLE_ENDIAN);
+         while (header.hasRemaining())
+         {
+            if (channel.read(header, header.position()) < 0)
+            {
+               throw new IOException("File is too short for a sparse matrix header: " + path);
+            }
+         }
+         if (header.getInt(0) != magicNumber)
+         {
+            throw new IOException("Not a sparse matrix file: " + path);
+         }
+         if (header.getInt(4) != version)
+         {
+            throw new IOException("Unsupported sparse matrix file version " + header.getInt(4) + ": " + path);
+         }
+         boolean compressed = (header.getInt(8) & compressedIndicesFlag) != 0;
+         int rows = header.getInt(12);
+         int columns = header.getInt(16);
+         int nonZeros = header.getInt(20);
+         long columnIndexBytes = header.getLong(24);
+
+         long rowPointerPosition = headerSize;
+         long columnIndexPosition = align(rowPointerPosition + 4L * (rows + 1));
+         long valuePosition = align(columnIndexPosition + columnIndexBytes);
+         if (rows < 0 || columns < 0 || nonZeros < 0 || columnIndexBytes < 0 || channel.size() < valuePosition + 8L * nonZeros
+               || (!compressed && columnIndexBytes != 4L * nonZeros))
+         {
+            throw new IOException("Sparse matrix file is truncated or corrupt: " + path);
+         }
+
+         ByteBuffer rowPointer = map(channel, rowPointerPosition, 4L * (rows + 1));
+         ByteBuffer value = map(channel, valuePosition, 8L * nonZeros);
+         ByteBuffer columnIndex;
+         if (compressed)
+         {
+            columnIndex = decodeColumnIndices(map(channel, columnIndexPosition, columnIndexBytes), rowPointer.asIntBuffer(), rows, nonZeros);
+         }
+         else
+         {
+            columnIndex = map(channel, columnIndexPosition, 4L * nonZeros);
+         }
+
+         return new OffHeapSparseMatrixCSR(rows, columns, rowPointer, columnIndex, value, true);
+      }
+   }
+
+   private static ByteBuffer map(FileChannel channel, long position, long size) throws IOException
+   {
+      if (size > Integer.MAX_VALUE)
+      {
+         throw new IOException("Section of " + size + " bytes is too large to be mapped.");
+      }
+      MappedByteBuffer buffer = channel.map(MapMode.READ_ONLY, position, size);
+      buffer.order(ByteOrder.LITTLE_ENDIAN);
+      return buffer;
+   }
+
+   private static ByteBuffer decodeColumnIndices(ByteBuffer encoded, IntBuffer rowPointer, int rows, int nonZeros) throws IOException
+   {
+      ByteBuffer decoded = ByteBuffer.allocateDirect(4 * nonZeros).order(ByteOrder.LITTLE_ENDIAN);
+      int position = 0;
+      for (int rowIdx = 0; rowIdx < rows; rowIdx++)
+      {
+         int column = 0;
+         int start = rowPointer.get(rowIdx);
+         int end = rowPointer.get(rowIdx + 1);
+         if (start < 0 || end < start || end > nonZeros)
+         {
+            throw new IOException("Corrupt row pointer in sparse matrix file.");
+         }
+
+         for (int i = start; i < end; i++)
+         {
+            int delta = 0;
+            int shift = 0;
+            byte next;
+            do
+            {
+               if (position >= encoded.limit() || shift > 28)
+               {
+                  throw new IOException("Corrupt column indices in sparse matrix file.");
+               }
+               next = encoded.get(position++);
+               delta |= (next & 0x7F) << shift;
+               shift += 7;
+            }
+            while ((next & 0x80) != 0);
+
+            column += delta;
+            decoded.putInt(4 * i, column);
+         }
+      }
+
+      return decoded;
+   }
+
+   private static long computeCompressedSize(CompressedRowMatrix matrix)
+   {
+      long size = 0;
+      for (int rowIdx = 0; rowIdx < matrix.getRows(); rowIdx++)
+      {
+         int previousColumn = 0;
+         for (int i = matrix.getRowStart(rowIdx); i < matrix.getRowEnd(rowIdx); i++)
+         {
+            int colIdx = matrix.getColumnIndex(i);
+            size += variableLengthSize(colIdx - previousColumn);
+            previousColumn = colIdx;
+         }
+      }
+      return size;
+   }
+
+   private static int variableLengthSize(int value)
+   {
+      int size = 1;
+      while ((value >>>= 7) != 0)
+      {
+         size++;
+      }
+      return size;
+   }
+
+   private static long align(long position)
+   {
+      return (position + 7) & ~7L;
+   }
+
+   /**
+    * Buffers small writes and keeps track of the file position such that sections can be aligned.
+    */
+   private static class ChannelWriter
+   {
+      private final FileChannel channel;
+      private final ByteBuffer buffer = ByteBuffer.allocateDirect(writeBufferSize).order(ByteOrder.LITTLE_ENDIAN);
+      private long position = 0;
+
+      public ChannelWriter(FileChannel channel)
+      {
+         this.channel = channel;
+      }
+
+      public void putInt(int value) throws IOException
+      {
+         ensureRemaining(4);
+         buffer.putInt(value);
+         position += 4;
+      }
+
+      public void putLong(long value) throws IOException
+      {
+         ensureRemaining(8);
+         buffer.putLong(value);
+         position += 8;
+      }
+
+      public void putDouble(double value) throws IOException
+      {
+         ensureRemaining(8);
+         buffer.putDouble(value);
+         position += 8;
+      }
+
+      public void putVariableLength(int value) throws IOException
+      {
+         ensureRemaining(5);
+         while ((value & ~0x7F) != 0)
+         {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+            position++;
+         }
+         buffer.put((byte) value);
+         position++;
+      }
+
+      /**
+       * Writes zeros up to the next multiple of eight bytes.
+       */
+      public void pad() throws IOException
+      {
+         ensureRemaining(8);
+         while ((position & 7) != 0)
+         {
+            buffer.put((byte) 0);
+            position++;
+         }
+      }
+
+      public void flush() throws IOException
+      {
+         buffer.flip();
+         while (buffer.hasRemaining())
+         {
+            channel.write(buffer);
+         }
+         buffer.clear();
+      }
+
+      private void ensureRemaining(int bytes) throws IOException
+      {
+         if (buffer.remaining() < bytes)
+         {
+            flush();
+         }
+      }
+   }
+}
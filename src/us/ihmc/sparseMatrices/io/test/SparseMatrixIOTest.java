@@ -0,0 +1,208 @@
+package us.ihmc.sparseMatrices.io.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+import us.ihmc.sparseMatrices.CompressedRowMatrix;
+import us.ihmc.sparseMatrices.OffHeapSparseMatrixCSR;
+import us.ihmc.sparseMatrices.SparseMatrix;
+import us.ihmc.sparseMatrices.SparseMatrixCSR;
+import us.ihmc.sparseMatrices.io.MatrixMarketFormat;
+import us.ihmc.sparseMatrices.io.SparseMatrixBinaryFormat;
+
+public class SparseMatrixIOTest
+{
+   @Test
+   public void testBinaryFormat() throws IOException
+   {
+      Random random = new Random(492911L);
+      Path file = Files.createTempFile("sparseMatrix", ".bin");
+
+      try
+      {
+         for (int i = 0; i < 20; i++)
+         {
+            int rows = random.nextInt(100) + 1;
+            int columns = random.nextInt(100000) + 1;
+            SparseMatrix matrix = createRandom(random, rows, columns, random.nextInt(5 * rows));
+            boolean compress = i % 2 == 0;
+
+            SparseMatrixBinaryFormat.write(matrix, file, compress);
+            try (OffHeapSparseMatrixCSR mapped = SparseMatrixBinaryFormat.map(file))
+            {
+               assertEqual(matrix, mapped);
+            }
+         }
+
+         // Compressing the indices of a banded matrix reduces the file size.
+         SparseMatrix banded = new SparseMatrix(1000, 1000);
+         for (int row = 0; row < 1000; row++)
+         {
+            for (int column = Math.max(0, row - 2); column <= Math.min(999, row + 2); column++)
+            {
+               banded.set(row, column, random.nextDouble());
+            }
+         }
+         SparseMatrixBinaryFormat.write(banded, file, false);
+         long uncompressedSize = Files.size(file);
+         SparseMatrixBinaryFormat.write(banded, file, true);
+         assertTrue(Files.size(file) < uncompressedSize);
+         try (OffHeapSparseMatrixCSR mapped = SparseMatrixBinaryFormat.map(file))
+         {
+            assertEqual(banded, mapped);
+         }
+
+         Files.write(file, new byte[SparseMatrixBinaryFormat.headerSize]);
+         try
+         {
+            SparseMatrixBinaryFormat.map(file);
+            fail("Expected an exception.");
+         }
+         catch (IOException e)
+         {
+         }
+      }
+      finally
+      {
+         Files.delete(file);
+      }
+   }
+
+   @Test
+   public void testMatrixMarketRoundTrip() throws IOException
+   {
+      Random random = new Random(492911L);
+      Path file = Files.createTempFile("sparseMatrix", ".mtx");
+      ExecutorService executor = Executors.newFixedThreadPool(4);
+
+      try
+      {
+         for (int i = 0; i < 10; i++)
+         {
+            int rows = random.nextInt(100) + 1;
+            int columns = random.nextInt(100) + 1;
+            SparseMatrix matrix = createRandom(random, rows, columns, random.nextInt(5 * rows));
+            MatrixMarketFormat.write(matrix, file);
+            assertEqual(matrix, MatrixMarketFormat.readCSR(file, executor, 4));
+            assertEqual(matrix, new SparseMatrixCSR(MatrixMarketFormat.read(file, executor, 4)));
+         }
+
+         // Large enough to be split into several chunks that are parsed in parallel.
+         SparseMatrix large = createRandom(random, 20000, 20000, 200000);
+         MatrixMarketFormat.write(large, file);
+         assertTrue(Files.size(file) > 4 << 20);
+         assertEqual(large, MatrixMarketFormat.readCSR(file, executor, 4));
+      }
+      finally
+      {
+         executor.shutdown();
+         Files.delete(file);
+      }
+   }
+
+   @Test
+   public void testMatrixMarketVariants() throws IOException
+   {
+      SparseMatrixCSR symmetric = parse("%%MatrixMarket matrix coordinate real symmetric",
+                                        "% A comment",
+                                        "",
+                                        "3 3 4",
+                                        "1 1 2.5",
+                                        "2 1 -1e-3",
+                                        "3 2 7",
+                                        "3 3 .5");
+      assertEquals(2.5, symmetric.get(0, 0), 0.0);
+      assertEquals(-1.0e-3, symmetric.get(1, 0), 0.0);
+      assertEquals(-1.0e-3, symmetric.get(0, 1), 0.0);
+      assertEquals(7.0, symmetric.get(1, 2), 0.0);
+      assertEquals(0.5, symmetric.get(2, 2), 0.0);
+      assertEquals(6, symmetric.getNumberOfNonZeros());
+
+      SparseMatrixCSR pattern = parse("%%MatrixMarket matrix coordinate pattern general", "2 3 3", "1 3", "2 1", "1 3");
+      assertEquals(2.0, pattern.get(0, 2), 0.0);
+      assertEquals(1.0, pattern.get(1, 0), 0.0);
+      assertEquals(2, pattern.getNumberOfNonZeros());
+
+      SparseMatrixCSR integer = parse("%%MatrixMarket matrix array integer general", "2 2", "1", "0", "-3", "4");
+      assertEquals(1.0, integer.get(0, 0), 0.0);
+      assertEquals(-3.0, integer.get(0, 1), 0.0);
+      assertEquals(4.0, integer.get(1, 1), 0.0);
+      assertEquals(3, integer.getNumberOfNonZeros());
+
+      SparseMatrixCSR skew = parse("%%MatrixMarket matrix array real skew-symmetric", "3 3", "1.5", "2", "3");
+      assertEquals(1.5, skew.get(1, 0), 0.0);
+      assertEquals(-1.5, skew.get(0, 1), 0.0);
+      assertEquals(2.0, skew.get(2, 0), 0.0);
+      assertEquals(-3.0, skew.get(1, 2), 0.0);
+      assertEquals(0.0, skew.get(1, 1), 0.0);
+
+      String[][] invalidFiles = {{"%%MatrixMarket matrix coordinate complex general", "1 1 1", "1 1 1 0"},
+            {"%%MatrixMarket matrix coordinate real general", "2 2 2", "1 1 1.0"},
+            {"%%MatrixMarket matrix coordinate real general", "2 2 1", "3 1 1.0"},
+            {"%%MatrixMarket matrix coordinate real general", "2 2 1", "1 1 x"},
+            {"%%MatrixMarket matrix coordinate real general", "3 3 1000000000000", "1 1 1.0"},
+            {"%%MatrixMarket matrix coordinate real symmetric", "2 2 1", "1 2 1.0"},
+            {"%%MatrixMarket matrix array real general", "2 2", "1", "2", "3"}};
+      for (String[] lines : invalidFiles)
+      {
+         try
+         {
+            parse(lines);
+            fail("Expected an exception.");
+         }
+         catch (IOException e)
+         {
+         }
+      }
+   }
+
+   private static SparseMatrixCSR parse(String... lines) throws IOException
+   {
+      Path file = Files.createTempFile("sparseMatrix", ".mtx");
+      try
+      {
+         Files.write(file, Arrays.asList(lines), StandardCharsets.US_ASCII);
+         return MatrixMarketFormat.readCSR(file);
+      }
+      finally
+      {
+         Files.delete(file);
+      }
+   }
+
+   static SparseMatrix createRandom(Random random, int rows, int columns, int entries)
+   {
+      SparseMatrix matrix = new SparseMatrix(rows, columns);
+      for (int i = 0; i < entries; i++)
+      {
+         matrix.set(random.nextInt(rows), random.nextInt(columns), random.nextDouble() - 0.5);
+      }
+      return matrix;
+   }
+
+   static void assertEqual(SparseMatrix expected, CompressedRowMatrix actual)
+   {
+      assertEquals(expected.getRows(), actual.getRows());
+      assertEquals(expected.getColumns(), actual.getColumns());
+      assertEquals(expected.getNumberOfNonZeros(), actual.getNumberOfNonZeros());
+      for (int row = 0; row < actual.getRows(); row++)
+      {
+         for (int i = actual.getRowStart(row); i < actual.getRowEnd(row); i++)
+         {
+            assertEquals(expected.get(row, actual.getColumnIndex(i)), actual.getValue(i), 0.0);
+         }
+      }
+   }
+}
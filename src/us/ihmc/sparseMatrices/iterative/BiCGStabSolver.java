@@ -0,0 +1,121 @@
+package us.ihmc.sparseMatrices.iterative;
+
+/**
+ * Right preconditioned stabilized bi-conjugate gradient method for general square matrices. Needs two matrix vector
+ * products per iteration and a fixed amount of memory.
+ */
+public class BiCGStabSolver extends IterativeSolver
+{
+   private double[] r = new double[0];
+   private double[] rHat = new double[0];
+   private double[] p = new double[0];
+   private double[] pHat = new double[0];
+   private double[] v = new double[0];
+   private double[] s = new double[0];
+   private double[] sHat = new double[0];
+   private double[] t = new double[0];
+
+   @Override
+   protected void resizeWorkspace(int size)
+   {
+      if (r.length != size)
+      {
+         r = new double[size];
+         rHat = new double[size];
+         p = new double[size];
+         pHat = new double[size];
+         v = new double[size];
+         s = new double[size];
+         sHat = new double[size];
+         t = new double[size];
+      }
+   }
+
+   @Override
+   protected boolean solveInternal(double[] b, double[] x, double absoluteTolerance, double normB)
+   {
+      computeResidual(b, x, r);
+      double residualNorm = norm(r, size);
+      setProgress(0, residualNorm, normB);
+      if (residualNorm <= absoluteTolerance)
+      {
+         return true;
+      }
+
+      System.arraycopy(r, 0, rHat, 0, size);
+      for (int i = 0; i < size; i++)
+      {
+         p[i] = 0.0;
+         v[i] = 0.0;
+      }
+      double rho = 1.0;
+      double alpha = 1.0;
+      double omega = 1.0;
+
+      for (int iteration = 1; iteration <= getMaximumIterations(); iteration++)
+      {
+         double rhoNew = dot(rHat, r, size);
+         if (rhoNew == 0.0)
+         {
+            // Breakdown, the shadow residual became orthogonal to the residual.
+            return false;
+         }
+
+         double beta = (rhoNew / rho) * (alpha / omega);
+         rho = rhoNew;
+         for (int i = 0; i < size; i++)
+         {
+            p[i] = r[i] + beta * (p[i] - omega * v[i]);
+         }
+
+         applyPreconditioner(p, pHat);
+         matrix.mult(pHat, v);
+         double rHatV = dot(rHat, v, size);
+         if (rHatV == 0.0)
+         {
+            return false;
+         }
+         alpha = rho / rHatV;
+
+         for (int i = 0; i < size; i++)
+         {
+            s[i] = r[i] - alpha * v[i];
+         }
+         double normS = norm(s, size);
+         if (normS <= absoluteTolerance)
+         {
+            addScaled(alpha, pHat, x, size);
+            setProgress(iteration, normS, normB);
+            return true;
+         }
+
+         applyPreconditioner(s, sHat);
+         matrix.mult(sHat, t);
+         double tt = dot(t, t, size);
+         if (tt == 0.0)
+         {
+            return false;
+         }
+         omega = dot(t, s, size) / tt;
+
+         addScaled(alpha, pHat, x, size);
+         addScaled(omega, sHat, x, size);
+         for (int i = 0; i < size; i++)
+         {
+            r[i] = s[i] - omega * t[i];
+         }
+
+         residualNorm = norm(r, size);
+         setProgress(iteration, residualNorm, normB);
+         if (residualNorm <= absoluteTolerance)
+         {
+            return true;
+         }
+         if (omega == 0.0)
+         {
+            return false;
+         }
+      }
+      return false;
+   }
+}
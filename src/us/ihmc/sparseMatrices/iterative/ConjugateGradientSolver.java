@@ -0,0 +1,72 @@
+package us.ihmc.sparseMatrices.iterative;
+
+/**
+ * Preconditioned conjugate gradient method for symmetric positive definite matrices. The preconditioner must be
+ * symmetric positive definite as well, e.g. {@link JacobiPreconditioner} or {@link IC0Preconditioner}.
+ */
+public class ConjugateGradientSolver extends IterativeSolver
+{
+   private double[] r = new double[0];
+   private double[] z = new double[0];
+   private double[] p = new double[0];
+   private double[] q = new double[0];
+
+   @Override
+   protected void resizeWorkspace(int size)
+   {
+      if (r.length != size)
+      {
+         r = new double[size];
+         z = new double[size];
+         p = new double[size];
+         q = new double[size];
+      }
+   }
+
+   @Override
+   protected boolean solveInternal(double[] b, double[] x, double absoluteTolerance, double normB)
+   {
+      computeResidual(b, x, r);
+      double residualNorm = norm(r, size);
+      setProgress(0, residualNorm, normB);
+      if (residualNorm <= absoluteTolerance)
+      {
+         return true;
+      }
+
+      applyPreconditioner(r, z);
+      System.arraycopy(z, 0, p, 0, size);
+      double rz = dot(r, z, size);
+
+      for (int iteration = 1; iteration <= getMaximumIterations(); iteration++)
+      {
+         matrix.mult(p, q);
+         double pq = dot(p, q, size);
+         if (pq == 0.0)
+         {
+            return false;
+         }
+
+         double alpha = rz / pq;
+         addScaled(alpha, p, x, size);
+         addScaled(-alpha, q, r, size);
+
+         residualNorm = norm(r, size);
+         setProgress(iteration, residualNorm, normB);
+         if (residualNorm <= absoluteTolerance)
+         {
+            return true;
+         }
+
+         applyPreconditioner(r, z);
+         double rzNew = dot(r, z, size);
+         double beta = rzNew / rz;
+         rz = rzNew;
+         for (int i = 0; i < size; i++)
+         {
+            p[i] = z[i] + beta * p[i];
+         }
+      }
+      return false;
+   }
+}
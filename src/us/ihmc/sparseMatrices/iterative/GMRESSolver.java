@@ -0,0 +1,156 @@
+package us.ihmc.sparseMatrices.iterative;
+
+/**
+ * Restarted generalized minimal residual method GMRES(m) with right preconditioning for general square matrices. The
+ * residual decreases monotonically. Memory grows with the restart length m since a basis of m vectors is kept.
+ */
+public class GMRESSolver extends IterativeSolver
+{
+   private static final int defaultRestart = 30;
+
+   private final int restart;
+
+   private double[][] basis = new double[0][];
+   private final double[][] hessenberg;
+   private final double[] cosines;
+   private final double[] sines;
+   private final double[] g;
+   private final double[] y;
+   private double[] w = new double[0];
+   private double[] z = new double[0];
+
+   public GMRESSolver()
+   {
+      this(defaultRestart);
+   }
+
+   /**
+    * @param restart the number of iterations after which the basis is discarded and the method restarts from the
+    *           current iterate.
+    */
+   public GMRESSolver(int restart)
+   {
+      if (restart < 1)
+      {
+         throw new RuntimeException("Restart length must be positive.");
+      }
+      this.restart = restart;
+      hessenberg = new double[restart + 1][restart];
+      cosines = new double[restart];
+      sines = new double[restart];
+      g = new double[restart + 1];
+      y = new double[restart];
+   }
+
+   @Override
+   protected void resizeWorkspace(int size)
+   {
+      if (w.length != size)
+      {
+         basis = new double[restart + 1][size];
+         w = new double[size];
+         z = new double[size];
+      }
+   }
+
+   @Override
+   protected boolean solveInternal(double[] b, double[] x, double absoluteTolerance, double normB)
+   {
+      int iteration = 0;
+      while (true)
+      {
+         double[] r = basis[0];
+         computeResidual(b, x, r);
+         double beta = norm(r, size);
+         setProgress(iteration, beta, normB);
+         if (beta <= absoluteTolerance)
+         {
+            return true;
+         }
+         if (iteration >= getMaximumIterations())
+         {
+            return false;
+         }
+
+         for (int i = 0; i < size; i++)
+         {
+            r[i] /= beta;
+         }
+         g[0] = beta;
+
+         int steps = 0;
+         for (int j = 0; j < restart && iteration < getMaximumIterations(); j++)
+         {
+            iteration++;
+            steps = j + 1;
+
+            // Arnoldi step w = A * M^-1 * v_j orthogonalized against the basis using modified Gram-Schmidt.
+            applyPreconditioner(basis[j], z);
+            matrix.mult(z, w);
+            for (int i = 0; i <= j; i++)
+            {
+               double h = dot(w, basis[i], size);
+               hessenberg[i][j] = h;
+               addScaled(-h, basis[i], w, size);
+            }
+            double normW = norm(w, size);
+            hessenberg[j + 1][j] = normW;
+            if (normW != 0.0)
+            {
+               double[] next = basis[j + 1];
+               for (int i = 0; i < size; i++)
+               {
+                  next[i] = w[i] / normW;
+               }
+            }
+
+            // Reduce the Hessenberg matrix to upper triangular form using Givens rotations.
+            for (int i = 0; i < j; i++)
+            {
+               double h0 = hessenberg[i][j];
+               double h1 = hessenberg[i + 1][j];
+               hessenberg[i][j] = cosines[i] * h0 + sines[i] * h1;
+               hessenberg[i + 1][j] = -sines[i] * h0 + cosines[i] * h1;
+            }
+            double h0 = hessenberg[j][j];
+            double h1 = hessenberg[j + 1][j];
+            double radius = Math.hypot(h0, h1);
+            cosines[j] = h0 / radius;
+            sines[j] = h1 / radius;
+            hessenberg[j][j] = radius;
+            hessenberg[j + 1][j] = 0.0;
+            g[j + 1] = -sines[j] * g[j];
+            g[j] = cosines[j] * g[j];
+
+            // The last entry of g is the residual norm of the current iterate.
+            if (Math.abs(g[j + 1]) <= absoluteTolerance || normW == 0.0)
+            {
+               break;
+            }
+         }
+
+         // Solve the triangular system and update x += M^-1 * V * y.
+         for (int i = steps - 1; i >= 0; i--)
+         {
+            double sum = g[i];
+            for (int k = i + 1; k < steps; k++)
+            {
+               sum -= hessenberg[i][k] * y[k];
+            }
+            y[i] = sum / hessenberg[i][i];
+         }
+         for (int i = 0; i < size; i++)
+         {
+            w[i] = 0.0;
+         }
+         for (int k = 0; k < steps; k++)
+         {
+            addScaled(y[k], basis[k], w, size);
+         }
+         applyPreconditioner(w, z);
+         addScaled(1.0, z, x, size);
+
+         // Restart, the true residual of the new iterate is checked at the beginning of the next cycle.
+      }
+   }
+}
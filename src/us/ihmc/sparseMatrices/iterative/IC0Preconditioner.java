@@ -0,0 +1,123 @@
+package us.ihmc.sparseMatrices.iterative;
+
+import java.util.Arrays;
+
+import us.ihmc.sparseMatrices.CompressedRowMatrix;
+import us.ihmc.sparseMatrices.SparseMatrixCSR;
+import us.ihmc.sparseMatrices.SparseTriangularSolver;
+
+/**
+ * Incomplete Cholesky factorization without fill-in for symmetric positive definite matrices: U^T * U matches A on
+ * the pattern of the upper triangle of A and entries outside of that pattern are dropped. Only the upper triangle of
+ * A (including the diagonal) is read.
+ */
+public class IC0Preconditioner implements Preconditioner
+{
+   private int size = 0;
+
+   /**
+    * The upper triangular factor U in compressed row storage, the diagonal is the first entry of each row.
+    */
+   private int[] rowPointer = new int[1];
+   private int[] columnIndex = new int[0];
+   private double[] factorValues = new double[0];
+   private int[] positionInRow = new int[0];
+   private SparseMatrixCSR upper;
+
+   @Override
+   public boolean compute(CompressedRowMatrix matrix)
+   {
+      size = matrix.getRows();
+      if (rowPointer.length != size + 1)
+      {
+         rowPointer = new int[size + 1];
+         positionInRow = new int[size];
+      }
+      Arrays.fill(positionInRow, 0, size, -1);
+
+      int entries = 0;
+      for (int rowIdx = 0; rowIdx < size; rowIdx++)
+      {
+         rowPointer[rowIdx] = entries;
+         for (int i = matrix.getRowStart(rowIdx); i < matrix.getRowEnd(rowIdx); i++)
+         {
+            if (matrix.getColumnIndex(i) >= rowIdx)
+            {
+               entries++;
+            }
+         }
+      }
+      rowPointer[size] = entries;
+      if (columnIndex.length < entries)
+      {
+         columnIndex = new int[entries];
+         factorValues = new double[entries];
+      }
+      upper = new SparseMatrixCSR(size, size, rowPointer, columnIndex, factorValues);
+
+      for (int rowIdx = 0; rowIdx < size; rowIdx++)
+      {
+         int entry = rowPointer[rowIdx];
+         for (int i = matrix.getRowStart(rowIdx); i < matrix.getRowEnd(rowIdx); i++)
+         {
+            if (matrix.getColumnIndex(i) >= rowIdx)
+            {
+               columnIndex[entry] = matrix.getColumnIndex(i);
+               factorValues[entry] = matrix.getValue(i);
+               entry++;
+            }
+         }
+         if (rowPointer[rowIdx] == rowPointer[rowIdx + 1] || columnIndex[rowPointer[rowIdx]] != rowIdx)
+         {
+            return false;
+         }
+      }
+
+      for (int k = 0; k < size; k++)
+      {
+         int diagonalIndex = rowPointer[k];
+         double diagonal = factorValues[diagonalIndex];
+         if (diagonal <= 0.0)
+         {
+            return false;
+         }
+
+         double root = Math.sqrt(diagonal);
+         factorValues[diagonalIndex] = root;
+         for (int i = diagonalIndex + 1; i < rowPointer[k + 1]; i++)
+         {
+            factorValues[i] /= root;
+         }
+
+         // Update the rows below with the outer product of row k, dropping fill outside of the pattern.
+         for (int i = diagonalIndex + 1; i < rowPointer[k + 1]; i++)
+         {
+            int rowToModify = columnIndex[i];
+            for (int j = rowPointer[rowToModify]; j < rowPointer[rowToModify + 1]; j++)
+            {
+               positionInRow[columnIndex[j]] = j;
+            }
+            for (int j = i; j < rowPointer[k + 1]; j++)
+            {
+               int position = positionInRow[columnIndex[j]];
+               if (position >= 0)
+               {
+                  factorValues[position] -= factorValues[i] * factorValues[j];
+               }
+            }
+            for (int j = rowPointer[rowToModify]; j < rowPointer[rowToModify + 1]; j++)
+            {
+               positionInRow[columnIndex[j]] = -1;
+            }
+         }
+      }
+      return true;
+   }
+
+   @Override
+   public void apply(double[] r, double[] z)
+   {
+      SparseTriangularSolver.solveUpperTransposed(upper, false, r, z);
+      SparseTriangularSolver.solveUpper(upper, false, z, z);
+   }
+}
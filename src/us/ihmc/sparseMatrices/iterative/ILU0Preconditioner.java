@@ -0,0 +1,128 @@
+package us.ihmc.sparseMatrices.iterative;
+
+import java.util.Arrays;
+
+import us.ihmc.sparseMatrices.CompressedRowMatrix;
+import us.ihmc.sparseMatrices.SparseMatrixCSR;
+import us.ihmc.sparseMatrices.SparseTriangularSolver;
+
+/**
+ * Incomplete LU factorization without fill-in: L * U matches A on the pattern of A and entries outside of that
+ * pattern are dropped. Works for general matrices with non-zero diagonal.
+ */
+public class ILU0Preconditioner implements Preconditioner
+{
+   /**
+    * The factors share the pattern of A: entries left of the diagonal belong to L (unit diagonal not stored), the
+    * diagonal and entries right of it belong to U.
+    */
+   private SparseMatrixCSR factors;
+   private double[] factorValues = new double[0];
+   private int[] diagonalIndex = new int[0];
+   private int[] positionInRow = new int[0];
+
+   @Override
+   public boolean compute(CompressedRowMatrix matrix)
+   {
+      int n = matrix.getRows();
+      int nonZeros = matrix.getNumberOfNonZeros();
+      if (factorValues.length < nonZeros)
+      {
+         factorValues = new double[nonZeros];
+      }
+      factors = createFactors(matrix);
+      if (diagonalIndex.length < n)
+      {
+         diagonalIndex = new int[n];
+         positionInRow = new int[n];
+      }
+      Arrays.fill(positionInRow, 0, n, -1);
+
+      for (int rowIdx = 0; rowIdx < n; rowIdx++)
+      {
+         diagonalIndex[rowIdx] = -1;
+         for (int i = matrix.getRowStart(rowIdx); i < matrix.getRowEnd(rowIdx); i++)
+         {
+            factorValues[i] = matrix.getValue(i);
+            if (matrix.getColumnIndex(i) == rowIdx)
+            {
+               diagonalIndex[rowIdx] = i;
+            }
+         }
+         if (diagonalIndex[rowIdx] < 0)
+         {
+            return false;
+         }
+      }
+
+      for (int rowIdx = 0; rowIdx < n; rowIdx++)
+      {
+         int rowStart = matrix.getRowStart(rowIdx);
+         int rowEnd = matrix.getRowEnd(rowIdx);
+         for (int i = rowStart; i < rowEnd; i++)
+         {
+            positionInRow[matrix.getColumnIndex(i)] = i;
+         }
+
+         // Eliminate the entries left of the diagonal using the rows above, dropping fill outside of the pattern.
+         for (int i = rowStart; i < diagonalIndex[rowIdx]; i++)
+         {
+            int pivotRowIdx = matrix.getColumnIndex(i);
+            double multiplier = factorValues[i] / factorValues[diagonalIndex[pivotRowIdx]];
+            factorValues[i] = multiplier;
+            for (int j = diagonalIndex[pivotRowIdx] + 1; j < matrix.getRowEnd(pivotRowIdx); j++)
+            {
+               int position = positionInRow[matrix.getColumnIndex(j)];
+               if (position >= 0)
+               {
+                  factorValues[position] -= multiplier * factorValues[j];
+               }
+            }
+         }
+
+         for (int i = rowStart; i < rowEnd; i++)
+         {
+            positionInRow[matrix.getColumnIndex(i)] = -1;
+         }
+
+         if (factorValues[diagonalIndex[rowIdx]] == 0.0)
+         {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   /**
+    * Shares the pattern of heap based matrices. The pattern of other matrices, e.g. off-heap ones, is copied since
+    * the factors need to be modified in place.
+    */
+   private SparseMatrixCSR createFactors(CompressedRowMatrix matrix)
+   {
+      if (matrix instanceof SparseMatrixCSR)
+      {
+         return new SparseMatrixCSR((SparseMatrixCSR) matrix, factorValues);
+      }
+
+      int n = matrix.getRows();
+      int[] rowPointer = new int[n + 1];
+      int[] columnIndex = new int[matrix.getNumberOfNonZeros()];
+      for (int rowIdx = 0; rowIdx < n; rowIdx++)
+      {
+         rowPointer[rowIdx] = matrix.getRowStart(rowIdx);
+         for (int i = matrix.getRowStart(rowIdx); i < matrix.getRowEnd(rowIdx); i++)
+         {
+            columnIndex[i] = matrix.getColumnIndex(i);
+         }
+      }
+      rowPointer[n] = matrix.getNumberOfNonZeros();
+      return new SparseMatrixCSR(n, matrix.getColumns(), rowPointer, columnIndex, factorValues);
+   }
+
+   @Override
+   public void apply(double[] r, double[] z)
+   {
+      SparseTriangularSolver.solveLower(factors, true, r, z);
+      SparseTriangularSolver.solveUpper(factors, false, z, z);
+   }
+}
@@ -0,0 +1,222 @@
+package us.ihmc.sparseMatrices.iterative;
+
+import java.util.Arrays;
+
+import us.ihmc.sparseMatrices.CompressedRowMatrix;
+import us.ihmc.sparseMatrices.SparseMatrix;
+import us.ihmc.sparseMatrices.SparseMatrixCSR;
+import us.ihmc.sparseMatrices.kernels.DoubleKernels;
+import us.ihmc.sparseMatrices.kernels.Kernels;
+
+/**
+ * Base class for iterative solvers of A * x = b. Instead of factoring A these only need matrix vector products which
+ * makes them usable for systems that are too large for a direct solver.
+ * <p>
+ * The iteration stops once the residual norm |b - A * x| is below the tolerance times |b| or after the maximum
+ * number of iterations. If warm starting is enabled the vector x passed to {@link #solve(double[], double[])} is used
+ * as initial guess, e.g. the solution of the previous call when solving a sequence of similar systems.
+ */
+public abstract class IterativeSolver
+{
+   private static final double defaultTolerance = 1.0e-10;
+   private static final int defaultMaximumIterations = 1000;
+   private static final DoubleKernels kernels = Kernels.get();
+
+   private double tolerance = defaultTolerance;
+   private int maximumIterations = defaultMaximumIterations;
+   private boolean warmStart = false;
+   private Preconditioner preconditioner = null;
+
+   protected CompressedRowMatrix matrix;
+   protected int size = -1;
+
+   private int iterations = 0;
+   private double relativeResidual = Double.NaN;
+
+   /**
+    * Sets the relative tolerance on the residual norm at which the iteration stops.
+    */
+   public void setTolerance(double tolerance)
+   {
+      this.tolerance = tolerance;
+   }
+
+   public void setMaximumIterations(int maximumIterations)
+   {
+      this.maximumIterations = maximumIterations;
+   }
+
+   /**
+    * If enabled the content of x is used as initial guess. Otherwise the iteration starts from zero.
+    */
+   public void setWarmStart(boolean warmStart)
+   {
+      this.warmStart = warmStart;
+   }
+
+   /**
+    * Sets the preconditioner. It is computed in {@link #setMatrix(CompressedRowMatrix)}. If null (default) no
+    * preconditioner is used.
+    */
+   public void setPreconditioner(Preconditioner preconditioner)
+   {
+      this.preconditioner = preconditioner;
+   }
+
+   public boolean setMatrix(SparseMatrix matrix)
+   {
+      return setMatrix(new SparseMatrixCSR(matrix));
+   }
+
+   /**
+    * Sets the matrix of the system and computes the preconditioner. The matrix may be stored off-heap.
+    *
+    * @return false if the preconditioner could not be computed. In that case no solve is possible until the next
+    *         successful call.
+    */
+   public boolean setMatrix(CompressedRowMatrix matrix)
+   {
+      if (matrix.getRows() != matrix.getColumns())
+      {
+         throw new RuntimeException("Can only solve square systems.");
+      }
+
+      size = -1;
+      this.matrix = matrix;
+      if (preconditioner != null && !preconditioner.compute(matrix))
+      {
+         return false;
+      }
+      size = matrix.getRows();
+      resizeWorkspace(size);
+      return true;
+   }
+
+   /**
+    * Solves A * x = b for x. The vectors b and x must not be the same array.
+    *
+    * @return true if the iteration converged to the tolerance within the maximum number of iterations. Otherwise x
+    *         holds the last iterate.
+    */
+   public boolean solve(double[] b, double[] x)
+   {
+      if (size < 0)
+      {
+         throw new RuntimeException("No valid matrix available.");
+      }
+      if (b.length < size || x.length < size)
+      {
+         throw new RuntimeException("Unexpected vector size.");
+      }
+      if (b == x)
+      {
+         throw new RuntimeException("Right hand side and solution must not be the same.");
+      }
+
+      if (!warmStart)
+      {
+         Arrays.fill(x, 0, size, 0.0);
+      }
+
+      iterations = 0;
+      double normB = norm(b, size);
+      if (normB == 0.0)
+      {
+         Arrays.fill(x, 0, size, 0.0);
+         relativeResidual = 0.0;
+         return true;
+      }
+
+      return solveInternal(b, x, tolerance * normB, normB);
+   }
+
+   /**
+    * @return the number of iterations of the last solve.
+    */
+   public int getIterations()
+   {
+      return iterations;
+   }
+
+   /**
+    * @return |b - A * x| / |b| at the end of the last solve.
+    */
+   public double getRelativeResidual()
+   {
+      return relativeResidual;
+   }
+
+   protected int getMaximumIterations()
+   {
+      return maximumIterations;
+   }
+
+   /**
+    * Records the state of the iteration. Called by the implementations whenever the residual was computed.
+    */
+   protected void setProgress(int iterations, double residualNorm, double normB)
+   {
+      this.iterations = iterations;
+      this.relativeResidual = residualNorm / normB;
+   }
+
+   /**
+    * Allocates the work vectors for systems of the given size.
+    */
+   protected abstract void resizeWorkspace(int size);
+
+   /**
+    * Runs the iteration starting from x until the residual norm is below the absolute tolerance.
+    */
+   protected abstract boolean solveInternal(double[] b, double[] x, double absoluteTolerance, double normB);
+
+   /**
+    * Sets z = M^-1 * r or copies r into z if there is no preconditioner.
+    */
+   protected void applyPreconditioner(double[] r, double[] z)
+   {
+      if (preconditioner == null)
+      {
+         System.arraycopy(r, 0, z, 0, size);
+      }
+      else
+      {
+         preconditioner.apply(r, z);
+      }
+   }
+
+   protected boolean hasPreconditioner()
+   {
+      return preconditioner != null;
+   }
+
+   /**
+    * Sets r = b - A * x.
+    */
+   protected void computeResidual(double[] b, double[] x, double[] r)
+   {
+      matrix.mult(x, r);
+      for (int i = 0; i < size; i++)
+      {
+         r[i] = b[i] - r[i];
+      }
+   }
+
+   protected static double dot(double[] a, double[] b, int size)
+   {
+      return kernels.dot(a, b, size);
+   }
+
+   protected static double norm(double[] a, int size)
+   {
+      return Math.sqrt(dot(a, a, size));
+   }
+
+   /**
+    * Sets y = y + alpha * x.
+    */
+   protected static void addScaled(double alpha, double[] x, double[] y, int size)
+   {
+      kernels.axpy(alpha, x, y, size);
+   }
+}
@@ -0,0 +1,42 @@
+package us.ihmc.sparseMatrices.iterative;
+
+import us.ihmc.sparseMatrices.CompressedRowMatrix;
+
+/**
+ * Uses the diagonal of the matrix as preconditioner.
+ */
+public class JacobiPreconditioner implements Preconditioner
+{
+   private double[] inverseDiagonal = new double[0];
+   private int size = 0;
+
+   @Override
+   public boolean compute(CompressedRowMatrix matrix)
+   {
+      size = matrix.getRows();
+      if (inverseDiagonal.length < size)
+      {
+         inverseDiagonal = new double[size];
+      }
+
+      for (int rowIdx = 0; rowIdx < size; rowIdx++)
+      {
+         double diagonal = matrix.get(rowIdx, rowIdx);
+         if (diagonal == 0.0)
+         {
+            return false;
+         }
+         inverseDiagonal[rowIdx] = 1.0 / diagonal;
+      }
+      return true;
+   }
+
+   @Override
+   public void apply(double[] r, double[] z)
+   {
+      for (int i = 0; i < size; i++)
+      {
+         z[i] = inverseDiagonal[i] * r[i];
+      }
+   }
+}
@@ -0,0 +1,22 @@
+package us.ihmc.sparseMatrices.iterative;
+
+import us.ihmc.sparseMatrices.CompressedRowMatrix;
+
+/**
+ * An approximation M of a matrix A that is cheap to apply in the form z = M^-1 * r. Used by the
+ * {@link IterativeSolver}s to reduce the number of iterations.
+ */
+public interface Preconditioner
+{
+   /**
+    * Computes the preconditioner for the provided square matrix.
+    *
+    * @return false if the preconditioner can not be computed for this matrix, e.g. because of a zero pivot.
+    */
+   public boolean compute(CompressedRowMatrix matrix);
+
+   /**
+    * Sets z = M^-1 * r. The vectors r and z must not be the same array.
+    */
+   public void apply(double[] r, double[] z);
+}
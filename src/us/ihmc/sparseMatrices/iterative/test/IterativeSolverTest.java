@@ -0,0 +1,245 @@
+package us.ihmc.sparseMatrices.iterative.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import us.ihmc.sparseMatrices.SparseLUSolver;
+import us.ihmc.sparseMatrices.SparseMatrix;
+import us.ihmc.sparseMatrices.iterative.BiCGStabSolver;
+import us.ihmc.sparseMatrices.iterative.ConjugateGradientSolver;
+import us.ihmc.sparseMatrices.iterative.GMRESSolver;
+import us.ihmc.sparseMatrices.iterative.IC0Preconditioner;
+import us.ihmc.sparseMatrices.iterative.ILU0Preconditioner;
+import us.ihmc.sparseMatrices.iterative.IterativeSolver;
+import us.ihmc.sparseMatrices.iterative.JacobiPreconditioner;
+import us.ihmc.sparseMatrices.iterative.Preconditioner;
+
+public class IterativeSolverTest
+{
+   @Test
+   public void testConjugateGradient()
+   {
+      Random random = new Random(492911L);
+      Preconditioner[] preconditioners = {null, new JacobiPreconditioner(), new IC0Preconditioner()};
+
+      for (Preconditioner preconditioner : preconditioners)
+      {
+         ConjugateGradientSolver solver = new ConjugateGradientSolver();
+         solver.setPreconditioner(preconditioner);
+         for (int i = 0; i < 20; i++)
+         {
+            int n = random.nextInt(200) + 1;
+            SparseMatrix matrix = createLaplacian(random, n);
+            assertSolvesLikeDirect(random, matrix, solver);
+         }
+      }
+   }
+
+   @Test
+   public void testBiCGStab()
+   {
+      Random random = new Random(492911L);
+      Preconditioner[] preconditioners = {null, new JacobiPreconditioner(), new ILU0Preconditioner()};
+
+      for (Preconditioner preconditioner : preconditioners)
+      {
+         BiCGStabSolver solver = new BiCGStabSolver();
+         solver.setPreconditioner(preconditioner);
+         for (int i = 0; i < 20; i++)
+         {
+            int n = random.nextInt(200) + 1;
+            SparseMatrix matrix = createDiagonallyDominant(random, n);
+            assertSolvesLikeDirect(random, matrix, solver);
+         }
+      }
+   }
+
+   @Test
+   public void testGMRES()
+   {
+      Random random = new Random(492911L);
+      Preconditioner[] preconditioners = {null, new JacobiPreconditioner(), new ILU0Preconditioner()};
+
+      for (Preconditioner preconditioner : preconditioners)
+      {
+         // A short restart length to make sure restarting works.
+         GMRESSolver solver = new GMRESSolver(5);
+         solver.setPreconditioner(preconditioner);
+         for (int i = 0; i < 20; i++)
+         {
+            int n = random.nextInt(200) + 1;
+            SparseMatrix matrix = createDiagonallyDominant(random, n);
+            assertSolvesLikeDirect(random, matrix, solver);
+         }
+      }
+   }
+
+   @Test
+   public void testPreconditionersReduceIterations()
+   {
+      Random random = new Random(492911L);
+      int n = 300;
+      SparseMatrix matrix = createLaplacian(random, n);
+      double[] b = createRandomVector(random, n);
+      double[] x = new double[n];
+
+      ConjugateGradientSolver solver = new ConjugateGradientSolver();
+      assertTrue(solver.setMatrix(matrix));
+      assertTrue(solver.solve(b, x));
+      int iterationsWithout = solver.getIterations();
+
+      solver.setPreconditioner(new IC0Preconditioner());
+      assertTrue(solver.setMatrix(matrix));
+      assertTrue(solver.solve(b, x));
+      assertTrue(solver.getIterations() < iterationsWithout);
+   }
+
+   @Test
+   public void testWarmStart()
+   {
+      Random random = new Random(492911L);
+      int n = 300;
+      SparseMatrix matrix = createDiagonallyDominant(random, n);
+
+      IterativeSolver[] solvers = {new BiCGStabSolver(), new GMRESSolver()};
+      for (IterativeSolver solver : solvers)
+      {
+         double[] b = createRandomVector(random, n);
+         double[] x = new double[n];
+         solver.setPreconditioner(new JacobiPreconditioner());
+         solver.setWarmStart(true);
+         assertTrue(solver.setMatrix(matrix));
+         assertTrue(solver.solve(b, x));
+         int coldIterations = solver.getIterations();
+
+         // A slightly different right hand side should converge faster from the previous solution.
+         for (int i = 0; i < n; i++)
+         {
+            b[i] += 1.0E-6 * (random.nextDouble() - 0.5);
+         }
+         assertTrue(solver.solve(b, x));
+         assertTrue(solver.getIterations() < coldIterations);
+
+         // Solving the same system again starting from the solution should not need any iterations.
+         assertTrue(solver.solve(b, x));
+         assertEquals(0, solver.getIterations());
+      }
+   }
+
+   @Test
+   public void testIterationLimit()
+   {
+      Random random = new Random(492911L);
+      int n = 300;
+      SparseMatrix matrix = createLaplacian(random, n);
+      double[] b = createRandomVector(random, n);
+      double[] x = new double[n];
+
+      ConjugateGradientSolver solver = new ConjugateGradientSolver();
+      solver.setMaximumIterations(3);
+      assertTrue(solver.setMatrix(matrix));
+      assertFalse(solver.solve(b, x));
+      assertEquals(3, solver.getIterations());
+      assertTrue(solver.getRelativeResidual() > 1.0E-10);
+   }
+
+   @Test
+   public void testPreconditionerFailures()
+   {
+      SparseMatrix matrix = new SparseMatrix(3, 3);
+      matrix.set(0, 0, 1.0);
+      matrix.set(1, 2, 1.0);
+      matrix.set(2, 1, 1.0);
+
+      IterativeSolver solver = new GMRESSolver();
+      solver.setPreconditioner(new JacobiPreconditioner());
+      assertFalse(solver.setMatrix(matrix));
+      solver.setPreconditioner(new ILU0Preconditioner());
+      assertFalse(solver.setMatrix(matrix));
+      solver.setPreconditioner(new IC0Preconditioner());
+      assertFalse(solver.setMatrix(matrix));
+      solver.setPreconditioner(null);
+      assertTrue(solver.setMatrix(matrix));
+   }
+
+   private static void assertSolvesLikeDirect(Random random, SparseMatrix matrix, IterativeSolver solver)
+   {
+      int n = matrix.getRows();
+      double[] b = createRandomVector(random, n);
+      double[] expectedX = new double[n];
+      double[] x = new double[n];
+
+      SparseLUSolver directSolver = new SparseLUSolver();
+      assertTrue(directSolver.factor(matrix));
+      directSolver.solve(b, expectedX);
+
+      solver.setTolerance(1.0E-12);
+      assertTrue(solver.setMatrix(matrix));
+      assertTrue(solver.solve(b, x));
+      assertTrue(solver.getRelativeResidual() <= 1.0E-12);
+      for (int i = 0; i < n; i++)
+      {
+         assertEquals(expectedX[i], x[i], 1.0E-8 * Math.max(1.0, Math.abs(expectedX[i])));
+      }
+   }
+
+   private static double[] createRandomVector(Random random, int n)
+   {
+      double[] vector = new double[n];
+      for (int i = 0; i < n; i++)
+      {
+         vector[i] = random.nextDouble() - 0.5;
+      }
+      return vector;
+   }
+
+   /**
+    * Creates a symmetric positive definite matrix: the graph Laplacian of a chain with random extra edges plus a
+    * small random diagonal shift.
+    */
+   private static SparseMatrix createLaplacian(Random random, int n)
+   {
+      SparseMatrix matrix = new SparseMatrix(n, n);
+      for (int i = 0; i < n; i++)
+      {
+         matrix.add(i, i, 0.01 + random.nextDouble());
+      }
+      for (int i = 0; i < 2 * n; i++)
+      {
+         int from = i < n - 1 ? i : random.nextInt(n);
+         int to = i < n - 1 ? i + 1 : random.nextInt(n);
+         if (from == to)
+         {
+            continue;
+         }
+         double weight = random.nextDouble() + 0.1;
+         matrix.add(from, from, weight);
+         matrix.add(to, to, weight);
+         matrix.add(from, to, -weight);
+         matrix.add(to, from, -weight);
+      }
+      return matrix;
+   }
+
+   /**
+    * Creates a non-symmetric matrix with a dominant diagonal.
+    */
+   private static SparseMatrix createDiagonallyDominant(Random random, int n)
+   {
+      SparseMatrix matrix = new SparseMatrix(n, n);
+      for (int i = 0; i < 5 * n; i++)
+      {
+         matrix.set(random.nextInt(n), random.nextInt(n), random.nextDouble() - 0.5);
+      }
+      for (int i = 0; i < n; i++)
+      {
+         matrix.set(i, i, 3.0 + random.nextDouble());
+      }
+      return matrix;
+   }
+}
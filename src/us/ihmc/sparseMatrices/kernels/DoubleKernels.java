@@ -0,0 +1,41 @@
+package us.ihmc.sparseMatrices.kernels;
+
+/**
+ * The inner loops over contiguous double arrays used by the compressed row products, the iterative solvers and the
+ * row scaling of the eliminations. Use {@link Kernels#get()} to obtain the fastest implementation available on the
+ * running JVM.
+ */
+public interface DoubleKernels
+{
+   /**
+    * @return the sum of values[i] * x[indices[i]] for i in [start, end).
+    */
+   public double sparseDot(double[] values, int[] indices, int start, int end, double[] x);
+
+   /**
+    * Sets y[indices[i]] = y[indices[i]] + alpha * values[i] for i in [start, end). The indices in the range must be
+    * distinct.
+    */
+   public void sparseAxpy(double alpha, double[] values, int[] indices, int start, int end, double[] y);
+
+   /**
+    * @return the sum of x[i] * y[i] for i in [0, length).
+    */
+   public double dot(double[] x, double[] y, int length);
+
+   /**
+    * Sets y[i] = y[i] + alpha * x[i] for i in [0, length).
+    */
+   public void axpy(double alpha, double[] x, double[] y, int length);
+
+   /**
+    * Sets y[yOffset + i] = y[yOffset + i] + alpha * x[xOffset + i] for i in [0, length). Used for rows of dense
+    * matrices stored in a single array.
+    */
+   public void axpy(double alpha, double[] x, int xOffset, double[] y, int yOffset, int length);
+
+   /**
+    * Sets x[i] = alpha * x[i] for i in [0, length).
+    */
+   public void scale(double alpha, double[] x, int length);
+}
@@ -0,0 +1,51 @@
+package us.ihmc.sparseMatrices.kernels;
+
+/**
+ * Selects the kernel implementation once per JVM. The implementation using the incubating Java Vector API is compiled
+ * separately for Java 16 and newer and is used if it is on the class path and the JVM was started with
+ * {@code --add-modules jdk.incubator.vector}. Otherwise, or if the system property {@value #vectorKernelsProperty} is
+ * set to false, the scalar implementation is used.
+ */
+public final class Kernels
+{
+   public static final String vectorKernelsProperty = "us.ihmc.sparseMatrices.vectorKernels";
+   private static final String vectorKernelsClassName = "us.ihmc.sparseMatrices.kernels.VectorApiKernels";
+
+   private static final DoubleKernels kernels = load();
+
+   private Kernels()
+   {
+   }
+
+   /**
+    * @return the kernels used by this library.
+    */
+   public static DoubleKernels get()
+   {
+      return kernels;
+   }
+
+   /**
+    * @return whether the kernels use the Java Vector API.
+    */
+   public static boolean isVectorized()
+   {
+      return !(kernels instanceof ScalarKernels);
+   }
+
+   private static DoubleKernels load()
+   {
+      if (Boolean.parseBoolean(System.getProperty(vectorKernelsProperty, "true")))
+      {
+         try
+         {
+            return (DoubleKernels) Class.forName(vectorKernelsClassName).getConstructor().newInstance();
+         }
+         catch (ReflectiveOperationException | LinkageError | RuntimeException e)
+         {
+            // Not compiled, older JVM or the incubator module was not added.
+         }
+      }
+      return new ScalarKernels();
+   }
+}
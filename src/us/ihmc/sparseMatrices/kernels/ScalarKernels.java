@@ -0,0 +1,85 @@
+package us.ihmc.sparseMatrices.kernels;
+
+/**
+ * Plain Java implementation of the kernels. The reductions are unrolled into four independent sums so the additions
+ * do not wait on each other, the remaining loops are left to the auto-vectorization of the JIT.
+ */
+public class ScalarKernels implements DoubleKernels
+{
+   @Override
+   public double sparseDot(double[] values, int[] indices, int start, int end, double[] x)
+   {
+      double sum0 = 0.0;
+      double sum1 = 0.0;
+      double sum2 = 0.0;
+      double sum3 = 0.0;
+      int i = start;
+      for (; i <= end - 4; i += 4)
+      {
+         sum0 += values[i] * x[indices[i]];
+         sum1 += values[i + 1] * x[indices[i + 1]];
+         sum2 += values[i + 2] * x[indices[i + 2]];
+         sum3 += values[i + 3] * x[indices[i + 3]];
+      }
+      for (; i < end; i++)
+      {
+         sum0 += values[i] * x[indices[i]];
+      }
+      return (sum0 + sum1) + (sum2 + sum3);
+   }
+
+   @Override
+   public void sparseAxpy(double alpha, double[] values, int[] indices, int start, int end, double[] y)
+   {
+      for (int i = start; i < end; i++)
+      {
+         y[indices[i]] += alpha * values[i];
+      }
+   }
+
+   @Override
+   public double dot(double[] x, double[] y, int length)
+   {
+      double sum0 = 0.0;
+      double sum1 = 0.0;
+      double sum2 = 0.0;
+      double sum3 = 0.0;
+      int i = 0;
+      for (; i <= length - 4; i += 4)
+      {
+         sum0 += x[i] * y[i];
+         sum1 += x[i + 1] * y[i + 1];
+         sum2 += x[i + 2] * y[i + 2];
+         sum3 += x[i + 3] * y[i + 3];
+      }
+      for (; i < length; i++)
+      {
+         sum0 += x[i] * y[i];
+      }
+      return (sum0 + sum1) + (sum2 + sum3);
+   }
+
+   @Override
+   public void axpy(double alpha, double[] x, double[] y, int length)
+   {
+      axpy(alpha, x, 0, y, 0, length);
+   }
+
+   @Override
+   public void axpy(double alpha, double[] x, int xOffset, double[] y, int yOffset, int length)
+   {
+      for (int i = 0; i < length; i++)
+      {
+         y[yOffset + i] += alpha * x[xOffset + i];
+      }
+   }
+
+   @Override
+   public void scale(double alpha, double[] x, int length)
+   {
+      for (int i = 0; i < length; i++)
+      {
+         x[i] *= alpha;
+      }
+   }
+}
@@ -0,0 +1,129 @@
+package us.ihmc.sparseMatrices.kernels.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import us.ihmc.sparseMatrices.kernels.DoubleKernels;
+import us.ihmc.sparseMatrices.kernels.Kernels;
+import us.ihmc.sparseMatrices.kernels.ScalarKernels;
+
+public class KernelsTest
+{
+   private static final double epsilon = 1.0e-12;
+
+   @Test
+   public void testScalarKernels()
+   {
+      testKernels(new ScalarKernels());
+   }
+
+   @Test
+   public void testSelectedKernels()
+   {
+      testKernels(Kernels.get());
+   }
+
+   private static void testKernels(DoubleKernels kernels)
+   {
+      Random random = new Random(1938201L);
+      int size = 200;
+      for (int length = 0; length < 70; length++)
+      {
+         double[] x = createRandom(random, size);
+         double[] y = createRandom(random, size);
+         double alpha = random.nextDouble() - 0.5;
+
+         double expectedDot = 0.0;
+         for (int i = 0; i < length; i++)
+         {
+            expectedDot += x[i] * y[i];
+         }
+         assertEquals(expectedDot, kernels.dot(x, y, length), epsilon);
+
+         double[] expected = y.clone();
+         for (int i = 0; i < length; i++)
+         {
+            expected[i] += alpha * x[i];
+         }
+         double[] actual = y.clone();
+         kernels.axpy(alpha, x, actual, length);
+         assertArrayEquals(expected, actual, epsilon);
+
+         // Rows of dense matrices at different offsets.
+         int xOffset = random.nextInt(size - length + 1);
+         int yOffset = random.nextInt(size - length + 1);
+         expected = y.clone();
+         for (int i = 0; i < length; i++)
+         {
+            expected[yOffset + i] += alpha * x[xOffset + i];
+         }
+         actual = y.clone();
+         kernels.axpy(alpha, x, xOffset, actual, yOffset, length);
+         assertArrayEquals(expected, actual, epsilon);
+
+         expected = x.clone();
+         for (int i = 0; i < length; i++)
+         {
+            expected[i] *= alpha;
+         }
+         actual = x.clone();
+         kernels.scale(alpha, actual, length);
+         assertArrayEquals(expected, actual, epsilon);
+
+         // A range of distinct, unsorted indices in the middle of the arrays like a row of a compressed matrix.
+         int[] indices = new int[length + 10];
+         int[] permutation = createPermutation(random, size);
+         System.arraycopy(permutation, 0, indices, 0, indices.length);
+         double[] values = createRandom(random, indices.length);
+         int start = 5;
+         int end = start + length;
+
+         expectedDot = 0.0;
+         for (int i = start; i < end; i++)
+         {
+            expectedDot += values[i] * x[indices[i]];
+         }
+         assertEquals(expectedDot, kernels.sparseDot(values, indices, start, end, x), epsilon);
+
+         expected = y.clone();
+         for (int i = start; i < end; i++)
+         {
+            expected[indices[i]] += alpha * values[i];
+         }
+         actual = y.clone();
+         kernels.sparseAxpy(alpha, values, indices, start, end, actual);
+         assertArrayEquals(expected, actual, epsilon);
+      }
+   }
+
+   private static double[] createRandom(Random random, int size)
+   {
+      double[] vector = new double[size];
+      for (int i = 0; i < size; i++)
+      {
+         vector[i] = random.nextDouble() - 0.5;
+      }
+      return vector;
+   }
+
+   private static int[] createPermutation(Random random, int size)
+   {
+      int[] permutation = new int[size];
+      for (int i = 0; i < size; i++)
+      {
+         permutation[i] = i;
+      }
+      for (int i = size - 1; i > 0; i--)
+      {
+         int j = random.nextInt(i + 1);
+         int swap = permutation[i];
+         permutation[i] = permutation[j];
+         permutation[j] = swap;
+      }
+      return permutation;
+   }
+}
@@ -0,0 +1,17 @@
+package us.ihmc.sparseMatrices.ordering;
+
+import us.ihmc.sparseMatrices.SparseMatrix;
+
+/**
+ * Computes a symmetric permutation of a square matrix that reduces the fill-in created when eliminating it.
+ */
+public interface FillReducingOrdering
+{
+   /**
+    * Computes the ordering from the sparsity pattern of A + A^T. Values are ignored.
+    *
+    * @return the order in which to eliminate: position i of the permuted matrix holds row and column order[i] of the
+    *         provided matrix.
+    */
+   public int[] computeOrdering(SparseMatrix matrix);
+}
@@ -0,0 +1,115 @@
+package us.ihmc.sparseMatrices.ordering;
+
+import java.util.Arrays;
+
+import gnu.trove.set.hash.TIntHashSet;
+import us.ihmc.sparseMatrices.SparseMatrix;
+
+/**
+ * Greedy minimum degree ordering. Simulates the elimination on the adjacency graph of the matrix and always
+ * eliminates a node with the fewest neighbors next. Eliminating a node connects all of its neighbors, which is
+ * exactly the fill-in the elimination would create. Works best for general unstructured sparse matrices.
+ */
+public class MinimumDegreeOrdering implements FillReducingOrdering
+{
+   @Override
+   public int[] computeOrdering(SparseMatrix matrix)
+   {
+      SymmetricAdjacency graph = new SymmetricAdjacency(matrix);
+      int n = graph.size;
+
+      TIntHashSet[] adjacency = new TIntHashSet[n];
+      for (int node = 0; node < n; node++)
+      {
+         adjacency[node] = new TIntHashSet(Math.max(graph.getDegree(node), 1));
+         for (int i = graph.pointer[node]; i < graph.pointer[node + 1]; i++)
+         {
+            adjacency[node].add(graph.neighbors[i]);
+         }
+      }
+
+      // Nodes are kept in doubly linked lists, one per degree.
+      int[] head = new int[n];
+      int[] next = new int[n];
+      int[] previous = new int[n];
+      int[] degree = new int[n];
+      Arrays.fill(head, -1);
+      for (int node = n - 1; node >= 0; node--)
+      {
+         degree[node] = adjacency[node].size();
+         insert(node, degree[node], head, next, previous);
+      }
+
+      int[] order = new int[n];
+      int[] neighbors = new int[n];
+      int minDegree = 0;
+      for (int k = 0; k < n; k++)
+      {
+         while (head[minDegree] < 0)
+         {
+            minDegree++;
+         }
+
+         int node = head[minDegree];
+         remove(node, degree[node], head, next, previous);
+         order[k] = node;
+
+         int neighborCount = adjacency[node].size();
+         adjacency[node].toArray(neighbors);
+         adjacency[node] = null;
+
+         for (int i = 0; i < neighborCount; i++)
+         {
+            adjacency[neighbors[i]].remove(node);
+         }
+
+         // The neighbors of the eliminated node become a clique.
+         for (int i = 0; i < neighborCount; i++)
+         {
+            TIntHashSet neighborAdjacency = adjacency[neighbors[i]];
+            for (int j = 0; j < neighborCount; j++)
+            {
+               if (i != j)
+               {
+                  neighborAdjacency.add(neighbors[j]);
+               }
+            }
+
+            int neighbor = neighbors[i];
+            remove(neighbor, degree[neighbor], head, next, previous);
+            degree[neighbor] = neighborAdjacency.size();
+            insert(neighbor, degree[neighbor], head, next, previous);
+            minDegree = Math.min(minDegree, degree[neighbor]);
+         }
+      }
+
+      return order;
+   }
+
+   private static void insert(int node, int degree, int[] head, int[] next, int[] previous)
+   {
+      next[node] = head[degree];
+      previous[node] = -1;
+      if (head[degree] >= 0)
+      {
+         previous[head[degree]] = node;
+      }
+      head[degree] = node;
+   }
+
+   private static void remove(int node, int degree, int[] head, int[] next, int[] previous)
+   {
+      if (previous[node] >= 0)
+      {
+         next[previous[node]] = next[node];
+      }
+      else
+      {
+         head[degree] = next[node];
+      }
+      if (next[node] >= 0)
+      {
+         previous[next[node]] = previous[node];
+      }
+   }
+}
@@ -0,0 +1,153 @@
+package us.ihmc.sparseMatrices.ordering;
+
+import java.util.Arrays;
+
+import us.ihmc.sparseMatrices.SparseMatrix;
+
+/**
+ * Reverse Cuthill-McKee ordering. Reduces the bandwidth of the matrix by numbering the nodes of its adjacency graph in
+ * breadth first order starting from a pseudo-peripheral node, visiting neighbors in order of increasing degree, and
+ * reversing the result. Works best for matrices arising from meshes or chains.
+ */
+public class ReverseCuthillMcKeeOrdering implements FillReducingOrdering
+{
+   @Override
+   public int[] computeOrdering(SparseMatrix matrix)
+   {
+      SymmetricAdjacency graph = new SymmetricAdjacency(matrix);
+      int n = graph.size;
+
+      int[] order = new int[n];
+      boolean[] visited = new boolean[n];
+      int[] level = new int[n];
+      Arrays.fill(level, -1);
+      int[] queue = new int[n];
+      int[] sortBuffer = new int[n];
+      int ordered = 0;
+
+      for (int seed = 0; seed < n; seed++)
+      {
+         if (visited[seed])
+         {
+            continue;
+         }
+
+         int start = findPseudoPeripheralNode(graph, seed, level, queue);
+
+         // Breadth first search from the start node appending neighbors sorted by degree.
+         visited[start] = true;
+         order[ordered++] = start;
+         int head = ordered - 1;
+         while (head < ordered)
+         {
+            int node = order[head++];
+            int neighborCount = 0;
+            for (int i = graph.pointer[node]; i < graph.pointer[node + 1]; i++)
+            {
+               int neighbor = graph.neighbors[i];
+               if (!visited[neighbor])
+               {
+                  visited[neighbor] = true;
+                  sortBuffer[neighborCount++] = neighbor;
+               }
+            }
+
+            sortByDegree(graph, sortBuffer, neighborCount);
+            System.arraycopy(sortBuffer, 0, order, ordered, neighborCount);
+            ordered += neighborCount;
+         }
+      }
+
+      for (int i = 0; i < n / 2; i++)
+      {
+         int temp = order[i];
+         order[i] = order[n - 1 - i];
+         order[n - 1 - i] = temp;
+      }
+      return order;
+   }
+
+   /**
+    * Starting at the seed repeatedly jumps to a node of minimum degree in the last level of the breadth first search
+    * as long as this increases the number of levels.
+    */
+   private static int findPseudoPeripheralNode(SymmetricAdjacency graph, int seed, int[] level, int[] queue)
+   {
+      int node = seed;
+      int eccentricity = -1;
+
+      while (true)
+      {
+         int queueSize = breadthFirstLevels(graph, node, level, queue);
+         int lastLevel = level[queue[queueSize - 1]];
+
+         int candidate = node;
+         int candidateDegree = Integer.MAX_VALUE;
+         for (int i = queueSize - 1; i >= 0 && level[queue[i]] == lastLevel; i--)
+         {
+            int degree = graph.getDegree(queue[i]);
+            if (degree < candidateDegree)
+            {
+               candidateDegree = degree;
+               candidate = queue[i];
+            }
+         }
+
+         for (int i = 0; i < queueSize; i++)
+         {
+            level[queue[i]] = -1;
+         }
+
+         if (lastLevel <= eccentricity)
+         {
+            return node;
+         }
+         eccentricity = lastLevel;
+         node = candidate;
+      }
+   }
+
+   /**
+    * Expects the level of all nodes to be -1 and sets the level of every node reached from the start.
+    *
+    * @return the number of nodes reached from the start. These are stored in the queue in breadth first order.
+    */
+   private static int breadthFirstLevels(SymmetricAdjacency graph, int start, int[] level, int[] queue)
+   {
+      int queueSize = 0;
+      queue[queueSize++] = start;
+      level[start] = 0;
+
+      for (int head = 0; head < queueSize; head++)
+      {
+         int node = queue[head];
+         for (int i = graph.pointer[node]; i < graph.pointer[node + 1]; i++)
+         {
+            int neighbor = graph.neighbors[i];
+            if (level[neighbor] < 0)
+            {
+               level[neighbor] = level[node] + 1;
+               queue[queueSize++] = neighbor;
+            }
+         }
+      }
+      return queueSize;
+   }
+
+   private static void sortByDegree(SymmetricAdjacency graph, int[] nodes, int count)
+   {
+      // Insertion sort, the number of neighbors of a node is usually small.
+      for (int i = 1; i < count; i++)
+      {
+         int node = nodes[i];
+         int degree = graph.getDegree(node);
+         int j = i - 1;
+         while (j >= 0 && graph.getDegree(nodes[j]) > degree)
+         {
+            nodes[j + 1] = nodes[j];
+            j--;
+         }
+         nodes[j + 1] = node;
+      }
+   }
+}
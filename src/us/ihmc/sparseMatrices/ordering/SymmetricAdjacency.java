@@ -0,0 +1,69 @@
+package us.ihmc.sparseMatrices.ordering;
+
+import us.ihmc.sparseMatrices.SparseMatrix;
+import us.ihmc.sparseMatrices.SparseMatrixCSR;
+
+/**
+ * The adjacency graph of the sparsity pattern of A + A^T without self loops. The sorted neighbors of node i are
+ * stored at the positions pointer[i] to pointer[i + 1] - 1 of the neighbors array.
+ */
+class SymmetricAdjacency
+{
+   final int size;
+   final int[] pointer;
+   final int[] neighbors;
+
+   SymmetricAdjacency(SparseMatrix matrix)
+   {
+      size = matrix.getRows();
+      if (size != matrix.getColumns())
+      {
+         throw new RuntimeException("Can only order square matrices.");
+      }
+
+      SparseMatrixCSR rows = new SparseMatrixCSR(matrix);
+      SparseMatrixCSR columns = rows.transpose();
+
+      pointer = new int[size + 1];
+      int[] merged = new int[rows.getNumberOfNonZeros() + columns.getNumberOfNonZeros()];
+      int entries = 0;
+      for (int node = 0; node < size; node++)
+      {
+         // Both rows are sorted so a merge gives the union without duplicates.
+         int i = rows.getRowStart(node);
+         int j = columns.getRowStart(node);
+         int rowEnd = rows.getRowEnd(node);
+         int columnEnd = columns.getRowEnd(node);
+         while (i < rowEnd || j < columnEnd)
+         {
+            int next;
+            if (j >= columnEnd || (i < rowEnd && rows.getColumnIndex(i) < columns.getColumnIndex(j)))
+            {
+               next = rows.getColumnIndex(i++);
+            }
+            else if (i >= rowEnd || columns.getColumnIndex(j) < rows.getColumnIndex(i))
+            {
+               next = columns.getColumnIndex(j++);
+            }
+            else
+            {
+               next = rows.getColumnIndex(i++);
+               j++;
+            }
+
+            if (next != node)
+            {
+               merged[entries++] = next;
+            }
+         }
+         pointer[node + 1] = entries;
+      }
+
+      neighbors = merged;
+   }
+
+   int getDegree(int node)
+   {
+      return pointer[node + 1] - pointer[node];
+   }
+}
@@ -0,0 +1,185 @@
+package us.ihmc.sparseMatrices.ordering.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import us.ihmc.sparseMatrices.SparseCholeskySolver;
+import us.ihmc.sparseMatrices.SparseLUSolver;
+import us.ihmc.sparseMatrices.SparseMatrix;
+import us.ihmc.sparseMatrices.SparseMatrixInverter;
+import us.ihmc.sparseMatrices.ordering.FillReducingOrdering;
+import us.ihmc.sparseMatrices.ordering.MinimumDegreeOrdering;
+import us.ihmc.sparseMatrices.ordering.ReverseCuthillMcKeeOrdering;
+
+public class FillReducingOrderingTest
+{
+   @Test
+   public void testOrderingsArePermutations()
+   {
+      Random random = new Random(492911L);
+      FillReducingOrdering[] orderings = {new ReverseCuthillMcKeeOrdering(), new MinimumDegreeOrdering()};
+
+      for (int i = 0; i < 50; i++)
+      {
+         int n = random.nextInt(100) + 1;
+         SparseMatrix matrix = new SparseMatrix(n, n);
+         for (int j = 0; j < 2 * n; j++)
+         {
+            matrix.set(random.nextInt(n), random.nextInt(n), random.nextDouble());
+         }
+
+         for (FillReducingOrdering ordering : orderings)
+         {
+            int[] order = ordering.computeOrdering(matrix);
+            assertEquals(n, order.length);
+            boolean[] used = new boolean[n];
+            for (int j = 0; j < n; j++)
+            {
+               assertTrue(!used[order[j]]);
+               used[order[j]] = true;
+            }
+         }
+      }
+   }
+
+   @Test
+   public void testReverseCuthillMcKeeRecoversBand()
+   {
+      Random random = new Random(492911L);
+      int n = 200;
+      int bandwidth = 2;
+
+      // A banded matrix with randomly shuffled rows and columns.
+      List<Integer> shuffle = new ArrayList<>();
+      for (int j = 0; j < n; j++)
+      {
+         shuffle.add(j);
+      }
+      Collections.shuffle(shuffle, random);
+
+      SparseMatrix matrix = new SparseMatrix(n, n);
+      for (int row = 0; row < n; row++)
+      {
+         for (int column = Math.max(0, row - bandwidth); column <= Math.min(n - 1, row + bandwidth); column++)
+         {
+            matrix.set(shuffle.get(row), shuffle.get(column), 1.0);
+         }
+      }
+
+      SparseMatrix permuted = new SparseMatrix();
+      permuted.setSymmetricPermutation(matrix, new ReverseCuthillMcKeeOrdering().computeOrdering(matrix));
+
+      for (int row = 0; row < n; row++)
+      {
+         for (int column = 0; column < n; column++)
+         {
+            if (permuted.contains(row, column))
+            {
+               assertTrue(Math.abs(row - column) <= 2 * bandwidth);
+            }
+         }
+      }
+   }
+
+   @Test
+   public void testMinimumDegreeAvoidsFillOnArrowMatrix()
+   {
+      int n = 100;
+
+      // Arrow matrix with the dense row and column first. Eliminating in natural order fills the whole matrix.
+      SparseMatrix matrix = new SparseMatrix(n, n);
+      for (int i = 0; i < n; i++)
+      {
+         matrix.set(i, i, n);
+         matrix.set(0, i, 1.0);
+         matrix.set(i, 0, 1.0);
+      }
+
+      SparseCholeskySolver solver = new SparseCholeskySolver();
+      assertTrue(solver.factor(matrix));
+      assertEquals(n * (n + 1) / 2, solver.getUpper().getNumberOfNonZeros());
+
+      solver.setOrdering(new MinimumDegreeOrdering());
+      assertTrue(solver.factor(matrix));
+      assertEquals(2 * n - 1, solver.getUpper().getNumberOfNonZeros());
+   }
+
+   @Test
+   public void testSolversWithOrdering()
+   {
+      Random random = new Random(492911L);
+      int n = 60;
+
+      SparseMatrix matrix = new SparseMatrix(n, n);
+      for (int j = 0; j < 3 * n; j++)
+      {
+         int row = random.nextInt(n);
+         int column = random.nextInt(n);
+         double value = random.nextDouble() - 0.5;
+         matrix.set(row, column, value);
+         matrix.set(column, row, value);
+      }
+      for (int j = 0; j < n; j++)
+      {
+         matrix.add(j, j, 2.0 * n);
+      }
+
+      double[] b = new double[n];
+      for (int j = 0; j < n; j++)
+      {
+         b[j] = random.nextDouble();
+      }
+
+      SparseLUSolver luSolver = new SparseLUSolver();
+      assertTrue(luSolver.factor(matrix));
+      double[] expected = new double[n];
+      luSolver.solve(b, expected);
+
+      SparseMatrixInverter inverter = new SparseMatrixInverter();
+      SparseMatrix expectedInverse = new SparseMatrix();
+      assertTrue(inverter.invert(matrix, expectedInverse));
+
+      FillReducingOrdering[] orderings = {new ReverseCuthillMcKeeOrdering(), new MinimumDegreeOrdering()};
+      for (FillReducingOrdering ordering : orderings)
+      {
+         double[] x = new double[n];
+
+         luSolver.setOrdering(ordering);
+         assertTrue(luSolver.factor(matrix));
+         luSolver.solve(b, x);
+         assertArrayEquals(expected, x);
+
+         SparseCholeskySolver choleskySolver = new SparseCholeskySolver();
+         choleskySolver.setOrdering(ordering);
+         assertTrue(choleskySolver.factor(matrix));
+         choleskySolver.solve(b, x);
+         assertArrayEquals(expected, x);
+
+         SparseMatrix inverse = new SparseMatrix();
+         inverter.setOrdering(ordering);
+         assertTrue(inverter.invert(matrix, inverse));
+         for (int row = 0; row < n; row++)
+         {
+            for (int column = 0; column < n; column++)
+            {
+               assertEquals(expectedInverse.get(row, column), inverse.get(row, column), 1.0E-10);
+            }
+         }
+      }
+   }
+
+   private static void assertArrayEquals(double[] expected, double[] actual)
+   {
+      for (int i = 0; i < expected.length; i++)
+      {
+         assertEquals(expected[i], actual[i], 1.0E-10);
+      }
+   }
+}
@@ -0,0 +1,142 @@
+package us.ihmc.sparseMatrices.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.ejml.data.DenseMatrix64F;
+import org.junit.Test;
+
+import us.ihmc.sparseMatrices.BatchInverter;
+import us.ihmc.sparseMatrices.SparseLUSolver;
+import us.ihmc.sparseMatrices.SparseMatrix;
+
+public class BatchInverterTest
+{
+   @Test
+   public void testBatchInversion()
+   {
+      Random random = new Random(492911L);
+      int items = 500;
+
+      List<SparseMatrix> matrices = new ArrayList<>();
+      List<SparseMatrix> inverses = new ArrayList<>();
+      for (int item = 0; item < items; item++)
+      {
+         int n = random.nextInt(10) + 1;
+         SparseMatrix matrix = new SparseMatrix(n, n);
+         SparseLinearSolverTest.createRandomNonSingular(random, n, 2 * n, new DenseMatrix64F(n, n), matrix);
+         // Every tenth matrix has an empty row.
+         if (item % 10 == 0)
+         {
+            matrix.getRow(random.nextInt(n)).clear();
+         }
+         matrices.add(matrix);
+         inverses.add(new SparseMatrix());
+      }
+
+      ExecutorService executor = Executors.newFixedThreadPool(4);
+      try
+      {
+         BatchInverter inverter = new BatchInverter(executor);
+         boolean[] successes = new boolean[items];
+         for (boolean sharedPattern : new boolean[] {false, true})
+         {
+            inverter.setSharedPattern(sharedPattern);
+            assertEquals(items - items / 10, inverter.invert(matrices, inverses, successes));
+            for (int item = 0; item < items; item++)
+            {
+               assertEquals(item % 10 != 0, successes[item]);
+               if (successes[item])
+               {
+                  SparseMatrixTest.assertIsInverse(matrices.get(item), inverses.get(item), 1.0e-10);
+               }
+            }
+         }
+
+         // Small batches are inverted on the calling thread.
+         inverter.setSharedPattern(false);
+         assertEquals(1, inverter.invert(matrices.subList(0, 2), inverses.subList(0, 2), successes));
+         assertFalse(successes[0]);
+         assertTrue(successes[1]);
+      }
+      finally
+      {
+         executor.shutdown();
+      }
+   }
+
+   @Test
+   public void testBatchSolveWithSharedPattern()
+   {
+      Random random = new Random(492911L);
+      int items = 300;
+      int n = 12;
+
+      SparseMatrix pattern = new SparseMatrix(n, n);
+      SparseLinearSolverTest.createRandomNonSingular(random, n, 2 * n, new DenseMatrix64F(n, n), pattern);
+      List<SparseMatrix> matrices = new ArrayList<>();
+      List<double[]> b = new ArrayList<>();
+      List<double[]> x = new ArrayList<>();
+      for (int item = 0; item < items; item++)
+      {
+         // Same pattern with different values, every fiftieth matrix gets an additional entry.
+         SparseMatrix matrix = new SparseMatrix(n, n);
+         for (int row = 0; row < n; row++)
+         {
+            for (int column = 0; column < n; column++)
+            {
+               if (pattern.contains(row, column))
+               {
+                  matrix.set(row, column, pattern.get(row, column) * (0.5 + random.nextDouble()));
+               }
+            }
+         }
+         if (item % 50 == 0)
+         {
+            matrix.set(0, n - 1, 1.0 + matrix.get(0, n - 1));
+         }
+         matrices.add(matrix);
+
+         double[] rightHandSide = new double[n];
+         for (int i = 0; i < n; i++)
+         {
+            rightHandSide[i] = random.nextDouble() - 0.5;
+         }
+         b.add(rightHandSide);
+         x.add(new double[n]);
+      }
+
+      BatchInverter inverter = new BatchInverter();
+      inverter.setSharedPattern(true);
+      boolean[] successes = new boolean[items];
+      for (int repetition = 0; repetition < 2; repetition++)
+      {
+         assertEquals(items, inverter.solve(matrices, b, x, successes));
+
+         SparseLUSolver solver = new SparseLUSolver();
+         double[] expected = new double[n];
+         for (int item = 0; item < items; item++)
+         {
+            assertTrue(successes[item]);
+            assertTrue(solver.factor(matrices.get(item)));
+            solver.solve(b.get(item), expected);
+            for (int i = 0; i < n; i++)
+            {
+               assertEquals(expected[i], x.get(item)[i], 1.0e-10 * Math.max(1.0, Math.abs(expected[i])));
+            }
+         }
+      }
+
+      SparseMatrix singular = new SparseMatrix(n, n);
+      matrices.set(3, singular);
+      assertEquals(items - 1, inverter.solve(matrices, b, x, successes));
+      assertFalse(successes[3]);
+   }
+}
@@ -0,0 +1,124 @@
+package us.ihmc.sparseMatrices.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import us.ihmc.sparseMatrices.BlockDiagonalInverter;
+import us.ihmc.sparseMatrices.SparseMatrix;
+
+public class BlockDiagonalInverterTest
+{
+   @Test
+   public void testInversionOfShuffledBlockMatrices()
+   {
+      Random random = new Random(492911L);
+
+      int matrixSize = 100;
+      int blocks = 5;
+      int iterations = 20;
+
+      BlockDiagonalInverter inverter = new BlockDiagonalInverter();
+
+      for (int i = 0; i < iterations; i++)
+      {
+         SparseMatrix matrix = createShuffledBlockMatrix(random, matrixSize, blocks);
+
+         // Alternate between the dense and the sparse block inversion.
+         inverter.setMaximumDenseBlockSize(i % 2 == 0 ? 100 : 0);
+
+         SparseMatrix inverse = new SparseMatrix();
+         assertTrue(inverter.invert(matrix, inverse));
+         assertEquals(blocks, inverter.getNumberOfBlocks());
+
+         SparseMatrix eye = new SparseMatrix();
+         eye.mult(matrix, inverse);
+         for (int row = 0; row < matrixSize; row++)
+         {
+            for (int column = 0; column < matrixSize; column++)
+            {
+               assertEquals(row == column ? 1.0 : 0.0, eye.get(row, column), 1.0E-8);
+            }
+         }
+      }
+   }
+
+   @Test
+   public void testSingularBlockMatrices()
+   {
+      Random random = new Random(492911L);
+      int matrixSize = 20;
+
+      BlockDiagonalInverter inverter = new BlockDiagonalInverter();
+      SparseMatrix inverse = new SparseMatrix();
+
+      // An empty column makes the blocks non-square.
+      SparseMatrix matrix = createShuffledBlockMatrix(random, matrixSize, 4);
+      SparseMatrix withEmptyColumn = new SparseMatrix(matrixSize, matrixSize);
+      for (int row = 0; row < matrixSize; row++)
+      {
+         for (int column = 1; column < matrixSize; column++)
+         {
+            if (matrix.contains(row, column))
+            {
+               withEmptyColumn.set(row, column, matrix.get(row, column));
+            }
+         }
+      }
+      assertFalse(inverter.invert(withEmptyColumn, inverse));
+
+      // Two identical rows within a block.
+      for (int maximumDenseBlockSize : new int[] {100, 0})
+      {
+         inverter.setMaximumDenseBlockSize(maximumDenseBlockSize);
+         SparseMatrix singular = new SparseMatrix(4, 4);
+         singular.set(0, 0, 1.0);
+         singular.set(0, 1, 2.0);
+         singular.set(1, 0, 1.0);
+         singular.set(1, 1, 2.0);
+         singular.set(2, 2, 1.0);
+         singular.set(3, 3, 1.0);
+         assertFalse(inverter.invert(singular, inverse));
+
+         // Nearly singular blocks are rejected by the dense and the sparse inversion alike.
+         singular.set(1, 1, 2.0 + 1.0e-12);
+         assertFalse(inverter.invert(singular, inverse));
+      }
+   }
+
+   private static SparseMatrix createShuffledBlockMatrix(Random random, int matrixSize, int blocks)
+   {
+      List<Integer> rowShuffle = new ArrayList<>();
+      List<Integer> columnShuffle = new ArrayList<>();
+      for (int j = 0; j < matrixSize; j++)
+      {
+         rowShuffle.add(j);
+         columnShuffle.add(j);
+      }
+      Collections.shuffle(rowShuffle, random);
+      Collections.shuffle(columnShuffle, random);
+
+      SparseMatrix matrix = new SparseMatrix(matrixSize, matrixSize);
+      int blockSize = matrixSize / blocks;
+      for (int block = 0; block < blocks; block++)
+      {
+         int offset = block * blockSize;
+         for (int row = 0; row < blockSize; row++)
+         {
+            for (int column = 0; column < blockSize; column++)
+            {
+               double value = random.nextDouble() + (row == column ? blockSize : 0.0);
+               matrix.set(rowShuffle.get(row + offset), columnShuffle.get(column + offset), value);
+            }
+         }
+      }
+      return matrix;
+   }
+}
@@ -0,0 +1,293 @@
+package us.ihmc.sparseMatrices.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.ejml.data.DenseMatrix64F;
+import org.ejml.ops.CommonOps;
+import org.ejml.ops.RandomMatrices;
+import org.junit.Test;
+
+import us.ihmc.sparseMatrices.CompressedRowMatrix;
+import us.ihmc.sparseMatrices.SparseCommonOps;
+import us.ihmc.sparseMatrices.SparseMatrix;
+import us.ihmc.sparseMatrices.SparseMatrixCSR;
+
+public class SparseCommonOpsTest
+{
+   @Test
+   public void testSparseDenseMultiplication()
+   {
+      Random random = new Random(492911L);
+      int iterations = 50;
+
+      for (int i = 0; i < iterations; i++)
+      {
+         int n = random.nextInt(30) + 1;
+         int m = random.nextInt(30) + 1;
+         int p = random.nextInt(30) + 1;
+
+         DenseMatrix64F referenceA = new DenseMatrix64F(n, m);
+         SparseMatrix sparseA = new SparseMatrix(n, m);
+         fillRandomly(random, 3 * n, referenceA, sparseA);
+
+         DenseMatrix64F denseB = RandomMatrices.createRandom(m, p, random);
+         DenseMatrix64F expected = new DenseMatrix64F(n, p);
+         DenseMatrix64F result = new DenseMatrix64F(n, p);
+         CommonOps.mult(referenceA, denseB, expected);
+         SparseCommonOps.mult(sparseA, denseB, result);
+         assertMatrixEquals(expected, result);
+
+         DenseMatrix64F denseC = RandomMatrices.createRandom(p, n, random);
+         expected.reshape(p, m);
+         result.reshape(p, m);
+         CommonOps.mult(denseC, referenceA, expected);
+         SparseCommonOps.mult(denseC, sparseA, result);
+         assertMatrixEquals(expected, result);
+
+         DenseMatrix64F denseD = RandomMatrices.createRandom(n, p, random);
+         expected.reshape(m, p);
+         result.reshape(m, p);
+         CommonOps.multTransA(referenceA, denseD, expected);
+         SparseCommonOps.multTransA(sparseA, denseD, result);
+         assertMatrixEquals(expected, result);
+      }
+   }
+
+   @Test
+   public void testGramMatrices()
+   {
+      Random random = new Random(492911L);
+      int iterations = 50;
+
+      for (int i = 0; i < iterations; i++)
+      {
+         int n = random.nextInt(40) + 1;
+         int m = random.nextInt(40) + 1;
+
+         DenseMatrix64F referenceA = new DenseMatrix64F(n, m);
+         SparseMatrix sparseA = new SparseMatrix(n, m);
+         fillRandomly(random, 3 * n, referenceA, sparseA);
+
+         DenseMatrix64F expectedInner = new DenseMatrix64F(m, m);
+         DenseMatrix64F expectedOuter = new DenseMatrix64F(n, n);
+         CommonOps.multInner(referenceA, expectedInner);
+         CommonOps.multOuter(referenceA, expectedOuter);
+
+         SparseMatrix result = new SparseMatrix();
+         for (boolean parallel : new boolean[] {false, true})
+         {
+            if (parallel)
+            {
+               SparseCommonOps.multInner(sparseA, result, false, ForkJoinPool.commonPool());
+            }
+            else
+            {
+               SparseCommonOps.multInner(sparseA, result, false);
+            }
+            assertSymmetricResult(expectedInner, result, false);
+
+            if (parallel)
+            {
+               SparseCommonOps.multOuter(sparseA, result, true, ForkJoinPool.commonPool());
+            }
+            else
+            {
+               SparseCommonOps.multOuter(sparseA, result, true);
+            }
+            assertSymmetricResult(expectedOuter, result, true);
+         }
+      }
+   }
+
+   private static void assertSymmetricResult(DenseMatrix64F expected, SparseMatrix actual, boolean upperTriangleOnly)
+   {
+      assertEquals(expected.getNumRows(), actual.getRows());
+      assertEquals(expected.getNumCols(), actual.getColumns());
+      for (int row = 0; row < expected.getNumRows(); row++)
+      {
+         for (int column = 0; column < expected.getNumCols(); column++)
+         {
+            if (upperTriangleOnly && column < row)
+            {
+               assertFalse(actual.contains(row, column));
+            }
+            else
+            {
+               assertEquals(expected.get(row, column), actual.get(row, column), 1.0E-10);
+            }
+         }
+      }
+   }
+
+   @Test
+   public void testSetFromDense()
+   {
+      Random random = new Random(492911L);
+      DenseMatrix64F dense = RandomMatrices.createRandom(10, 15, -1.0, 1.0, random);
+      dense.set(3, 4, 1.0E-5);
+
+      SparseMatrix sparse = new SparseMatrix(20, 20);
+      sparse.set(19, 19, 1.0);
+      sparse.set(dense, 1.0E-3);
+
+      assertEquals(10, sparse.getRows());
+      assertEquals(15, sparse.getColumns());
+      assertFalse(sparse.contains(3, 4));
+      assertFalse(sparse.contains(19, 19));
+      for (int row = 0; row < 10; row++)
+      {
+         for (int column = 0; column < 15; column++)
+         {
+            if (row != 3 || column != 4)
+            {
+               assertEquals(dense.get(row, column), sparse.get(row, column), 1.0E-20);
+            }
+         }
+      }
+   }
+
+   @Test
+   public void testElementWiseOperations()
+   {
+      Random random = new Random(492911L);
+      int iterations = 50;
+
+      for (int i = 0; i < iterations; i++)
+      {
+         int n = random.nextInt(30) + 1;
+         int m = random.nextInt(30) + 1;
+         double alpha = random.nextDouble() - 0.5;
+         double beta = random.nextDouble() - 0.5;
+
+         DenseMatrix64F referenceA = new DenseMatrix64F(n, m);
+         DenseMatrix64F referenceB = new DenseMatrix64F(n, m);
+         SparseMatrix a = new SparseMatrix(n, m);
+         SparseMatrix b = new SparseMatrix(n, m);
+         fillRandomly(random, 2 * n, referenceA, a);
+         fillRandomly(random, 2 * n, referenceB, b);
+
+         DenseMatrix64F expected = new DenseMatrix64F(n, m);
+         SparseMatrix c = new SparseMatrix();
+
+         CommonOps.add(alpha, referenceA, beta, referenceB, expected);
+         SparseCommonOps.add(alpha, a, beta, b, c);
+         assertSparseEquals(expected, c);
+         assertSparseEquals(expected, SparseCommonOps.add(alpha, new SparseMatrixCSR(a), beta, new SparseMatrixCSR(b)));
+
+         CommonOps.subtract(referenceA, referenceB, expected);
+         SparseCommonOps.subtract(a, b, c);
+         assertSparseEquals(expected, c);
+
+         CommonOps.elementMult(referenceA, referenceB, expected);
+         SparseCommonOps.elementMult(a, b, c);
+         assertSparseEquals(expected, c);
+         assertSparseEquals(expected, SparseCommonOps.elementMult(new SparseMatrixCSR(a), new SparseMatrixCSR(b)));
+
+         CommonOps.scale(alpha, referenceA, expected);
+         SparseCommonOps.scale(alpha, a, c);
+         assertSparseEquals(expected, c);
+         assertSparseEquals(expected, SparseCommonOps.scale(alpha, new SparseMatrixCSR(a)));
+
+         DenseMatrix64F transpose = new DenseMatrix64F(m, n);
+         CommonOps.transpose(referenceA, transpose);
+         SparseCommonOps.transpose(a, c);
+         assertSparseEquals(transpose, c);
+
+         CommonOps.add(referenceB, alpha, referenceA, expected);
+         SparseCommonOps.axpy(alpha, a, b);
+         assertSparseEquals(expected, b);
+
+         CommonOps.addEquals(expected, referenceA);
+         SparseCommonOps.addEquals(b, a);
+         assertSparseEquals(expected, b);
+
+         CommonOps.scale(beta, expected);
+         SparseCommonOps.scale(beta, b);
+         assertSparseEquals(expected, b);
+      }
+   }
+
+   @Test
+   public void testAxpyWithLockedPattern()
+   {
+      SparseMatrix y = new SparseMatrix(3, 3);
+      SparseMatrix x = new SparseMatrix(3, 3);
+      for (int i = 0; i < 3; i++)
+      {
+         y.set(i, i, 1.0);
+         y.set(i, 2, 1.0);
+         x.set(i, i, 2.0);
+      }
+      y.setColumnIndexing(true);
+      y.lockPattern();
+
+      SparseCommonOps.axpy(0.5, x, y);
+      assertEquals(2.0, y.get(0, 0), 1.0E-20);
+      assertEquals(1.0, y.get(0, 2), 1.0E-20);
+      assertEquals(2.0, y.get(2, 2), 1.0E-20);
+
+      x.set(1, 0, 1.0);
+      try
+      {
+         SparseCommonOps.axpy(1.0, x, y);
+         fail("Expected an exception.");
+      }
+      catch (RuntimeException e)
+      {
+      }
+
+      y.unlockPattern();
+      SparseCommonOps.axpy(1.0, x, y);
+      assertEquals(1.0, y.get(1, 0), 1.0E-20);
+      assertTrue(y.getRowsInColumn(0).contains(1));
+   }
+
+   private static void assertSparseEquals(DenseMatrix64F expected, CompressedRowMatrix actual)
+   {
+      assertEquals(expected.getNumRows(), actual.getRows());
+      assertEquals(expected.getNumCols(), actual.getColumns());
+      for (int row = 0; row < expected.getNumRows(); row++)
+      {
+         for (int column = 0; column < expected.getNumCols(); column++)
+         {
+            assertEquals(expected.get(row, column), actual.get(row, column), 1.0E-12);
+         }
+      }
+   }
+
+   private static void assertSparseEquals(DenseMatrix64F expected, SparseMatrix actual)
+   {
+      assertSparseEquals(expected, new SparseMatrixCSR(actual));
+   }
+
+   static void fillRandomly(Random random, int entries, DenseMatrix64F reference, SparseMatrix matrix)
+   {
+      for (int j = 0; j < entries; j++)
+      {
+         int row = random.nextInt(reference.getNumRows());
+         int column = random.nextInt(reference.getNumCols());
+         double value = random.nextDouble() - 0.5;
+         reference.set(row, column, value);
+         matrix.set(row, column, value);
+      }
+   }
+
+   static void assertMatrixEquals(DenseMatrix64F expected, DenseMatrix64F actual)
+   {
+      assertEquals(expected.getNumRows(), actual.getNumRows());
+      assertEquals(expected.getNumCols(), actual.getNumCols());
+      for (int row = 0; row < expected.getNumRows(); row++)
+      {
+         for (int column = 0; column < expected.getNumCols(); column++)
+         {
+            assertEquals(expected.get(row, column), actual.get(row, column), 1.0E-10);
+         }
+      }
+   }
+}
@@ -0,0 +1,468 @@
+package us.ihmc.sparseMatrices.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.ejml.data.DenseMatrix64F;
+import org.ejml.factory.LinearSolverFactory;
+import org.ejml.interfaces.linsol.LinearSolver;
+import org.ejml.ops.CommonOps;
+import org.junit.Test;
+
+import us.ihmc.sparseMatrices.SparseCholeskySolver;
+import us.ihmc.sparseMatrices.SparseCommonOps;
+import us.ihmc.sparseMatrices.SparseLUSolver;
+import us.ihmc.sparseMatrices.SparseLinearSolver;
+import us.ihmc.sparseMatrices.SparseMatrix;
+import us.ihmc.sparseMatrices.WoodburySolver;
+import us.ihmc.sparseMatrices.ordering.MinimumDegreeOrdering;
+import us.ihmc.sparseMatrices.ordering.ReverseCuthillMcKeeOrdering;
+
+public class SparseLinearSolverTest
+{
+   @Test
+   public void testLUSolveAgainstDense()
+   {
+      Random random = new Random(492911L);
+      int iterations = 100;
+
+      SparseLUSolver solver = new SparseLUSolver();
+      LinearSolver<DenseMatrix64F> referenceSolver = LinearSolverFactory.linear(0);
+
+      for (int i = 0; i < iterations; i++)
+      {
+         int n = random.nextInt(40) + 1;
+         DenseMatrix64F reference = new DenseMatrix64F(n, n);
+         SparseMatrix matrix = new SparseMatrix(n, n);
+         createRandomNonSingular(random, n, 3 * n, reference, matrix);
+
+         assertTrue(referenceSolver.setA(reference));
+         assertTrue(solver.factor(matrix));
+
+         for (int rhs = 0; rhs < 3; rhs++)
+         {
+            DenseMatrix64F b = new DenseMatrix64F(n, 1);
+            double[] sparseB = new double[n];
+            for (int j = 0; j < n; j++)
+            {
+               b.set(j, 0, random.nextDouble() - 0.5);
+               sparseB[j] = b.get(j, 0);
+            }
+
+            DenseMatrix64F referenceX = new DenseMatrix64F(n, 1);
+            referenceSolver.solve(b, referenceX);
+            double[] x = new double[n];
+            solver.solve(sparseB, x);
+
+            for (int j = 0; j < n; j++)
+            {
+               assertEquals(referenceX.get(j, 0), x[j], 1.0E-8 * Math.max(1.0, Math.abs(referenceX.get(j, 0))));
+            }
+         }
+      }
+   }
+
+   @Test
+   public void testLUSolveForInverse()
+   {
+      Random random = new Random(492911L);
+      int n = 30;
+
+      DenseMatrix64F reference = new DenseMatrix64F(n, n);
+      SparseMatrix matrix = new SparseMatrix(n, n);
+      createRandomNonSingular(random, n, 2 * n, reference, matrix);
+
+      SparseLUSolver solver = new SparseLUSolver();
+      assertTrue(solver.factor(matrix));
+
+      SparseMatrix identity = new SparseMatrix();
+      identity.setIdentity(n);
+      SparseMatrix inverse = new SparseMatrix();
+      solver.solve(identity, inverse);
+
+      SparseMatrix product = new SparseMatrix();
+      product.mult(matrix, inverse);
+      for (int row = 0; row < n; row++)
+      {
+         for (int column = 0; column < n; column++)
+         {
+            assertEquals(row == column ? 1.0 : 0.0, product.get(row, column), 1.0E-8);
+         }
+      }
+   }
+
+   @Test
+   public void testLUWithZeroDiagonal()
+   {
+      Random random = new Random(492911L);
+      int n = 50;
+
+      // A shuffled permutation with random values requires row pivoting.
+      SparseMatrix matrix = new SparseMatrix(n, n);
+      List<Integer> indices = new ArrayList<>();
+      for (int j = 0; j < n; j++)
+      {
+         indices.add(j);
+      }
+      Collections.shuffle(indices, random);
+      for (int j = 0; j < n; j++)
+      {
+         matrix.set(j, indices.get(j), random.nextDouble() + 0.1);
+      }
+
+      SparseLUSolver solver = new SparseLUSolver();
+      assertTrue(solver.factor(matrix));
+
+      double[] b = new double[n];
+      for (int j = 0; j < n; j++)
+      {
+         b[j] = random.nextDouble();
+      }
+      double[] x = new double[n];
+      solver.solve(b, x);
+
+      for (int row = 0; row < n; row++)
+      {
+         int column = indices.get(row);
+         assertEquals(b[row], matrix.get(row, column) * x[column], 1.0E-10);
+      }
+   }
+
+   @Test
+   public void testLUSingular()
+   {
+      int n = 10;
+      SparseMatrix matrix = new SparseMatrix(n, n);
+      for (int i = 0; i < n; i++)
+      {
+         matrix.set(i, i, 1.0);
+         matrix.set(i, 0, 2.0);
+      }
+      // Make the last two rows identical.
+      matrix.set(n - 1, n - 2, 1.0);
+      matrix.set(n - 2, n - 1, 1.0);
+
+      assertFalse(new SparseLUSolver().factor(matrix));
+   }
+
+   @Test
+   public void testCholeskySolveAgainstDense()
+   {
+      Random random = new Random(492911L);
+      int iterations = 100;
+
+      SparseCholeskySolver solver = new SparseCholeskySolver();
+      LinearSolver<DenseMatrix64F> referenceSolver = LinearSolverFactory.symmPosDef(0);
+
+      for (int i = 0; i < iterations; i++)
+      {
+         int n = random.nextInt(40) + 1;
+         DenseMatrix64F reference = new DenseMatrix64F(n, n);
+         SparseMatrix matrix = new SparseMatrix(n, n);
+         createRandomPositiveDefinite(random, n, reference, matrix);
+
+         // The lower triangle should be ignored by the solver.
+         for (int j = 0; j < n; j++)
+         {
+            int row = random.nextInt(n);
+            int column = random.nextInt(n);
+            if (row > column)
+            {
+               matrix.set(row, column, random.nextDouble() + 100.0);
+            }
+         }
+
+         assertTrue(referenceSolver.setA(reference));
+         assertTrue(solver.factor(matrix));
+
+         DenseMatrix64F b = new DenseMatrix64F(n, 1);
+         double[] x = new double[n];
+         for (int j = 0; j < n; j++)
+         {
+            b.set(j, 0, random.nextDouble() - 0.5);
+            x[j] = b.get(j, 0);
+         }
+
+         DenseMatrix64F referenceX = new DenseMatrix64F(n, 1);
+         referenceSolver.solve(b, referenceX);
+         solver.solve(x, x);
+
+         for (int j = 0; j < n; j++)
+         {
+            assertEquals(referenceX.get(j, 0), x[j], 1.0E-8 * Math.max(1.0, Math.abs(referenceX.get(j, 0))));
+         }
+      }
+   }
+
+   @Test
+   public void testCholeskyNotPositiveDefinite()
+   {
+      int n = 10;
+      SparseMatrix matrix = new SparseMatrix(n, n);
+      for (int i = 0; i < n; i++)
+      {
+         matrix.set(i, i, 1.0);
+      }
+      SparseCholeskySolver solver = new SparseCholeskySolver();
+      assertTrue(solver.factor(matrix));
+
+      matrix.set(n - 1, n - 1, -1.0);
+      assertFalse(solver.factor(matrix));
+
+      matrix.set(n - 1, n - 1, 1.0);
+      matrix.set(0, n - 1, 2.0);
+      assertFalse(solver.factor(matrix));
+   }
+
+   @Test
+   public void testLURefactor()
+   {
+      Random random = new Random(492911L);
+      int iterations = 50;
+
+      SparseLUSolver solver = new SparseLUSolver();
+      SparseLUSolver referenceSolver = new SparseLUSolver();
+      solver.setOrdering(new MinimumDegreeOrdering());
+
+      for (int i = 0; i < iterations; i++)
+      {
+         int n = random.nextInt(40) + 1;
+         SparseMatrix matrix = new SparseMatrix(n, n);
+         createRandomNonSingular(random, n, 3 * n, new DenseMatrix64F(n, n), matrix);
+         assertTrue(solver.factor(matrix));
+
+         // Change the values but keep the pattern.
+         matrix.lockPattern();
+         for (int slot = 0; slot < matrix.getNumberOfSlots(); slot++)
+         {
+            matrix.addSlot(slot, 0.1 * (random.nextDouble() - 0.5));
+         }
+         matrix.unlockPattern();
+
+         assertTrue(solver.refactor(matrix));
+         assertTrue(referenceSolver.factor(matrix));
+         assertSameSolution(random, n, referenceSolver, solver);
+      }
+   }
+
+   @Test
+   public void testLURefactorOutsidePattern()
+   {
+      int n = 10;
+      SparseMatrix matrix = new SparseMatrix(n, n);
+      for (int i = 0; i < n; i++)
+      {
+         matrix.set(i, i, 2.0);
+      }
+
+      SparseLUSolver solver = new SparseLUSolver();
+      assertTrue(solver.factor(matrix));
+      matrix.set(3, 0, 1.0);
+      assertFalse(solver.refactor(matrix));
+      assertTrue(solver.factor(matrix));
+      assertTrue(solver.refactor(matrix));
+   }
+
+   @Test
+   public void testCholeskyRefactor()
+   {
+      Random random = new Random(492911L);
+      int iterations = 50;
+
+      SparseCholeskySolver solver = new SparseCholeskySolver();
+      SparseCholeskySolver referenceSolver = new SparseCholeskySolver();
+      solver.setOrdering(new ReverseCuthillMcKeeOrdering());
+
+      for (int i = 0; i < iterations; i++)
+      {
+         int n = random.nextInt(40) + 1;
+         SparseMatrix matrix = new SparseMatrix(n, n);
+         createRandomPositiveDefinite(random, n, new DenseMatrix64F(n, n), matrix);
+         assertTrue(solver.factor(matrix));
+
+         // Scaling the diagonal keeps the matrix positive definite.
+         for (int j = 0; j < n; j++)
+         {
+            matrix.set(j, j, matrix.get(j, j) * (1.0 + random.nextDouble()));
+         }
+
+         assertTrue(solver.refactor(matrix));
+         assertTrue(referenceSolver.factor(matrix));
+         assertSameSolution(random, n, referenceSolver, solver);
+      }
+
+      SparseMatrix matrix = new SparseMatrix(3, 3);
+      matrix.setIdentity(3);
+      assertTrue(solver.factor(matrix));
+      matrix.set(0, 2, 0.5);
+      assertFalse(solver.refactor(matrix));
+
+      // Entries of a locked pattern that are zero when factoring must stay part of the pattern of U.
+      matrix = new SparseMatrix(3, 3);
+      matrix.setIdentity(3);
+      matrix.set(0, 1, 0.5);
+      matrix.set(1, 2, 0.5);
+      matrix.lockPattern();
+      int slot = matrix.getSlot(0, 1);
+      matrix.setSlot(slot, 0.0);
+      assertTrue(solver.factor(matrix));
+      assertTrue(solver.refactor(matrix));
+      matrix.setSlot(slot, 0.25);
+      assertTrue(solver.refactor(matrix));
+      assertTrue(referenceSolver.factor(matrix));
+      assertSameSolution(random, 3, referenceSolver, solver);
+   }
+
+   @Test
+   public void testWoodburyUpdate()
+   {
+      Random random = new Random(492911L);
+      int n = 40;
+
+      DenseMatrix64F reference = new DenseMatrix64F(n, n);
+      SparseMatrix matrix = new SparseMatrix(n, n);
+      createRandomNonSingular(random, n, 3 * n, reference, matrix);
+
+      WoodburySolver solver = new WoodburySolver(new SparseLUSolver());
+      solver.setMaximumRank(6);
+      assertTrue(solver.factor(matrix));
+      assertEquals(n, solver.getSize());
+
+      SparseLUSolver expectedSolver = new SparseLUSolver();
+      SparseMatrix updatedMatrix = new SparseMatrix();
+      updatedMatrix.set(matrix);
+      for (int update = 1; update <= 4; update++)
+      {
+         SparseMatrix U = createRandomUpdateFactor(random, n, 2);
+         SparseMatrix V = createRandomUpdateFactor(random, n, 2);
+         assertTrue(solver.update(U, V));
+         // The fourth update exceeds the maximum rank and is applied by factoring the updated matrix.
+         assertEquals(update < 4 ? 2 * update : 0, solver.getUpdateRank());
+
+         addProduct(updatedMatrix, U, V);
+         assertTrue(expectedSolver.factor(updatedMatrix));
+         assertSameSolution(random, n, expectedSolver, solver);
+      }
+
+      // A badly conditioned capacitance matrix although the updated matrix is fine.
+      SparseMatrix badlyScaled = new SparseMatrix(3, 3);
+      badlyScaled.setIdentity(3);
+      badlyScaled.set(0, 0, 1.0e-7);
+      SparseMatrix U = new SparseMatrix(3, 2);
+      U.set(0, 0, 1.0);
+      U.set(0, 1, 1.0);
+      solver.setConditionThreshold(1.0e-6);
+      assertTrue(solver.factor(badlyScaled));
+      assertTrue(solver.update(U, U));
+      assertEquals(0, solver.getUpdateRank());
+      addProduct(badlyScaled, U, U);
+      assertTrue(expectedSolver.factor(badlyScaled));
+      assertSameSolution(random, 3, expectedSolver, solver);
+
+      // An update that makes the matrix singular.
+      SparseMatrix identity = new SparseMatrix();
+      identity.setIdentity(3);
+      SparseMatrix e0 = new SparseMatrix(3, 1);
+      e0.set(0, 0, 1.0);
+      SparseMatrix minusE0 = new SparseMatrix(3, 1);
+      minusE0.set(0, 0, -1.0);
+      assertTrue(solver.factor(identity));
+      assertFalse(solver.update(e0, minusE0));
+   }
+
+   static SparseMatrix createRandomUpdateFactor(Random random, int n, int rank)
+   {
+      SparseMatrix factor = new SparseMatrix(n, rank);
+      for (int column = 0; column < rank; column++)
+      {
+         for (int j = 0; j < 3; j++)
+         {
+            factor.set(random.nextInt(n), column, random.nextDouble() - 0.5);
+         }
+      }
+      return factor;
+   }
+
+   /**
+    * Sets a = a + U * V^T.
+    */
+   static void addProduct(SparseMatrix a, SparseMatrix U, SparseMatrix V)
+   {
+      SparseMatrix transposeV = new SparseMatrix();
+      SparseCommonOps.transpose(V, transposeV);
+      SparseMatrix product = new SparseMatrix();
+      product.mult(U, transposeV);
+      SparseCommonOps.addEquals(a, product);
+   }
+
+   private static void assertSameSolution(Random random, int n, SparseLinearSolver expectedSolver, SparseLinearSolver solver)
+   {
+      double[] b = new double[n];
+      for (int j = 0; j < n; j++)
+      {
+         b[j] = random.nextDouble() - 0.5;
+      }
+      double[] expectedX = new double[n];
+      double[] x = new double[n];
+      expectedSolver.solve(b, expectedX);
+      solver.solve(b, x);
+
+      for (int j = 0; j < n; j++)
+      {
+         assertEquals(expectedX[j], x[j], 1.0E-8 * Math.max(1.0, Math.abs(expectedX[j])));
+      }
+   }
+
+   /**
+    * Creates a random sparse symmetric positive definite matrix B^T * B + I.
+    */
+   static void createRandomPositiveDefinite(Random random, int n, DenseMatrix64F reference, SparseMatrix matrix)
+   {
+      DenseMatrix64F factor = new DenseMatrix64F(n, n);
+      for (int j = 0; j < 2 * n; j++)
+      {
+         factor.set(random.nextInt(n), random.nextInt(n), random.nextDouble() - 0.5);
+      }
+      CommonOps.multTransA(factor, factor, reference);
+      for (int j = 0; j < n; j++)
+      {
+         reference.add(j, j, 1.0);
+      }
+
+      for (int row = 0; row < n; row++)
+      {
+         for (int column = 0; column < n; column++)
+         {
+            matrix.set(row, column, reference.get(row, column));
+         }
+      }
+   }
+
+   /**
+    * Creates a random matrix with a dominant diagonal that is guaranteed to be non-singular.
+    */
+   static void createRandomNonSingular(Random random, int n, int offDiagonalEntries, DenseMatrix64F reference, SparseMatrix matrix)
+   {
+      for (int j = 0; j < offDiagonalEntries; j++)
+      {
+         int row = random.nextInt(n);
+         int column = random.nextInt(n);
+         double value = random.nextDouble() - 0.5;
+         reference.set(row, column, value);
+         matrix.set(row, column, value);
+      }
+
+      for (int j = 0; j < n; j++)
+      {
+         double value = reference.get(j, j) + (random.nextBoolean() ? 1.0 : -1.0) * (0.5 * n + random.nextDouble());
+         reference.set(j, j, value);
+         matrix.set(j, j, value);
+      }
+   }
+}
@@ -0,0 +1,252 @@
+package us.ihmc.sparseMatrices.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+import org.ejml.data.DenseMatrix64F;
+import org.ejml.ops.CommonOps;
+import org.junit.Test;
+
+import us.ihmc.sparseMatrices.OffHeapSparseMatrixCSR;
+import us.ihmc.sparseMatrices.SparseMatrix;
+import us.ihmc.sparseMatrices.SparseMatrixCSR;
+import us.ihmc.sparseMatrices.iterative.BiCGStabSolver;
+import us.ihmc.sparseMatrices.iterative.ILU0Preconditioner;
+
+public class SparseMatrixCSRTest
+{
+   @Test
+   public void testConversion()
+   {
+      Random random = new Random(492911L);
+      int numRows = random.nextInt(50) + 1;
+      int numColumns = random.nextInt(50) + 1;
+
+      DenseMatrix64F reference = new DenseMatrix64F(numRows, numColumns);
+      SparseMatrix matrix = new SparseMatrix(numRows, numColumns);
+      fillRandomly(random, 200, reference, matrix);
+
+      SparseMatrixCSR compressed = new SparseMatrixCSR(matrix);
+      assertEquals(numRows, compressed.getRows());
+      assertEquals(numColumns, compressed.getColumns());
+
+      for (int row = 0; row < numRows; row++)
+      {
+         for (int column = 0; column < numColumns; column++)
+         {
+            assertEquals(reference.get(row, column), compressed.get(row, column), 1.0E-20);
+            assertEquals(matrix.contains(row, column), compressed.contains(row, column));
+         }
+
+         for (int i = compressed.getRowStart(row) + 1; i < compressed.getRowEnd(row); i++)
+         {
+            assertTrue(compressed.getColumnIndex(i - 1) < compressed.getColumnIndex(i));
+         }
+      }
+
+      SparseMatrix copy = new SparseMatrix();
+      compressed.toSparseMatrix(copy);
+      assertEquals(numRows, copy.getRows());
+      assertEquals(numColumns, copy.getColumns());
+      for (int row = 0; row < numRows; row++)
+      {
+         for (int column = 0; column < numColumns; column++)
+         {
+            assertEquals(reference.get(row, column), copy.get(row, column), 1.0E-20);
+         }
+      }
+   }
+
+   @Test
+   public void testMultiplicationAndTranspose()
+   {
+      Random random = new Random(492911L);
+      int iterations = 50;
+
+      for (int i = 0; i < iterations; i++)
+      {
+         int n = random.nextInt(40) + 1;
+         int m = random.nextInt(40) + 1;
+         int p = random.nextInt(40) + 1;
+
+         DenseMatrix64F referenceA = new DenseMatrix64F(n, m);
+         DenseMatrix64F referenceB = new DenseMatrix64F(m, p);
+         SparseMatrix matrixA = new SparseMatrix(n, m);
+         SparseMatrix matrixB = new SparseMatrix(m, p);
+         fillRandomly(random, 100, referenceA, matrixA);
+         fillRandomly(random, 100, referenceB, matrixB);
+
+         DenseMatrix64F referenceResult = new DenseMatrix64F(n, p);
+         CommonOps.mult(referenceA, referenceB, referenceResult);
+         SparseMatrixCSR result = new SparseMatrixCSR(matrixA).mult(new SparseMatrixCSR(matrixB));
+
+         assertEquals(n, result.getRows());
+         assertEquals(p, result.getColumns());
+         for (int row = 0; row < n; row++)
+         {
+            for (int column = 0; column < p; column++)
+            {
+               assertEquals(referenceResult.get(row, column), result.get(row, column), 1.0E-10);
+            }
+         }
+
+         SparseMatrixCSR transpose = new SparseMatrixCSR(matrixA).transpose();
+         assertEquals(m, transpose.getRows());
+         assertEquals(n, transpose.getColumns());
+         for (int row = 0; row < n; row++)
+         {
+            for (int column = 0; column < m; column++)
+            {
+               assertEquals(referenceA.get(row, column), transpose.get(column, row), 1.0E-20);
+            }
+         }
+      }
+   }
+
+   @Test
+   public void testOffHeapStorage()
+   {
+      Random random = new Random(492911L);
+      int n = 40;
+
+      DenseMatrix64F reference = new DenseMatrix64F(n, n);
+      SparseMatrix matrix = new SparseMatrix(n, n);
+      fillRandomly(random, 200, reference, matrix);
+      for (int j = 0; j < n; j++)
+      {
+         reference.add(j, j, n);
+         matrix.set(j, j, reference.get(j, j));
+      }
+
+      SparseMatrixCSR compressed = new SparseMatrixCSR(matrix);
+      OffHeapSparseMatrixCSR offHeap = new OffHeapSparseMatrixCSR(matrix);
+      assertEquals(compressed.getNumberOfNonZeros(), offHeap.getNumberOfNonZeros());
+      assertTrue(offHeap.getOffHeapSize() > 0);
+      for (int row = 0; row < n; row++)
+      {
+         for (int column = 0; column < n; column++)
+         {
+            assertEquals(reference.get(row, column), offHeap.get(row, column), 1.0E-20);
+            assertEquals(compressed.getEntryIndex(row, column), offHeap.getEntryIndex(row, column));
+         }
+      }
+
+      // The builder produces the same matrix when fed row by row.
+      OffHeapSparseMatrixCSR.Builder builder = new OffHeapSparseMatrixCSR.Builder(n, n, compressed.getNumberOfNonZeros());
+      for (int row = 0; row < n; row++)
+      {
+         for (int i = compressed.getRowStart(row); i < compressed.getRowEnd(row); i++)
+         {
+            builder.add(row, compressed.getColumnIndex(i), compressed.getValue(i));
+         }
+      }
+      OffHeapSparseMatrixCSR built = builder.build();
+      for (int row = 0; row < n; row++)
+      {
+         assertEquals(compressed.getRowStart(row), built.getRowStart(row));
+         assertEquals(compressed.getRowEnd(row), built.getRowEnd(row));
+      }
+
+      double[] x = new double[n];
+      for (int j = 0; j < n; j++)
+      {
+         x[j] = random.nextDouble() - 0.5;
+      }
+      double[] expected = new double[n];
+      double[] actual = new double[n];
+      compressed.mult(x, expected);
+      built.mult(x, actual);
+      assertArrayEquals(expected, actual, 1.0E-12);
+      compressed.multTransposed(x, expected);
+      built.multTransposed(x, actual);
+      assertArrayEquals(expected, actual, 1.0E-12);
+
+      SparseMatrixCSR product = offHeap.mult(compressed);
+      SparseMatrixCSR expectedProduct = compressed.mult(compressed);
+      for (int row = 0; row < n; row++)
+      {
+         for (int column = 0; column < n; column++)
+         {
+            assertEquals(expectedProduct.get(row, column), product.get(row, column), 1.0E-12);
+         }
+      }
+
+      // The iterative solvers accept the off-heap matrix directly.
+      BiCGStabSolver solver = new BiCGStabSolver();
+      solver.setPreconditioner(new ILU0Preconditioner());
+      assertTrue(solver.setMatrix(offHeap));
+      double[] solution = new double[n];
+      assertTrue(solver.solve(expected, solution));
+      compressed.mult(solution, actual);
+      assertArrayEquals(expected, actual, 1.0E-8);
+
+      offHeap.close();
+      built.close();
+      assertTrue(offHeap.isClosed());
+      assertEquals(0, offHeap.getOffHeapSize());
+      offHeap.close();
+      try
+      {
+         offHeap.getValue(0);
+         fail("Expected an exception.");
+      }
+      catch (RuntimeException e)
+      {
+      }
+   }
+
+   @Test
+   public void testOffHeapWrappedBuffersStayValid() throws IOException
+   {
+      Path file = Files.createTempFile("sparseMatrix", ".bin");
+      try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE))
+      {
+         // The 2x2 matrix diag(2, 3) with each array in its own mapping owned by the test.
+         MappedByteBuffer rowPointer = channel.map(FileChannel.MapMode.READ_WRITE, 0, 12);
+         MappedByteBuffer columnIndex = channel.map(FileChannel.MapMode.READ_WRITE, 16, 8);
+         MappedByteBuffer value = channel.map(FileChannel.MapMode.READ_WRITE, 24, 16);
+         rowPointer.order(ByteOrder.nativeOrder()).asIntBuffer().put(new int[] {0, 1, 2});
+         columnIndex.order(ByteOrder.nativeOrder()).asIntBuffer().put(new int[] {0, 1});
+         value.order(ByteOrder.nativeOrder()).asDoubleBuffer().put(new double[] {2.0, 3.0});
+
+         OffHeapSparseMatrixCSR matrix = new OffHeapSparseMatrixCSR(2, 2, rowPointer, columnIndex, value);
+         assertEquals(3.0, matrix.get(1, 1), 0.0);
+         matrix.close();
+         assertTrue(matrix.isClosed());
+
+         // Closing the matrix must not release memory the caller still uses.
+         assertEquals(2, rowPointer.getInt(8));
+         assertEquals(1, columnIndex.getInt(4));
+         assertEquals(3.0, value.getDouble(8), 0.0);
+         value.putDouble(0, 5.0);
+         assertEquals(5.0, value.getDouble(0), 0.0);
+      }
+      finally
+      {
+         Files.delete(file);
+      }
+   }
+
+   private static void fillRandomly(Random random, int entries, DenseMatrix64F reference, SparseMatrix matrix)
+   {
+      for (int j = 0; j < entries; j++)
+      {
+         int row = random.nextInt(reference.getNumRows());
+         int column = random.nextInt(reference.getNumCols());
+         double value = random.nextDouble();
+         reference.set(row, column, value);
+         matrix.set(row, column, value);
+      }
+   }
+}
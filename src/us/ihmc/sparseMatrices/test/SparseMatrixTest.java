@@ -16,7 +16,15 @@ import org.ejml.interfaces.linsol.LinearSolver;
 import org.ejml.ops.CommonOps;
 import org.junit.Test;
 
+import gnu.trove.map.hash.TIntDoubleHashMap;
+
+import us.ihmc.sparseMatrices.InversionStatistics;
+import us.ihmc.sparseMatrices.MarkowitzPivotStrategy;
+import us.ihmc.sparseMatrices.MultiplicationStatistics;
+import us.ihmc.sparseMatrices.PivotStrategy;
+import us.ihmc.sparseMatrices.SparseCommonOps;
 import us.ihmc.sparseMatrices.SparseMatrix;
+import us.ihmc.sparseMatrices.SparseMatrixCSR;
 import us.ihmc.sparseMatrices.SparseMatrixInverter;
 
 public class SparseMatrixTest
@@ -155,6 +163,868 @@ public class SparseMatrixTest
       System.out.println("Average time sparse: " + timeSparseSeconds / iterations);
    }
 
+   @Test
+   public void testVectorMultiplication()
+   {
+      Random random = new Random(492911L);
+      int iterations = 100;
+
+      for (int i = 0; i < iterations; i++)
+      {
+         int n = random.nextInt(100) + 1;
+         int m = random.nextInt(100) + 1;
+
+         DenseMatrix64F reference = new DenseMatrix64F(n, m);
+         SparseMatrix matrix = new SparseMatrix(n, m);
+         for (int j = 0; j < 100; j++)
+         {
+            int row = random.nextInt(n);
+            int column = random.nextInt(m);
+            double value = random.nextDouble();
+            reference.set(row, column, value);
+            matrix.set(row, column, value);
+         }
+         SparseMatrixCSR compressed = new SparseMatrixCSR(matrix);
+
+         DenseMatrix64F x = new DenseMatrix64F(m, 1);
+         DenseMatrix64F xTransposed = new DenseMatrix64F(n, 1);
+         for (int j = 0; j < m; j++)
+         {
+            x.set(j, 0, random.nextDouble() - 0.5);
+         }
+         for (int j = 0; j < n; j++)
+         {
+            xTransposed.set(j, 0, random.nextDouble() - 0.5);
+         }
+
+         DenseMatrix64F expected = new DenseMatrix64F(n, 1);
+         DenseMatrix64F expectedTransposed = new DenseMatrix64F(m, 1);
+         CommonOps.mult(reference, x, expected);
+         CommonOps.multTransA(reference, xTransposed, expectedTransposed);
+
+         DenseMatrix64F y = new DenseMatrix64F(n, 1);
+         DenseMatrix64F yTransposed = new DenseMatrix64F(m, 1);
+         matrix.mult(x, y);
+         matrix.multTransposed(xTransposed, yTransposed);
+         assertVectorEquals(expected.data, y.data, 1.0);
+         assertVectorEquals(expectedTransposed.data, yTransposed.data, 1.0);
+
+         // Adding to the previous result doubles it.
+         matrix.multAdd(x.data, y.data);
+         matrix.multAddTransposed(xTransposed.data, yTransposed.data);
+         assertVectorEquals(expected.data, y.data, 2.0);
+         assertVectorEquals(expectedTransposed.data, yTransposed.data, 2.0);
+
+         compressed.mult(x.data, y.data);
+         compressed.multTransposed(xTransposed.data, yTransposed.data);
+         assertVectorEquals(expected.data, y.data, 1.0);
+         assertVectorEquals(expectedTransposed.data, yTransposed.data, 1.0);
+
+         compressed.multAdd(x.data, y.data);
+         compressed.multAddTransposed(xTransposed.data, yTransposed.data);
+         assertVectorEquals(expected.data, y.data, 2.0);
+         assertVectorEquals(expectedTransposed.data, yTransposed.data, 2.0);
+      }
+   }
+
+   private static void assertVectorEquals(double[] expected, double[] actual, double scale)
+   {
+      for (int i = 0; i < expected.length; i++)
+      {
+         assertEquals(scale * expected[i], actual[i], 1.0E-10);
+      }
+   }
+
+   @Test
+   public void testParallelMultiplication()
+   {
+      Random random = new Random(492911L);
+
+      int maxMatrixSize = 200;
+      int maxEntriesInMatrix = 1000;
+      int iterations = 20;
+
+      for (int i = 0; i < iterations; i++)
+      {
+         int n = random.nextInt(maxMatrixSize) + 1;
+         int m = random.nextInt(maxMatrixSize) + 1;
+         int p = random.nextInt(maxMatrixSize) + 1;
+
+         SparseMatrix matrixA = new SparseMatrix(n, m);
+         SparseMatrix matrixB = new SparseMatrix(m, p);
+         for (int j = 0; j < maxEntriesInMatrix; j++)
+         {
+            matrixA.set(random.nextInt(n), random.nextInt(m), random.nextDouble());
+            matrixB.set(random.nextInt(m), random.nextInt(p), random.nextDouble());
+         }
+
+         SparseMatrix expected = new SparseMatrix();
+         expected.mult(matrixA, matrixB);
+         SparseMatrix result = new SparseMatrix();
+         result.multParallel(matrixA, matrixB);
+
+         assertEquals(expected.getRows(), result.getRows());
+         assertEquals(expected.getColumns(), result.getColumns());
+         for (int row = 0; row < n; row++)
+         {
+            for (int column = 0; column < p; column++)
+            {
+               assertEquals(expected.get(row, column), result.get(row, column), 1.0E-10);
+            }
+         }
+      }
+   }
+
+   @Test
+   public void testConcurrentMultiplication() throws InterruptedException
+   {
+      int threads = 4;
+      int matrixSize = 50;
+      List<Thread> workers = new ArrayList<>();
+      List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+
+      for (int t = 0; t < threads; t++)
+      {
+         Random random = new Random(t);
+         SparseMatrix matrix = new SparseMatrix(matrixSize, matrixSize);
+         for (int j = 0; j < 200; j++)
+         {
+            matrix.set(random.nextInt(matrixSize), random.nextInt(matrixSize), random.nextDouble());
+         }
+         SparseMatrix expected = new SparseMatrix();
+         expected.mult(matrix, matrix);
+
+         workers.add(new Thread(() ->
+         {
+            try
+            {
+               SparseMatrix result = new SparseMatrix();
+               SparseMatrix copy = new SparseMatrix();
+               for (int i = 0; i < 200; i++)
+               {
+                  copy.set(matrix);
+                  result.mult(copy, copy);
+                  for (int row = 0; row < matrixSize; row++)
+                  {
+                     for (int column = 0; column < matrixSize; column++)
+                     {
+                        assertEquals(expected.get(row, column), result.get(row, column), 1.0E-10);
+                     }
+                  }
+               }
+            }
+            catch (Throwable e)
+            {
+               failures.add(e);
+            }
+         }));
+      }
+
+      for (Thread worker : workers)
+      {
+         worker.start();
+      }
+      for (Thread worker : workers)
+      {
+         worker.join();
+      }
+      assertTrue(failures.toString(), failures.isEmpty());
+   }
+
+   @Test
+   public void testColumnIndex()
+   {
+      Random random = new Random(492911L);
+      int matrixSize = 30;
+
+      SparseMatrix matrix = new SparseMatrix(matrixSize, matrixSize);
+      matrix.setColumnIndexing(true);
+      assertTrue(matrix.isColumnIndexing());
+
+      for (int i = 0; i < 500; i++)
+      {
+         int row = random.nextInt(matrixSize);
+         int column = random.nextInt(matrixSize);
+         switch (random.nextInt(3))
+         {
+         case 0:
+            matrix.set(row, column, random.nextDouble());
+            break;
+         case 1:
+            matrix.add(row, column, random.nextDouble());
+            break;
+         default:
+            matrix.remove(row, column);
+            break;
+         }
+      }
+      assertColumnIndexConsistent(matrix);
+
+      SparseMatrix other = new SparseMatrix(matrixSize, matrixSize);
+      for (int i = 0; i < 100; i++)
+      {
+         other.set(random.nextInt(matrixSize), random.nextInt(matrixSize), random.nextDouble());
+      }
+      matrix.mult(other, other);
+      assertColumnIndexConsistent(matrix);
+
+      matrix.set(other);
+      assertColumnIndexConsistent(matrix);
+
+      matrix.setIdentity(matrixSize);
+      assertColumnIndexConsistent(matrix);
+
+      matrix.clear();
+      assertColumnIndexConsistent(matrix);
+
+      matrix.setColumnIndexing(false);
+      assertFalse(matrix.isColumnIndexing());
+   }
+
+   private static void assertColumnIndexConsistent(SparseMatrix matrix)
+   {
+      for (int column = 0; column < matrix.getColumns(); column++)
+      {
+         int expectedRows = 0;
+         for (int row = 0; row < matrix.getRows(); row++)
+         {
+            if (matrix.contains(row, column))
+            {
+               expectedRows++;
+               assertTrue(matrix.getRowsInColumn(column).contains(row));
+            }
+         }
+         int indexedRows = matrix.getRowsInColumn(column) == null ? 0 : matrix.getRowsInColumn(column).size();
+         assertEquals(expectedRows, indexedRows);
+      }
+   }
+
+   @Test
+   public void testMemoryFootprint()
+   {
+      Random random = new Random(492911L);
+      int matrixSize = 100;
+
+      SparseMatrix small = new SparseMatrix(3, 3);
+      SparseMatrix empty = new SparseMatrix(matrixSize, matrixSize);
+      assertEquals(small.memoryFootprint(), empty.memoryFootprint());
+
+      SparseMatrix matrix = new SparseMatrix(matrixSize, matrixSize, 2);
+      for (int row = 0; row < matrixSize; row++)
+      {
+         for (int column = 0; column < matrixSize; column++)
+         {
+            matrix.set(row, column, random.nextDouble() + 0.1);
+         }
+      }
+      long denseFootprint = matrix.memoryFootprint();
+
+      // Clearing keeps the capacity of the rows, trimming releases it.
+      matrix.clear();
+      assertEquals(denseFootprint, matrix.memoryFootprint());
+      matrix.set(0, 0, 1.0);
+      matrix.set(5, 7, 2.0);
+      matrix.setColumnIndexing(true);
+      matrix.trimToSize();
+      assertTrue(matrix.memoryFootprint() < denseFootprint / 100);
+      assertEquals(1.0, matrix.get(0, 0), 0.0);
+      assertEquals(2.0, matrix.get(5, 7), 0.0);
+      assertColumnIndexConsistent(matrix);
+
+      long trimmedFootprint = matrix.memoryFootprint();
+      matrix.ensureCapacity(50);
+      assertTrue(matrix.memoryFootprint() > trimmedFootprint);
+      assertEquals(2.0, matrix.get(5, 7), 0.0);
+   }
+
+   @Test
+   public void testPatternLock()
+   {
+      Random random = new Random(492911L);
+      int matrixSize = 20;
+
+      SparseMatrix matrix = new SparseMatrix(matrixSize, matrixSize);
+      for (int i = 0; i < 60; i++)
+      {
+         matrix.set(random.nextInt(matrixSize), random.nextInt(matrixSize), random.nextDouble() + 0.1);
+      }
+      SparseMatrixCSR pattern = new SparseMatrixCSR(matrix);
+
+      matrix.lockPattern();
+      assertTrue(matrix.isPatternLocked());
+      assertEquals(pattern.getNumberOfNonZeros(), matrix.getNumberOfSlots());
+
+      for (int row = 0; row < matrixSize; row++)
+      {
+         for (int i = pattern.getRowStart(row); i < pattern.getRowEnd(row); i++)
+         {
+            int slot = matrix.getSlot(row, pattern.getColumnIndex(i));
+            assertEquals(i, slot);
+            assertEquals(pattern.getValue(i), matrix.getSlotValue(slot), 0.0);
+
+            matrix.setSlot(slot, 2.0 * row);
+            matrix.addSlot(slot, 1.0);
+            assertEquals(2.0 * row + 1.0, matrix.get(row, pattern.getColumnIndex(i)), 0.0);
+         }
+      }
+
+      // Existing entries can still be set, new entries can not be created.
+      matrix.set(0, pattern.getColumnIndex(pattern.getRowStart(0)), 5.0);
+      for (int column = 0; column < matrixSize; column++)
+      {
+         if (!pattern.contains(0, column))
+         {
+            int newColumn = column;
+            assertThrows(() -> matrix.set(0, newColumn, 1.0));
+            assertThrows(() -> matrix.getSlot(0, newColumn));
+            break;
+         }
+      }
+      assertThrows(() -> matrix.clear());
+
+      matrix.unlockPattern();
+      assertFalse(matrix.isPatternLocked());
+      assertThrows(() -> matrix.setSlot(0, 1.0));
+      matrix.clear();
+   }
+
+   @Test
+   public void testReinversion()
+   {
+      Random random = new Random(492911L);
+      int matrixSize = 30;
+
+      SparseMatrix matrix = new SparseMatrix(matrixSize, matrixSize);
+      for (int i = 0; i < matrixSize; i++)
+      {
+         matrix.set(i, i, 0.5 * matrixSize + random.nextDouble());
+      }
+      for (int i = 0; i < 3 * matrixSize; i++)
+      {
+         matrix.set(random.nextInt(matrixSize), random.nextInt(matrixSize), random.nextDouble() - 0.5);
+      }
+      matrix.lockPattern();
+
+      SparseMatrixInverter inverter = new SparseMatrixInverter();
+      SparseMatrix inverse = new SparseMatrix();
+      SparseMatrix reference = new SparseMatrix();
+      SparseMatrix product = new SparseMatrix();
+      SparseMatrix referenceProduct = new SparseMatrix();
+      for (int tick = 0; tick < 10; tick++)
+      {
+         for (int slot = 0; slot < matrix.getNumberOfSlots(); slot++)
+         {
+            matrix.addSlot(slot, 0.1 * (random.nextDouble() - 0.5));
+         }
+
+         // The inverter skips eliminations of values close to zero, so compare both against the identity.
+         assertTrue(inverter.reinvert(matrix, inverse));
+         assertTrue(inverter.invert(matrix, reference));
+         product.mult(matrix, inverse);
+         referenceProduct.mult(matrix, reference);
+         for (int row = 0; row < matrixSize; row++)
+         {
+            for (int column = 0; column < matrixSize; column++)
+            {
+               double expected = row == column ? 1.0 : 0.0;
+               assertEquals(expected, product.get(row, column), 1.0E-12);
+               assertEquals(expected, referenceProduct.get(row, column), 1.0E-8);
+            }
+         }
+      }
+   }
+
+   @Test
+   public void testInversionStatistics()
+   {
+      Random random = new Random(492911L);
+      int matrixSize = 40;
+
+      SparseMatrix matrix = new SparseMatrix(matrixSize, matrixSize);
+      for (int i = 0; i < matrixSize; i++)
+      {
+         matrix.set(i, i, 0.5 * matrixSize + random.nextDouble());
+      }
+      for (int i = 0; i < 3 * matrixSize; i++)
+      {
+         matrix.set(random.nextInt(matrixSize), random.nextInt(matrixSize), random.nextDouble() - 0.5);
+      }
+
+      List<InversionStatistics> reported = new ArrayList<>();
+      List<Boolean> successes = new ArrayList<>();
+      SparseMatrixInverter inverter = new SparseMatrixInverter();
+      inverter.setListener((statistics, success) ->
+      {
+         reported.add(statistics);
+         successes.add(success);
+      });
+
+      SparseMatrix inverse = new SparseMatrix();
+      assertTrue(inverter.invert(matrix, inverse));
+      assertEquals(1, reported.size());
+      assertTrue(successes.get(0));
+
+      InversionStatistics statistics = reported.get(0);
+      assertEquals(matrixSize, statistics.getSize());
+      assertEquals(matrixSize, statistics.getPivots());
+      assertEquals(matrix.getNumberOfNonZeros(), statistics.getInitialNonZeros());
+      assertTrue(statistics.getPeakNonZerosMatrix() >= statistics.getInitialNonZeros());
+      assertTrue(statistics.getPeakNonZerosInverse() >= matrixSize);
+      assertTrue(statistics.getPeakNonZerosInverse() <= (long) matrixSize * matrixSize);
+      assertTrue(statistics.getFillIn() >= 0);
+      assertTrue(statistics.getFlops() > 0);
+      assertTrue(statistics.getMinimumPivotMagnitude() > 0.0);
+      assertTrue(statistics.getTotalTime() >= statistics.getEliminationTime() + statistics.getBackSubstitutionTime());
+
+      SparseMatrix singular = new SparseMatrix(matrixSize, matrixSize);
+      singular.set(0, 0, 1.0);
+      assertFalse(inverter.invert(singular, inverse));
+      assertEquals(2, reported.size());
+      assertFalse(successes.get(1));
+
+      inverter.setListener(null);
+      assertTrue(inverter.invert(matrix, inverse));
+      assertEquals(2, reported.size());
+   }
+
+   @Test
+   public void testMultiplicationStatistics()
+   {
+      Random random = new Random(492911L);
+      int matrixSize = 30;
+
+      SparseMatrix matrixA = new SparseMatrix(matrixSize, matrixSize);
+      SparseMatrix matrixB = new SparseMatrix(matrixSize, matrixSize);
+      for (int i = 0; i < 4 * matrixSize; i++)
+      {
+         matrixA.set(random.nextInt(matrixSize), random.nextInt(matrixSize), random.nextDouble());
+         matrixB.set(random.nextInt(matrixSize), random.nextInt(matrixSize), random.nextDouble());
+      }
+
+      // Every entry A(i, k) is multiplied with every entry of row k of B.
+      long expectedMultiplyAdds = 0;
+      for (int row = 0; row < matrixSize; row++)
+      {
+         for (int column = 0; column < matrixSize; column++)
+         {
+            if (matrixA.get(row, column) != 0.0)
+            {
+               for (int j = 0; j < matrixSize; j++)
+               {
+                  if (matrixB.get(column, j) != 0.0)
+                  {
+                     expectedMultiplyAdds++;
+                  }
+               }
+            }
+         }
+      }
+
+      SparseMatrix product = new SparseMatrix();
+      MultiplicationStatistics.reset();
+      product.mult(matrixA, matrixB);
+      assertEquals(0, MultiplicationStatistics.getMultiplications());
+
+      MultiplicationStatistics.setEnabled(true);
+      try
+      {
+         product.mult(matrixA, matrixB);
+         assertEquals(1, MultiplicationStatistics.getMultiplications());
+         assertEquals(expectedMultiplyAdds, MultiplicationStatistics.getMultiplyAdds());
+
+         product.multParallel(matrixA, matrixB);
+         assertEquals(2, MultiplicationStatistics.getMultiplications());
+         assertEquals(2 * expectedMultiplyAdds, MultiplicationStatistics.getMultiplyAdds());
+
+         MultiplicationStatistics.reset();
+         assertEquals(0, MultiplicationStatistics.getMultiplications());
+         assertEquals(0, MultiplicationStatistics.getMultiplyAdds());
+      }
+      finally
+      {
+         MultiplicationStatistics.setEnabled(false);
+      }
+   }
+
+   @Test
+   public void testPrune()
+   {
+      Random random = new Random(492911L);
+      int matrixSize = 30;
+
+      SparseMatrix matrix = new SparseMatrix(matrixSize, matrixSize);
+      matrix.setColumnIndexing(true);
+      for (int i = 0; i < 300; i++)
+      {
+         double value = random.nextBoolean() ? random.nextDouble() + 0.1 : 1.0e-6 * (random.nextDouble() - 0.5);
+         matrix.set(random.nextInt(matrixSize), random.nextInt(matrixSize), value);
+      }
+
+      int tinyEntries = 0;
+      for (int row = 0; row < matrixSize; row++)
+      {
+         for (int column = 0; column < matrixSize; column++)
+         {
+            if (matrix.contains(row, column) && Math.abs(matrix.get(row, column)) <= 1.0e-3)
+            {
+               tinyEntries++;
+            }
+         }
+      }
+      int nonZeros = matrix.getNumberOfNonZeros();
+      assertTrue(tinyEntries > 0);
+      assertEquals(tinyEntries, matrix.prune(1.0e-3));
+      assertEquals(nonZeros - tinyEntries, matrix.getNumberOfNonZeros());
+      assertColumnIndexConsistent(matrix);
+
+      // The relative tolerance is scaled by the norm of each row.
+      SparseMatrix rows = new SparseMatrix(2, 3);
+      rows.set(0, 0, 10.0);
+      rows.set(0, 1, 0.05);
+      rows.set(0, 2, 1.0);
+      rows.set(1, 1, 0.05);
+      assertEquals(1, rows.prune(0.0, 0.01));
+      assertFalse(rows.contains(0, 1));
+      assertTrue(rows.contains(1, 1));
+
+      rows.lockPattern();
+      assertThrows(() -> rows.prune(1.0));
+      rows.unlockPattern();
+      assertThrows(() -> rows.prune(-1.0));
+   }
+
+   @Test
+   public void testDropTolerance()
+   {
+      // The first column of the product cancels out exactly.
+      SparseMatrix matrixA = new SparseMatrix(1, 2);
+      matrixA.set(0, 0, 1.0);
+      matrixA.set(0, 1, 1.0);
+      SparseMatrix matrixB = new SparseMatrix(2, 2);
+      matrixB.set(0, 0, 1.0);
+      matrixB.set(1, 0, -1.0);
+      matrixB.set(0, 1, 2.0);
+
+      SparseMatrix product = new SparseMatrix();
+      product.setColumnIndexing(true);
+      product.mult(matrixA, matrixB);
+      assertEquals(2, product.getNumberOfNonZeros());
+
+      product.setDropTolerance(0.0, 0.0);
+      assertTrue(product.hasDropTolerance());
+      product.mult(matrixA, matrixB);
+      assertEquals(1, product.getNumberOfNonZeros());
+      assertEquals(2.0, product.get(0, 1), 0.0);
+      assertColumnIndexConsistent(product);
+
+      product.multParallel(matrixA, matrixB);
+      assertEquals(1, product.getNumberOfNonZeros());
+      assertColumnIndexConsistent(product);
+
+      product.clearDropTolerance();
+      product.mult(matrixA, matrixB);
+      assertEquals(2, product.getNumberOfNonZeros());
+
+      // Sums drop entries of the destination that end up below the tolerance.
+      SparseMatrix difference = new SparseMatrix();
+      difference.setDropTolerance(1.0e-12, 0.0);
+      SparseCommonOps.subtract(matrixB, matrixB, difference);
+      assertEquals(0, difference.getNumberOfNonZeros());
+
+      SparseMatrix sum = new SparseMatrix(2, 2);
+      sum.setColumnIndexing(true);
+      sum.set(matrixB);
+      sum.setDropTolerance(1.0e-12, 0.0);
+      SparseMatrix almostNegated = new SparseMatrix(2, 2);
+      almostNegated.set(0, 0, -1.0);
+      almostNegated.set(1, 0, 1.0 + 1.0e-14);
+      SparseCommonOps.addEquals(sum, almostNegated);
+      assertEquals(1, sum.getNumberOfNonZeros());
+      assertColumnIndexConsistent(sum);
+
+      // Nothing is dropped while the pattern is locked.
+      sum.set(matrixB);
+      sum.lockPattern();
+      SparseCommonOps.addEquals(sum, almostNegated);
+      assertEquals(3, sum.getNumberOfNonZeros());
+      sum.unlockPattern();
+   }
+
+   @Test
+   public void testInversionWithDropTolerance()
+   {
+      Random random = new Random(492911L);
+      int matrixSize = 200;
+
+      // The inverse of a diagonally dominant banded matrix is full but its entries decay quickly away from the band.
+      SparseMatrix matrix = new SparseMatrix(matrixSize, matrixSize);
+      for (int i = 0; i < matrixSize; i++)
+      {
+         matrix.set(i, i, 4.0 + random.nextDouble());
+         if (i > 0)
+         {
+            matrix.set(i, i - 1, random.nextDouble() - 0.5);
+            matrix.set(i - 1, i, random.nextDouble() - 0.5);
+         }
+      }
+
+      SparseMatrixInverter inverter = new SparseMatrixInverter();
+      SparseMatrix exactInverse = new SparseMatrix();
+      assertTrue(inverter.invert(matrix, exactInverse));
+
+      List<InversionStatistics> reported = new ArrayList<>();
+      inverter.setListener((statistics, success) -> reported.add(statistics));
+      inverter.setDropTolerance(0.0, 0.0);
+      SparseMatrix inverse = new SparseMatrix();
+      assertTrue(inverter.invert(matrix, inverse));
+      for (int row = 0; row < matrixSize; row++)
+      {
+         for (int column = 0; column < matrixSize; column++)
+         {
+            assertEquals(exactInverse.get(row, column), inverse.get(row, column), 1.0e-12);
+         }
+      }
+
+      inverter.setDropTolerance(1.0e-10, 1.0e-12);
+      assertTrue(inverter.invert(matrix, inverse));
+      assertTrue(reported.get(1).getDroppedEntries() > 0);
+      assertTrue(inverse.getNumberOfNonZeros() < exactInverse.getNumberOfNonZeros());
+
+      SparseMatrix identity = new SparseMatrix();
+      identity.mult(matrix, inverse);
+      for (int row = 0; row < matrixSize; row++)
+      {
+         for (int column = 0; column < matrixSize; column++)
+         {
+            assertEquals(row == column ? 1.0 : 0.0, identity.get(row, column), 1.0e-8);
+         }
+      }
+
+      inverter.clearDropTolerance();
+      assertTrue(inverter.invert(matrix, inverse));
+      assertEquals(exactInverse.getNumberOfNonZeros(), inverse.getNumberOfNonZeros());
+   }
+
+   @Test
+   public void testSwapRows()
+   {
+      SparseMatrix matrix = new SparseMatrix(4, 4);
+      matrix.setColumnIndexing(true);
+      matrix.set(0, 0, 1.0);
+      matrix.set(0, 2, 2.0);
+      matrix.set(1, 2, 3.0);
+      matrix.set(3, 1, 4.0);
+
+      matrix.swapRows(0, 1);
+      assertEquals(3.0, matrix.get(0, 2), 0.0);
+      assertEquals(1.0, matrix.get(1, 0), 0.0);
+      assertEquals(2.0, matrix.get(1, 2), 0.0);
+      assertEquals(2, matrix.getRow(1).size());
+      assertColumnIndexConsistent(matrix);
+
+      // Swapping with a row that holds no entries.
+      matrix.swapRows(2, 3);
+      assertEquals(4.0, matrix.get(2, 1), 0.0);
+      assertFalse(matrix.contains(3, 1));
+      assertColumnIndexConsistent(matrix);
+
+      assertThrows(() -> matrix.swapRows(0, 4));
+      matrix.lockPattern();
+      assertThrows(() -> matrix.swapRows(0, 1));
+   }
+
+   @Test
+   public void testMarkowitzPivoting()
+   {
+      // Arrowhead matrix: pivoting on the dense first row fills in the whole matrix.
+      int matrixSize = 50;
+      SparseMatrix arrowhead = new SparseMatrix(matrixSize, matrixSize);
+      for (int i = 0; i < matrixSize; i++)
+      {
+         arrowhead.set(i, i, matrixSize);
+         arrowhead.set(0, i, 1.0);
+         arrowhead.set(i, 0, 1.0);
+      }
+
+      List<InversionStatistics> reported = new ArrayList<>();
+      SparseMatrixInverter inverter = new SparseMatrixInverter();
+      inverter.setListener((statistics, success) -> reported.add(statistics));
+      SparseMatrix inverse = new SparseMatrix();
+      assertTrue(inverter.invert(arrowhead, inverse));
+      long lowestIndexPeak = reported.get(0).getPeakNonZerosMatrix();
+      long lowestIndexFillIn = reported.get(0).getFillIn();
+      assertEquals(0, reported.get(0).getRowSwaps());
+
+      inverter.setPivotStrategy(new MarkowitzPivotStrategy());
+      assertTrue(inverter.invert(arrowhead, inverse));
+      assertTrue(reported.get(1).getPeakNonZerosMatrix() < lowestIndexPeak);
+      assertTrue(reported.get(1).getFillIn() < lowestIndexFillIn);
+      assertTrue(reported.get(1).getRowSwaps() > 0);
+      assertIsInverse(arrowhead, inverse, 1.0e-12);
+
+      // A tiny leading entry is not used as pivot.
+      SparseMatrix badlyScaled = new SparseMatrix(2, 2);
+      badlyScaled.set(0, 0, 1.0e-9);
+      badlyScaled.set(0, 1, 1.0);
+      badlyScaled.set(1, 0, 1.0);
+      badlyScaled.set(1, 1, 1.0);
+      assertTrue(inverter.invert(badlyScaled, inverse));
+      assertEquals(1.0, reported.get(2).getMinimumPivotMagnitude(), 1.0e-6);
+      assertIsInverse(badlyScaled, inverse, 1.0e-14);
+
+      inverter.setPivotStrategy(null);
+      assertTrue(inverter.invert(badlyScaled, inverse));
+      assertEquals(1.0e-9, reported.get(3).getMinimumPivotMagnitude(), 0.0);
+
+      SparseMatrix singular = new SparseMatrix(3, 3);
+      singular.set(0, 0, 1.0);
+      singular.set(1, 0, 1.0);
+      singular.set(2, 2, 1.0);
+      inverter.setPivotStrategy(new MarkowitzPivotStrategy(0.5, 1));
+      assertFalse(inverter.invert(singular, inverse));
+   }
+
+   @Test
+   public void testMarkowitzPivotingAgainstDense()
+   {
+      Random random = new Random(492911L);
+      SparseMatrixInverter inverter = new SparseMatrixInverter();
+      inverter.setPivotStrategy(new MarkowitzPivotStrategy());
+      LinearSolver<DenseMatrix64F> referenceSolver = LinearSolverFactory.linear(0);
+
+      int invertibleMatrices = 0;
+      for (int i = 0; i < 200; i++)
+      {
+         int n = random.nextInt(30) + 1;
+         DenseMatrix64F reference = new DenseMatrix64F(n, n);
+         SparseMatrix matrix = new SparseMatrix(n, n);
+         for (int j = 0; j < 3 * n; j++)
+         {
+            int row = random.nextInt(n);
+            int column = random.nextInt(n);
+            double value = random.nextDouble() - 0.5;
+            reference.set(row, column, value);
+            matrix.set(row, column, value);
+         }
+
+         if (!referenceSolver.setA(reference.copy()) || referenceSolver.quality() < 1.0e-8)
+         {
+            continue;
+         }
+
+         SparseMatrix inverse = new SparseMatrix();
+         assertTrue(inverter.invert(matrix, inverse));
+         assertIsInverse(matrix, inverse, 1.0e-9);
+         invertibleMatrices++;
+      }
+      assertTrue(invertibleMatrices > 50);
+   }
+
+   @Test
+   public void testMarkowitzDegreeLists()
+   {
+      Random random = new Random(492911L);
+      int matrixSize = 300;
+
+      // The diagonal stays large enough to pass the threshold, so with a single candidate the pivot row is always one of
+      // the shortest remaining rows. This checks the tracked row sizes against a full scan at every step.
+      MarkowitzPivotStrategy markowitz = new MarkowitzPivotStrategy(0.01, 1);
+      PivotStrategy checkedStrategy = (matrix, step, pivotToPack) ->
+      {
+         int shortestRow = Integer.MAX_VALUE;
+         for (int rowIdx = step; rowIdx < matrix.getRows(); rowIdx++)
+         {
+            TIntDoubleHashMap row = matrix.getRow(rowIdx);
+            shortestRow = Math.min(shortestRow, row == null ? 0 : row.size());
+         }
+
+         boolean found = markowitz.choosePivot(matrix, step, pivotToPack);
+         assertTrue(found);
+         assertEquals(shortestRow, matrix.getRow(pivotToPack[0]).size());
+         return found;
+      };
+
+      SparseMatrixInverter inverter = new SparseMatrixInverter();
+      inverter.setPivotStrategy(checkedStrategy);
+      for (int i = 0; i < 3; i++)
+      {
+         SparseMatrix matrix = new SparseMatrix(matrixSize, matrixSize);
+         SparseLinearSolverTest.createRandomNonSingular(random, matrixSize, 2 * matrixSize, new DenseMatrix64F(matrixSize, matrixSize), matrix);
+         SparseMatrix inverse = new SparseMatrix();
+         assertTrue(inverter.invert(matrix, inverse));
+         assertIsInverse(matrix, inverse, 1.0e-6);
+      }
+   }
+
+   @Test
+   public void testInverseUpdate()
+   {
+      Random random = new Random(492911L);
+      int matrixSize = 40;
+
+      SparseMatrix matrix = new SparseMatrix(matrixSize, matrixSize);
+      SparseLinearSolverTest.createRandomNonSingular(random, matrixSize, 3 * matrixSize, new DenseMatrix64F(matrixSize, matrixSize), matrix);
+
+      SparseMatrixInverter inverter = new SparseMatrixInverter();
+      SparseMatrix inverse = new SparseMatrix();
+      assertTrue(inverter.invert(matrix, inverse));
+
+      SparseMatrix U = SparseLinearSolverTest.createRandomUpdateFactor(random, matrixSize, 3);
+      SparseMatrix V = SparseLinearSolverTest.createRandomUpdateFactor(random, matrixSize, 3);
+      SparseMatrix updatedInverse = new SparseMatrix();
+      assertTrue(inverter.updateInverse(matrix, inverse, U, V, updatedInverse));
+      SparseMatrix updatedMatrix = new SparseMatrix();
+      updatedMatrix.set(matrix);
+      SparseLinearSolverTest.addProduct(updatedMatrix, U, V);
+      assertIsInverse(updatedMatrix, updatedInverse, 1.0e-10);
+      assertThrows(() -> inverter.updateInverse(matrix, inverse, U, V, inverse));
+
+      // The capacitance matrix is badly conditioned, the updated matrix is inverted from scratch.
+      SparseMatrix badlyScaled = new SparseMatrix(3, 3);
+      badlyScaled.setIdentity(3);
+      badlyScaled.set(0, 0, 1.0e-9);
+      assertTrue(inverter.invert(badlyScaled, inverse));
+      SparseMatrix e0 = new SparseMatrix(3, 2);
+      e0.set(0, 0, 1.0);
+      e0.set(0, 1, 1.0);
+      assertTrue(inverter.updateInverse(badlyScaled, inverse, e0, e0, updatedInverse));
+      SparseLinearSolverTest.addProduct(badlyScaled, e0, e0);
+      assertIsInverse(badlyScaled, updatedInverse, 1.0e-12);
+
+      // An update that makes the matrix singular.
+      SparseMatrix identity = new SparseMatrix();
+      identity.setIdentity(3);
+      SparseMatrix minusE0 = new SparseMatrix(3, 2);
+      minusE0.set(0, 0, -1.0);
+      assertFalse(inverter.updateInverse(identity, identity, e0, minusE0, updatedInverse));
+   }
+
+   static void assertIsInverse(SparseMatrix matrix, SparseMatrix inverse, double epsilon)
+   {
+      SparseMatrix identity = new SparseMatrix();
+      identity.mult(matrix, inverse);
+      for (int row = 0; row < matrix.getRows(); row++)
+      {
+         for (int column = 0; column < matrix.getColumns(); column++)
+         {
+            assertEquals(row == column ? 1.0 : 0.0, identity.get(row, column), epsilon);
+         }
+      }
+   }
+
+   private static void assertThrows(Runnable runnable)
+   {
+      try
+      {
+         runnable.run();
+      }
+      catch (RuntimeException e)
+      {
+         return;
+      }
+      fail("Expected an exception.");
+   }
+
    @Test
    public void testInversionWithFullMatricesAgainstDense()
    {
@@ -0,0 +1,197 @@
+package us.ihmc.sparseMatrices.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.ejml.data.DenseMatrix64F;
+import org.ejml.ops.CommonOps;
+import org.junit.Test;
+
+import us.ihmc.sparseMatrices.SparseMatrix;
+import us.ihmc.sparseMatrices.SparseMatrixCSR;
+import us.ihmc.sparseMatrices.SparseTriangularSolver;
+import us.ihmc.sparseMatrices.TriangularLevelSchedule;
+
+public class SparseTriangularSolverTest
+{
+   @Test
+   public void testSolvesAgainstDense()
+   {
+      Random random = new Random(492911L);
+
+      for (int i = 0; i < 100; i++)
+      {
+         int n = random.nextInt(40) + 1;
+         boolean unitDiagonal = random.nextBoolean();
+
+         // Both triangles are stored in one matrix, each solve must only read its own triangle.
+         SparseMatrix matrix = new SparseMatrix(n, n);
+         for (int j = 0; j < 3 * n; j++)
+         {
+            matrix.set(random.nextInt(n), random.nextInt(n), random.nextDouble() - 0.5);
+         }
+         for (int j = 0; j < n; j++)
+         {
+            matrix.set(j, j, (random.nextBoolean() ? 1.0 : -1.0) * (1.0 + random.nextDouble()));
+         }
+         SparseMatrixCSR compressed = new SparseMatrixCSR(matrix);
+
+         DenseMatrix64F lower = new DenseMatrix64F(n, n);
+         DenseMatrix64F upper = new DenseMatrix64F(n, n);
+         for (int row = 0; row < n; row++)
+         {
+            for (int column = 0; column < n; column++)
+            {
+               double value = row == column && unitDiagonal ? 1.0 : matrix.get(row, column);
+               if (column <= row)
+               {
+                  lower.set(row, column, value);
+               }
+               if (column >= row)
+               {
+                  upper.set(row, column, value);
+               }
+            }
+         }
+
+         DenseMatrix64F b = new DenseMatrix64F(n, 1);
+         for (int j = 0; j < n; j++)
+         {
+            b.set(j, 0, random.nextDouble() - 0.5);
+         }
+
+         double[] x = new double[n];
+         SparseTriangularSolver.solveLower(compressed, unitDiagonal, b.data, x);
+         assertSolution(lower, false, b, x);
+
+         SparseTriangularSolver.solveUpper(compressed, unitDiagonal, b.data, x);
+         assertSolution(upper, false, b, x);
+
+         SparseTriangularSolver.solveLowerTransposed(compressed, unitDiagonal, b.data, x);
+         assertSolution(lower, true, b, x);
+
+         // In place.
+         System.arraycopy(b.data, 0, x, 0, n);
+         SparseTriangularSolver.solveUpperTransposed(compressed, unitDiagonal, x, x);
+         assertSolution(upper, true, b, x);
+      }
+   }
+
+   @Test
+   public void testLevelScheduledSolves()
+   {
+      Random random = new Random(492911L);
+      int n = 5000;
+      ExecutorService executor = Executors.newFixedThreadPool(4);
+
+      try
+      {
+         // A banded lower and upper triangle with some long range entries gives wide levels.
+         SparseMatrix matrix = new SparseMatrix(n, n);
+         for (int row = 0; row < n; row++)
+         {
+            matrix.set(row, row, 1.0 + random.nextDouble());
+            if (row >= 100)
+            {
+               matrix.set(row, row - 100, random.nextDouble() - 0.5);
+            }
+            if (row < n - 100)
+            {
+               matrix.set(row, row + 100, random.nextDouble() - 0.5);
+            }
+            matrix.set(row, random.nextInt(n), 0.1 * (random.nextDouble() - 0.5));
+         }
+         SparseMatrixCSR compressed = new SparseMatrixCSR(matrix);
+
+         double[] b = new double[n];
+         for (int j = 0; j < n; j++)
+         {
+            b[j] = random.nextDouble() - 0.5;
+         }
+         double[] expected = new double[n];
+         double[] x = new double[n];
+
+         for (boolean lower : new boolean[] {true, false})
+         {
+            TriangularLevelSchedule schedule = new TriangularLevelSchedule(compressed, lower);
+            assertTrue(schedule.getNumberOfLevels() < n / 10);
+            assertScheduleValid(compressed, schedule);
+
+            if (lower)
+            {
+               SparseTriangularSolver.solveLower(compressed, false, b, expected);
+               SparseTriangularSolver.solveLower(compressed, false, schedule, b, x, executor);
+            }
+            else
+            {
+               SparseTriangularSolver.solveUpper(compressed, false, b, expected);
+               SparseTriangularSolver.solveUpper(compressed, false, schedule, b, x, executor);
+            }
+
+            for (int j = 0; j < n; j++)
+            {
+               assertEquals(expected[j], x[j], 0.0);
+            }
+         }
+      }
+      finally
+      {
+         executor.shutdown();
+      }
+   }
+
+   /**
+    * Every row may only depend on rows of earlier levels.
+    */
+   private static void assertScheduleValid(SparseMatrixCSR matrix, TriangularLevelSchedule schedule)
+   {
+      int n = matrix.getRows();
+      int[] level = new int[n];
+      boolean[] scheduled = new boolean[n];
+      for (int l = 0; l < schedule.getNumberOfLevels(); l++)
+      {
+         for (int i = schedule.getLevelStart(l); i < schedule.getLevelEnd(l); i++)
+         {
+            level[schedule.getRow(i)] = l;
+            scheduled[schedule.getRow(i)] = true;
+         }
+      }
+
+      for (int row = 0; row < n; row++)
+      {
+         assertTrue(scheduled[row]);
+         for (int i = matrix.getRowStart(row); i < matrix.getRowEnd(row); i++)
+         {
+            int column = matrix.getColumnIndex(i);
+            if (schedule.isLower() ? column < row : column > row)
+            {
+               assertTrue(level[column] < level[row]);
+            }
+         }
+      }
+   }
+
+   private static void assertSolution(DenseMatrix64F triangle, boolean transposed, DenseMatrix64F b, double[] x)
+   {
+      int n = b.getNumRows();
+      DenseMatrix64F product = new DenseMatrix64F(n, 1);
+      DenseMatrix64F solution = DenseMatrix64F.wrap(n, 1, x.clone());
+      if (transposed)
+      {
+         CommonOps.multTransA(triangle, solution, product);
+      }
+      else
+      {
+         CommonOps.mult(triangle, solution, product);
+      }
+
+      for (int j = 0; j < n; j++)
+      {
+         assertEquals(b.get(j, 0), product.get(j, 0), 1.0E-8 * Math.max(1.0, Math.abs(x[j])));
+      }
+   }
+}
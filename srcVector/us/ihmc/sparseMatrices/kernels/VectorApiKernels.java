@@ -0,0 +1,115 @@
+package us.ihmc.sparseMatrices.kernels;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Implementation of the kernels using the incubating Java Vector API with the preferred vector size of the platform.
+ * Every loop processes whole vectors and finishes the remaining elements one at a time, so ranges shorter than a
+ * vector, like most rows of a sparse matrix, cost the same as the scalar loop. Loaded by {@link Kernels}, do not
+ * reference it directly.
+ */
+public class VectorApiKernels implements DoubleKernels
+{
+   private static final VectorSpecies<Double> species = DoubleVector.SPECIES_PREFERRED;
+
+   public VectorApiKernels()
+   {
+      if (species.length() < 2)
+      {
+         throw new UnsupportedOperationException("The platform does not support vectors of doubles.");
+      }
+   }
+
+   @Override
+   public double sparseDot(double[] values, int[] indices, int start, int end, double[] x)
+   {
+      int i = start;
+      double sum = 0.0;
+      if (end - start >= species.length())
+      {
+         DoubleVector sums = DoubleVector.zero(species);
+         for (; i <= end - species.length(); i += species.length())
+         {
+            DoubleVector gathered = DoubleVector.fromArray(species, x, 0, indices, i);
+            sums = DoubleVector.fromArray(species, values, i).fma(gathered, sums);
+         }
+         sum = sums.reduceLanes(VectorOperators.ADD);
+      }
+      for (; i < end; i++)
+      {
+         sum += values[i] * x[indices[i]];
+      }
+      return sum;
+   }
+
+   @Override
+   public void sparseAxpy(double alpha, double[] values, int[] indices, int start, int end, double[] y)
+   {
+      DoubleVector alphas = DoubleVector.broadcast(species, alpha);
+      int i = start;
+      for (; i <= end - species.length(); i += species.length())
+      {
+         DoubleVector gathered = DoubleVector.fromArray(species, y, 0, indices, i);
+         DoubleVector.fromArray(species, values, i).fma(alphas, gathered).intoArray(y, 0, indices, i);
+      }
+      for (; i < end; i++)
+      {
+         y[indices[i]] += alpha * values[i];
+      }
+   }
+
+   @Override
+   public double dot(double[] x, double[] y, int length)
+   {
+      int i = 0;
+      DoubleVector sums = DoubleVector.zero(species);
+      for (; i < species.loopBound(length); i += species.length())
+      {
+         sums = DoubleVector.fromArray(species, x, i).fma(DoubleVector.fromArray(species, y, i), sums);
+      }
+      double sum = sums.reduceLanes(VectorOperators.ADD);
+      for (; i < length; i++)
+      {
+         sum += x[i] * y[i];
+      }
+      return sum;
+   }
+
+   @Override
+   public void axpy(double alpha, double[] x, double[] y, int length)
+   {
+      axpy(alpha, x, 0, y, 0, length);
+   }
+
+   @Override
+   public void axpy(double alpha, double[] x, int xOffset, double[] y, int yOffset, int length)
+   {
+      DoubleVector alphas = DoubleVector.broadcast(species, alpha);
+      int i = 0;
+      for (; i < species.loopBound(length); i += species.length())
+      {
+         DoubleVector yVector = DoubleVector.fromArray(species, y, yOffset + i);
+         DoubleVector.fromArray(species, x, xOffset + i).fma(alphas, yVector).intoArray(y, yOffset + i);
+      }
+      for (; i < length; i++)
+      {
+         y[yOffset + i] += alpha * x[xOffset + i];
+      }
+   }
+
+   @Override
+   public void scale(double alpha, double[] x, int length)
+   {
+      int i = 0;
+      for (; i < species.loopBound(length); i += species.length())
+      {
+         DoubleVector.fromArray(species, x, i).mul(alpha).intoArray(x, i);
+      }
+      for (; i < length; i++)
+      {
+         x[i] *= alpha;
+      }
+   }
+}